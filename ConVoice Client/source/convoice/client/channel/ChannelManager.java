@@ -124,6 +124,27 @@ public class ChannelManager {
 		}
 	}
 	
+	/**
+	 * Returns all channels known by the client.
+	 * @return A copy of the map of channels, mapped by their ID.
+	 */
+	public static Map<Integer, Channel> getAllChannels() {
+		synchronized(m_channels) {
+			return new HashMap<Integer, Channel>(m_channels);
+		}
+	}
+	
+	/**
+	 * Deletes all channels, before the channels are replaced by a
+	 * snapshot received from the server. The user interface is not
+	 * updated, it is rebuilt after the synchronization.
+	 */
+	public static void clear() {
+		synchronized(m_channels) {
+			m_channels.clear();
+		}
+	}
+	
 	/**
 	 * Sets the client's current channel's ID.
 	 * This method is only administrative, and is called by the
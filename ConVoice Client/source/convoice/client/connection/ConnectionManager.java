@@ -3,15 +3,25 @@ package convoice.client.connection;
 
 // Java imports
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Project imports
 import convoice.client.channel.ChannelManager;
 import convoice.client.gui.GUIController;
 import convoice.client.user.UserManager;
+import convoice.client.voice.CodecType;
+import convoice.client.voice.VoiceFormat;
+import convoice.client.voice.VoiceManager;
 
 /**
  * The ConnectionManager class provides an interface for all network
@@ -19,11 +29,27 @@ import convoice.client.user.UserManager;
  * It handles all network communication with the remote server, like
  * connecting, disconnecting, processing updates and handling messages.
  * The ConnectionManager is synchronized with all the other managers.
+ * After login, every frame is received by a single reader thread, which
+ * blocks on the socket and dispatches the frames by their type. Requests
+ * expecting a response carry a request ID and return a CompletableFuture,
+ * which the reader completes when the response with the same ID arrives.
+ * Frames are sent by the writer thread of an OutboundQueue, so sending
+ * never blocks the caller, and every send returns a CompletableFuture
+ * completed when the frame is written.
  */
 public class ConnectionManager {
+	/** The time in milliseconds the disconnection request is given to be sent. */
+	private static final long DISCONNECT_TIMEOUT = 1000;
+	
 	/** The TCP socket for communication */
 	private static Socket m_socket;
 	
+	/** The reader of the message frames received trough the socket. */
+	private static FrameReader m_reader;
+	
+	/** The queue of the message frames sent trough the socket. */
+	private static volatile OutboundQueue m_queue;
+	
 	/** The run state-flag */
 	private static volatile boolean m_shouldRun;
 	
@@ -33,13 +59,59 @@ public class ConnectionManager {
 	/** The version of the server currently connected to. */
 	private static String m_serverVersion;
 	
+	/** The epoch of the channel revisions known by the client. */
+	private static volatile long m_channelEpoch;
+	
+	/** The latest channel revision known by the client. */
+	private static volatile long m_channelRevision;
+	
+	/** The epoch of the user revisions known by the client. */
+	private static volatile long m_userEpoch;
+	
+	/** The latest user revision known by the client. */
+	private static volatile long m_userRevision;
+	
+	/** The address and port of the server the revisions are known from. */
+	private static String m_revisionServer;
+	
+	/** Is the list of channels synchronized since connecting? Only used by the reader thread. */
+	private static boolean m_channelsSynchronized;
+	
+	/** Is the list of users synchronized since connecting? Only used by the reader thread. */
+	private static boolean m_usersSynchronized;
+	
+	/** The channel notifications received before the channels were synchronized. */
+	private static List<Frame> m_channelBacklog;
+	
+	/** The user notifications received before the users were synchronized. */
+	private static List<Frame> m_userBacklog;
+	
+	/** The ID of the latest request. */
+	private static AtomicInteger m_requestID;
+	
+	/** The requests waiting for their response, mapped by their ID. */
+	private static Map<Integer, CompletableFuture<Void>> m_pendingRequests;
+	
 	/**
 	 * Initializes the manager.
 	 */
 	static {
 		// Initializing members
 		m_socket = null;
+		m_reader = null;
+		m_queue = null;
 		m_shouldRun = false;
+		m_channelEpoch = 0;
+		m_channelRevision = 0;
+		m_userEpoch = 0;
+		m_userRevision = 0;
+		m_revisionServer = null;
+		m_channelsSynchronized = false;
+		m_usersSynchronized = false;
+		m_channelBacklog = new ArrayList<Frame>();
+		m_userBacklog = new ArrayList<Frame>();
+		m_requestID = new AtomicInteger(0);
+		m_pendingRequests = new ConcurrentHashMap<Integer, CompletableFuture<Void>>();
 	}
 	
 	/**
@@ -59,65 +131,120 @@ public class ConnectionManager {
 	}
 	
 	/**
-	 * Repeatedly checks for incoming server messages and
-	 * delegates them to the specific handlers. This method
-	 * runs on a separate thread.
+	 * Starts the reader thread, which blocks on the socket until a
+	 * server message arrives, and delegates it to the specific handler.
+	 * The thread stops when the socket is closed.
 	 */
 	public static void start() {
+		// Setting should run state-flag
+		m_shouldRun = true;
+		
 		// Creating the new thread
 		Thread thread = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				// Setting should run state-flag
-				m_shouldRun = true;
-				
-				// Reading messages until shutdown
-				while(m_shouldRun) {
-					try {
-						synchronized(m_socket) {
-							
-							// Reading message type
-							DataInputStream dis = new DataInputStream(m_socket.getInputStream());
-							MessageType type = MessageType.UNDEFINED;	
-							if(dis.available() > 0) {
-								type = MessageType.fromInteger(dis.readInt());
-							}
-							
-							// Handling message
-							switch(type) {
-							case CONNECTION_TERMINATED: onConnectionTerminatedNotification(); break;
-							case CHANNEL_CREATED: onChannelCreatedNotification(); break;
-							case CHANNEL_MODIFIED: onChannelModifiedNotification(); break;
-							case CHANNEL_DELETED: onChannelDeletedNotification(); break;
-							case USER_CREATED: onUserCreatedNotification(); break;
-							case USER_MOVED: onUserMovedNotification(); break;
-							case USER_DELETED: onUserDeletedNotification(); break;
-							case MESSAGE: onMessage(); break;
-							case INSUFFICIENT_PERMISSION: onInsufficientPermissionNotification(); break;
-							default: /* Unsupported message type */ break;
-							}
+				try {
+					// Reading messages until shutdown
+					while(m_shouldRun) {
+						Frame frame = m_reader.read();
+						if(!deferNotification(frame)) {
+							handleMessage(frame);
 						}
-						
-						// Sleeping to reduce CPU usage
-						Thread.sleep(10);
-						
-					} catch(IOException e) {
-						return;
-					} catch(InterruptedException e) {
-						e.printStackTrace();
 					}
+				} catch(IOException e) {
+					// The socket was closed
+				} finally {
+					// Failing the requests without response
+					failPendingRequests(new IOException("Connection closed."));
 				}
 			}
-		});
+		}, "Connection reader");
 		
 		// Starting the thread
+		thread.setDaemon(true);
 		thread.start();
 	}
 	
+	/**
+	 * Holds back a channel or user notification received before the
+	 * list it changes is synchronized after connecting. Applying it
+	 * immediately would advance the known revision past the changes
+	 * the list response still has to deliver, which would then be
+	 * skipped. The held back notifications are applied after the list
+	 * response, skipping the ones the response already contained.
+	 * @param frame The received message frame.
+	 * @return True if the notification was held back.
+	 */
+	private static boolean deferNotification(Frame frame) {
+		// Selecting the backlog of the list the notification changes
+		List<Frame> backlog;
+		switch(frame.getType()) {
+		case CHANNEL_CREATED:
+		case CHANNEL_MODIFIED:
+		case CHANNEL_DELETED:
+			backlog = m_channelsSynchronized ? null : m_channelBacklog;
+			break;
+		case USER_CREATED:
+		case USER_MOVED:
+		case USER_DELETED:
+			backlog = m_usersSynchronized ? null : m_userBacklog;
+			break;
+		default:
+			backlog = null;
+			break;
+		}
+		if(backlog == null) {
+			return false;
+		}
+		
+		// Copying the payload, the buffer of the reader is reused
+		ByteBuffer payload = ByteBuffer.allocate(frame.getPayload().remaining());
+		payload.put(frame.getPayload().duplicate());
+		payload.flip();
+		backlog.add(new Frame(frame.getType(), payload));
+		return true;
+	}
+	
+	/**
+	 * Applies the notifications held back until a list was synchronized.
+	 * @param backlog The held back notifications.
+	 */
+	private static void applyBacklog(List<Frame> backlog) {
+		for(Frame frame : backlog) {
+			handleMessage(frame);
+		}
+		backlog.clear();
+	}
+	
+	/**
+	 * Passes a received message frame to the corresponding handler
+	 * method. Messages of unknown type are skipped.
+	 * @param frame The received message frame.
+	 */
+	private static void handleMessage(Frame frame) {
+		DataInputStream dis = frame.getInputStream();
+		switch(frame.getType()) {
+		case CONNECTION_TERMINATED: onConnectionTerminatedNotification(); break;
+		case CHANNEL_LIST: onChannelList(dis); break;
+		case USER_LIST: onUserList(dis); break;
+		case CHANNEL_CREATED: onChannelCreatedNotification(dis); break;
+		case CHANNEL_MODIFIED: onChannelModifiedNotification(dis); break;
+		case CHANNEL_DELETED: onChannelDeletedNotification(dis); break;
+		case USER_CREATED: onUserCreatedNotification(dis); break;
+		case USER_MOVED: onUserMovedNotification(dis); break;
+		case USER_DELETED: onUserDeletedNotification(dis); break;
+		case MESSAGE: onMessage(dis); break;
+		case INSUFFICIENT_PERMISSION: onInsufficientPermissionNotification(); break;
+		case VOICE_CONFIGURATION: onVoiceConfigurationNotification(dis); break;
+		default: /* Unsupported message type */ break;
+		}
+	}
+	
 	/**
 	 * Sets the should run state-flag to false.
 	 * If the manager is running, it will finish operation
-	 * after processing the current message.
+	 * after processing the current message, or when the
+	 * socket is closed.
 	 */
 	public static void stop() {
 		m_shouldRun = false;
@@ -125,20 +252,38 @@ public class ConnectionManager {
 	
 	/**
 	 * Attempts to establish TCP connection with the server.
+	 * The revisions of the lists are kept when reconnecting to the
+	 * same server, so the lists are synchronized by the changes made
+	 * while the client was disconnected.
 	 * @param address The address of the server.
 	 * @param port The port number of the server.
 	 * @return Returns true if connection was successful.
 	 */
 	public static boolean connect(String address, int port) {
 		try {
-			if(m_socket != null) {
-				synchronized(m_socket) {
-					// Creating and connecting socket
-					m_socket = new Socket(address, port);
-				}
-			} else {
-				m_socket = new Socket(address, port);
+			// Creating and connecting socket, the queue gathers small frames itself
+			m_socket = new Socket(address, port);
+			m_socket.setTcpNoDelay(true);
+			
+			// Creating the frame reader and the outbound queue
+			m_reader = new FrameReader(new DataInputStream(m_socket.getInputStream()));
+			m_queue = new OutboundQueue(m_socket.getOutputStream());
+			
+			// Forgetting the revisions known from another server
+			String server = address + ":" + port;
+			if(!server.equals(m_revisionServer)) {
+				m_channelEpoch = 0;
+				m_channelRevision = 0;
+				m_userEpoch = 0;
+				m_userRevision = 0;
+				m_revisionServer = server;
 			}
+			
+			// Holding back notifications until the lists are synchronized
+			m_channelsSynchronized = false;
+			m_usersSynchronized = false;
+			m_channelBacklog.clear();
+			m_userBacklog.clear();
 
 			return true;
 		} catch (UnknownHostException e) {
@@ -159,129 +304,146 @@ public class ConnectionManager {
 	 * @return Returns true if login was successful.
 	 */
 	public static boolean login(String nickname, String username, String password, boolean member) {
-		synchronized(m_socket) {
-			try {			
-				// Sending login data
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.CONNECTION_REQUEST.toInteger());
-				dos.writeBoolean(member);
-				dos.writeUTF(username);
-				dos.writeUTF(nickname);
-				dos.writeUTF(password);
-				dos.flush();
+		try {
+			// Sending login data
+			FrameBuilder frame = new FrameBuilder(MessageType.CONNECTION_REQUEST);
+			frame.writeInt(Frame.PROTOCOL_VERSION);
+			frame.writeBoolean(member);
+			frame.writeUTF(username);
+			frame.writeUTF(nickname);
+			frame.writeUTF(password);
+			
+			// Sending voice capabilities
+			frame.writeInt(CodecType.values().length);
+			for(CodecType codec : CodecType.values()) {
+				frame.writeUTF(codec.toString());
+			}
+			frame.writeInt(VoiceFormat.FRAME_DURATION);
+			frame.writeInt(VoiceManager.getMaxBitrate());
+			m_queue.enqueue(frame.toByteArray());
 
-				// Reading acceptance response
-				DataInputStream dis = new DataInputStream(m_socket.getInputStream());
-				MessageType type = MessageType.fromInteger(dis.readInt());
+			// Reading acceptance response
+			Frame response = m_reader.read();
+			DataInputStream dis = response.getInputStream();
+			MessageType type = response.getType();
+			
+			// Checking response type
+			if(type == MessageType.CONNECTION_ACCEPTED) {
+				String name = dis.readUTF();
+				String version = dis.readUTF();
+				String welcomeMessage = dis.readUTF();
+				int clientID = dis.readInt();
+				int voicePort = dis.readInt();
+				long voiceToken = dis.readLong();
+				CodecType voiceCodec = CodecType.fromString(dis.readUTF());
+				int voiceFrameDuration = dis.readInt();
+				int voiceBitrate = dis.readInt();
+				int voiceRedundancy = dis.readInt();
 				
-				// Checking response type
-				if(type == MessageType.CONNECTION_ACCEPTED) {
-					String name = dis.readUTF();
-					String version = dis.readUTF();
-					String welcomeMessage = dis.readUTF();
-					int clientID = dis.readInt();
-					
-					// Storing server data
-					m_serverName = name;
-					m_serverVersion = version;
-					
-					// Storing own client ID
-					UserManager.setOwnID(clientID);
-					
-					// Storing own channel ID
-					ChannelManager.setOwnChannelID(ChannelManager.DEFAULT_CHANNEL_ID);
-					
-					// Updating user interface
-					GUIController.setStatusMessage(welcomeMessage);
+				// Storing server data
+				m_serverName = name;
+				m_serverVersion = version;
+				
+				// Storing own client ID
+				UserManager.setOwnID(clientID);
 				
-					return true;
+				// Storing own channel ID
+				ChannelManager.setOwnChannelID(ChannelManager.DEFAULT_CHANNEL_ID);
+				
+				// Starting voice, if the server runs a voice relay with a supported format,
+				// and the negotiated codec fits into the offered bitrate limit
+				int maxBitrate = VoiceManager.getMaxBitrate();
+				if(voicePort != 0 && voiceCodec != null && voiceFrameDuration == VoiceFormat.FRAME_DURATION
+						&& (maxBitrate == 0 || voiceBitrate <= maxBitrate)) {
+					VoiceManager.setRedundancy(voiceRedundancy);
+					VoiceManager.start(m_socket.getInetAddress(), voicePort, clientID, voiceToken, voiceCodec);
 				}
-				else if(type == MessageType.CONNECTION_REJECTED) {
-					// Reading reason
-					String reason = dis.readUTF();
-					
-					// Closing the socket
-					m_socket.close();
-					
-					// Updating user interface
-					GUIController.setStatusMessage(reason);
-					
-					return false;
-				} 
 				
-				// No answer from the server
-				return false;
+				// Updating user interface
+				GUIController.setStatusMessage(welcomeMessage);
+			
+				return true;
+			}
+			else if(type == MessageType.CONNECTION_REJECTED) {
+				// Reading reason
+				String reason = dis.readUTF();
+				
+				// Closing the queue and the socket
+				m_queue.close();
+				m_socket.close();
+				
+				// Updating user interface
+				GUIController.setStatusMessage(reason);
 				
-			} catch(IOException e) {
-				e.printStackTrace();
 				return false;
-			}
+			} 
+			
+			// No answer from the server
+			return false;
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
 		}
 	}
 	
 	/**
-	 * Disconnects from the server.
+	 * Disconnects from the server. The disconnection request is
+	 * given a short time to be sent before the socket is closed.
 	 */
 	public static void disconnect() {
 		if(m_socket == null || m_socket.isClosed()) return;
-		synchronized(m_socket) {
+		try {
+			// Sending request, and closing the queue after it
+			CompletableFuture<Void> sent = m_queue.enqueue(new FrameBuilder(MessageType.DISCONNECTION_REQUEST).toByteArray());
+			m_queue.close();
+			
+			// Waiting for the request to be written
 			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.DISCONNECTION_REQUEST.toInteger());
-				dos.flush();
-				
-				// Closing socket
-				m_socket.close();
-				
-				// Updating user interface
-				GUIController.setStatusMessage("Disconnected");
-				
-			} catch(IOException e) {
-				e.printStackTrace();
+				sent.get(DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch(Exception e) {
+				// Closing the socket anyway
 			}
+			
+			// Closing socket
+			m_socket.close();
+			
+			// Stopping voice
+			VoiceManager.stop();
+			
+			// Updating user interface
+			GUIController.setStatusMessage("Disconnected");
+			
+		} catch(IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
 	/**
-	 * Sends a channel list request to the server, and builds the list
-	 * of channels from the server response.
+	 * Sends a channel list request to the server. The request carries the
+	 * latest channel revision known by the client, so the server only
+	 * sends the changes since, if it still knows them. The list of channels
+	 * is updated by the reader thread when the response arrives.
+	 * @return The future completed when the list of channels is updated.
 	 */
-	public static void requestChannelList() {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.CHANNEL_LIST_REQUEST.toInteger());
-				dos.flush();
-				
-				// Reading response
-				DataInputStream dis = new DataInputStream(m_socket.getInputStream());
-				MessageType type = MessageType.fromInteger(dis.readInt());
-
-				// Checking response type
-				if(type != MessageType.CHANNEL_LIST) {
-					return;
-				}
-				
-				// Reading channels
-				int numChannels = dis.readInt();
-				for(int i = 0; i < numChannels; i++) {
-					int channelID = dis.readInt();
-					String name = dis.readUTF();
-					String topic = dis.readUTF();
-					String description = dis.readUTF();
-					boolean hasPassword = dis.readBoolean();
-					int maxClients = dis.readInt();
-					boolean permanent = dis.readBoolean();
-					
-					// Creating new channel
-					ChannelManager.createChannel(name, topic, description, hasPassword, maxClients, permanent, channelID);
+	public static CompletableFuture<Void> requestChannelList() {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		int requestID = addPendingRequest(future);
+		try {
+			// Sending request, failing it if it can not be sent
+			FrameBuilder request = new FrameBuilder(MessageType.CHANNEL_LIST_REQUEST);
+			request.writeInt(requestID);
+			request.writeLong(m_channelEpoch);
+			request.writeLong(m_channelRevision);
+			send(request, OutboundQueue.NO_KEY).whenComplete((result, error) -> {
+				if(error != null) {
+					completePendingRequest(requestID, error);
 				}
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+			});
+		} catch(IOException e) {
+			completePendingRequest(requestID, e);
 		}
+		return future;
 	}
 	
 	/**
@@ -293,26 +455,25 @@ public class ConnectionManager {
 	 * @param password The password of the channel.
 	 * @param maxClients The maximum number of clients on the channel.
 	 * @param permanent The permanence flag of the channel.
+	 * @return The future completed when the request is sent.
 	 */
-	public static void requestChannelCreate(String name, String topic, String description, boolean hasPassword,
+	public static CompletableFuture<Void> requestChannelCreate(String name, String topic, String description, boolean hasPassword,
 											String password, int maxClients, boolean permanent) {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.CHANNEL_CREATE_REQUEST.toInteger());
-				dos.writeUTF(name);
-				dos.writeUTF(topic);
-				dos.writeUTF(description);
-				dos.writeBoolean(hasPassword);
-				dos.writeUTF(password);
-				dos.writeInt(maxClients);
-				dos.writeBoolean(permanent);
-				dos.flush();
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
-		}	
+		try {
+			// Sending request
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_CREATE_REQUEST);
+			frame.writeUTF(name);
+			frame.writeUTF(topic);
+			frame.writeUTF(description);
+			frame.writeBoolean(hasPassword);
+			frame.writeUTF(password);
+			frame.writeInt(maxClients);
+			frame.writeBoolean(permanent);
+			return send(frame, OutboundQueue.NO_KEY);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return OutboundQueue.failed(e);
+		}
 	}
 	
 	/**
@@ -325,67 +486,203 @@ public class ConnectionManager {
 	 * @param password The new password of the channel.
 	 * @param maxClients The new maximum number of clients on the channel.
 	 * @param permanent The new permanence flag of the channel.
+	 * @return The future completed when the request is sent.
 	 */
-	public static void requestChannelModify(int channelID, String name, String topic, String description, boolean hasPassword,
+	public static CompletableFuture<Void> requestChannelModify(int channelID, String name, String topic, String description, boolean hasPassword,
 											String password, int maxClients, boolean permanent) {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.CHANNEL_MODIFY_REQUEST.toInteger());
-				dos.writeInt(channelID);
-				dos.writeUTF(name);
-				dos.writeUTF(topic);
-				dos.writeUTF(description);
-				dos.writeBoolean(hasPassword);
-				dos.writeUTF(password);
-				dos.writeInt(maxClients);
-				dos.writeBoolean(permanent);
-				dos.flush();
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+		try {
+			// Sending request
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_MODIFY_REQUEST);
+			frame.writeInt(channelID);
+			frame.writeUTF(name);
+			frame.writeUTF(topic);
+			frame.writeUTF(description);
+			frame.writeBoolean(hasPassword);
+			frame.writeUTF(password);
+			frame.writeInt(maxClients);
+			frame.writeBoolean(permanent);
+			return send(frame, OutboundQueue.key(MessageType.CHANNEL_MODIFY_REQUEST, channelID));
+		} catch(IOException e) {
+			e.printStackTrace();
+			return OutboundQueue.failed(e);
 		}
 	}
 	
 	/**
 	 * Sends a channel deletion request to the server.
 	 * @param channelID The ID of the channel.
+	 * @return The future completed when the request is sent.
 	 */
-	public static void requestChannelDelete(int channelID) {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.CHANNEL_DELETE_REQUEST.toInteger());
-				dos.writeInt(channelID);
-				dos.flush();
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+	public static CompletableFuture<Void> requestChannelDelete(int channelID) {
+		try {
+			// Sending request
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_DELETE_REQUEST);
+			frame.writeInt(channelID);
+			return send(frame, OutboundQueue.NO_KEY);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return OutboundQueue.failed(e);
 		}
 	}
 	
 	/**
-	 * Sends a user list request to the server, and builds the list
-	 * of users from the server response.
+	 * Sends a user list request to the server. The request carries the
+	 * latest user revision known by the client, so the server only
+	 * sends the changes since, if it still knows them. The list of users
+	 * is updated by the reader thread when the response arrives.
+	 * @return The future completed when the list of users is updated.
 	 */
-	public static void requestUserList() {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.USER_LIST_REQUEST.toInteger());
-				dos.flush();
+	public static CompletableFuture<Void> requestUserList() {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		int requestID = addPendingRequest(future);
+		try {
+			// Sending request, failing it if it can not be sent
+			FrameBuilder request = new FrameBuilder(MessageType.USER_LIST_REQUEST);
+			request.writeInt(requestID);
+			request.writeLong(m_userEpoch);
+			request.writeLong(m_userRevision);
+			send(request, OutboundQueue.NO_KEY).whenComplete((result, error) -> {
+				if(error != null) {
+					completePendingRequest(requestID, error);
+				}
+			});
+		} catch(IOException e) {
+			completePendingRequest(requestID, e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Queues a frame to be sent by the writer thread.
+	 * @param frame The frame to send.
+	 * @param key The coalescing key of the frame, or OutboundQueue.NO_KEY.
+	 * @return The future completed when the frame is written.
+	 */
+	private static CompletableFuture<Void> send(FrameBuilder frame, long key) {
+		OutboundQueue queue = m_queue;
+		if(queue == null) {
+			return OutboundQueue.failed(new IOException("Not connected."));
+		}
+		return queue.enqueue(frame.toByteArray(), key);
+	}
+	
+	/**
+	 * Registers a request waiting for it's response.
+	 * @param future The future to complete when the response arrives.
+	 * @return The ID of the request.
+	 */
+	private static int addPendingRequest(CompletableFuture<Void> future) {
+		int requestID = m_requestID.incrementAndGet();
+		m_pendingRequests.put(requestID, future);
+		return requestID;
+	}
+	
+	/**
+	 * Completes a request waiting for it's response.
+	 * Unknown request IDs are ignored.
+	 * @param requestID The ID of the request.
+	 * @param error The error of the request, or null if it succeeded.
+	 */
+	private static void completePendingRequest(int requestID, Throwable error) {
+		CompletableFuture<Void> future = m_pendingRequests.remove(requestID);
+		if(future == null) {
+			return;
+		}
+		if(error == null) {
+			future.complete(null);
+		} else {
+			future.completeExceptionally(error);
+		}
+	}
+	
+	/**
+	 * Fails every request waiting for it's response,
+	 * called when the connection is closed.
+	 * @param error The cause of the failure.
+	 */
+	private static void failPendingRequests(Throwable error) {
+		for(Integer requestID : m_pendingRequests.keySet()) {
+			completePendingRequest(requestID, error);
+		}
+	}
+	
+	/**
+	 * Handles channel list responses, and updates the list of channels.
+	 * If the response is a snapshot, it replaces the known channels,
+	 * otherwise it's changes are applied.
+	 * @param dis The stream reading the content of the message.
+	 */
+	private static void onChannelList(DataInputStream dis) {
+		int requestID = 0;
+		try {
+			// Reading the revision of the list
+			requestID = dis.readInt();
+			long epoch = dis.readLong();
+			long revision = dis.readLong();
+			boolean snapshot = dis.readBoolean();
+			
+			if(snapshot) {
+				// Replacing the known channels
+				ChannelManager.clear();
 				
-				// Reading response
-				DataInputStream dis = new DataInputStream(m_socket.getInputStream());
-				MessageType type = MessageType.fromInteger(dis.readInt());
+				// Users may refer to the replaced channels
+				m_userEpoch = 0;
 				
-				// Checking response type
-				if(type != MessageType.USER_LIST) {
-					return;
+				// Reading channels
+				int numChannels = dis.readInt();
+				for(int i = 0; i < numChannels; i++) {
+					int channelID = dis.readInt();
+					String name = dis.readUTF();
+					String topic = dis.readUTF();
+					String description = dis.readUTF();
+					boolean hasPassword = dis.readBoolean();
+					int maxClients = dis.readInt();
+					boolean permanent = dis.readBoolean();
+					
+					// Creating new channel
+					ChannelManager.createChannel(name, topic, description, hasPassword, maxClients, permanent, channelID);
 				}
+			} else {
+				// Applying channel changes
+				readChanges(dis);
+			}
+			
+			// Storing the revision of the channels
+			m_channelEpoch = epoch;
+			m_channelRevision = revision;
+			
+			// Applying the notifications received meanwhile
+			if(!m_channelsSynchronized) {
+				m_channelsSynchronized = true;
+				applyBacklog(m_channelBacklog);
+			}
+			
+			// Completing the request
+			completePendingRequest(requestID, null);
+		} catch(IOException e) {
+			e.printStackTrace();
+			completePendingRequest(requestID, e);
+		}
+	}
+	
+	/**
+	 * Handles user list responses, and updates the list of users.
+	 * If the response is a snapshot, it replaces the known users,
+	 * otherwise it's changes are applied.
+	 * @param dis The stream reading the content of the message.
+	 */
+	private static void onUserList(DataInputStream dis) {
+		int requestID = 0;
+		try {
+			// Reading the revision of the list
+			requestID = dis.readInt();
+			long epoch = dis.readLong();
+			long revision = dis.readLong();
+			boolean snapshot = dis.readBoolean();
+			
+			if(snapshot) {
+				// Replacing the known users
+				UserManager.clear();
 				
 				// Reading users
 				int numUsers = dis.readInt();
@@ -398,9 +695,42 @@ public class ConnectionManager {
 					// Creating new user
 					UserManager.createUser(username, nickname, userID, channelID);
 				}
-			} catch(IOException e) {
-				e.printStackTrace();
+			} else {
+				// Applying user changes
+				readChanges(dis);
+			}
+			
+			// Storing the revision of the users
+			m_userEpoch = epoch;
+			m_userRevision = revision;
+			
+			// Applying the notifications received meanwhile
+			if(!m_usersSynchronized) {
+				m_usersSynchronized = true;
+				applyBacklog(m_userBacklog);
 			}
+			
+			// Completing the request
+			completePendingRequest(requestID, null);
+		} catch(IOException e) {
+			e.printStackTrace();
+			completePendingRequest(requestID, e);
+		}
+	}
+	
+	/**
+	 * Reads the changes of a list response, and passes them to the
+	 * notification handlers in order. Each change is embedded in the
+	 * response as the notification frame it was sent as. Changes
+	 * already received as notifications are skipped by the handlers
+	 * by their revision.
+	 * @param dis The stream reading the content of the response.
+	 * @throws IOException If the changes could not be read.
+	 */
+	private static void readChanges(DataInputStream dis) throws IOException {
+		int numChanges = dis.readInt();
+		for(int i = 0; i < numChanges; i++) {
+			handleMessage(Frame.read(dis));
 		}
 	}
 	
@@ -409,50 +739,46 @@ public class ConnectionManager {
 	 * @param userID The ID of the user.
 	 * @param channelID The ID of the channel moving to.
 	 * @param password The password of the channel if any.
+	 * @return The future completed when the request is sent.
 	 */
-	public static void requestUserMove(int userID, int channelID, String password) {
-		synchronized(m_socket) {
-			try {
-				// Sending request
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.USER_MOVE_REQUEST.toInteger());
-				dos.writeInt(userID);
-				dos.writeInt(channelID);
-				dos.writeUTF(password);
-				dos.flush();
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+	public static CompletableFuture<Void> requestUserMove(int userID, int channelID, String password) {
+		try {
+			// Sending request
+			FrameBuilder frame = new FrameBuilder(MessageType.USER_MOVE_REQUEST);
+			frame.writeInt(userID);
+			frame.writeInt(channelID);
+			frame.writeUTF(password);
+			return send(frame, OutboundQueue.key(MessageType.USER_MOVE_REQUEST, userID));
+		} catch(IOException e) {
+			e.printStackTrace();
+			return OutboundQueue.failed(e);
 		}
 	}
 	
 	/**
 	 * Sends a message to the server to be delivered to other clients.
 	 * @param message The message to send.
+	 * @return The future completed when the message is sent.
 	 */
-	public static void sendMessage(String message) {
-		if(m_socket == null || m_socket.isClosed()) return;
-		synchronized(m_socket) {
-			try {
-				// Sending message
-				DataOutputStream dos = new DataOutputStream(m_socket.getOutputStream());
-				dos.writeInt(MessageType.MESSAGE_REQUEST.toInteger());
-				dos.writeUTF(message);
-				dos.flush();
-				
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+	public static CompletableFuture<Void> sendMessage(String message) {
+		try {
+			// Sending message
+			FrameBuilder frame = new FrameBuilder(MessageType.MESSAGE_REQUEST);
+			frame.writeUTF(message);
+			return send(frame, OutboundQueue.NO_KEY);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return OutboundQueue.failed(e);
 		}
 	}
 	
 	/**
 	 * Handles channel created notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onChannelCreatedNotification() {
+	private static void onChannelCreatedNotification(DataInputStream dis) {
 		try {
 			// Reading channel data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int channelID = dis.readInt();
 			String name = dis.readUTF();
 			String topic = dis.readUTF();
@@ -460,10 +786,19 @@ public class ConnectionManager {
 			boolean hasPassword = dis.readBoolean();
 			int maxClients = dis.readInt();
 			boolean permanent = dis.readBoolean();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_channelRevision) {
+				return;
+			}
 			
 			// Creating channel
 			ChannelManager.createChannel(name, topic, description, hasPassword, maxClients, permanent, channelID);
-		
+			
+			// Storing the revision of the change
+			m_channelRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -471,11 +806,11 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles channel modified notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onChannelModifiedNotification() {
+	private static void onChannelModifiedNotification(DataInputStream dis) {
 		try {
 			// Reading channel data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int channelID = dis.readInt();
 			String name = dis.readUTF();
 			String topic = dis.readUTF();
@@ -483,10 +818,19 @@ public class ConnectionManager {
 			boolean hasPassword = dis.readBoolean();
 			int maxClients = dis.readInt();
 			boolean permanent = dis.readBoolean();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_channelRevision) {
+				return;
+			}
 			
 			// Modifying channel
 			ChannelManager.modifyChannel(channelID, name, topic, description, hasPassword, maxClients, permanent);
 			
+			// Storing the revision of the change
+			m_channelRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -494,16 +838,25 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles channel deleted notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onChannelDeletedNotification() {
+	private static void onChannelDeletedNotification(DataInputStream dis) {
 		try {
 			// Reading channel data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int channelID = dis.readInt();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_channelRevision) {
+				return;
+			}
 			
 			// Deleting channel
 			ChannelManager.deleteChannel(channelID);
 			
+			// Storing the revision of the change
+			m_channelRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -511,18 +864,27 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles user created notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onUserCreatedNotification() {
+	private static void onUserCreatedNotification(DataInputStream dis) {
 		try {
 			// Reading user data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int userID = dis.readInt();
 			String username = dis.readUTF();
 			String nickname = dis.readUTF();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_userRevision) {
+				return;
+			}
 			
 			// Creating user
 			UserManager.createUser(username, nickname, userID, ChannelManager.DEFAULT_CHANNEL_ID);
-
+			
+			// Storing the revision of the change
+			m_userRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -530,17 +892,26 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles user moved notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onUserMovedNotification() {
+	private static void onUserMovedNotification(DataInputStream dis) {
 		try {
 			// Reading user data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int userID = dis.readInt();
 			int channelID = dis.readInt();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_userRevision) {
+				return;
+			}
 			
 			// Moving user
 			UserManager.moveUser(userID, channelID);
 			
+			// Storing the revision of the change
+			m_userRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -548,16 +919,25 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles user deleted notifications.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onUserDeletedNotification() {
+	private static void onUserDeletedNotification(DataInputStream dis) {
 		try {
 			// Reading user data
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int userID = dis.readInt();
+			long revision = dis.readLong();
+			
+			// Skipping a change already received
+			if(revision <= m_userRevision) {
+				return;
+			}
 			
 			// Deleting user
 			UserManager.deleteUser(userID);
 			
+			// Storing the revision of the change
+			m_userRevision = revision;
+			
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -565,11 +945,11 @@ public class ConnectionManager {
 	
 	/**
 	 * Handles incoming messages.
+	 * @param dis The stream reading the content of the message.
 	 */
-	private static void onMessage() {
+	private static void onMessage(DataInputStream dis) {
 		try {
 			// Reading message
-			DataInputStream dis = new DataInputStream(m_socket.getInputStream());
 			int sourceID = dis.readInt();
 			String message = dis.readUTF();
 			
@@ -589,9 +969,13 @@ public class ConnectionManager {
 	 */
 	private static void onConnectionTerminatedNotification() {
 		try {
-			// Closing the socket
+			// Closing the queue and the socket
+			m_queue.close();
 			m_socket.close();
 			
+			// Stopping voice
+			VoiceManager.stop();
+			
 			// Updating the user interface
 			GUIController.connectionTerminatedUpdate();
 			
@@ -607,5 +991,23 @@ public class ConnectionManager {
 		// Updating user interface
 		GUIController.showAlertDialog("Insufficient permission.");
 	}
+	
+	/**
+	 * Handles voice configuration notifications, sent when the
+	 * client's channel changes or it's voice settings change.
+	 * @param dis The stream reading the content of the message.
+	 */
+	private static void onVoiceConfigurationNotification(DataInputStream dis) {
+		try {
+			// Reading the settings
+			int redundancy = dis.readInt();
+			
+			// Applying the settings
+			VoiceManager.setRedundancy(redundancy);
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
 
 };
@@ -0,0 +1,214 @@
+package convoice.client.connection;
+
+
+// Java imports
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Frame class represents a single message of the wire protocol.
+ * Every message is sent as a frame, which starts with a header
+ * containing the length of the payload and the integer form of the
+ * MessageType, followed by the payload itself:
+ *
+ *   int length | int type | byte[length] payload
+ *
+ * Knowing the length in advance, readers can receive whole frames
+ * before parsing them, and can skip messages of unknown types without
+ * losing synchronization with the stream. The version of the protocol
+ * is exchanged in the connection request.
+ */
+public class Frame {
+	/** The version of the wire protocol. */
+	public static final int PROTOCOL_VERSION = 7;
+
+	/** The size of the frame header in bytes. */
+	public static final int HEADER_SIZE = 8;
+
+	/** The maximum size of a frame payload in bytes. */
+	public static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+	/** The type of the message. */
+	private MessageType m_type;
+
+	/** The payload of the message. */
+	private ByteBuffer m_payload;
+
+	/**
+	 * Constructs a Frame object.
+	 * @param type The type of the message.
+	 * @param payload The payload of the message.
+	 */
+	public Frame(MessageType type, ByteBuffer payload) {
+		// Initializing members
+		m_type = type;
+		m_payload = payload;
+	}
+
+	/**
+	 * Gets the type of the message.
+	 * @return The type of the message.
+	 */
+	public MessageType getType() {
+		return m_type;
+	}
+
+	/**
+	 * Gets the payload of the message.
+	 * @return A buffer containing the payload.
+	 */
+	public ByteBuffer getPayload() {
+		return m_payload;
+	}
+
+	/**
+	 * Creates a stream reading the payload of the message.
+	 * Reading past the end of the payload throws an EOFException.
+	 * @return A stream reading the payload.
+	 */
+	public DataInputStream getInputStream() {
+		return new DataInputStream(new PayloadInputStream(m_payload.duplicate()));
+	}
+
+	/**
+	 * Reads a complete frame from a blocking stream.
+	 * The payload is read into a newly allocated buffer.
+	 * @param dis The stream to read from.
+	 * @return The received frame.
+	 * @throws IOException If the frame could not be read, or it's header is invalid.
+	 */
+	public static Frame read(DataInputStream dis) throws IOException {
+		// Reading the header
+		int length = readLength(dis);
+		MessageType type = MessageType.fromInteger(dis.readInt());
+
+		// Reading the payload
+		byte[] payload = new byte[length];
+		dis.readFully(payload);
+
+		return new Frame(type, ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Takes a complete frame from the position of the buffer.
+	 * The payload of the returned frame shares it's content with the
+	 * buffer, so it is only valid until the buffer is modified. If the
+	 * buffer does not contain a complete frame, it is left untouched.
+	 * @param buffer The buffer to take the frame from.
+	 * @return The frame, or null if the buffer does not contain a whole frame.
+	 * @throws ProtocolException If the header of the frame is invalid.
+	 */
+	public static Frame parse(ByteBuffer buffer) throws ProtocolException {
+		// Checking if the header is complete
+		if(buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+
+		// Checking if the payload is complete
+		int length = checkLength(buffer.getInt(buffer.position()));
+		if(buffer.remaining() < HEADER_SIZE + length) {
+			return null;
+		}
+
+		// Reading the header
+		buffer.getInt();
+		MessageType type = MessageType.fromInteger(buffer.getInt());
+
+		// Slicing the payload
+		ByteBuffer payload = buffer.slice();
+		payload.limit(length);
+		buffer.position(buffer.position() + length);
+
+		return new Frame(type, payload);
+	}
+
+	/**
+	 * Returns the total size of the frame starting at the position
+	 * of the buffer, if at least it's length is present.
+	 * @param buffer The buffer containing the beginning of a frame.
+	 * @return The size of the frame with the header, or -1 if unknown.
+	 * @throws ProtocolException If the header of the frame is invalid.
+	 */
+	public static int peekSize(ByteBuffer buffer) throws ProtocolException {
+		if(buffer.remaining() < 4) {
+			return -1;
+		}
+		return HEADER_SIZE + checkLength(buffer.getInt(buffer.position()));
+	}
+
+	/**
+	 * Reads and validates the payload length of a frame header.
+	 * @param dis The stream to read from.
+	 * @return The length of the payload.
+	 * @throws IOException If the length could not be read, or is invalid.
+	 */
+	static int readLength(DataInputStream dis) throws IOException {
+		return checkLength(dis.readInt());
+	}
+
+	/**
+	 * Validates the payload length of a frame header.
+	 * @param length The length to validate.
+	 * @return The length of the payload.
+	 * @throws ProtocolException If the length is invalid.
+	 */
+	private static int checkLength(int length) throws ProtocolException {
+		if(length < 0 || length > MAX_PAYLOAD_SIZE) {
+			throw new ProtocolException("Invalid frame length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * The PayloadInputStream class provides an InputStream
+	 * reading the content of a ByteBuffer.
+	 */
+	private static class PayloadInputStream extends InputStream {
+		/** The buffer being read. */
+		private ByteBuffer m_buffer;
+
+		/**
+		 * Constructs a PayloadInputStream object.
+		 * @param buffer The buffer to read.
+		 */
+		private PayloadInputStream(ByteBuffer buffer) {
+			m_buffer = buffer;
+		}
+
+		/**
+		 * Reads a single byte from the buffer.
+		 * @return The byte, or -1 if the end of the buffer is reached.
+		 */
+		public int read() {
+			return m_buffer.hasRemaining() ? m_buffer.get() & 0xFF : -1;
+		}
+
+		/**
+		 * Reads bytes from the buffer.
+		 * @param b The array to read into.
+		 * @param off The offset to read to.
+		 * @param len The maximum number of bytes to read.
+		 * @return The number of bytes read, or -1 if the end of the buffer is reached.
+		 */
+		public int read(byte[] b, int off, int len) {
+			if(!m_buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, m_buffer.remaining());
+			m_buffer.get(b, off, len);
+			return len;
+		}
+
+		/**
+		 * Returns the number of unread bytes.
+		 * @return The number of unread bytes.
+		 */
+		public int available() {
+			return m_buffer.remaining();
+		}
+	}
+
+};
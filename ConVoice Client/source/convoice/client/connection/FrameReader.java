@@ -0,0 +1,56 @@
+package convoice.client.connection;
+
+
+// Java imports
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The FrameReader class is responsible for reading frames from a
+ * blocking stream into a reused buffer.
+ * The buffer grows to the size of the largest frame received, so
+ * no allocation is necessary for receiving the payload of a frame.
+ * The payload of a returned frame is only valid until the next
+ * frame is read.
+ */
+public class FrameReader {
+	/** The stream to read from. */
+	private DataInputStream m_stream;
+
+	/** The buffer receiving the payloads. */
+	private byte[] m_buffer;
+
+	/**
+	 * Constructs a FrameReader object.
+	 * @param stream The stream to read from.
+	 */
+	public FrameReader(DataInputStream stream) {
+		// Initializing members
+		m_stream = stream;
+		m_buffer = new byte[256];
+	}
+
+	/**
+	 * Reads the next frame from the stream, blocking until it
+	 * is received entirely.
+	 * @return The received frame.
+	 * @throws IOException If the frame could not be read, or it's header is invalid.
+	 */
+	public Frame read() throws IOException {
+		// Reading the header
+		int length = Frame.readLength(m_stream);
+		MessageType type = MessageType.fromInteger(m_stream.readInt());
+
+		// Growing the buffer if necessary
+		if(m_buffer.length < length) {
+			m_buffer = new byte[Math.max(length, m_buffer.length * 2)];
+		}
+
+		// Reading the payload
+		m_stream.readFully(m_buffer, 0, length);
+
+		return new Frame(type, ByteBuffer.wrap(m_buffer, 0, length).slice());
+	}
+
+};
@@ -0,0 +1,263 @@
+package convoice.client.connection;
+
+
+// Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The OutboundQueue class stores the encoded message frames waiting
+ * to be sent to the server, and writes them on it's own thread.
+ * Senders only enqueue frames, so a stalled network can not block
+ * the thread sending a message, like the user interface thread.
+ * The writer takes every frame waiting at once and sends them with
+ * a single write, so messages queued while the previous write was
+ * blocked share the next one. Frames with the same coalescing key carry
+ * the latest state of the same subject, so a new frame replaces the
+ * queued one. The new frame is queued at the end, after the frames it
+ * may depend on.
+ * Every queued frame has a CompletableFuture, which is completed when
+ * the frame is written, or fails if it could not be written. Callbacks
+ * of the futures run on the writer thread, so they must not block.
+ */
+public class OutboundQueue implements Runnable {
+	/** The coalescing key of frames which can not be coalesced. */
+	public static final long NO_KEY = -1;
+
+	/** The maximum number of queued frames. */
+	private static final int LIMIT = 1024;
+
+	/** The maximum size of a single write in bytes. */
+	private static final int MAX_WRITE_SIZE = 64 * 1024;
+
+	/** The stream the frames are written to. */
+	private OutputStream m_stream;
+
+	/** The queued frames. */
+	private ArrayDeque<Entry> m_entries;
+
+	/** The closed state-flag. */
+	private boolean m_closed;
+
+	/** The error which closed the queue, or null. */
+	private IOException m_error;
+
+	/** The number of frames coalesced by the queue. */
+	private long m_coalesced;
+
+	/** The writer thread. */
+	private Thread m_thread;
+
+	/**
+	 * Constructs an OutboundQueue object, and starts the writer thread.
+	 * @param stream The stream the frames are written to.
+	 */
+	public OutboundQueue(OutputStream stream) {
+		// Initializing members
+		m_stream = stream;
+		m_entries = new ArrayDeque<Entry>();
+		m_closed = false;
+		m_error = null;
+		m_coalesced = 0;
+
+		// Starting the writer thread
+		m_thread = new Thread(this, "Connection writer");
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+	/**
+	 * Queues a frame which can not be coalesced.
+	 * @param frame The encoded frame.
+	 * @return The future completed when the frame is written.
+	 */
+	public CompletableFuture<Void> enqueue(byte[] frame) {
+		return enqueue(frame, NO_KEY);
+	}
+
+	/**
+	 * Queues a frame. If a frame with the same coalescing key is still
+	 * waiting, it is removed, and the new frame is queued at the end with
+	 * it's future, so both senders get the same future, and the frames
+	 * queued meanwhile, like a chat message or the creation of a channel,
+	 * are still sent before the new frame. The send fails if the queue
+	 * is closed or full.
+	 * @param frame The encoded frame.
+	 * @param key The coalescing key of the frame, or NO_KEY.
+	 * @return The future completed when the frame is written.
+	 */
+	public synchronized CompletableFuture<Void> enqueue(byte[] frame, long key) {
+		// Failing if the frame can not be sent
+		if(m_closed) {
+			return failed(m_error != null ? m_error : new IOException("Connection closed."));
+		}
+
+		// Replacing a waiting frame of the same subject
+		if(key != NO_KEY) {
+			Iterator<Entry> iterator = m_entries.iterator();
+			while(iterator.hasNext()) {
+				Entry replaced = iterator.next();
+				if(replaced.m_key == key) {
+					iterator.remove();
+					m_entries.addLast(new Entry(frame, key, replaced.m_future));
+					m_coalesced++;
+					return replaced.m_future;
+				}
+			}
+		}
+
+		// Failing if the queue is full
+		if(m_entries.size() >= LIMIT) {
+			return failed(new IOException("Send queue is full."));
+		}
+
+		// Queuing the frame
+		Entry entry = new Entry(frame, key, new CompletableFuture<Void>());
+		m_entries.addLast(entry);
+		notifyAll();
+		return entry.m_future;
+	}
+
+	/**
+	 * Closes the queue. Further frames are not queued, but frames
+	 * already waiting are still written.
+	 */
+	public synchronized void close() {
+		m_closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of queued frames.
+	 * @return The number of queued frames.
+	 */
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	/**
+	 * Returns the number of frames coalesced by the queue.
+	 * @return The number of coalesced frames.
+	 */
+	public synchronized long getCoalescedCount() {
+		return m_coalesced;
+	}
+
+	/**
+	 * Runs the writer thread, which writes the queued frames in batches
+	 * until the queue is closed and empty, or a write fails.
+	 */
+	@Override
+	public void run() {
+		List<Entry> batch = new ArrayList<Entry>();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+		while(true) {
+			synchronized(this) {
+				// Waiting for frames
+				while(m_entries.isEmpty() && !m_closed) {
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						m_closed = true;
+					}
+				}
+				if(m_entries.isEmpty()) {
+					break;
+				}
+
+				// Taking the waiting frames, up to the size of a single write
+				int size = 0;
+				while(!m_entries.isEmpty() && (batch.isEmpty() || size + m_entries.peekFirst().m_frame.length <= MAX_WRITE_SIZE)) {
+					Entry entry = m_entries.pollFirst();
+					size += entry.m_frame.length;
+					batch.add(entry);
+				}
+			}
+
+			try {
+				// Writing the frames with a single write
+				buffer.reset();
+				for(Entry entry : batch) {
+					buffer.write(entry.m_frame, 0, entry.m_frame.length);
+				}
+				buffer.writeTo(m_stream);
+				m_stream.flush();
+
+				// Completing the sends
+				for(Entry entry : batch) {
+					entry.m_future.complete(null);
+				}
+				batch.clear();
+
+			} catch(IOException e) {
+				// Failing the written and the waiting frames
+				List<Entry> waiting;
+				synchronized(this) {
+					m_closed = true;
+					m_error = e;
+					waiting = new ArrayList<Entry>(m_entries);
+					m_entries.clear();
+				}
+				batch.addAll(waiting);
+				for(Entry entry : batch) {
+					entry.m_future.completeExceptionally(e);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Creates a future of a send which failed.
+	 * @param error The cause of the failure.
+	 * @return The failed future.
+	 */
+	static CompletableFuture<Void> failed(IOException error) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	/**
+	 * Creates the coalescing key of a frame.
+	 * @param type The type of the message.
+	 * @param subject The ID of the channel or user the message is about.
+	 * @return The coalescing key.
+	 */
+	public static long key(MessageType type, int subject) {
+		return ((long) type.toInteger() << 32) | (subject & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The Entry class stores a queued frame.
+	 */
+	private static class Entry {
+		/** The encoded frame. */
+		private final byte[] m_frame;
+
+		/** The coalescing key of the frame. */
+		private final long m_key;
+
+		/** The future completed when the frame is written. */
+		private final CompletableFuture<Void> m_future;
+
+		/**
+		 * Constructs an Entry object.
+		 * @param frame The encoded frame.
+		 * @param key The coalescing key of the frame.
+		 * @param future The future completed when the frame is written.
+		 */
+		private Entry(byte[] frame, long key, CompletableFuture<Void> future) {
+			m_frame = frame;
+			m_key = key;
+			m_future = future;
+		}
+	};
+
+};
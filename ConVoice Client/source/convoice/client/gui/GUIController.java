@@ -4,6 +4,8 @@ package convoice.client.gui;
 // Java imports 
 import java.util.Optional;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import javafx.fxml.FXML;
 import javafx.application.Platform;
 import javafx.scene.control.Accordion;
@@ -17,7 +19,6 @@ import javafx.scene.control.TitledPane;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextArea;
@@ -97,14 +98,18 @@ public class GUIController {
 	@FXML
 	public TextArea mainInspectorTextArea;
 	
-	// The main chat text area
+	// The main chat view
 	@FXML
-	public TextArea mainChatTextArea;
+	public MessageView mainChatView;
 	
 	// The chat input field
 	@FXML
 	public TextField mainChatInputTextField;
 	
+	// The chat filter field
+	@FXML
+	public TextField mainChatFilterTextField;
+	
 	// The send button
 	@FXML
 	public Button mainSendButton;
@@ -114,6 +119,12 @@ public class GUIController {
 	private Image channelIcon;
 	private Image userIcon;
 	
+	// The indexed nodes of the main tree view
+	private ChannelTreeModel channelTreeModel;
+	
+	// The synchronization of the lists after connecting, or null
+	private CompletableFuture<Void> synchronization;
+	
 	// Static instance
 	public static GUIController staticInstance = null;
 	
@@ -148,6 +159,14 @@ public class GUIController {
 		// Initializing send button
 		mainSendButton.setDisable(true);
 		
+		// Setting the number of lines kept by the chat view
+		try {
+			mainChatView.setRetention(Integer.parseInt(System.getProperty("convoice.chatRetention",
+					String.valueOf(MessageView.DEFAULT_RETENTION))));
+		} catch(IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+		
 		// Binding user interface elements to controllers
 		bindControllers();
 	}
@@ -189,6 +208,11 @@ public class GUIController {
 			}
 		});
 		
+		// Binding main chat filter text field
+		mainChatFilterTextField.textProperty().addListener(e -> {
+			onMainChatFilterTextFieldChanged();
+		});
+		
 		// Binding main send button
 		mainSendButton.setOnAction(e -> {
 			onMainSendButtonClicked();
@@ -209,8 +233,8 @@ public class GUIController {
 		// Enabling send button
 		mainSendButton.setDisable(false);
 		
-		// Clearing chat text area
-		mainChatTextArea.clear();
+		// Clearing chat view
+		mainChatView.clear();
 		
 		// Making the connection menu collapsible
 		connectionPanel.setCollapsible(true);
@@ -219,9 +243,18 @@ public class GUIController {
 		channelModifiedUpdate_m(ChannelManager.getChannel(ChannelManager.getOwnChannelID()));
 		
 		// Updating main channels tree view
-		TreeItem<Object> root = new TreeItem<Object>("Server", new ImageView(serverIcon));
-		mainChannelsTreeView.setRoot(root);
-		mainChannelsTreeView.getRoot().setExpanded(true);
+		channelTreeModel = new ChannelTreeModel("Server", serverIcon, channelIcon, userIcon);
+		
+		// Adding the channels synchronized with the server
+		for(Channel channel : ChannelManager.getAllChannels().values()) {
+			channelTreeModel.putChannel(channel);
+		}
+		
+		// Adding the users synchronized with the server
+		for(User user : UserManager.getAllUsers().values()) {
+			channelTreeModel.putUser(user, user.getChannel());
+		}
+		mainChannelsTreeView.setRoot(channelTreeModel.getRoot());
 	}
 	
 	/**
@@ -324,20 +357,37 @@ public class GUIController {
 				return;
 			}
 
-			// Getting channels from server
-			ConnectionManager.requestChannelList();
+			// Starting listening for server messages
+			ConnectionManager.start();
 
-			// Getting users from server
-			ConnectionManager.requestUserList();
+			// Getting channels and users from server, showing them when both arrived
+			CompletableFuture<Void> lists = CompletableFuture.allOf(ConnectionManager.requestChannelList(), ConnectionManager.requestUserList());
+			synchronization = lists;
+			lists.whenComplete((result, error) -> Platform.runLater(() -> {
+				// Ignoring the synchronization of an abandoned connection
+				if(synchronization != lists) {
+					return;
+				}
+				synchronization = null;
+				
+				if(error == null) {
+					// Connection was successful
+					connectedToServer();
 
-			// Connection was successful
-			connectedToServer();
+					// Updating main status label
+					mainStatusLabel.setText("Connected.");
+				} else {
+					// Dropping the connection which could not be synchronized
+					disconnectFromServer();
 
-			// Starting listening for server messages
-			ConnectionManager.start();
+					// Updating main status label
+					Throwable cause = error.getCause() != null ? error.getCause() : error;
+					mainStatusLabel.setText("Synchronization failed: " + cause.getMessage());
+				}
+			}));
 
 			// Updating main status label
-			mainStatusLabel.setText("Connected.");
+			mainStatusLabel.setText("Synchronizing...");
 
 			// Disabling connection data fields
 			connectionAddressTextField.setDisable(true);
@@ -354,35 +404,48 @@ public class GUIController {
 			connectionConnectDisconnectButton.setText("Disconnect");
 			
 		} else { // Disconnect
-			// Stopping listening for server messages
-			ConnectionManager.stop();
-
 			// Disconnecting
-			ConnectionManager.disconnect();
-
-			// Clearing channel tree view
-			mainChannelsTreeView.setRoot(null);
-
-			// Disabling Send button
-			mainSendButton.setDisable(true);
+			disconnectFromServer();
 
 			// Updating main status label
 			mainStatusLabel.setText("Disconnected.");
+		}
+	}
+	
+	/**
+	 * Closes the connection to the server, and resets the
+	 * interface to the disconnected state.
+	 */
+	private void disconnectFromServer() {
+		// Abandoning the synchronization in progress
+		synchronization = null;
 
-			// Enabling connection data fields
-			connectionAddressTextField.setDisable(false);
-			connectionPortTextField.setDisable(false);
-			connectionNicknameTextField.setDisable(false);
-			connectionUsernameTextField.setDisable(false);
-			connectionPasswordField.setDisable(false);
-			connectionMemberCheckBox.setDisable(false);
+		// Stopping listening for server messages
+		ConnectionManager.stop();
 
-			// Disabling channels panel
-			channelsPanel.setDisable(true);
+		// Disconnecting
+		ConnectionManager.disconnect();
 
-			// Setting button text
-			connectionConnectDisconnectButton.setText("Connect");
-		}
+		// Clearing channel tree view
+		mainChannelsTreeView.setRoot(null);
+		channelTreeModel = null;
+
+		// Disabling Send button
+		mainSendButton.setDisable(true);
+
+		// Enabling connection data fields
+		connectionAddressTextField.setDisable(false);
+		connectionPortTextField.setDisable(false);
+		connectionNicknameTextField.setDisable(false);
+		connectionUsernameTextField.setDisable(false);
+		connectionPasswordField.setDisable(false);
+		connectionMemberCheckBox.setDisable(false);
+
+		// Disabling channels panel
+		channelsPanel.setDisable(true);
+
+		// Setting button text
+		connectionConnectDisconnectButton.setText("Connect");
 	}
 	
 	// Channel menu controllers
@@ -448,14 +511,14 @@ public class GUIController {
 			}
 			
 			// Sending modification request
-			ConnectionManager.requestChannelModify(ChannelManager.getOwnChannelID(), 
+			reportSendFailure(ConnectionManager.requestChannelModify(ChannelManager.getOwnChannelID(), 
 					channelNameTextField.getText(), 
 					channelTopicTextField.getText(), 
 					channelDescriptionTextArea.getText(), 
 					channelPasswordCheckBox.isSelected(), 
 					channelPasswordField.getText(), 
 					Integer.parseInt(channelMaxClientsTextField.getText()), 
-					channelPermanentCheckBox.isSelected());
+					channelPermanentCheckBox.isSelected()));
 			
 			// Updating channel menu
 			channelModifiedUpdate_m(ChannelManager.getChannel(ChannelManager.getOwnChannelID()));
@@ -485,7 +548,7 @@ public class GUIController {
 	private void onChannelDeleteButtonClicked() {
 		// Sending deletion request
 		if(ChannelManager.getOwnChannelID() != ChannelManager.DEFAULT_CHANNEL_ID) {
-			ConnectionManager.requestChannelDelete(ChannelManager.getOwnChannelID());
+			reportSendFailure(ConnectionManager.requestChannelDelete(ChannelManager.getOwnChannelID()));
 		}	
 	}
 	
@@ -559,13 +622,13 @@ public class GUIController {
 			}
 			
 			// Sending creating request
-			ConnectionManager.requestChannelCreate(channelNameTextField.getText(), 
+			reportSendFailure(ConnectionManager.requestChannelCreate(channelNameTextField.getText(), 
 					channelTopicTextField.getText(), 
 					channelDescriptionTextArea.getText(), 
 					channelPasswordCheckBox.isSelected(), 
 					channelPasswordField.getText(), 
 					Integer.parseInt(channelMaxClientsTextField.getText()), 
-					channelPermanentCheckBox.isSelected());
+					channelPermanentCheckBox.isSelected()));
 			
 			// Disabling edition of fields
 			channelNameTextField.setDisable(true);
@@ -660,10 +723,19 @@ public class GUIController {
 			}
 			
 			// Requesting move
-			ConnectionManager.requestUserMove(UserManager.getOwnID(), channel.getID(), password);
+			reportSendFailure(ConnectionManager.requestUserMove(UserManager.getOwnID(), channel.getID(), password));
 		}
 	}
 	
+	// Main chat filter controller
+	
+	/**
+	 * Handles when the chat filter text field changes.
+	 */
+	private void onMainChatFilterTextFieldChanged() {
+		mainChatView.setFilter(mainChatFilterTextField.getText());
+	}
+	
 	// Main send button controller
 	
 	/**
@@ -672,25 +744,40 @@ public class GUIController {
 	private void onMainSendButtonClicked() {
 		// Sending message
 		if(!mainChatInputTextField.getText().isEmpty()) {
-			ConnectionManager.sendMessage(mainChatInputTextField.getText());
+			reportSendFailure(ConnectionManager.sendMessage(mainChatInputTextField.getText()));
 			mainChatInputTextField.clear();
 		}
 	}
 	
+	/**
+	 * Shows a status message if a request could not be sent.
+	 * Requests are sent in the background, so the result is
+	 * only known when the future completes.
+	 * @param sent The future completed when the request is sent.
+	 */
+	private static void reportSendFailure(CompletableFuture<Void> sent) {
+		sent.exceptionally(e -> {
+			setStatusMessage("Sending failed: " + (e.getCause() != null ? e.getCause() : e).getMessage());
+			return null;
+		});
+	}
+	
 	// Update methods
 	
 	/**
-	 * Notifies the GUI about the created channel.
+	 * Notifies the GUI about the created channel. A channel already
+	 * in the tree, because the tree was rebuilt after synchronizing
+	 * with the server, is only replaced.
 	 * @param channel The created channel object.
 	 */
 	private void channelCreatedUpdate_m(Channel channel) {
-		// Updating main tree view
-
-		// Creating channel tree node
-		TreeItem<Object> channelNode = new TreeItem<Object>(channel, new ImageView(channelIcon));
-
-		// Adding channel node to root
-		mainChannelsTreeView.getRoot().getChildren().add(channelNode);
+		// Skipping updates until the tree is built
+		if(channelTreeModel == null) {
+			return;
+		}
+		
+		// Updating main tree view, replacing the channel of an existing node
+		channelTreeModel.putChannel(channel);
 	}
 	
 	/**
@@ -716,45 +803,38 @@ public class GUIController {
 	 * @param channelID The ID of the channel.
 	 */
 	private void channelDeletedUpdate_m(int channelID) {
-		// Updating main tree view
-		
-		// Searching the channel node to delete
-		for(TreeItem<Object> actualNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting channel object from the node
-			Channel actualChannel = (Channel) actualNode.getValue();
-			
-			// Comparing channel IDs
-			if(actualChannel.getID() == channelID) {
-				// Removing node
-				actualNode.getParent().getChildren().remove(actualNode);
-				return;
-			}
+		// Skipping updates until the tree is built
+		if(channelTreeModel == null) {
+			return;
 		}
+		
+		// Updating main tree view
+		channelTreeModel.removeChannel(channelID);
 	}
 	
 	/**
-	 * Notifies the GUI about the created user.
+	 * Notifies the GUI about the created user. A user already in
+	 * the tree, because the tree was rebuilt after synchronizing with
+	 * the server, is only replaced.
 	 * @param user The created user object.
 	 */
 	private void userCreatedUpdate_m(User user) {
-
-		// Updating main tree view
+		// Skipping updates until the tree is built
+		if(channelTreeModel == null) {
+			return;
+		}
 		
-		// Creating user tree node
-		TreeItem<Object> userNode = new TreeItem<Object>(user, new ImageView(userIcon));
+		// Updating main tree view
 		
-		// Searching the default channel
-		for(TreeItem<Object> actualNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting the channel object from the node
-			Channel actualChannel = (Channel) actualNode.getValue();
-			
-			// Comparing channel IDs
-			if(actualChannel.getID() == ChannelManager.DEFAULT_CHANNEL_ID) {
-				// Adding user node
-				actualNode.getChildren().add(userNode);				
-				return;
-			}
+		// Replacing the user of an existing node
+		TreeItem<Object> userNode = channelTreeModel.getUserNode(user.getID());
+		if(userNode != null) {
+			userNode.setValue(user);
+			return;
 		}
+		
+		// Adding the user to the default channel
+		channelTreeModel.putUser(user, ChannelManager.DEFAULT_CHANNEL_ID);
 	}
 
 	/**
@@ -763,38 +843,17 @@ public class GUIController {
 	 * @param channelID The ID of the channel moved to.
 	 */
 	private void userMovedUpdate_m(int userID, int channelID) {
-		// Updating main tree view
-
-		// Removing user node from previous channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Searching moved user
-			for(TreeItem<Object> actualUserNode : actualChannelNode.getChildren()) {
-				// Getting user object from the node
-				User actualUser = (User) actualUserNode.getValue();
-
-				// Comparing user IDs
-				if(actualUser.getID() == userID) {
-					actualChannelNode.getChildren().remove(actualUserNode);
-					break;
-				}
-			}
+		// Skipping updates until the tree is built
+		if(channelTreeModel == null) {
+			return;
 		}
-
-		// Adding user to current channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting channel object from the node
-			Channel actualChannel = (Channel) actualChannelNode.getValue();
-
-			// Comparing channel IDs
-			if(actualChannel.getID() == channelID) {
-				// Creating user node
-				TreeItem<Object> userNode = new TreeItem<Object>(UserManager.getUser(userID), 
-						new ImageView(userIcon));
-
-				// Adding user node to channel node
-				actualChannelNode.getChildren().add(userNode);
-				return;
-			}
+		
+		// Updating main tree view
+		User user = UserManager.getUser(userID);
+		if(user != null) {
+			channelTreeModel.putUser(user, channelID);
+		} else {
+			channelTreeModel.removeUser(userID);
 		}
 	}
 	
@@ -803,22 +862,13 @@ public class GUIController {
 	 * @param userID The ID of the user.
 	 */
 	private void userDeletedUpdate_m(int userID) {
-		// Updating main tree view
-
-		// Removing user node from previous channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Searching moved user
-			for(TreeItem<Object> actualUserNode : actualChannelNode.getChildren()) {
-				// Getting user object from the node
-				User actualUser = (User) actualUserNode.getValue();
-
-				// Comparing user IDs
-				if(actualUser.getID() == userID) {
-					actualChannelNode.getChildren().remove(actualUserNode);
-					return;
-				}
-			}
+		// Skipping updates until the tree is built
+		if(channelTreeModel == null) {
+			return;
 		}
+		
+		// Updating main tree view
+		channelTreeModel.removeUser(userID);
 	}
 	
 	/**
@@ -827,7 +877,7 @@ public class GUIController {
 	 */
 	private void messageReceivedUpdate_m(String message) {
 		// Appending message to chat
-		mainChatTextArea.appendText(message + "\n");
+		mainChatView.append(message);
 	}
 	
 	/**
@@ -839,6 +889,7 @@ public class GUIController {
 		
 		// Clearing channel tree view
 		mainChannelsTreeView.setRoot(null);
+		channelTreeModel = null;
 		
 		// Clearing the inspector
 		mainInspectorTextArea.clear();
@@ -907,7 +958,7 @@ public class GUIController {
 	 * @param channel The created channel object.
 	 */
 	public static void channelCreatedUpdate(Channel channel) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.channelCreatedUpdate_m(channel);
 			}
@@ -919,7 +970,7 @@ public class GUIController {
 	 * @param channel The channel object.
 	 */
 	public static void channelModifiedUpdate(Channel channel) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("channelModified:" + channel.getID(), new Runnable() {
 			public void run() {
 				staticInstance.channelModifiedUpdate_m(channel);
 			}
@@ -931,7 +982,7 @@ public class GUIController {
 	 * @param channelID The ID of the channel.
 	 */
 	public static void channelDeletedUpdate(int channelID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.channelDeletedUpdate_m(channelID);
 			}
@@ -943,7 +994,7 @@ public class GUIController {
 	 * @param user The created user object.
 	 */
 	public static void userCreatedUpdate(User user) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.userCreatedUpdate_m(user);
 			}
@@ -956,7 +1007,7 @@ public class GUIController {
 	 * @param channelID The ID of the channel moved to.
 	 */
 	public static void userMovedUpdate(int userID, int channelID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("userMoved:" + userID, new Runnable() {
 			public void run() {
 				staticInstance.userMovedUpdate_m(userID, channelID);
 			}
@@ -968,7 +1019,7 @@ public class GUIController {
 	 * @param userID The ID of the user.
 	 */
 	public static void userDeletedUpdate(int userID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.userDeletedUpdate_m(userID);
 			}
@@ -980,9 +1031,9 @@ public class GUIController {
 	 * @param message The received message.
 	 */
 	public static void messageReceivedUpdate(String message) {
-		Platform.runLater(new Runnable() {
-			public void run() {
-				staticInstance.messageReceivedUpdate_m(message);
+		UpdateDispatcher.dispatchMessage("chat", message, new Consumer<String>() {
+			public void accept(String messages) {
+				staticInstance.messageReceivedUpdate_m(messages);
 			}
 		});
 	}
@@ -991,7 +1042,7 @@ public class GUIController {
 	 * Static proxy for the similar method on the static instance.
 	 */
 	public static void connectionTerminatedUpdate() {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.connectionTerminatedUpdate_m();
 			}
@@ -1003,7 +1054,7 @@ public class GUIController {
 	 * @param channelID The ID of the channel switched to.
 	 */
 	public static void channelSwitchedUpdate(int channelID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.channelSwitchedUpdate_m(channelID);
 			}
@@ -1015,7 +1066,7 @@ public class GUIController {
 	 * @param message The status message to set.
 	 */
 	public static void setStatusMessage(String message) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("statusMessage", new Runnable() {
 			public void run() {
 				staticInstance.setStatusMessage_m(message);
 			}
@@ -1027,7 +1078,7 @@ public class GUIController {
 	 * @param message The message to display in the dialog.
 	 */
 	public static void showAlertDialog(String message) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.showAlertDialog_m(message);
 			}
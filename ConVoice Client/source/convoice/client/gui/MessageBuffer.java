@@ -0,0 +1,161 @@
+package convoice.client.gui;
+
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.ObservableListBase;
+
+/**
+ * The MessageBuffer class is an observable list of message lines,
+ * stored in a ring buffer of fixed capacity. When the buffer is full,
+ * adding lines drops the oldest ones, so the memory used by the buffer
+ * does not grow with the running time of the application, and adding
+ * a line does not copy the stored ones. The buffer can only be modified
+ * through it's own methods, on the JavaFX application thread.
+ */
+public class MessageBuffer extends ObservableListBase<String> {
+	/** The stored lines, the oldest one at the head. */
+	private String[] m_lines;
+
+	/** The index of the oldest line. */
+	private int m_head;
+
+	/** The number of stored lines. */
+	private int m_size;
+
+	/**
+	 * Constructs an empty MessageBuffer object.
+	 * @param capacity The maximum number of stored lines.
+	 */
+	public MessageBuffer(int capacity) {
+		// Checking the capacity
+		if(capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+
+		// Initializing members
+		m_lines = new String[capacity];
+		m_head = 0;
+		m_size = 0;
+	}
+
+	@Override
+	public String get(int index) {
+		if(index < 0 || index >= m_size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_size);
+		}
+		return m_lines[(m_head + index) % m_lines.length];
+	}
+
+	@Override
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * Returns the maximum number of stored lines.
+	 * @return The capacity of the buffer.
+	 */
+	public int getCapacity() {
+		return m_lines.length;
+	}
+
+	/**
+	 * Adds lines to the end of the buffer, dropping the oldest
+	 * lines if the buffer is full.
+	 * @param lines The lines to add.
+	 */
+	public void addLines(List<String> lines) {
+		// Only the newest lines fit into the buffer
+		int count = Math.min(lines.size(), m_lines.length);
+		if(count == 0) {
+			return;
+		}
+		int dropped = Math.max(0, m_size + count - m_lines.length);
+
+		beginChange();
+		try {
+			// Dropping the oldest lines
+			if(dropped > 0) {
+				nextRemove(0, removeFirst(dropped));
+			}
+
+			// Adding the lines
+			for(String line : lines.subList(lines.size() - count, lines.size())) {
+				m_lines[(m_head + m_size) % m_lines.length] = line;
+				m_size++;
+			}
+			nextAdd(m_size - count, m_size);
+		} finally {
+			endChange();
+		}
+	}
+
+	/**
+	 * Changes the capacity of the buffer, dropping the oldest
+	 * lines if the buffer holds more than the new capacity.
+	 * @param capacity The maximum number of stored lines.
+	 */
+	public void setCapacity(int capacity) {
+		// Checking the capacity
+		if(capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+		if(capacity == m_lines.length) {
+			return;
+		}
+
+		beginChange();
+		try {
+			// Dropping the oldest lines
+			if(m_size > capacity) {
+				nextRemove(0, removeFirst(m_size - capacity));
+			}
+
+			// Copying the lines to the new buffer
+			String[] lines = new String[capacity];
+			for(int i = 0; i < m_size; i++) {
+				lines[i] = m_lines[(m_head + i) % m_lines.length];
+			}
+			m_lines = lines;
+			m_head = 0;
+		} finally {
+			endChange();
+		}
+	}
+
+	/**
+	 * Removes every line from the buffer.
+	 */
+	@Override
+	public void clear() {
+		if(m_size == 0) {
+			return;
+		}
+
+		beginChange();
+		try {
+			nextRemove(0, removeFirst(m_size));
+		} finally {
+			endChange();
+		}
+	}
+
+	/**
+	 * Removes the oldest lines from the buffer.
+	 * @param count The number of lines to remove.
+	 * @return The removed lines.
+	 */
+	private List<String> removeFirst(int count) {
+		List<String> removed = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++) {
+			removed.add(m_lines[m_head]);
+			m_lines[m_head] = null;
+			m_head = (m_head + 1) % m_lines.length;
+		}
+		m_size -= count;
+		return removed;
+	}
+
+};
@@ -9,6 +9,7 @@ import java.util.Map;
 import convoice.client.channel.ChannelManager;
 import convoice.client.gui.GUIController;
 import convoice.client.channel.Channel;
+import convoice.client.voice.VoiceManager;
 
 /**
  * The UserManager class provides the most common administrative
@@ -114,6 +115,9 @@ public class UserManager {
 			channel.removeUser(userID);
 		}
 		
+		// Discarding the voice of the user
+		VoiceManager.removeSpeaker(userID);
+		
 		// Updating the user interface
 		GUIController.userDeletedUpdate(userID);
 		
@@ -134,6 +138,36 @@ public class UserManager {
 		}	
 	}
 	
+	/**
+	 * Returns all users known by the client.
+	 * @return A copy of the map of users, mapped by their ID.
+	 */
+	public static Map<Integer, User> getAllUsers() {
+		synchronized(m_users) {
+			return new HashMap<Integer, User>(m_users);
+		}
+	}
+	
+	/**
+	 * Deletes all users, before the users are replaced by a snapshot
+	 * received from the server. The user interface is not updated, it
+	 * is rebuilt after the synchronization.
+	 */
+	public static void clear() {
+		synchronized(m_users) {
+			for(User user : m_users.values()) {
+				// Modifying the user's channel
+				Channel channel = ChannelManager.getChannel(user.getChannel());
+				if(channel != null) {
+					synchronized(channel) {
+						channel.removeUser(user.getID());
+					}
+				}
+			}
+			m_users.clear();
+		}
+	}
+	
 	/**
 	 * Sets the client's own user ID.
 	 * The ID is received from the server upon connection,
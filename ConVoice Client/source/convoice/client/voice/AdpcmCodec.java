@@ -0,0 +1,193 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The AdpcmCodec class compresses the samples with IMA ADPCM, to
+ * a quarter of their size.
+ * Every frame starts with a header holding the first sample and the
+ * step index of the encoder, followed by 4 bits per further sample,
+ * the low nibble of a byte first:
+ *
+ *   short firstSample | byte stepIndex | byte padded | nibbles
+ *
+ * The padded flag is set if the last byte holds a single nibble.
+ * The header makes every frame decodable on it's own. The encoder
+ * keeps it's step index between frames, so the step size does not
+ * have to adapt again at the start of every frame.
+ */
+public class AdpcmCodec implements VoiceCodec {
+	/** The size of the header of a frame. */
+	private static final int HEADER_SIZE = 4;
+
+	/** The quantizer step sizes. */
+	private static final int[] STEP_SIZES = {
+		7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+		50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+		253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+		1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+		3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+		12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+	};
+
+	/** The changes of the step index for each nibble. */
+	private static final int[] INDEX_CHANGES = {
+		-1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8
+	};
+
+	/** The step index of the encoder. */
+	private int m_stepIndex;
+
+	/**
+	 * Constructs an AdpcmCodec object.
+	 */
+	public AdpcmCodec() {
+		// Initializing members
+		m_stepIndex = 0;
+	}
+
+	/**
+	 * Returns the type of the codec.
+	 * @return CodecType.ADPCM
+	 */
+	public CodecType getType() {
+		return CodecType.ADPCM;
+	}
+
+	/**
+	 * Returns the maximum size of an encoded frame.
+	 * @param count The number of samples of the frame.
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxEncodedSize(int count) {
+		return HEADER_SIZE + count / 2;
+	}
+
+	/**
+	 * Encodes a frame of samples at the position of the buffer.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @param out The buffer receiving the encoded frame.
+	 * @return The number of bytes written.
+	 */
+	public int encode(short[] samples, int count, ByteBuffer out) {
+		if(count == 0) {
+			return 0;
+		}
+
+		// Writing the header
+		int start = out.position();
+		int predictor = samples[0];
+		int index = m_stepIndex;
+		out.putShort(samples[0]);
+		out.put((byte) index);
+		out.put((byte) ((count & 1) == 0 ? 1 : 0));
+
+		// Encoding the further samples in pairs
+		int packed = 0;
+		for(int i = 1; i < count; i++) {
+			// Quantizing the difference from the prediction
+			int step = STEP_SIZES[index];
+			int difference = samples[i] - predictor;
+			int nibble = 0;
+			if(difference < 0) {
+				nibble = 8;
+				difference = -difference;
+			}
+			int delta = step >> 3;
+			if(difference >= step) {
+				nibble |= 4;
+				difference -= step;
+				delta += step;
+			}
+			step >>= 1;
+			if(difference >= step) {
+				nibble |= 2;
+				difference -= step;
+				delta += step;
+			}
+			step >>= 1;
+			if(difference >= step) {
+				nibble |= 1;
+				delta += step;
+			}
+
+			// Updating the prediction the same way as the decoder
+			predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+			index = Math.max(0, Math.min(STEP_SIZES.length - 1, index + INDEX_CHANGES[nibble]));
+
+			// Packing the nibbles
+			if((i & 1) == 1) {
+				packed = nibble;
+			} else {
+				out.put((byte) (packed | (nibble << 4)));
+			}
+		}
+		if((count & 1) == 0) {
+			out.put((byte) packed);
+		}
+		m_stepIndex = index;
+		return out.position() - start;
+	}
+
+	/**
+	 * Decodes a frame from the position of the buffer.
+	 * @param in The buffer holding the encoded frame.
+	 * @param length The size of the encoded frame in bytes.
+	 * @param samples The array receiving the samples.
+	 * @return The number of samples decoded.
+	 */
+	public int decode(ByteBuffer in, int length, short[] samples) {
+		if(length < HEADER_SIZE || samples.length == 0) {
+			return 0;
+		}
+
+		// Reading the header
+		int predictor = in.getShort();
+		int index = Math.max(0, Math.min(STEP_SIZES.length - 1, in.get()));
+		int padding = in.get() != 0 ? 1 : 0;
+		samples[0] = (short) predictor;
+
+		// Decoding the nibbles
+		int count = Math.min(samples.length, 1 + 2 * (length - HEADER_SIZE) - padding);
+		int packed = 0;
+		for(int i = 1; i < count; i++) {
+			int nibble;
+			if((i & 1) == 1) {
+				packed = in.get();
+				nibble = packed & 0x0F;
+			} else {
+				nibble = (packed >> 4) & 0x0F;
+			}
+
+			// Applying the quantized difference
+			int step = STEP_SIZES[index];
+			int delta = step >> 3;
+			if((nibble & 4) != 0) {
+				delta += step;
+			}
+			if((nibble & 2) != 0) {
+				delta += step >> 1;
+			}
+			if((nibble & 1) != 0) {
+				delta += step >> 2;
+			}
+			predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+			index = Math.max(0, Math.min(STEP_SIZES.length - 1, index + INDEX_CHANGES[nibble]));
+			samples[i] = (short) predictor;
+		}
+		return count;
+	}
+
+	/**
+	 * Clamps a value to the range of a 16 bit sample.
+	 * @param value The value to clamp.
+	 * @return The clamped value.
+	 */
+	private static int clamp(int value) {
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+	}
+
+};
@@ -0,0 +1,100 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The CodecBenchmark class measures the speed and quality of the
+ * voice codecs.
+ * Each codec encodes and decodes a second of a synthetic voice-like
+ * signal repeatedly. The first rounds are not measured, so the JIT
+ * compiler can optimize the codec before the measured rounds. The
+ * results are the time needed to encode and decode a frame, the
+ * bitrate and the signal-to-noise ratio of the decoded signal.
+ * The benchmark can be run from the command line:
+ * CodecBenchmark [rounds]
+ */
+public class CodecBenchmark {
+	/** The number of frames of the signal. */
+	private static final int FRAMES = 1000 / VoiceFormat.FRAME_DURATION;
+
+	/** The number of unmeasured rounds. */
+	private static final int WARMUP_ROUNDS = 50;
+
+	/**
+	 * Runs the benchmark of every codec.
+	 * @param args The number of measured rounds.
+	 * @throws IOException If the signal could not be generated.
+	 */
+	public static void main(String[] args) throws IOException {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+		// Generating the signal from two tones
+		short[][] signal = new short[FRAMES][VoiceFormat.FRAME_SAMPLES];
+		ToneSource low = new ToneSource(220, 0.3);
+		ToneSource high = new ToneSource(1330, 0.1);
+		short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+		for(int f = 0; f < FRAMES; f++) {
+			low.read(signal[f]);
+			high.read(frame);
+			for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+				signal[f][i] += frame[i];
+			}
+		}
+
+		for(CodecType type : CodecType.values()) {
+			VoiceCodec codec = type.createCodec();
+			ByteBuffer packet = ByteBuffer.allocate(VoicePacket.MAX_SIZE);
+			short[] decoded = new short[VoiceFormat.FRAME_SAMPLES];
+
+			// Warming up
+			for(int r = 0; r < WARMUP_ROUNDS; r++) {
+				for(int f = 0; f < FRAMES; f++) {
+					packet.clear();
+					int length = codec.encode(signal[f], VoiceFormat.FRAME_SAMPLES, packet);
+					packet.flip();
+					codec.decode(packet, length, decoded);
+				}
+			}
+
+			// Measuring encoding and decoding separately
+			long encodeTime = 0;
+			long decodeTime = 0;
+			double signalPower = 0;
+			double noisePower = 0;
+			int length = 0;
+			for(int r = 0; r < rounds; r++) {
+				for(int f = 0; f < FRAMES; f++) {
+					packet.clear();
+					long start = System.nanoTime();
+					length = codec.encode(signal[f], VoiceFormat.FRAME_SAMPLES, packet);
+					long middle = System.nanoTime();
+					packet.flip();
+					codec.decode(packet, length, decoded);
+					long end = System.nanoTime();
+					encodeTime += middle - start;
+					decodeTime += end - middle;
+
+					// Measuring the quality in the last round
+					if(r == rounds - 1) {
+						for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+							double noise = signal[f][i] - decoded[i];
+							signalPower += (double) signal[f][i] * signal[f][i];
+							noisePower += noise * noise;
+						}
+					}
+				}
+			}
+
+			// Printing the results
+			long frames = (long) rounds * FRAMES;
+			System.out.println(String.format("%-8s encode=%dns/frame decode=%dns/frame size=%dB/frame bitrate=%dbps snr=%s",
+					type, encodeTime / frames, decodeTime / frames, length,
+					type.getBitrate(VoiceFormat.FRAME_SAMPLES, VoiceFormat.FRAME_DURATION),
+					noisePower == 0 ? "lossless" : String.format("%.1fdB", 10 * Math.log10(signalPower / noisePower))));
+		}
+	}
+
+};
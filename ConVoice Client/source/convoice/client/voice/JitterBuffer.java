@@ -0,0 +1,444 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The JitterBuffer class smooths out the irregular arrival of the
+ * voice frames of a single speaker.
+ * Frames are stored in a preallocated ring indexed by their sequence
+ * number, so frames arriving out of order are played in order. The
+ * interarrival jitter is estimated as in RFC 3550, and the target
+ * depth of the buffer follows the estimate: playback starts once the
+ * target depth is reached, and frames are skipped one at a time when
+ * the buffer grows deeper than necessary. The depth never exceeds the maximum
+ * latency of the buffer. Missing frames are recovered from the redundant
+ * copies of forward error correction if possible, and concealed by the
+ * LossConcealer otherwise. After a comfort noise
+ * marker, the buffer returns noise instead of silence until the next
+ * frame of the speaker arrives.
+ * The buffer does not read the clock, arrival times are passed by the
+ * caller, which makes it usable in simulations. It is not thread-safe.
+ */
+public class JitterBuffer {
+	/** The state of get() when a received frame was returned. */
+	public static final int PLAYED = 0;
+
+	/** The state of get() when a missing frame was concealed. */
+	public static final int CONCEALED = 1;
+
+	/** The state of get() when silence was returned, because the buffer is filling up. */
+	public static final int BUFFERING = 2;
+
+	/** The state of get() when the buffer ran empty, and started filling up again. */
+	public static final int UNDERRUN = 3;
+
+	/** The state of get() when comfort noise was returned, because the speaker is silent. */
+	public static final int COMFORT_NOISE = 4;
+
+	/** The number of frames the buffer can store. */
+	private static final int CAPACITY = 64;
+
+	/** The maximum number of consecutive frames concealed. */
+	private static final int MAX_CONCEALED_FRAMES = 5;
+
+	/** The number of jitter estimates the target depth covers. */
+	private static final double JITTER_FACTOR = 3.0;
+
+	/** The stored frames, indexed by their sequence number. */
+	private short[][] m_frames;
+
+	/** The sequence numbers of the stored frames. */
+	private int[] m_sequences;
+
+	/** Are the slots of the ring holding a frame? */
+	private boolean[] m_stored;
+
+	/** Are the frames of the slots redundant copies? */
+	private boolean[] m_redundant;
+
+	/** The concealer of the missing frames. */
+	private LossConcealer m_concealer;
+
+	/** The frame of noise stored in place of a comfort noise marker. */
+	private short[] m_noiseFrame;
+
+	/** The amplitude of the comfort noise, 0 while the speaker is speaking. */
+	private int m_comfortAmplitude;
+
+	/** The generator of the comfort noise. */
+	private Random m_random;
+
+	/** The sequence number of the frame returned by the last get() that played or concealed. */
+	private int m_lastSequence;
+
+	/** The sequence number of the next frame to be played. */
+	private int m_nextSequence;
+
+	/** The highest sequence number received. */
+	private int m_highestSequence;
+
+	/** Has a frame been received since the buffer was reset? */
+	private boolean m_started;
+
+	/** Is the buffer filling up before playback? */
+	private boolean m_buffering;
+
+	/** The number of consecutive frames concealed. */
+	private int m_concealedRun;
+
+	/** The maximum depth of the buffer in frames. */
+	private int m_maxDepth;
+
+	/** The current target depth of the buffer in frames. */
+	private int m_targetDepth;
+
+	/** The estimated interarrival jitter in milliseconds. */
+	private double m_jitter;
+
+	/** The arrival time of the previous frame in milliseconds. */
+	private double m_lastArrival;
+
+	/** The timestamp of the previous frame in samples. */
+	private int m_lastTimestamp;
+
+	/** The number of frames played. */
+	private long m_played;
+
+	/** The number of frames concealed. */
+	private long m_concealed;
+
+	/** The number of frames played from redundant copies. */
+	private long m_recovered;
+
+	/** The number of underruns. */
+	private long m_underruns;
+
+	/** The number of frames dropped, because they arrived too late. */
+	private long m_late;
+
+	/** The number of frames skipped, to keep the latency low. */
+	private long m_skipped;
+
+	/**
+	 * Constructs a JitterBuffer object.
+	 * @param maxLatency The maximum latency added by the buffer in milliseconds.
+	 */
+	public JitterBuffer(int maxLatency) {
+		// Initializing members
+		m_frames = new short[CAPACITY][VoiceFormat.FRAME_SAMPLES];
+		m_sequences = new int[CAPACITY];
+		m_stored = new boolean[CAPACITY];
+		m_redundant = new boolean[CAPACITY];
+		m_concealer = new LossConcealer();
+		m_noiseFrame = new short[VoiceFormat.FRAME_SAMPLES];
+		m_random = new Random();
+		m_maxDepth = Math.max(1, Math.min(CAPACITY - 1, maxLatency / VoiceFormat.FRAME_DURATION));
+		m_targetDepth = 1;
+		m_jitter = 0;
+		reset();
+	}
+
+	/**
+	 * Stores a received frame.
+	 * @param sequence The sequence number of the frame.
+	 * @param timestamp The timestamp of the frame's first sample.
+	 * @param arrival The arrival time of the frame in milliseconds.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 */
+	public void put(int sequence, int timestamp, double arrival, short[] samples, int count) {
+		// Starting with the first frame
+		if(!m_started) {
+			m_started = true;
+			m_nextSequence = sequence;
+			m_highestSequence = sequence;
+		} else {
+			// Estimating the interarrival jitter
+			double transit = (arrival - m_lastArrival)
+					- (timestamp - m_lastTimestamp) * 1000.0 / VoiceFormat.SAMPLE_RATE;
+			m_jitter += (Math.abs(transit) - m_jitter) / 16;
+			m_targetDepth = Math.max(1, Math.min(m_maxDepth,
+					(int) Math.ceil(JITTER_FACTOR * m_jitter / VoiceFormat.FRAME_DURATION)));
+		}
+		m_lastArrival = arrival;
+		m_lastTimestamp = timestamp;
+
+		// Dropping frames which are already played or concealed
+		if(sequence - m_nextSequence < 0) {
+			m_late++;
+			return;
+		}
+
+		// Restarting if the frame does not fit in the ring
+		if(sequence - m_nextSequence >= CAPACITY) {
+			reset();
+			m_started = true;
+			m_nextSequence = sequence;
+			m_highestSequence = sequence;
+		}
+
+		// Storing the frame
+		int slot = sequence & (CAPACITY - 1);
+		int length = Math.min(count, VoiceFormat.FRAME_SAMPLES);
+		System.arraycopy(samples, 0, m_frames[slot], 0, length);
+		Arrays.fill(m_frames[slot], length, VoiceFormat.FRAME_SAMPLES, (short) 0);
+		m_sequences[slot] = sequence;
+		m_stored[slot] = true;
+		m_redundant[slot] = false;
+		if(sequence - m_highestSequence > 0) {
+			m_highestSequence = sequence;
+		}
+		m_comfortAmplitude = 0;
+	}
+
+	/**
+	 * Stores a redundant copy of a frame, received in a later packet.
+	 * The copy is only stored if the frame itself is missing and not yet
+	 * played. Copies are not used for the jitter estimate, since they
+	 * arrive with the later packet.
+	 * @param sequence The sequence number of the copied frame.
+	 * @param samples The samples of the copy.
+	 * @param count The number of samples.
+	 */
+	public void putRedundant(int sequence, short[] samples, int count) {
+		// Ignoring copies of played frames, or copies not fitting in the ring
+		if(!m_started || sequence - m_nextSequence < 0 || sequence - m_nextSequence >= CAPACITY) {
+			return;
+		}
+
+		// Ignoring copies of received frames
+		int slot = sequence & (CAPACITY - 1);
+		if(m_stored[slot] && m_sequences[slot] == sequence) {
+			return;
+		}
+
+		// Storing the copy
+		int length = Math.min(count, VoiceFormat.FRAME_SAMPLES);
+		System.arraycopy(samples, 0, m_frames[slot], 0, length);
+		Arrays.fill(m_frames[slot], length, VoiceFormat.FRAME_SAMPLES, (short) 0);
+		m_sequences[slot] = sequence;
+		m_stored[slot] = true;
+		m_redundant[slot] = true;
+		if(sequence - m_highestSequence > 0) {
+			m_highestSequence = sequence;
+		}
+	}
+
+	/**
+	 * Stores a comfort noise marker. The marker takes the place of a
+	 * frame of noise, and the following gap is filled with noise too.
+	 * @param sequence The sequence number of the marker.
+	 * @param timestamp The timestamp of the marker.
+	 * @param arrival The arrival time of the marker in milliseconds.
+	 * @param amplitude The RMS amplitude of the noise.
+	 */
+	public void putComfortNoise(int sequence, int timestamp, double arrival, int amplitude) {
+		// Storing a frame of noise in place of the marker
+		boolean latest = !m_started || sequence - m_highestSequence > 0;
+		generateNoise(m_noiseFrame, amplitude);
+		put(sequence, timestamp, arrival, m_noiseFrame, VoiceFormat.FRAME_SAMPLES);
+
+		// Filling the gap with noise, unless a later frame already arrived
+		if(latest) {
+			m_comfortAmplitude = amplitude;
+		}
+	}
+
+	/**
+	 * Returns the next frame to be played, called once per frame period.
+	 * @param frame The array receiving VoiceFormat.FRAME_SAMPLES samples.
+	 * @return The state of the buffer: PLAYED, CONCEALED, BUFFERING, UNDERRUN or COMFORT_NOISE.
+	 */
+	public int get(short[] frame) {
+		// Filling up to the target depth before playing
+		if(m_buffering) {
+			if(!m_started || getDepth() < m_targetDepth) {
+				return fillGap(frame, BUFFERING);
+			}
+			m_buffering = false;
+		}
+
+		// Skipping a frame if the buffer is deeper than necessary
+		if(getDepth() > m_targetDepth + 2) {
+			discard(m_nextSequence++);
+			m_skipped++;
+		}
+
+		// Skipping frames until the latency is within the bound
+		while(getDepth() > m_maxDepth) {
+			discard(m_nextSequence++);
+			m_skipped++;
+		}
+
+		// Playing the next frame if it has been received
+		int slot = m_nextSequence & (CAPACITY - 1);
+		if(m_stored[slot] && m_sequences[slot] == m_nextSequence) {
+			System.arraycopy(m_frames[slot], 0, frame, 0, VoiceFormat.FRAME_SAMPLES);
+			m_concealer.played(frame);
+			m_stored[slot] = false;
+			if(m_redundant[slot]) {
+				m_recovered++;
+			}
+			m_lastSequence = m_nextSequence++;
+			m_concealedRun = 0;
+			m_played++;
+			return PLAYED;
+		}
+
+		// Starting over if nothing is buffered for a while
+		if(m_highestSequence - m_nextSequence < 0 || m_concealedRun == MAX_CONCEALED_FRAMES) {
+			m_buffering = true;
+			m_concealedRun = 0;
+			if(m_highestSequence - m_nextSequence < 0) {
+				m_nextSequence = m_highestSequence + 1;
+			}
+			if(m_comfortAmplitude == 0) {
+				m_underruns++;
+			}
+			return fillGap(frame, UNDERRUN);
+		}
+
+		// Concealing the missing frame
+		m_concealedRun++;
+		m_concealer.conceal(frame);
+		m_lastSequence = m_nextSequence++;
+		m_concealed++;
+		return CONCEALED;
+	}
+
+	/**
+	 * Returns the number of frames between the next frame to be played
+	 * and the highest received frame, including both.
+	 * @return The current depth in frames.
+	 */
+	public int getDepth() {
+		return m_started ? Math.max(0, m_highestSequence - m_nextSequence + 1) : 0;
+	}
+
+	/**
+	 * Returns the current target depth of the buffer.
+	 * @return The target depth in frames.
+	 */
+	public int getTargetDepth() {
+		return m_targetDepth;
+	}
+
+	/**
+	 * Returns the estimated interarrival jitter.
+	 * @return The jitter in milliseconds.
+	 */
+	public double getJitter() {
+		return m_jitter;
+	}
+
+	/**
+	 * Returns the number of frames played.
+	 * @return The number of played frames.
+	 */
+	public long getPlayedCount() {
+		return m_played;
+	}
+
+	/**
+	 * Returns the sequence number of the frame returned by the last get()
+	 * which returned PLAYED or CONCEALED.
+	 * @return The sequence number of the frame.
+	 */
+	public int getLastSequence() {
+		return m_lastSequence;
+	}
+
+	/**
+	 * Returns the number of frames concealed.
+	 * @return The number of concealed frames.
+	 */
+	public long getConcealedCount() {
+		return m_concealed;
+	}
+
+	/**
+	 * Returns the number of frames played from redundant copies.
+	 * @return The number of recovered frames.
+	 */
+	public long getRecoveredCount() {
+		return m_recovered;
+	}
+
+	/**
+	 * Returns the number of underruns.
+	 * @return The number of underruns.
+	 */
+	public long getUnderrunCount() {
+		return m_underruns;
+	}
+
+	/**
+	 * Returns the number of frames dropped because they arrived late.
+	 * @return The number of late frames.
+	 */
+	public long getLateCount() {
+		return m_late;
+	}
+
+	/**
+	 * Returns the number of frames skipped to keep the latency low.
+	 * @return The number of skipped frames.
+	 */
+	public long getSkippedCount() {
+		return m_skipped;
+	}
+
+	/**
+	 * Empties the buffer, the next frame starts a new stream.
+	 */
+	public void reset() {
+		Arrays.fill(m_stored, false);
+		m_concealer.reset();
+		m_started = false;
+		m_buffering = true;
+		m_concealedRun = 0;
+		m_comfortAmplitude = 0;
+	}
+
+	/**
+	 * Fills a frame for which no frame was received, with comfort noise
+	 * if the speaker is silent, or with silence otherwise.
+	 * @param frame The array receiving the samples.
+	 * @param state The state returned if the speaker is not silent.
+	 * @return COMFORT_NOISE if noise was returned, the specified state otherwise.
+	 */
+	private int fillGap(short[] frame, int state) {
+		if(m_comfortAmplitude > 0) {
+			generateNoise(frame, m_comfortAmplitude);
+			return COMFORT_NOISE;
+		}
+		Arrays.fill(frame, (short) 0);
+		return state;
+	}
+
+	/**
+	 * Generates a frame of white noise.
+	 * @param frame The array receiving the samples.
+	 * @param amplitude The RMS amplitude of the noise.
+	 */
+	private void generateNoise(short[] frame, int amplitude) {
+		for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+			frame[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, m_random.nextGaussian() * amplitude));
+		}
+	}
+
+	/**
+	 * Discards the frame with the specified sequence number, if stored.
+	 * @param sequence The sequence number of the frame.
+	 */
+	private void discard(int sequence) {
+		int slot = sequence & (CAPACITY - 1);
+		if(m_sequences[slot] == sequence) {
+			m_stored[slot] = false;
+		}
+	}
+
+};
@@ -0,0 +1,183 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * The JitterSimulator class measures the behavior of the JitterBuffer
+ * on a simulated network, without sockets or audio devices.
+ * A stream of frames is sent every frame period, each frame is delayed
+ * by the base delay plus a random jitter, or lost. The buffer is read
+ * every frame period on a virtual clock. The random generator is seeded,
+ * so a simulation with the same parameters always gives the same result.
+ * The simulator can be run from the command line:
+ * JitterSimulator [seed] [frames] [delay] [jitter] [loss] [maxLatency]
+ */
+public class JitterSimulator {
+	/** The seed of the random generator. */
+	private long m_seed;
+
+	/** The base network delay in milliseconds. */
+	private double m_delay;
+
+	/** The standard deviation of the network jitter in milliseconds. */
+	private double m_jitter;
+
+	/** The probability of losing a frame. */
+	private double m_loss;
+
+	/** The maximum latency of the simulated buffer in milliseconds. */
+	private int m_maxLatency;
+
+	/** The buffer of the last simulation. */
+	private JitterBuffer m_buffer;
+
+	/** The number of frames lost by the network in the last simulation. */
+	private int m_lost;
+
+	/** The average latency added by the buffer in milliseconds. */
+	private double m_averageLatency;
+
+	/** The maximum latency added by the buffer in milliseconds. */
+	private int m_peakLatency;
+
+	/**
+	 * Constructs a JitterSimulator object.
+	 * @param seed The seed of the random generator.
+	 * @param delay The base network delay in milliseconds.
+	 * @param jitter The standard deviation of the network jitter in milliseconds.
+	 * @param loss The probability of losing a frame.
+	 * @param maxLatency The maximum latency of the buffer in milliseconds.
+	 */
+	public JitterSimulator(long seed, double delay, double jitter, double loss, int maxLatency) {
+		// Initializing members
+		m_seed = seed;
+		m_delay = delay;
+		m_jitter = jitter;
+		m_loss = loss;
+		m_maxLatency = maxLatency;
+		m_buffer = null;
+	}
+
+	/**
+	 * Runs a simulation.
+	 * @param frames The number of frames sent.
+	 */
+	public void run(int frames) {
+		// Generating the arrival times of the frames
+		Random random = new Random(m_seed);
+		final double[] arrivals = new double[frames];
+		Integer[] order = new Integer[frames];
+		int received = 0;
+		m_lost = 0;
+		for(int i = 0; i < frames; i++) {
+			if(random.nextDouble() < m_loss) {
+				m_lost++;
+				continue;
+			}
+			arrivals[i] = i * VoiceFormat.FRAME_DURATION + m_delay + Math.abs(random.nextGaussian()) * m_jitter;
+			order[received++] = i;
+		}
+
+		// Ordering the frames by their arrival
+		Arrays.sort(order, 0, received, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(arrivals[a], arrivals[b]);
+			}
+		});
+
+		// Reading the buffer every frame period, until every frame arrived and drained
+		m_buffer = new JitterBuffer(m_maxLatency);
+		int drain = m_maxLatency / VoiceFormat.FRAME_DURATION + 1;
+		short[] samples = new short[VoiceFormat.FRAME_SAMPLES];
+		long latency = 0;
+		int ticks = 0;
+		m_peakLatency = 0;
+		int next = 0;
+		for(int tick = 0; next < received || drain-- > 0; tick++) {
+			// Delivering the frames arrived until the tick
+			double now = tick * VoiceFormat.FRAME_DURATION;
+			while(next < received && arrivals[order[next]] <= now) {
+				int sequence = order[next++];
+				m_buffer.put(sequence, sequence * VoiceFormat.FRAME_SAMPLES, arrivals[sequence], samples, samples.length);
+			}
+
+			// Playing a frame
+			m_buffer.get(samples);
+			if(next > 0) {
+				int depth = m_buffer.getDepth() * VoiceFormat.FRAME_DURATION;
+				latency += depth;
+				m_peakLatency = Math.max(m_peakLatency, depth);
+				ticks++;
+			}
+		}
+		m_averageLatency = ticks > 0 ? (double) latency / ticks : 0;
+	}
+
+	/**
+	 * Returns the buffer of the last simulation, holding it's counters.
+	 * @return The simulated buffer.
+	 */
+	public JitterBuffer getBuffer() {
+		return m_buffer;
+	}
+
+	/**
+	 * Returns the number of frames lost by the network.
+	 * @return The number of lost frames.
+	 */
+	public int getLostCount() {
+		return m_lost;
+	}
+
+	/**
+	 * Returns the average latency added by the buffer.
+	 * @return The average latency in milliseconds.
+	 */
+	public double getAverageLatency() {
+		return m_averageLatency;
+	}
+
+	/**
+	 * Returns the maximum latency added by the buffer.
+	 * @return The maximum latency in milliseconds.
+	 */
+	public int getPeakLatency() {
+		return m_peakLatency;
+	}
+
+	/**
+	 * Returns the results of the last simulation.
+	 * @return The results as text.
+	 */
+	@Override
+	public String toString() {
+		return String.format("played=%d concealed=%d underruns=%d late=%d skipped=%d lost=%d "
+				+ "jitter=%.1fms target=%d latency=%.1fms peak=%dms",
+				m_buffer.getPlayedCount(), m_buffer.getConcealedCount(), m_buffer.getUnderrunCount(),
+				m_buffer.getLateCount(), m_buffer.getSkippedCount(), m_lost, m_buffer.getJitter(),
+				m_buffer.getTargetDepth(), m_averageLatency, m_peakLatency);
+	}
+
+	/**
+	 * Runs a simulation with the parameters of the command line.
+	 * @param args The seed, frames, delay, jitter, loss and maximum latency.
+	 */
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		double delay = args.length > 2 ? Double.parseDouble(args[2]) : 40;
+		double jitter = args.length > 3 ? Double.parseDouble(args[3]) : 15;
+		double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0.01;
+		int maxLatency = args.length > 5 ? Integer.parseInt(args[5]) : VoiceManager.DEFAULT_MAX_LATENCY;
+
+		JitterSimulator simulator = new JitterSimulator(seed, delay, jitter, loss, maxLatency);
+		simulator.run(frames);
+		System.out.println(simulator);
+	}
+
+};
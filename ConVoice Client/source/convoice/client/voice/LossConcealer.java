@@ -0,0 +1,129 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.util.Arrays;
+
+/**
+ * The LossConcealer class generates the frames of a speaker which were
+ * lost, from the frames played before.
+ * Voiced speech is close to periodic, so the concealer estimates the
+ * pitch period of the last played frame by autocorrelation, and repeats
+ * the last period of the frame, continuing the waveform without a jump.
+ * Each further concealed frame is quieter, so long gaps fade out instead
+ * of buzzing. Frames without a clear period are repeated as a whole
+ * with the same fading.
+ */
+public class LossConcealer {
+	/** The shortest pitch period searched, of a 400 Hz voice. */
+	private static final int MIN_PERIOD = VoiceFormat.SAMPLE_RATE / 400;
+
+	/** The longest pitch period searched, of a 100 Hz voice. */
+	private static final int MAX_PERIOD = VoiceFormat.SAMPLE_RATE / 100;
+
+	/** The normalized correlation of frames considered periodic. */
+	private static final double MIN_CORRELATION = 0.5;
+
+	/** The gain of the first concealed frame. */
+	private static final double INITIAL_GAIN = 0.9;
+
+	/** The change of the gain per further concealed frame. */
+	private static final double GAIN_DECAY = 0.7;
+
+	/** The last played frame. */
+	private short[] m_history;
+
+	/** The estimated pitch period of the last played frame, 0 if not periodic. */
+	private int m_period;
+
+	/** The position within the repeated period. */
+	private int m_phase;
+
+	/** The gain of the next concealed frame. */
+	private double m_gain;
+
+	/** Has the period of the last played frame been estimated? */
+	private boolean m_analyzed;
+
+	/**
+	 * Constructs a LossConcealer object.
+	 */
+	public LossConcealer() {
+		// Initializing members
+		m_history = new short[VoiceFormat.FRAME_SAMPLES];
+		reset();
+	}
+
+	/**
+	 * Remembers a played frame, the base of the next concealed frames.
+	 * @param frame The VoiceFormat.FRAME_SAMPLES samples of the frame.
+	 */
+	public void played(short[] frame) {
+		System.arraycopy(frame, 0, m_history, 0, VoiceFormat.FRAME_SAMPLES);
+		m_analyzed = false;
+		m_gain = INITIAL_GAIN;
+	}
+
+	/**
+	 * Generates a concealed frame, continuing the played frames.
+	 * @param frame The array receiving VoiceFormat.FRAME_SAMPLES samples.
+	 */
+	public void conceal(short[] frame) {
+		// Estimating the period on the first concealed frame of a gap
+		if(!m_analyzed) {
+			m_period = findPeriod();
+			m_phase = 0;
+			m_analyzed = true;
+		}
+
+		// Repeating the last period, or the whole frame
+		int length = m_period > 0 ? m_period : VoiceFormat.FRAME_SAMPLES;
+		int offset = VoiceFormat.FRAME_SAMPLES - length;
+		for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+			frame[i] = (short) (m_history[offset + m_phase] * m_gain);
+			m_phase = (m_phase + 1) % length;
+		}
+		m_gain *= GAIN_DECAY;
+	}
+
+	/**
+	 * Forgets the played frames.
+	 */
+	public void reset() {
+		Arrays.fill(m_history, (short) 0);
+		m_period = 0;
+		m_phase = 0;
+		m_gain = INITIAL_GAIN;
+		m_analyzed = true;
+	}
+
+	/**
+	 * Estimates the pitch period of the last played frame, by finding the
+	 * lag of the highest normalized autocorrelation.
+	 * @return The period in samples, or 0 if the frame is not periodic.
+	 */
+	private int findPeriod() {
+		int bestPeriod = 0;
+		double bestCorrelation = MIN_CORRELATION;
+		for(int lag = MIN_PERIOD; lag <= MAX_PERIOD && lag < VoiceFormat.FRAME_SAMPLES; lag++) {
+			double product = 0;
+			double energy = 0;
+			double lagEnergy = 0;
+			for(int i = lag; i < VoiceFormat.FRAME_SAMPLES; i++) {
+				product += (double) m_history[i] * m_history[i - lag];
+				energy += (double) m_history[i] * m_history[i];
+				lagEnergy += (double) m_history[i - lag] * m_history[i - lag];
+			}
+			if(energy == 0 || lagEnergy == 0) {
+				continue;
+			}
+			double correlation = product / Math.sqrt(energy * lagEnergy);
+			if(correlation > bestCorrelation) {
+				bestCorrelation = correlation;
+				bestPeriod = lag;
+			}
+		}
+		return bestPeriod;
+	}
+
+};
@@ -0,0 +1,354 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The LossSimulator class measures the quality and the bandwidth of the
+ * voice transport on a lossy network, without sockets or audio devices.
+ * A synthetic voice-like signal is encoded by a PayloadEncoder into
+ * packets, as sent by the client. The packets are lost in bursts, as
+ * described by the Gilbert model, and the others are delayed by a random
+ * jitter. The received packets are decoded by a PayloadDecoder into a
+ * JitterBuffer, read every frame period on a virtual clock, so the
+ * simulation covers forward error correction, loss concealment and the
+ * jitter buffer together. The quality is the segmental signal-to-noise
+ * ratio of the played frames, with missing frames counting at the floor
+ * of the ratio, measured over all frames and over the lost frames only. The random generator is seeded, so a simulation with the
+ * same parameters always gives the same result.
+ * The simulator can be run from the command line, by default it compares
+ * every redundancy from 0 to PayloadEncoder.MAX_REDUNDANCY:
+ * LossSimulator [seed] [frames] [loss] [burst] [jitter] [codec] [redundancy]
+ */
+public class LossSimulator {
+	/** The ID of the simulated speaker. */
+	private static final int SPEAKER_ID = 1;
+
+	/** The base network delay in milliseconds. */
+	private static final double DELAY = 40;
+
+	/** The lowest signal-to-noise ratio of a frame in dB, also counted for missing frames. */
+	private static final double MIN_SNR = -10;
+
+	/** The highest signal-to-noise ratio of a frame in dB. */
+	private static final double MAX_SNR = 35;
+
+	/** The seed of the random generator. */
+	private long m_seed;
+
+	/** The average probability of losing a packet. */
+	private double m_loss;
+
+	/** The average number of packets lost in a burst. */
+	private double m_burst;
+
+	/** The standard deviation of the network jitter in milliseconds. */
+	private double m_jitter;
+
+	/** The codec of the frames. */
+	private CodecType m_codec;
+
+	/** The buffer of the last simulation. */
+	private JitterBuffer m_buffer;
+
+	/** The number of redundant copies per packet in the last simulation. */
+	private int m_redundancy;
+
+	/** The number of packets lost by the network in the last simulation. */
+	private int m_lost;
+
+	/** The bitrate of the packets in the last simulation in bits per second. */
+	private double m_bitrate;
+
+	/** The average segmental signal-to-noise ratio of the last simulation in dB. */
+	private double m_quality;
+
+	/** The average segmental signal-to-noise ratio of the lost frames in dB. */
+	private double m_lossQuality;
+
+	/**
+	 * The Packet class holds a simulated packet on it's way through the network.
+	 */
+	private static class Packet {
+		/** The arrival time of the packet in milliseconds. */
+		private double m_arrival;
+
+		/** The content of the packet. */
+		private byte[] m_data;
+
+		/**
+		 * Constructs a Packet object.
+		 * @param arrival The arrival time of the packet in milliseconds.
+		 * @param data The content of the packet.
+		 */
+		private Packet(double arrival, byte[] data) {
+			m_arrival = arrival;
+			m_data = data;
+		}
+	};
+
+	/**
+	 * Constructs a LossSimulator object.
+	 * @param seed The seed of the random generator.
+	 * @param loss The average probability of losing a packet.
+	 * @param burst The average number of packets lost in a burst, 1 for independent losses.
+	 * @param jitter The standard deviation of the network jitter in milliseconds.
+	 * @param codec The codec of the frames.
+	 */
+	public LossSimulator(long seed, double loss, double burst, double jitter, CodecType codec) {
+		// Initializing members
+		m_seed = seed;
+		m_loss = loss;
+		m_burst = Math.max(1, burst);
+		m_jitter = jitter;
+		m_codec = codec;
+		m_buffer = null;
+	}
+
+	/**
+	 * Runs a simulation.
+	 * @param frames The number of frames sent.
+	 * @param redundancy The number of redundant copies per packet.
+	 */
+	public void run(int frames, int redundancy) {
+		// Generating the signal, the same for every redundancy
+		Random random = new Random(m_seed);
+		short[][] signal = generateSignal(random, frames);
+
+		// Encoding and sending the frames
+		PayloadEncoder encoder = new PayloadEncoder(m_codec);
+		encoder.setRedundancy(redundancy);
+		m_redundancy = encoder.getRedundancy();
+		ByteBuffer buffer = ByteBuffer.allocate(VoicePacket.MAX_SIZE);
+		List<Packet> packets = new ArrayList<Packet>();
+		double leaveBurst = 1 / m_burst;
+		double enterBurst = m_loss < 1 ? m_loss * leaveBurst / (1 - m_loss) : 1;
+		boolean burst = false;
+		boolean[] lost = new boolean[frames];
+		long bytes = 0;
+		m_lost = 0;
+		for(int f = 0; f < frames; f++) {
+			// Writing the packet as relayed by the server
+			buffer.clear();
+			buffer.putInt(SPEAKER_ID);
+			buffer.putInt(f);
+			buffer.putInt(f * VoiceFormat.FRAME_SAMPLES);
+			encoder.encode(signal[f], VoiceFormat.FRAME_SAMPLES, buffer);
+			bytes += buffer.position();
+
+			// Losing the packet, or delaying it
+			burst = random.nextDouble() < (burst ? 1 - leaveBurst : enterBurst);
+			if(burst) {
+				lost[f] = true;
+				m_lost++;
+				continue;
+			}
+			byte[] data = new byte[buffer.position()];
+			System.arraycopy(buffer.array(), 0, data, 0, data.length);
+			packets.add(new Packet(f * VoiceFormat.FRAME_DURATION + DELAY + Math.abs(random.nextGaussian()) * m_jitter, data));
+		}
+		m_bitrate = bytes * 8 * 1000.0 / ((double) frames * VoiceFormat.FRAME_DURATION);
+
+		// Ordering the packets by their arrival
+		Collections.sort(packets, new Comparator<Packet>() {
+			@Override
+			public int compare(Packet a, Packet b) {
+				return Double.compare(a.m_arrival, b.m_arrival);
+			}
+		});
+
+		// Receiving the packets into the buffer
+		m_buffer = new JitterBuffer(VoiceManager.DEFAULT_MAX_LATENCY);
+		final JitterBuffer jitterBuffer = m_buffer;
+		final double[] now = new double[1];
+		VoiceListener listener = new VoiceListener() {
+			@Override
+			public void onVoiceFrame(int userID, int sequence, int timestamp, short[] samples, int count) {
+				jitterBuffer.put(sequence, timestamp, now[0], samples, count);
+			}
+
+			@Override
+			public void onRedundantFrame(int userID, int sequence, short[] samples, int count) {
+				jitterBuffer.putRedundant(sequence, samples, count);
+			}
+
+			@Override
+			public void onComfortNoise(int userID, int sequence, int timestamp, int amplitude) {
+				jitterBuffer.putComfortNoise(sequence, timestamp, now[0], amplitude);
+			}
+		};
+
+		// Playing a frame every frame period, until every packet arrived and drained
+		PayloadDecoder decoder = new PayloadDecoder();
+		double[] quality = new double[frames];
+		Arrays.fill(quality, MIN_SNR);
+		short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+		int drain = VoiceManager.DEFAULT_MAX_LATENCY / VoiceFormat.FRAME_DURATION + 1;
+		int next = 0;
+		for(int tick = 0; next < packets.size() || drain-- > 0; tick++) {
+			// Delivering the packets arrived until the tick
+			now[0] = tick * VoiceFormat.FRAME_DURATION;
+			while(next < packets.size() && packets.get(next).m_arrival <= now[0]) {
+				ByteBuffer packet = ByteBuffer.wrap(packets.get(next++).m_data);
+				int userID = packet.getInt();
+				int sequence = packet.getInt();
+				int timestamp = packet.getInt();
+				decoder.decode(packet, userID, sequence, timestamp, listener);
+			}
+
+			// Measuring the played or concealed frame against the signal
+			int state = m_buffer.get(frame);
+			int sequence = m_buffer.getLastSequence();
+			if((state == JitterBuffer.PLAYED || state == JitterBuffer.CONCEALED) && sequence >= 0 && sequence < frames) {
+				quality[sequence] = measureQuality(signal[sequence], frame);
+			}
+		}
+
+		// Averaging the quality of the frames, and of the lost frames
+		double sum = 0;
+		double lossSum = 0;
+		for(int f = 0; f < frames; f++) {
+			sum += quality[f];
+			if(lost[f]) {
+				lossSum += quality[f];
+			}
+		}
+		m_quality = frames > 0 ? sum / frames : 0;
+		m_lossQuality = m_lost > 0 ? lossSum / m_lost : 0;
+	}
+
+	/**
+	 * Returns the buffer of the last simulation, holding it's counters.
+	 * @return The simulated buffer.
+	 */
+	public JitterBuffer getBuffer() {
+		return m_buffer;
+	}
+
+	/**
+	 * Returns the number of packets lost by the network.
+	 * @return The number of lost packets.
+	 */
+	public int getLostCount() {
+		return m_lost;
+	}
+
+	/**
+	 * Returns the bitrate of the packets, including the headers and the redundant copies.
+	 * @return The bitrate in bits per second.
+	 */
+	public double getBitrate() {
+		return m_bitrate;
+	}
+
+	/**
+	 * Returns the average segmental signal-to-noise ratio of the frames.
+	 * @return The quality in dB.
+	 */
+	public double getQuality() {
+		return m_quality;
+	}
+
+	/**
+	 * Returns the average segmental signal-to-noise ratio of the frames
+	 * lost by the network, as recovered or concealed.
+	 * @return The quality in dB.
+	 */
+	public double getLossQuality() {
+		return m_lossQuality;
+	}
+
+	/**
+	 * Returns the results of the last simulation.
+	 * @return The results as text.
+	 */
+	@Override
+	public String toString() {
+		return String.format("codec=%s redundancy=%d bitrate=%.1fkbps lost=%d recovered=%d concealed=%d "
+				+ "underruns=%d late=%d quality=%.1fdB lossQuality=%.1fdB",
+				m_codec, m_redundancy, m_bitrate / 1000, m_lost, m_buffer.getRecoveredCount(),
+				m_buffer.getConcealedCount(), m_buffer.getUnderrunCount(), m_buffer.getLateCount(), m_quality, m_lossQuality);
+	}
+
+	/**
+	 * Generates a voice-like signal: the harmonics of a gliding pitch,
+	 * shaped by a syllable-rate envelope, with a little noise.
+	 * @param random The random generator of the noise.
+	 * @param frames The number of frames to generate.
+	 * @return The frames of the signal.
+	 */
+	private static short[][] generateSignal(Random random, int frames) {
+		short[][] signal = new short[frames][VoiceFormat.FRAME_SAMPLES];
+		double phase = 0;
+		for(int f = 0; f < frames; f++) {
+			for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+				double time = (double) (f * VoiceFormat.FRAME_SAMPLES + i) / VoiceFormat.SAMPLE_RATE;
+				double pitch = 140 + 30 * Math.sin(2 * Math.PI * 0.7 * time);
+				phase += 2 * Math.PI * pitch / VoiceFormat.SAMPLE_RATE;
+
+				// Summing the harmonics below 4 kHz
+				double sample = 0;
+				for(int k = 1; k * pitch < 4000; k++) {
+					sample += Math.sin(k * phase) / k;
+				}
+				double envelope = 0.3 + 0.7 * Math.abs(Math.sin(2 * Math.PI * 2 * time));
+				signal[f][i] = (short) (4000 * envelope * sample + 50 * random.nextGaussian());
+			}
+		}
+		return signal;
+	}
+
+	/**
+	 * Measures the signal-to-noise ratio of a played frame.
+	 * @param original The sent frame.
+	 * @param played The played frame.
+	 * @return The ratio in dB, within MIN_SNR and MAX_SNR.
+	 */
+	private static double measureQuality(short[] original, short[] played) {
+		double signalPower = 0;
+		double noisePower = 0;
+		for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+			double noise = original[i] - played[i];
+			signalPower += (double) original[i] * original[i];
+			noisePower += noise * noise;
+		}
+		if(noisePower == 0) {
+			return MAX_SNR;
+		}
+		return Math.max(MIN_SNR, Math.min(MAX_SNR, 10 * Math.log10(signalPower / noisePower)));
+	}
+
+	/**
+	 * Runs simulations with the parameters of the command line.
+	 * @param args The seed, frames, loss, burst, jitter, codec and redundancy.
+	 */
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		double loss = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+		double burst = args.length > 3 ? Double.parseDouble(args[3]) : 1.5;
+		double jitter = args.length > 4 ? Double.parseDouble(args[4]) : 15;
+		CodecType codec = args.length > 5 ? CodecType.fromString(args[5]) : CodecType.ADPCM;
+		if(codec == null) {
+			System.out.println("Unknown codec: " + args[5]);
+			return;
+		}
+
+		// Comparing every redundancy, unless one is specified
+		LossSimulator simulator = new LossSimulator(seed, loss, burst, jitter, codec);
+		int first = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+		int last = args.length > 6 ? first : PayloadEncoder.MAX_REDUNDANCY;
+		for(int redundancy = first; redundancy <= last; redundancy++) {
+			simulator.run(frames, redundancy);
+			System.out.println(simulator);
+		}
+	}
+
+};
@@ -0,0 +1,67 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * The MicrophoneSource class is a PcmSource capturing the default
+ * recording device of the system.
+ * The capture line paces the reads, a frame is returned as soon as
+ * the device has recorded it.
+ */
+public class MicrophoneSource implements PcmSource {
+	/** The line capturing the device. */
+	private TargetDataLine m_line;
+
+	/** The buffer receiving the bytes of a frame. */
+	private byte[] m_buffer;
+
+	/**
+	 * Constructs a MicrophoneSource object, and starts capturing.
+	 * @throws LineUnavailableException If the device could not be opened.
+	 */
+	public MicrophoneSource() throws LineUnavailableException {
+		// Initializing members
+		m_line = AudioSystem.getTargetDataLine(VoiceFormat.getAudioFormat());
+		m_buffer = new byte[VoiceFormat.FRAME_BYTES];
+
+		// Starting the capture
+		m_line.open(VoiceFormat.getAudioFormat(), VoiceFormat.FRAME_BYTES * 4);
+		m_line.start();
+	}
+
+	/**
+	 * Reads the next captured frame.
+	 * @param frame The array receiving the samples.
+	 * @throws IOException If the line has been closed.
+	 */
+	public void read(short[] frame) throws IOException {
+		// Reading the bytes of the frame
+		int offset = 0;
+		while(offset < m_buffer.length) {
+			int count = m_line.read(m_buffer, offset, m_buffer.length - offset);
+			if(count <= 0 && !m_line.isOpen()) {
+				throw new IOException("Capture line closed.");
+			}
+			offset += count;
+		}
+
+		// Converting the big-endian samples
+		for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+			frame[i] = (short) ((m_buffer[2 * i] << 8) | (m_buffer[2 * i + 1] & 0xFF));
+		}
+	}
+
+	/**
+	 * Stops capturing, and closes the line.
+	 */
+	public void close() {
+		m_line.stop();
+		m_line.close();
+	}
+
+};
@@ -0,0 +1,91 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The NarrowbandAdpcmCodec class compresses the samples with IMA ADPCM
+ * at half of the sample rate, to an eighth of their size.
+ * Pairs of samples are averaged before encoding, and the decoded samples
+ * are linearly interpolated back to the full sample rate. The codec
+ * keeps the voice intelligible at a low bitrate, and is used for the
+ * redundant copies of forward error correction.
+ */
+public class NarrowbandAdpcmCodec implements VoiceCodec {
+	/** The codec encoding the narrowband samples. */
+	private AdpcmCodec m_codec;
+
+	/** The narrowband samples. */
+	private short[] m_narrow;
+
+	/**
+	 * Constructs a NarrowbandAdpcmCodec object.
+	 */
+	public NarrowbandAdpcmCodec() {
+		// Initializing members
+		m_codec = new AdpcmCodec();
+		m_narrow = new short[VoicePacket.MAX_SIZE];
+	}
+
+	/**
+	 * Returns the type of the codec.
+	 * @return CodecType.NARROWBAND_ADPCM
+	 */
+	public CodecType getType() {
+		return CodecType.NARROWBAND_ADPCM;
+	}
+
+	/**
+	 * Returns the maximum size of an encoded frame.
+	 * @param count The number of samples of the frame.
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxEncodedSize(int count) {
+		return m_codec.getMaxEncodedSize((count + 1) / 2);
+	}
+
+	/**
+	 * Encodes a frame of samples at the position of the buffer.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @param out The buffer receiving the encoded frame.
+	 * @return The number of bytes written.
+	 */
+	public int encode(short[] samples, int count, ByteBuffer out) {
+		// Averaging the pairs of samples
+		int narrowCount = Math.min((count + 1) / 2, m_narrow.length);
+		for(int i = 0; i < narrowCount; i++) {
+			int second = 2 * i + 1 < count ? samples[2 * i + 1] : samples[2 * i];
+			m_narrow[i] = (short) ((samples[2 * i] + second) / 2);
+		}
+
+		// Encoding the narrowband samples
+		return m_codec.encode(m_narrow, narrowCount, out);
+	}
+
+	/**
+	 * Decodes a frame from the position of the buffer.
+	 * @param in The buffer holding the encoded frame.
+	 * @param length The size of the encoded frame in bytes.
+	 * @param samples The array receiving the samples.
+	 * @return The number of samples decoded.
+	 */
+	public int decode(ByteBuffer in, int length, short[] samples) {
+		// Decoding the narrowband samples
+		int narrowCount = m_codec.decode(in, length, m_narrow);
+		int count = Math.min(2 * narrowCount, samples.length);
+
+		// Interpolating the samples in between
+		for(int i = 0; i < count; i++) {
+			int index = i / 2;
+			if((i & 1) == 0 || index + 1 >= narrowCount) {
+				samples[i] = m_narrow[index];
+			} else {
+				samples[i] = (short) ((m_narrow[index] + m_narrow[index + 1]) / 2);
+			}
+		}
+		return count;
+	}
+
+};
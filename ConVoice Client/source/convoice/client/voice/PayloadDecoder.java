@@ -0,0 +1,98 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The PayloadDecoder class reads the codec ID and the payload of the
+ * received voice packets, and passes their contents to a VoiceListener.
+ * Frames are decoded with the codec of their packet. Packets protected
+ * by forward error correction also pass the redundant copies of the
+ * previous frames, which the listener uses to fill the gaps of lost
+ * packets. Malformed payloads are ignored. The decoder reuses it's
+ * codecs and samples, so no memory is allocated per packet.
+ */
+public class PayloadDecoder {
+	/** The decoders of the frames, indexed by codec ID. */
+	private VoiceCodec[] m_decoders;
+
+	/** The decoded samples. */
+	private short[] m_samples;
+
+	/**
+	 * Constructs a PayloadDecoder object.
+	 */
+	public PayloadDecoder() {
+		// Initializing members
+		m_decoders = new VoiceCodec[CodecType.values().length];
+		for(CodecType type : CodecType.values()) {
+			m_decoders[type.getID()] = type.createCodec();
+		}
+		m_samples = new short[VoicePacket.MAX_SIZE / 2];
+	}
+
+	/**
+	 * Decodes the payload of a packet from the position of the buffer.
+	 * @param in The buffer positioned at the codec ID of the packet.
+	 * @param userID The ID of the speaking user.
+	 * @param sequence The sequence number of the packet.
+	 * @param timestamp The timestamp of the packet.
+	 * @param listener The listener receiving the contents of the packet.
+	 */
+	public void decode(ByteBuffer in, int userID, int sequence, int timestamp, VoiceListener listener) {
+		if(!in.hasRemaining()) {
+			return;
+		}
+		byte codecID = in.get();
+
+		// Passing comfort noise markers to the listener
+		if(codecID == VoicePacket.COMFORT_NOISE_ID) {
+			if(in.remaining() >= 2) {
+				listener.onComfortNoise(userID, sequence, timestamp, in.getShort());
+			}
+			return;
+		}
+
+		CodecType codec = CodecType.fromID((byte) (codecID & VoicePacket.CODEC_MASK));
+		if(codec == null) {
+			return;
+		}
+
+		// Decoding the frame
+		boolean redundant = (codecID & VoicePacket.FEC_FLAG) != 0;
+		int length = in.remaining();
+		if(redundant) {
+			if(in.remaining() < 2) {
+				return;
+			}
+			length = in.getShort() & 0xFFFF;
+			if(length > in.remaining()) {
+				return;
+			}
+		}
+		int end = in.position() + length;
+		int count = m_decoders[codec.getID()].decode(in, length, m_samples);
+		in.position(end);
+		listener.onVoiceFrame(userID, sequence, timestamp, m_samples, count);
+
+		// Decoding the copies of the previous frames
+		if(!redundant || !in.hasRemaining()) {
+			return;
+		}
+		int copies = in.get();
+		VoiceCodec decoder = m_decoders[CodecType.NARROWBAND_ADPCM.getID()];
+		for(int i = 0; i < copies && in.remaining() >= 3; i++) {
+			int distance = in.get();
+			length = in.getShort() & 0xFFFF;
+			if(length > in.remaining()) {
+				return;
+			}
+			end = in.position() + length;
+			int copyCount = decoder.decode(in, length, m_samples);
+			in.position(end);
+			listener.onRedundantFrame(userID, sequence - distance, m_samples, copyCount);
+		}
+	}
+
+};
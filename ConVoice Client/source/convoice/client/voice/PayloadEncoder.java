@@ -0,0 +1,140 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The PayloadEncoder class writes the codec ID and the payload of the
+ * sent voice packets.
+ * Without redundancy the payload is the frame encoded with the codec of
+ * the encoder. With redundancy the payload is protected by forward error
+ * correction: every frame is also encoded with the narrowband codec and
+ * kept in a short history, and each packet carries the copies of the
+ * previous frames after it's own frame. A single lost packet is then
+ * recovered from the next one, at a lower quality. The history only
+ * covers consecutive packets, it has to be cleared when the stream is
+ * interrupted.
+ */
+public class PayloadEncoder {
+	/** The maximum number of redundant copies per packet. */
+	public static final int MAX_REDUNDANCY = 3;
+
+	/** The codec of the frames. */
+	private VoiceCodec m_codec;
+
+	/** The codec of the redundant copies. */
+	private VoiceCodec m_redundantCodec;
+
+	/** The encoded copies of the previous frames. */
+	private byte[][] m_history;
+
+	/** The sizes of the encoded copies. */
+	private int[] m_historyLengths;
+
+	/** The index of the slot of the next copy. */
+	private int m_historyHead;
+
+	/** The number of copies in the history. */
+	private int m_historyCount;
+
+	/** The buffer the copies are encoded into. */
+	private ByteBuffer m_scratch;
+
+	/** The number of redundant copies per packet. */
+	private int m_redundancy;
+
+	/**
+	 * Constructs a PayloadEncoder object.
+	 * @param codec The codec of the frames.
+	 */
+	public PayloadEncoder(CodecType codec) {
+		// Initializing members
+		m_codec = codec.createCodec();
+		m_redundantCodec = CodecType.NARROWBAND_ADPCM.createCodec();
+		int size = m_redundantCodec.getMaxEncodedSize(VoiceFormat.FRAME_SAMPLES);
+		m_history = new byte[MAX_REDUNDANCY][size];
+		m_historyLengths = new int[MAX_REDUNDANCY];
+		m_scratch = ByteBuffer.allocate(size);
+		m_redundancy = 0;
+		clearHistory();
+	}
+
+	/**
+	 * Gets the codec of the frames.
+	 * @return The type of the codec.
+	 */
+	public CodecType getCodec() {
+		return m_codec.getType();
+	}
+
+	/**
+	 * Sets the number of redundant copies per packet.
+	 * @param redundancy The number of copies, 0 disables forward error correction.
+	 */
+	public void setRedundancy(int redundancy) {
+		m_redundancy = Math.max(0, Math.min(MAX_REDUNDANCY, redundancy));
+	}
+
+	/**
+	 * Gets the number of redundant copies per packet.
+	 * @return The number of copies.
+	 */
+	public int getRedundancy() {
+		return m_redundancy;
+	}
+
+	/**
+	 * Clears the history of the previous frames, when frames are not sent.
+	 */
+	public void clearHistory() {
+		m_historyHead = 0;
+		m_historyCount = 0;
+	}
+
+	/**
+	 * Writes the codec ID and the payload of a frame at the position of the buffer.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @param out The buffer receiving the payload.
+	 * @return The number of bytes written.
+	 */
+	public int encode(short[] samples, int count, ByteBuffer out) {
+		int start = out.position();
+
+		// Writing the frame only
+		if(m_redundancy == 0) {
+			out.put(m_codec.getType().getID());
+			m_codec.encode(samples, count, out);
+			clearHistory();
+			return out.position() - start;
+		}
+
+		// Writing the frame with it's length
+		out.put((byte) (m_codec.getType().getID() | VoicePacket.FEC_FLAG));
+		int lengthPosition = out.position();
+		out.putShort((short) 0);
+		int length = m_codec.encode(samples, count, out);
+		out.putShort(lengthPosition, (short) length);
+
+		// Writing the copies of the previous frames, the latest first
+		int copies = Math.min(m_redundancy, m_historyCount);
+		out.put((byte) copies);
+		for(int distance = 1; distance <= copies; distance++) {
+			int slot = (m_historyHead - distance + MAX_REDUNDANCY) % MAX_REDUNDANCY;
+			out.put((byte) distance);
+			out.putShort((short) m_historyLengths[slot]);
+			out.put(m_history[slot], 0, m_historyLengths[slot]);
+		}
+
+		// Keeping the copy of the frame for the next packets
+		m_scratch.clear();
+		int copyLength = m_redundantCodec.encode(samples, count, m_scratch);
+		System.arraycopy(m_scratch.array(), 0, m_history[m_historyHead], 0, copyLength);
+		m_historyLengths[m_historyHead] = copyLength;
+		m_historyHead = (m_historyHead + 1) % MAX_REDUNDANCY;
+		m_historyCount = Math.min(m_historyCount + 1, MAX_REDUNDANCY);
+		return out.position() - start;
+	}
+
+};
@@ -0,0 +1,26 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+
+/**
+ * The PcmSource interface represents a source of voice frames, like
+ * the microphone, or a synthetic source used for testing the voice
+ * transport over loopback.
+ */
+public interface PcmSource {
+	/**
+	 * Reads the next frame of samples, blocking until it is available.
+	 * Sources are paced in real time, a frame is returned every
+	 * VoiceFormat.FRAME_DURATION milliseconds.
+	 * @param frame The array receiving VoiceFormat.FRAME_SAMPLES samples.
+	 * @throws IOException If the frame could not be read.
+	 */
+	public void read(short[] frame) throws IOException;
+
+	/**
+	 * Closes the source, and releases it's resources.
+	 */
+	public void close();
+};
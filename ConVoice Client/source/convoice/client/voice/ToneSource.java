@@ -0,0 +1,70 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * The ToneSource class is a synthetic PcmSource generating a sine
+ * tone. It replaces the microphone when testing the voice transport
+ * over loopback, or on machines without a capture device.
+ */
+public class ToneSource implements PcmSource {
+	/** The frequency of the tone in Hz. */
+	private double m_frequency;
+
+	/** The amplitude of the tone. */
+	private double m_amplitude;
+
+	/** The index of the next sample. */
+	private long m_sample;
+
+	/** The time the next frame is due at, in nanoseconds. */
+	private long m_deadline;
+
+	/**
+	 * Constructs a ToneSource object.
+	 * @param frequency The frequency of the tone in Hz.
+	 * @param amplitude The amplitude of the tone, between 0 and 1.
+	 */
+	public ToneSource(double frequency, double amplitude) {
+		// Initializing members
+		m_frequency = frequency;
+		m_amplitude = amplitude * Short.MAX_VALUE;
+		m_sample = 0;
+		m_deadline = System.nanoTime();
+	}
+
+	/**
+	 * Generates the next frame of the tone, after waiting until it
+	 * is due.
+	 * @param frame The array receiving the samples.
+	 * @throws IOException If the thread was interrupted while waiting.
+	 */
+	public void read(short[] frame) throws IOException {
+		// Waiting until the frame is due
+		m_deadline += VoiceFormat.FRAME_DURATION * 1000000L;
+		long delay = m_deadline - System.nanoTime();
+		if(delay > 0) {
+			try {
+				Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+			} catch(InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		// Generating the samples
+		double step = 2 * Math.PI * m_frequency / VoiceFormat.SAMPLE_RATE;
+		for(int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+			frame[i] = (short) (m_amplitude * Math.sin(step * m_sample++));
+		}
+	}
+
+	/**
+	 * Closes the source. The tone has no resources to release.
+	 */
+	public void close() {
+	}
+
+};
@@ -0,0 +1,113 @@
+package convoice.client.voice;
+
+
+/**
+ * The VoiceActivityDetector class decides whether a captured frame
+ * contains speech, so silent frames do not have to be sent.
+ * The decision is based on the energy of the frame compared to the
+ * tracked level of the background noise, and on the zero-crossing rate
+ * of the frame: loud frames are always speech, quieter frames only if
+ * their zero-crossing rate is in the range of speech. After the last
+ * speech frame the detector stays active for a hangover period, so the
+ * ends of words are not cut off.
+ */
+public class VoiceActivityDetector {
+	/** The energy above the noise level of loud speech frames in dB. */
+	private static final double LOUD_THRESHOLD = 12.0;
+
+	/** The energy above the noise level of quiet speech frames in dB. */
+	private static final double QUIET_THRESHOLD = 6.0;
+
+	/** The lowest zero-crossing rate of quiet speech frames. */
+	private static final double MIN_CROSSING_RATE = 0.02;
+
+	/** The highest zero-crossing rate of quiet speech frames. */
+	private static final double MAX_CROSSING_RATE = 0.35;
+
+	/** The number of frames the detector stays active after speech. */
+	private static final int HANGOVER_FRAMES = 15;
+
+	/** The initial noise level in dB, of a quiet microphone. */
+	private static final double INITIAL_NOISE_LEVEL = 40.0;
+
+	/** The tracked level of the background noise in dB. */
+	private double m_noiseLevel;
+
+	/** The number of remaining hangover frames. */
+	private int m_hangover;
+
+	/** The decision on the last frame. */
+	private boolean m_active;
+
+	/**
+	 * Constructs a VoiceActivityDetector object.
+	 */
+	public VoiceActivityDetector() {
+		// Initializing members
+		m_noiseLevel = INITIAL_NOISE_LEVEL;
+		m_hangover = 0;
+		m_active = false;
+	}
+
+	/**
+	 * Decides whether a frame contains speech.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @return True if the frame should be sent.
+	 */
+	public boolean process(short[] samples, int count) {
+		// Measuring the energy and the zero-crossing rate
+		double energy = 0;
+		int crossings = 0;
+		for(int i = 0; i < count; i++) {
+			energy += (double) samples[i] * samples[i];
+			if(i > 0 && (samples[i] < 0) != (samples[i - 1] < 0)) {
+				crossings++;
+			}
+		}
+		double level = 10 * Math.log10(energy / Math.max(count, 1) + 1);
+		double crossingRate = (double) crossings / Math.max(count, 1);
+
+		// Deciding on the frame
+		boolean speech = level > m_noiseLevel + LOUD_THRESHOLD
+				|| (level > m_noiseLevel + QUIET_THRESHOLD
+					&& crossingRate >= MIN_CROSSING_RATE && crossingRate <= MAX_CROSSING_RATE);
+
+		// Tracking the noise level, quickly downwards and slowly upwards
+		if(level < m_noiseLevel) {
+			m_noiseLevel += (level - m_noiseLevel) * 0.2;
+		} else if(!speech) {
+			m_noiseLevel += (level - m_noiseLevel) * 0.05;
+		} else {
+			m_noiseLevel += 0.01;
+		}
+
+		// Applying the hangover
+		if(speech) {
+			m_hangover = HANGOVER_FRAMES;
+		} else if(m_hangover > 0) {
+			m_hangover--;
+			speech = true;
+		}
+		m_active = speech;
+		return speech;
+	}
+
+	/**
+	 * Returns the decision on the last frame.
+	 * @return True if the last frame contained speech.
+	 */
+	public boolean isActive() {
+		return m_active;
+	}
+
+	/**
+	 * Returns the amplitude of the background noise, used to generate
+	 * comfort noise at the receivers.
+	 * @return The RMS amplitude of the noise.
+	 */
+	public int getNoiseAmplitude() {
+		return (int) Math.min(Short.MAX_VALUE, Math.sqrt(Math.pow(10, m_noiseLevel / 10)));
+	}
+
+};
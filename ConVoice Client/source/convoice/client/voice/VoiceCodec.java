@@ -0,0 +1,47 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The VoiceCodec interface represents the encoding of the voice
+ * frames carried in the payload of the voice packets.
+ * Codecs encode into and decode from buffers supplied by the caller,
+ * so no memory is allocated per frame. Every frame is encoded on it's
+ * own, so a lost or reordered packet does not affect the decoding of
+ * the following ones, and one codec object can decode the frames of
+ * any number of speakers.
+ */
+public interface VoiceCodec {
+	/**
+	 * Returns the type of the codec.
+	 * @return The type of the codec.
+	 */
+	public CodecType getType();
+
+	/**
+	 * Returns the maximum size of an encoded frame.
+	 * @param count The number of samples of the frame.
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxEncodedSize(int count);
+
+	/**
+	 * Encodes a frame of samples at the position of the buffer.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @param out The buffer receiving the encoded frame.
+	 * @return The number of bytes written.
+	 */
+	public int encode(short[] samples, int count, ByteBuffer out);
+
+	/**
+	 * Decodes a frame from the position of the buffer.
+	 * @param in The buffer holding the encoded frame.
+	 * @param length The size of the encoded frame in bytes.
+	 * @param samples The array receiving the samples.
+	 * @return The number of samples decoded.
+	 */
+	public int decode(ByteBuffer in, int length, short[] samples);
+};
@@ -0,0 +1,221 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The VoiceConnection class is responsible for the UDP voice transport
+ * between the client and the relay of the server.
+ * Frames are sent with the header expected by the relay, numbered with
+ * a sequence number and the timestamp of their first sample, encoded
+ * with the codec negotiated in the connection handshake. Relayed frames
+ * of other users are received on a separate thread, decoded with the
+ * codec of their packet, and passed to the VoiceListener of the
+ * connection. Silent frames are not sent, only comfort noise markers
+ * in their place. With redundancy set, sent frames carry low-bitrate
+ * copies of the previous frames, and received copies are passed to the
+ * listener to recover lost frames. Both directions reuse their buffers and codecs, so
+ * no memory is allocated per frame.
+ */
+public class VoiceConnection implements Runnable {
+	/** The UDP channel connected to the relay. */
+	private DatagramChannel m_channel;
+
+	/** The ID of the client's user. */
+	private int m_userID;
+
+	/** The token authenticating the packets of the client. */
+	private long m_token;
+
+	/** The sequence number of the next sent frame. */
+	private int m_sequence;
+
+	/** The timestamp of the next sent frame. */
+	private int m_timestamp;
+
+	/** The encoder of the payload of the sent frames. */
+	private PayloadEncoder m_encoder;
+
+	/** The decoder of the payload of the received frames. */
+	private PayloadDecoder m_decoder;
+
+	/** The buffer of the sent packets. */
+	private ByteBuffer m_sendBuffer;
+
+	/** The listener receiving the relayed frames. */
+	private VoiceListener m_listener;
+
+	/** The running state-flag. */
+	private volatile boolean m_running;
+
+	/** The should run state-flag. */
+	private volatile boolean m_shouldRun;
+
+	/**
+	 * Constructs a VoiceConnection object.
+	 * @param relay The address of the relay of the server.
+	 * @param userID The ID of the client's user.
+	 * @param token The token received in the connection accepted message.
+	 * @param codec The codec of the sent frames.
+	 * @param listener The listener receiving the relayed frames.
+	 * @throws IOException If the UDP channel could not be opened.
+	 */
+	public VoiceConnection(InetSocketAddress relay, int userID, long token, CodecType codec,
+						   VoiceListener listener) throws IOException {
+		// Initializing members
+		m_channel = DatagramChannel.open();
+		m_channel.connect(relay);
+		m_userID = userID;
+		m_token = token;
+		m_sequence = 0;
+		m_timestamp = 0;
+		m_encoder = new PayloadEncoder(codec);
+		m_decoder = new PayloadDecoder();
+		m_sendBuffer = ByteBuffer.allocateDirect(VoicePacket.MAX_SIZE);
+		m_listener = listener;
+		m_running = false;
+		m_shouldRun = false;
+	}
+
+	/**
+	 * Sets the number of redundant copies of previous frames sent with
+	 * every frame. Called from the capture thread, or before it starts.
+	 * @param redundancy The number of copies, 0 disables forward error correction.
+	 */
+	public void setRedundancy(int redundancy) {
+		m_encoder.setRedundancy(redundancy);
+	}
+
+	/**
+	 * Sends a frame of samples to the relay.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @throws IOException If the packet could not be sent.
+	 */
+	public void send(short[] samples, int count) throws IOException {
+		// Writing the header
+		m_sendBuffer.clear();
+		m_sendBuffer.putInt(m_userID);
+		m_sendBuffer.putLong(m_token);
+		m_sendBuffer.putInt(m_sequence++);
+		m_sendBuffer.putInt(m_timestamp);
+		m_timestamp += count;
+
+		// Encoding the samples
+		m_encoder.encode(samples, count, m_sendBuffer);
+
+		// Sending the packet
+		m_sendBuffer.flip();
+		try {
+			m_channel.write(m_sendBuffer);
+		} catch(PortUnreachableException e) {
+			// The relay is not reachable, the frame is lost
+		}
+	}
+
+	/**
+	 * Sends a comfort noise marker to the relay, instead of a silent frame.
+	 * @param amplitude The RMS amplitude of the background noise.
+	 * @throws IOException If the packet could not be sent.
+	 */
+	public void sendComfortNoise(int amplitude) throws IOException {
+		// Writing the marker
+		m_sendBuffer.clear();
+		m_sendBuffer.putInt(m_userID);
+		m_sendBuffer.putLong(m_token);
+		m_sendBuffer.putInt(m_sequence++);
+		m_sendBuffer.putInt(m_timestamp);
+		m_sendBuffer.put(VoicePacket.COMFORT_NOISE_ID);
+		m_sendBuffer.putShort((short) amplitude);
+		m_encoder.clearHistory();
+
+		// Sending the packet
+		m_sendBuffer.flip();
+		try {
+			m_channel.write(m_sendBuffer);
+		} catch(PortUnreachableException e) {
+			// The relay is not reachable, the marker is lost
+		}
+	}
+
+	/**
+	 * Skips a frame which is not sent, advancing the timestamp.
+	 * @param count The number of samples of the frame.
+	 */
+	public void skip(int count) {
+		m_timestamp += count;
+		m_encoder.clearHistory();
+	}
+
+	/**
+	 * Runs the receiving loop of the connection. The loop blocks until
+	 * a packet is received, and passes the frame to the listener.
+	 */
+	public void run() {
+		// Setting state-flags
+		m_shouldRun = true;
+		m_running = true;
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(VoicePacket.MAX_SIZE);
+		while(m_shouldRun) {
+			try {
+				// Receiving the packet
+				buffer.clear();
+				m_channel.read(buffer);
+				buffer.flip();
+				if(buffer.remaining() < VoicePacket.RELAY_HEADER_SIZE) {
+					continue;
+				}
+
+				// Reading the header
+				int userID = buffer.getInt();
+				int sequence = buffer.getInt();
+				int timestamp = buffer.getInt();
+
+				// Passing the payload to the listener
+				m_decoder.decode(buffer, userID, sequence, timestamp, m_listener);
+
+			// The channel was closed by calling close()
+			} catch(ClosedChannelException e) {
+				break;
+			// The relay is not reachable yet
+			} catch(PortUnreachableException e) {
+				continue;
+			} catch(IOException e) {
+				e.printStackTrace();
+				break;
+			}
+		}
+
+		// Setting the running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Returns whether the receiving loop is running or not.
+	 * @return True if the loop is running.
+	 */
+	public boolean isRunning() {
+		return m_running;
+	}
+
+	/**
+	 * Closes the connection. The receiving loop stops, if it is
+	 * blocked in receiving a packet.
+	 */
+	public void close() {
+		try {
+			m_shouldRun = false;
+			m_channel.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+};
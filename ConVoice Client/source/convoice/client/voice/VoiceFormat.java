@@ -0,0 +1,40 @@
+package convoice.client.voice;
+
+
+// Java imports
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * The VoiceFormat class describes the format of the voice frames
+ * captured, sent and played back by the client.
+ * Voice is handled as 16-bit signed mono PCM at 16 kHz, split into
+ * frames of 20 milliseconds.
+ */
+public class VoiceFormat {
+	/** The sample rate in Hz. */
+	public static final int SAMPLE_RATE = 16000;
+
+	/** The duration of a frame in milliseconds. */
+	public static final int FRAME_DURATION = 20;
+
+	/** The number of samples in a frame. */
+	public static final int FRAME_SAMPLES = SAMPLE_RATE * FRAME_DURATION / 1000;
+
+	/** The number of bytes in a frame. */
+	public static final int FRAME_BYTES = FRAME_SAMPLES * 2;
+
+	/**
+	 * The VoiceFormat class only holds constants.
+	 */
+	private VoiceFormat() {
+	}
+
+	/**
+	 * Returns the format of the audio lines.
+	 * @return A big-endian 16-bit signed mono format.
+	 */
+	public static AudioFormat getAudioFormat() {
+		return new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+	}
+
+};
@@ -0,0 +1,41 @@
+package convoice.client.voice;
+
+
+/**
+ * The VoiceListener interface receives the voice frames of other
+ * users from a VoiceConnection.
+ */
+public interface VoiceListener {
+	/**
+	 * Called for every received voice frame. The samples are only
+	 * valid during the call, listeners have to copy them to keep them.
+	 * @param userID The ID of the speaking user.
+	 * @param sequence The sequence number of the frame.
+	 * @param timestamp The timestamp of the frame's first sample.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 */
+	public void onVoiceFrame(int userID, int sequence, int timestamp, short[] samples, int count);
+
+	/**
+	 * Called for every redundant copy of a previous frame, received with
+	 * forward error correction after the frame of the packet. The copy
+	 * replaces the frame if it was lost. The samples are only valid
+	 * during the call.
+	 * @param userID The ID of the speaking user.
+	 * @param sequence The sequence number of the copied frame.
+	 * @param samples The samples of the copy.
+	 * @param count The number of samples.
+	 */
+	public void onRedundantFrame(int userID, int sequence, short[] samples, int count);
+
+	/**
+	 * Called for every received comfort noise marker, sent instead of
+	 * the frames of a user who stopped speaking.
+	 * @param userID The ID of the silent user.
+	 * @param sequence The sequence number of the marker.
+	 * @param timestamp The timestamp of the marker.
+	 * @param amplitude The RMS amplitude of the user's background noise.
+	 */
+	public void onComfortNoise(int userID, int sequence, int timestamp, int amplitude);
+};
@@ -0,0 +1,252 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * The VoiceManager class provides an interface for the voice features
+ * of the client.
+ * After logging in, the manager connects to the voice relay of the
+ * server, starts capturing the PcmSource and sending it's frames, and
+ * plays back the frames of the other users of the client's channel.
+ * Silent frames are detected and replaced by occasional comfort noise
+ * markers. The frames are protected by as many redundant copies as the
+ * server configures for the client's channel. The source is the microphone by default, and can be replaced by a
+ * synthetic source. The VoiceManager class contains only static fields
+ * and methods.
+ */
+public class VoiceManager {
+	/** The default maximum latency of the jitter buffers in milliseconds. */
+	public static final int DEFAULT_MAX_LATENCY = 200;
+
+	/** The number of silent frames between comfort noise markers. */
+	private static final int COMFORT_NOISE_INTERVAL = 20;
+
+	/** The connection to the voice relay. */
+	private static VoiceConnection m_connection;
+
+	/** The playback of the received frames. */
+	private static VoicePlayback m_playback;
+
+	/** The source of the sent frames, null if nothing is sent. */
+	private static PcmSource m_source;
+
+	/** The source replacing the microphone, if any. */
+	private static PcmSource m_customSource;
+
+	/** The maximum latency of the jitter buffers in milliseconds. */
+	private static int m_maxLatency;
+
+	/** The bitrate limit offered in the connection handshake, 0 if unlimited. */
+	private static int m_maxBitrate;
+
+	/** The number of redundant copies sent with every frame. */
+	private static volatile int m_redundancy;
+
+	/** The voice activity detection enabled flag. */
+	private static volatile boolean m_detectActivity;
+
+	/** The speaking state-flag, the last decision of the voice activity detection. */
+	private static volatile boolean m_speaking;
+
+	/** The capturing state-flag. */
+	private static volatile boolean m_capturing;
+
+	/**
+	 * Initializes the manager.
+	 */
+	static {
+		// Initializing members
+		m_connection = null;
+		m_playback = null;
+		m_source = null;
+		m_customSource = null;
+		m_maxLatency = DEFAULT_MAX_LATENCY;
+		m_maxBitrate = 0;
+		m_redundancy = 0;
+		m_detectActivity = true;
+		m_speaking = false;
+		m_capturing = false;
+	}
+
+	/**
+	 * Replaces the microphone with the specified source. The source
+	 * is used from the next call of start().
+	 * @param source The source to use, or null to use the microphone.
+	 */
+	public static void setSource(PcmSource source) {
+		m_customSource = source;
+	}
+
+	/**
+	 * Sets the maximum latency the jitter buffers may add to the
+	 * playback. The latency is used from the next call of start().
+	 * @param maxLatency The maximum latency in milliseconds.
+	 */
+	public static void setMaxLatency(int maxLatency) {
+		m_maxLatency = maxLatency;
+	}
+
+	/**
+	 * Sets the bitrate limit of the sent voice, offered to the server
+	 * in the connection handshake. The limit is used from the next login.
+	 * @param maxBitrate The bitrate limit in bits per second, 0 if unlimited.
+	 */
+	public static void setMaxBitrate(int maxBitrate) {
+		m_maxBitrate = maxBitrate;
+	}
+
+	/**
+	 * Gets the bitrate limit of the sent voice.
+	 * @return The bitrate limit in bits per second, 0 if unlimited.
+	 */
+	public static int getMaxBitrate() {
+		return m_maxBitrate;
+	}
+
+	/**
+	 * Sets the number of redundant copies of previous frames sent with
+	 * every frame, configured by the server per channel. The redundancy
+	 * is applied from the next captured frame.
+	 * @param redundancy The number of copies, 0 disables forward error correction.
+	 */
+	public static void setRedundancy(int redundancy) {
+		m_redundancy = redundancy;
+	}
+
+	/**
+	 * Gets the number of redundant copies sent with every frame.
+	 * @return The number of copies.
+	 */
+	public static int getRedundancy() {
+		return m_redundancy;
+	}
+
+	/**
+	 * Enables or disables the voice activity detection. While enabled,
+	 * silent frames are not sent, only comfort noise markers.
+	 * @param detectActivity Should silent frames be suppressed?
+	 */
+	public static void setVoiceActivityDetection(boolean detectActivity) {
+		m_detectActivity = detectActivity;
+	}
+
+	/**
+	 * Returns whether the client is currently speaking, according to
+	 * the voice activity detection.
+	 * @return True if the captured frames are sent.
+	 */
+	public static boolean isSpeaking() {
+		return m_speaking;
+	}
+
+	/**
+	 * Starts the voice features, after the client logged in.
+	 * @param address The address of the server.
+	 * @param port The UDP port of the voice relay.
+	 * @param userID The ID of the client's user.
+	 * @param token The token received in the connection accepted message.
+	 * @param codec The codec negotiated in the connection handshake.
+	 */
+	public static synchronized void start(InetAddress address, int port, int userID, long token, CodecType codec) {
+		// Stopping the previous session
+		stop();
+
+		try {
+			// Starting the playback
+			m_playback = new VoicePlayback(m_maxLatency);
+			new Thread(m_playback, "ConVoice playback").start();
+
+			// Connecting to the relay
+			m_connection = new VoiceConnection(new InetSocketAddress(address, port), userID, token, codec, m_playback);
+			new Thread(m_connection, "ConVoice voice receiver").start();
+		} catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		// Opening the source, without a microphone only playback is available
+		try {
+			m_source = m_customSource != null ? m_customSource : new MicrophoneSource();
+		} catch(LineUnavailableException | IllegalArgumentException e) {
+			m_source = null;
+			return;
+		}
+
+		// Starting the capture
+		m_capturing = true;
+		final PcmSource source = m_source;
+		final VoiceConnection connection = m_connection;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+				VoiceActivityDetector detector = new VoiceActivityDetector();
+				int silentFrames = 0;
+				while(m_capturing) {
+					try {
+						// Reading the next frame of the source
+						source.read(frame);
+						m_speaking = detector.process(frame, VoiceFormat.FRAME_SAMPLES) || !m_detectActivity;
+
+						if(m_speaking) {
+							// Sending the frame
+							connection.setRedundancy(m_redundancy);
+							connection.send(frame, VoiceFormat.FRAME_SAMPLES);
+							silentFrames = 0;
+						} else {
+							// Sending comfort noise markers in place of silent frames
+							if(silentFrames++ % COMFORT_NOISE_INTERVAL == 0) {
+								connection.sendComfortNoise(detector.getNoiseAmplitude());
+							}
+							connection.skip(VoiceFormat.FRAME_SAMPLES);
+						}
+					} catch(IOException e) {
+						return;
+					}
+				}
+			}
+		}, "ConVoice capture");
+		thread.start();
+	}
+
+	/**
+	 * Stops the voice features, when the client disconnects.
+	 */
+	public static synchronized void stop() {
+		// Stopping the capture
+		m_capturing = false;
+		m_speaking = false;
+		if(m_source != null) {
+			m_source.close();
+			m_source = null;
+		}
+
+		// Closing the connection
+		if(m_connection != null) {
+			m_connection.close();
+			m_connection = null;
+		}
+
+		// Stopping the playback
+		if(m_playback != null) {
+			m_playback.stop();
+			m_playback = null;
+		}
+	}
+
+	/**
+	 * Discards the received frames of a user who left.
+	 * @param userID The ID of the user.
+	 */
+	public static synchronized void removeSpeaker(int userID) {
+		if(m_playback != null) {
+			m_playback.removeSpeaker(userID);
+		}
+	}
+
+};
@@ -0,0 +1,64 @@
+package convoice.client.voice;
+
+
+/**
+ * The VoicePacket class describes the layout of the UDP datagrams
+ * carrying voice frames.
+ * The client sends it's voice frames to the relay of the server,
+ * authenticated by the token received in the connection accepted
+ * message:
+ *
+ *   int userID | long token | int sequence | int timestamp | byte codec | payload
+ *
+ * The relay forwards the frames of the other users of the client's
+ * channel, with the ID of the sender in place of the token:
+ *
+ *   int userID | int sequence | int timestamp | byte codec | payload
+ *
+ * In channels mixed by the server, the client receives a single stream
+ * with the MIXER_ID in place of the ID of the sender.
+ *
+ * While the client is silent, it sends a comfort noise marker from time
+ * to time instead of it's frames. Markers have the COMFORT_NOISE_ID in
+ * place of the codec ID, and their payload is the short RMS amplitude
+ * of the background noise.
+ *
+ * Frames may be protected with forward error correction, by setting the
+ * FEC_FLAG of the codec ID. The payload then carries the frame followed
+ * by low-bitrate copies of the previous frames, each with it's distance
+ * from the sequence number of the packet:
+ *
+ *   short length | frame | byte count | { byte distance | short length | copy }
+ *
+ * The copies are encoded with the narrowband codec, and recover the
+ * frames lost before the packet.
+ */
+public class VoicePacket {
+	/** The size of the header of packets sent by clients. */
+	public static final int CLIENT_HEADER_SIZE = 21;
+
+	/** The size of the header of packets relayed by the server. */
+	public static final int RELAY_HEADER_SIZE = 13;
+
+	/** The ID received in packets carrying the mix of the channel. */
+	public static final int MIXER_ID = 0;
+
+	/** The flag of the codec ID set on packets carrying redundant copies. */
+	public static final byte FEC_FLAG = 0x40;
+
+	/** The mask of the codec ID without the flags. */
+	public static final byte CODEC_MASK = 0x3F;
+
+	/** The codec ID of comfort noise markers. */
+	public static final byte COMFORT_NOISE_ID = 127;
+
+	/** The maximum size of a packet, which fits in a single Ethernet frame. */
+	public static final int MAX_SIZE = 1400;
+
+	/**
+	 * The VoicePacket class only holds constants.
+	 */
+	private VoicePacket() {
+	}
+
+};
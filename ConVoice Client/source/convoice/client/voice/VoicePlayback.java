@@ -0,0 +1,186 @@
+package convoice.client.voice;
+
+
+// Java imports
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * The VoicePlayback class is responsible for playing back the voice
+ * frames received from other users.
+ * Received frames are stored in a JitterBuffer per speaker. The
+ * playback loop takes one frame of every speaker each frame period,
+ * mixes them and writes the mix to the default playback device, whose
+ * line paces the loop. The buffers are preallocated, so no memory is
+ * allocated per frame. If no playback device is available, frames are
+ * consumed without sound.
+ */
+public class VoicePlayback implements VoiceListener, Runnable {
+	/** The jitter buffers mapped by the ID of their speaker. */
+	private Map<Integer, JitterBuffer> m_speakers;
+
+	/** The maximum latency of the jitter buffers in milliseconds. */
+	private int m_maxLatency;
+
+	/** The running state-flag. */
+	private volatile boolean m_running;
+
+	/** The should run state-flag. */
+	private volatile boolean m_shouldRun;
+
+	/**
+	 * Constructs a VoicePlayback object.
+	 * @param maxLatency The maximum latency of the jitter buffers in milliseconds.
+	 */
+	public VoicePlayback(int maxLatency) {
+		// Initializing members
+		m_speakers = new HashMap<Integer, JitterBuffer>();
+		m_maxLatency = maxLatency;
+		m_running = false;
+		m_shouldRun = false;
+	}
+
+	/**
+	 * Stores a received frame in the jitter buffer of it's speaker.
+	 * @param userID The ID of the speaking user.
+	 * @param sequence The sequence number of the frame.
+	 * @param timestamp The timestamp of the frame's first sample.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 */
+	public synchronized void onVoiceFrame(int userID, int sequence, int timestamp, short[] samples, int count) {
+		// Storing the frame
+		getBuffer(userID).put(sequence, timestamp, System.nanoTime() / 1000000.0, samples, count);
+	}
+
+	/**
+	 * Stores a redundant copy of a frame in the jitter buffer of it's speaker.
+	 * @param userID The ID of the speaking user.
+	 * @param sequence The sequence number of the copied frame.
+	 * @param samples The samples of the copy.
+	 * @param count The number of samples.
+	 */
+	public synchronized void onRedundantFrame(int userID, int sequence, short[] samples, int count) {
+		// Storing the copy
+		getBuffer(userID).putRedundant(sequence, samples, count);
+	}
+
+	/**
+	 * Stores a comfort noise marker in the jitter buffer of it's speaker.
+	 * @param userID The ID of the silent user.
+	 * @param sequence The sequence number of the marker.
+	 * @param timestamp The timestamp of the marker.
+	 * @param amplitude The RMS amplitude of the user's background noise.
+	 */
+	public synchronized void onComfortNoise(int userID, int sequence, int timestamp, int amplitude) {
+		// Storing the marker
+		getBuffer(userID).putComfortNoise(sequence, timestamp, System.nanoTime() / 1000000.0, amplitude);
+	}
+
+	/**
+	 * Removes the jitter buffer of a speaker, when the speaker leaves.
+	 * @param userID The ID of the speaker.
+	 */
+	public synchronized void removeSpeaker(int userID) {
+		m_speakers.remove(userID);
+	}
+
+	/**
+	 * Returns the jitter buffer of a speaker, created on the speaker's
+	 * first packet.
+	 * @param userID The ID of the speaker.
+	 * @return The jitter buffer of the speaker.
+	 */
+	private JitterBuffer getBuffer(int userID) {
+		JitterBuffer buffer = m_speakers.get(userID);
+		if(buffer == null) {
+			buffer = new JitterBuffer(m_maxLatency);
+			m_speakers.put(userID, buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Runs the playback loop, until stop() is called.
+	 */
+	public void run() {
+		// Setting state-flags
+		m_shouldRun = true;
+		m_running = true;
+
+		// Opening the playback line
+		SourceDataLine line = null;
+		try {
+			line = AudioSystem.getSourceDataLine(VoiceFormat.getAudioFormat());
+			line.open(VoiceFormat.getAudioFormat(), VoiceFormat.FRAME_BYTES * 4);
+			line.start();
+		} catch(LineUnavailableException | IllegalArgumentException e) {
+			line = null;
+		}
+
+		short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+		int[] mix = new int[VoiceFormat.FRAME_SAMPLES];
+		byte[] output = new byte[VoiceFormat.FRAME_BYTES];
+		while(m_shouldRun) {
+			// Mixing a frame of every speaker
+			Arrays.fill(mix, 0);
+			synchronized(this) {
+				for(JitterBuffer buffer : m_speakers.values()) {
+					int state = buffer.get(frame);
+					if(state != JitterBuffer.BUFFERING && state != JitterBuffer.UNDERRUN) {
+						for(int i = 0; i < mix.length; i++) {
+							mix[i] += frame[i];
+						}
+					}
+				}
+			}
+
+			// Clipping the mix to big-endian samples
+			for(int i = 0; i < mix.length; i++) {
+				int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+				output[2 * i] = (byte) (sample >> 8);
+				output[2 * i + 1] = (byte) sample;
+			}
+
+			// Writing the mix, which blocks for a frame period
+			if(line != null) {
+				line.write(output, 0, output.length);
+			} else {
+				try {
+					Thread.sleep(VoiceFormat.FRAME_DURATION);
+				} catch(InterruptedException e) {
+					break;
+				}
+			}
+		}
+
+		// Closing the playback line
+		if(line != null) {
+			line.stop();
+			line.close();
+		}
+
+		// Setting the running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Returns whether the playback loop is running or not.
+	 * @return True if the loop is running.
+	 */
+	public boolean isRunning() {
+		return m_running;
+	}
+
+	/**
+	 * Signals the playback loop to stop after the current frame.
+	 */
+	public void stop() {
+		m_shouldRun = false;
+	}
+
+};
@@ -1,11 +1,6 @@
 package convoice.server.channel;
 
 
-// Java imports
-import java.util.Collections;
-import java.util.Set;
-import java.util.HashSet;
-
 // Project imports
 import convoice.server.channel.ChannelData;
 
@@ -15,6 +10,10 @@ import convoice.server.channel.ChannelData;
  * It contains permanent as well as dynamic runtime 
  * data, such as the assigned ID of the channels or the set of
  * currently active users.
+ * The users and speakers are held in immutable arrays, replaced by a
+ * new array on every join and leave. Joins are rare compared to the
+ * messages sent to a channel, so the senders can read the members
+ * without locking, allocating or boxing.
  */
 public class Channel {
 	/** The permanent data of the channel. */
@@ -26,8 +25,14 @@ public class Channel {
 	/** The permanence flag of the channel. */
 	private boolean m_permanent;
 	
-	/** The set of users ID's on the channel. */
-	private Set<Integer> m_users; 		
+	/** The empty array of user ID's. */
+	private static final int[] NO_USERS = new int[0];
+	
+	/** The ID's of the users on the channel, never modified after publishing. */
+	private volatile int[] m_users; 		
+	
+	/** The ID's of the users speaking on the channel, never modified after publishing. */
+	private volatile int[] m_speakers;
 	
 	
 	/**
@@ -41,7 +46,8 @@ public class Channel {
 		m_channelData = channelData;
 		m_id = id;
 		m_permanent = permanent;
-		m_users = new HashSet<Integer>();
+		m_users = NO_USERS;
+		m_speakers = NO_USERS;
 	}
 	
 	/**
@@ -72,13 +78,40 @@ public class Channel {
 	}
 	
 	/**
-	 * Gets the set of the ID's of the users currently using
-	 * this channel. The returned set is unmodifiable for 
-	 * integration purposes.
-	 * @return The list of user ID's.
+	 * Gets the ID's of the users currently using this channel.
+	 * The returned array is a snapshot, which is not changed by
+	 * later joins and leaves. It is shared, so it must not be modified.
+	 * @return The array of user ID's.
+	 */
+	public int[] getUsers() {
+		return m_users;
+	}
+	
+	/**
+	 * Gets the number of users currently using this channel.
+	 * @return The number of users.
+	 */
+	public int getUserCount() {
+		return m_users.length;
+	}
+	
+	/**
+	 * Returns whether a user is using this channel or not.
+	 * @param userID The ID of the user.
+	 * @return True if the user is on the channel.
+	 */
+	public boolean hasUser(int userID) {
+		return indexOf(m_users, userID) >= 0;
+	}
+	
+	/**
+	 * Gets the ID's of the users currently speaking on this channel,
+	 * according to their voice activity detection. The returned array
+	 * is a shared snapshot, so it must not be modified.
+	 * @return The array of speaking user ID's.
 	 */
-	public Set<Integer> getUsers() {
-		return Collections.unmodifiableSet(m_users);
+	public int[] getSpeakers() {
+		return m_speakers;
 	}
 	
 	/**
@@ -105,8 +138,8 @@ public class Channel {
 	 * has to be modified as well.
 	 * @param userID The ID of the user being added.
 	 */
-	public void addUser(int userID) {
-		m_users.add(userID);
+	public synchronized void addUser(int userID) {
+		m_users = add(m_users, userID);
 	}
 	
 	/**
@@ -115,8 +148,22 @@ public class Channel {
 	 * has to be modified as well.
 	 * @param userID The ID of the user that is being removed.
 	 */
-	public void removeUser(int userID) {
-		m_users.remove(userID);
+	public synchronized void removeUser(int userID) {
+		m_users = remove(m_users, userID);
+		m_speakers = remove(m_speakers, userID);
+	}
+	
+	/**
+	 * Sets whether a user of the channel is speaking or not.
+	 * @param userID The ID of the user.
+	 * @param speaking A boolean value representing whether the user is speaking.
+	 */
+	public synchronized void setSpeaking(int userID, boolean speaking) {
+		if(speaking && hasUser(userID)) {
+			m_speakers = add(m_speakers, userID);
+		} else {
+			m_speakers = remove(m_speakers, userID);
+		}
 	}
 	
 	/**
@@ -127,5 +174,56 @@ public class Channel {
 	public String toString() {
 		return m_channelData.getName();
 	}
+	
+	/**
+	 * Returns a copy of an array of ID's with an ID appended.
+	 * @param ids The array of ID's.
+	 * @param id The ID to append.
+	 * @return The new array, or the same array if it already contains the ID.
+	 */
+	private static int[] add(int[] ids, int id) {
+		if(indexOf(ids, id) >= 0) {
+			return ids;
+		}
+		int[] result = new int[ids.length + 1];
+		System.arraycopy(ids, 0, result, 0, ids.length);
+		result[ids.length] = id;
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of an array of ID's without an ID.
+	 * @param ids The array of ID's.
+	 * @param id The ID to remove.
+	 * @return The new array, or the same array if it does not contain the ID.
+	 */
+	private static int[] remove(int[] ids, int id) {
+		int index = indexOf(ids, id);
+		if(index < 0) {
+			return ids;
+		}
+		if(ids.length == 1) {
+			return NO_USERS;
+		}
+		int[] result = new int[ids.length - 1];
+		System.arraycopy(ids, 0, result, 0, index);
+		System.arraycopy(ids, index + 1, result, index, ids.length - index - 1);
+		return result;
+	}
+	
+	/**
+	 * Finds an ID in an array of ID's.
+	 * @param ids The array of ID's.
+	 * @param id The ID to find.
+	 * @return The index of the ID, or -1 if not found.
+	 */
+	private static int indexOf(int[] ids, int id) {
+		for(int i = 0; i < ids.length; i++) {
+			if(ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
 		
 };
@@ -32,6 +32,12 @@ public class ChannelData {
 	/** The maximum number of clients on the channel. */
 	private int m_maxClients;		
 	
+	/** The flag of the voice of the channel being mixed by the server. */
+	private boolean m_mixed;
+	
+	/** The number of redundant copies the clients send with their voice frames. */
+	private int m_redundancy;
+	
 	/**
 	 * Constructs an empty ChannelData object.
 	 * This constructor is used for XML serialization only, 
@@ -46,6 +52,8 @@ public class ChannelData {
 		m_hasPassword = false;
 		m_password = null;
 		m_maxClients = 0;
+		m_mixed = false;
+		m_redundancy = 0;
 	}
 	
 	/**
@@ -65,6 +73,8 @@ public class ChannelData {
 		m_hasPassword = hasPassword;
 		m_password = password;
 		m_maxClients = maxClients;
+		m_mixed = false;
+		m_redundancy = 0;
 	}
 	
 	/**
@@ -115,6 +125,23 @@ public class ChannelData {
 		return m_maxClients;
 	}
 	
+	/**
+	 * Gets whether the voice of the channel is mixed by the server or not.
+	 * @return True if the channel is in mixing mode.
+	 */
+	public boolean isMixed() {
+		return m_mixed;
+	}
+	
+	/**
+	 * Gets the number of redundant copies of previous frames the clients
+	 * of the channel send with their voice frames.
+	 * @return The number of copies, 0 if forward error correction is off.
+	 */
+	public int getRedundancy() {
+		return m_redundancy;
+	}
+	
 	/**
 	 * Sets the name of the channel.
 	 * @param name The new name to set for the channel.
@@ -165,5 +192,23 @@ public class ChannelData {
 		m_maxClients = maxClients;
 	}
 	
+	/**
+	 * Sets whether the voice of the channel is mixed by the server or not.
+	 * @param mixed A boolean value representing whether the voice
+	 * of the channel should be mixed.
+	 */
+	public void setMixed(boolean mixed) {
+		m_mixed = mixed;
+	}
+	
+	/**
+	 * Sets the number of redundant copies of previous frames the clients
+	 * of the channel send with their voice frames.
+	 * @param redundancy The number of copies, 0 turns forward error correction off.
+	 */
+	public void setRedundancy(int redundancy) {
+		m_redundancy = redundancy;
+	}
+	
 };
 
@@ -2,15 +2,15 @@ package convoice.server.channel;
 
 
 // Java imports
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -18,10 +18,18 @@ import javax.xml.bind.Unmarshaller;
 
 // Project imports
 import convoice.server.connection.ConnectionManager;
-import convoice.server.gui.GUIController;
+import convoice.server.event.EventManager;
 import convoice.server.logger.LogManager;
 import convoice.server.server.Server;
 import convoice.server.user.UserManager;
+import convoice.server.util.IntMap;
+import convoice.server.util.IntStateStore;
+import convoice.server.util.RecordReader;
+import convoice.server.util.RecordWriter;
+import convoice.server.util.SnapshotReader;
+import convoice.server.util.SnapshotWriter;
+import convoice.server.util.WriteAheadLog;
+import convoice.server.voice.VoiceManager;
 
 /**
  * The ChannelManager class provides the most common administrative
@@ -32,18 +40,44 @@ import convoice.server.user.UserManager;
  * it easily available within the application. It's behavior is similar
  * to a Singleton. Methods of the ChannelManager are synchronized with other
  * managers, so any changes made via the ChannelManager will be reflected
- * everywhere else in the application.
+ * everywhere else in the application. Channels are kept in an IntStateStore,
+ * so lookups do not lock or box the IDs, and the list of channels is a
+ * consistent snapshot. Permanent channels are saved to a binary snapshot,
+ * the XML file is imported when it is newer, and can be exported for
+ * administrators. Changes of permanent channels are appended to a
+ * write-ahead log between snapshots, which is replayed on load.
  */
 public class ChannelManager {
 	/** The created channels mapped by their ID. */
-	private static Map<Integer, Channel> m_channels;	
+	private static IntStateStore<Channel> m_channels;	
 	
 	/** The next assignable channel ID. */
-	private static int m_idGenerator;					
+	private static AtomicInteger m_idGenerator;					
 	
 	/** ID of the default channel. */
 	public static final int DEFAULT_CHANNEL_ID = 0;		
 	
+	/** The maximum number of redundant copies of voice frames. */
+	public static final int MAX_REDUNDANCY = 3;
+	
+	/** The type of the channel snapshot. */
+	private static final int SNAPSHOT_TYPE = 1;
+	
+	/** The version of the records of the channel snapshot, version 2 added the IDs. */
+	private static final int SNAPSHOT_VERSION = 2;
+	
+	/** The log record storing a permanent channel. */
+	private static final int LOG_PUT = 1;
+	
+	/** The log record removing a permanent channel. */
+	private static final int LOG_REMOVE = 2;
+	
+	/** The XML context of the channel files, created when first used. */
+	private static JAXBContext m_xmlContext;
+	
+	/** The write-ahead log of the changes, null while loading. */
+	private static volatile WriteAheadLog m_log;
+	
 	/**
 	 * Initializes the map of channels and the ID generator.
 	 * For faster access to a specific channel, the container is mapped
@@ -52,8 +86,8 @@ public class ChannelManager {
 	 */
 	static {
 		// Initializing members
-		m_channels = new HashMap<Integer, Channel>();
-		m_idGenerator = 1;
+		m_channels = new IntStateStore<Channel>();
+		m_idGenerator = new AtomicInteger(1);
 	}
 	
 	/**
@@ -64,41 +98,88 @@ public class ChannelManager {
 	 */
 	public static void reset() {
 		// Clearing the map of channels
-		synchronized(m_channels) {
-			m_channels.clear();
-		}
+		m_channels.clear();
+		
+		// Turning off mixing of the cleared channels
+		VoiceManager.resetMixers();
 		
 		// Resetting the ID generator
-		m_idGenerator = 1;
+		m_idGenerator.set(1);
 	}
 		
 	/**
-	 * Loads channel configuration from the "channels.xml" file
+	 * Loads channel configuration from the "channels.dat" snapshot
 	 * of the specified directory, resets the manager and creates
-	 * a the new default channel.
+	 * a the new default channel. The "channels.xml" file is imported
+	 * instead if it is newer than the snapshot, or the snapshot is
+	 * missing or invalid.
 	 * @param configPath The path of the configuration directory.
 	 */
 	public static void loadConfiguration(String configPath) {
+		// Closing the log of the previous configuration
+		closeLog();
+		
 		// Performing manager reset
 		reset();
 		
 		// Creating default channel
 		createDefaultChannel();
 		
-		// Loading channels from file
-		loadChannels(configPath + "/channels.xml");
+		// Loading channels from the snapshot, or importing them from XML
+		final String snapshotFile = configPath + "/channels.dat";
+		String logFile = configPath + "/channels.wal";
+		boolean fromSnapshot = SnapshotReader.isUpToDate(snapshotFile, configPath + "/channels.xml") && loadSnapshot(snapshotFile);
+		if(!fromSnapshot) {
+			loadChannels(configPath + "/channels.xml");
+			LogManager.addMainLog(Level.CONFIG, "Channels imported, logged changes discarded.");
+		}
+		
+		// Replaying the changes logged since the snapshot, and folding them into a new snapshot
+		if(!fromSnapshot || replayLog(logFile)) {
+			saveSnapshot(snapshotFile);
+		}
+		WriteAheadLog.delete(logFile);
+		
+		// Opening the log
+		if(Boolean.parseBoolean(Server.getProperties().getProperty("writeAheadLog", "true"))) {
+			try {
+				m_log = new WriteAheadLog(logFile,
+						Integer.parseInt(Server.getProperties().getProperty("walCommitDelay", "2")),
+						Long.parseLong(Server.getProperties().getProperty("walCompactionSize", "1048576")),
+						new Callable<Boolean>() {
+							@Override
+							public Boolean call() {
+								return saveSnapshot(snapshotFile);
+							}
+						});
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Channels configuration loaded.");
 	}
 	
 	/**
-	 * Saves the list of channels to "channels.xml" file of the specified directory.
+	 * Saves the list of channels to the "channels.dat" snapshot of the
+	 * specified directory. The "channels.xml" file is also exported if
+	 * the "exportXmlConfiguration" property is set.
 	 * @param configPath The path of the configuration directory.
 	 */
 	public static void saveConfiguration(String configPath) {
-		// Saving channels to file
-		saveChannels(configPath + "/channels.xml");
+		// Exporting channels to XML, before the snapshot so the snapshot is newer
+		if(Boolean.parseBoolean(Server.getProperties().getProperty("exportXmlConfiguration", "false"))) {
+			saveChannels(configPath + "/channels.xml");
+		}
+		
+		// Saving channels to the snapshot, folding the log if it belongs to the directory
+		WriteAheadLog log = m_log;
+		if(log != null && log.getFileName().equals(configPath + "/channels.wal")) {
+			log.compact();
+		} else {
+			saveSnapshot(configPath + "/channels.dat");
+		}
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Channels configuration saved.");
@@ -113,20 +194,25 @@ public class ChannelManager {
 		String name = Server.getProperties().getProperty("defaultChannelName", "Default Channel");
 		String topic = Server.getProperties().getProperty("defaultChannelTopic", "");
 		String description = Server.getProperties().getProperty("defaultChannelDescription", "The default channel of the server.");
+		boolean mixed = Boolean.parseBoolean(Server.getProperties().getProperty("defaultChannelMixed", "false"));
+		int redundancy = Integer.parseInt(Server.getProperties().getProperty("defaultChannelRedundancy", "0"));
 		
 		// Creating the channel data
 		ChannelData channelData = new ChannelData(name, topic, description, false, null, Integer.MAX_VALUE);
+		channelData.setMixed(mixed);
+		channelData.setRedundancy(Math.max(0, Math.min(MAX_REDUNDANCY, redundancy)));
 		
 		// Creating the channel
 		Channel channel = new Channel(channelData, DEFAULT_CHANNEL_ID, false);
 		
 		// Adding the channel
-		synchronized(m_channels) {
-			m_channels.put(0, channel);
-		}
+		m_channels.put(DEFAULT_CHANNEL_ID, channel);
+		
+		// Setting the mixing mode
+		VoiceManager.setChannelMixed(DEFAULT_CHANNEL_ID, mixed);
 		
-		// Updating user interface
-		GUIController.channelCreatedUpdate(channel);
+		// Notifying the listeners
+		EventManager.channelCreated(channel);
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Default channel created.");
@@ -150,24 +236,42 @@ public class ChannelManager {
 		
 		// Creating the channel
 		int id = generateID();
+		Channel channel = addChannel(id, channelData, permanent);
+		
+		// Logging the change
+		if(permanent) {
+			logChannel(channel);
+		}
+		
+		// Returning the ID of the channel
+		return id;
+	}
+	
+	/**
+	 * Adds a new Channel with the specified ID to the manager.
+	 * @param id The ID of the channel.
+	 * @param channelData The data of the channel.
+	 * @param permanent Is the channel permanent?
+	 * @return The added channel.
+	 */
+	private static Channel addChannel(int id, ChannelData channelData, boolean permanent) {
+		// Creating the channel
 		Channel channel = new Channel(channelData, id, permanent);
 		
 		// Adding the channel
-		synchronized(m_channels) {
-			m_channels.put(id, channel);
-		}
+		m_channels.put(id, channel);
 		
 		// Requesting user notifications
-		ConnectionManager.channelCreatedNotify(id, name, topic, description, hasPassword, maxClients, permanent);
+		ConnectionManager.channelCreatedNotify(id, channelData.getName(), channelData.getTopic(), channelData.getDescription(),
+				channelData.hasPassword(), channelData.getMaxClients(), permanent);
 		
-		// Updating user interface
-		GUIController.channelCreatedUpdate(channel);
+		// Notifying the listeners
+		EventManager.channelCreated(channel);
 		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "Channel ID: " + id + " created.");
+		LogManager.addMainLog(Level.INFO, "Channel ID: {} created.", id);
 		
-		// Returning the ID of the channel
-		return id;
+		return channel;
 	}
 	
 	/**
@@ -188,8 +292,10 @@ public class ChannelManager {
 		// Getting the channel to modify
 		Channel channel = getChannel(channelID);
 		
-		// Creating new channel data
+		// Creating new channel data, keeping the voice settings
 		ChannelData channelData = new ChannelData(name, topic, description, hasPassword, password, maxClients);
+		channelData.setMixed(channel.getChannelData().isMixed());
+		channelData.setRedundancy(channel.getChannelData().getRedundancy());
 		
 		synchronized(channel) {
 			// Assigning new channel data
@@ -202,11 +308,14 @@ public class ChannelManager {
 		// Requesting user notifications
 		ConnectionManager.channelModifiedNotify(channelID, name, topic, description, hasPassword, maxClients, permanent);
 		
-		// Updating user interface
-		GUIController.channelModifiedUpdate(channel);
+		// Notifying the listeners
+		EventManager.channelModified(channel);
+		
+		// Logging the change, a channel made temporary is removed from the configuration
+		logChannel(channel);
 		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "Channel ID: " + channelID + " modified.");
+		LogManager.addMainLog(Level.INFO, "Channel ID: {} modified.", channelID);
 	}
 	
 	/**
@@ -220,7 +329,7 @@ public class ChannelManager {
 		
 		synchronized(channel) {
 			// Getting users on the channel
-			Set<Integer> usersInChannel = channel.getUsers();
+			int[] usersInChannel = channel.getUsers();
 			
 			// Moving users to the default channel
 			for(int userID : usersInChannel) {
@@ -228,19 +337,110 @@ public class ChannelManager {
 			}
 		}
 		
-		// Requesting user notifications
-		ConnectionManager.channelDeletedNotify(channelID);
+		// Deleting the channel and requesting user notifications under the
+		// lock of the channel log, so a channel list does not contain a
+		// channel deleted up to it's revision
+		synchronized(ConnectionManager.getChannelLog()) {
+			m_channels.remove(channelID);
+			ConnectionManager.channelDeletedNotify(channelID);
+		}
 		
-		// Updating user interface
-		GUIController.channelDeletedUpdate(channelID);
+		// Notifying the listeners
+		EventManager.channelDeleted(channelID);
 		
-		// Deleting the channel
-		synchronized(m_channels) {
-			m_channels.remove(channelID);
+		// Removing the mixer of the channel
+		VoiceManager.setChannelMixed(channelID, false);
+		
+		// Logging the change
+		if(channel.isPermanent()) {
+			logRemoval(channelID);
 		}
 		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "Channel ID: " + channelID + " deleted.");
+		LogManager.addMainLog(Level.INFO, "Channel ID: {} deleted.", channelID);
+	}
+	
+	/**
+	 * Turns the server-side mixing of the voice of a channel on or off.
+	 * In mixing mode the users of the channel receive a single mixed
+	 * stream instead of the streams of every speaker.
+	 * @param channelID The ID of the channel.
+	 * @param mixed Should the voice of the channel be mixed?
+	 */
+	public static void setChannelMixed(int channelID, boolean mixed) {
+		// Getting the channel
+		Channel channel = getChannel(channelID);
+		
+		synchronized(channel) {
+			// Setting the mixing mode
+			channel.getChannelData().setMixed(mixed);
+		}
+		
+		// Updating the voice transport
+		VoiceManager.setChannelMixed(channelID, mixed);
+		
+		// Logging the change
+		if(channel.isPermanent()) {
+			logChannel(channel);
+		}
+		
+		// Logging
+		LogManager.addMainLog(Level.INFO, "Channel ID: {} {}.", channelID, mixed ? "mixed" : "unmixed");
+	}
+	
+	/**
+	 * Sets the number of redundant copies of previous frames the clients
+	 * of a channel send with their voice frames. More copies recover
+	 * longer bursts of lost packets, at the cost of bandwidth. The users
+	 * of the channel are notified of the new setting.
+	 * @param channelID The ID of the channel.
+	 * @param redundancy The number of copies, 0 turns forward error correction off.
+	 */
+	public static void setChannelRedundancy(int channelID, int redundancy) {
+		// Getting the channel
+		Channel channel = getChannel(channelID);
+		redundancy = Math.max(0, Math.min(MAX_REDUNDANCY, redundancy));
+		
+		int[] users;
+		synchronized(channel) {
+			// Setting the redundancy
+			channel.getChannelData().setRedundancy(redundancy);
+			users = channel.getUsers();
+		}
+		
+		// Requesting user notifications
+		for(int userID : users) {
+			ConnectionManager.voiceConfigurationNotify(userID, redundancy);
+		}
+		
+		// Logging the change
+		if(channel.isPermanent()) {
+			logChannel(channel);
+		}
+		
+		// Logging
+		LogManager.addMainLog(Level.INFO, "Channel ID: {} redundancy set to {}.", channelID, redundancy);
+	}
+	
+	/**
+	 * Records whether a user of a channel started or stopped speaking.
+	 * Called by the voice relay when the voice activity detection of
+	 * the user's client changes it's decision.
+	 * @param channelID The ID of the user's channel.
+	 * @param userID The ID of the user.
+	 * @param speaking Is the user speaking?
+	 */
+	public static void setSpeaking(int channelID, int userID, boolean speaking) {
+		// Getting the channel
+		Channel channel = getChannel(channelID);
+		if(channel == null) {
+			return;
+		}
+		
+		synchronized(channel) {
+			// Setting the speaking state
+			channel.setSpeaking(userID, speaking);
+		}
 	}
 	
 	/**
@@ -249,41 +449,36 @@ public class ChannelManager {
 	 * @return The channel with the specified ID.
 	 */
 	public static Channel getChannel(int channelID) {
-		synchronized(m_channels) {
-			return m_channels.get(channelID);
-		}
+		return m_channels.get(channelID);
 	}
 	
 	/**
 	 * Gets all Channel objects from the manager.
-	 * @return An unmodifiable map of channels.
+	 * @return A read-only snapshot of the channels mapped by their IDs,
+	 * which does not change when channels are created or deleted.
 	 */
-	public static Map<Integer, Channel> getAllChannels() {
-		synchronized(m_channels) {
-			return Collections.unmodifiableMap(m_channels);
-		}
+	public static IntMap<Channel> getAllChannels() {
+		return m_channels.snapshot();
 	}
 	
 	/**
-	 * Loads the list of channels from an XML-file.
+	 * Loads the list of channels from an XML-file, used for importing
+	 * channels edited by an administrator.
 	 * Loaded channels are assumed to be permanent.
 	 * @param fileName The name of the channel file.
 	 */
-	private static void loadChannels(String fileName) {
+	public static void loadChannels(String fileName) {
 		try {
 			// Creating XML-objects for deserialization
 			FileInputStream fis = new FileInputStream(fileName);
-			JAXBContext xmlContext = JAXBContext.newInstance(ChannelSerializer.class);
-			Unmarshaller xmlUnmarshaller = xmlContext.createUnmarshaller();
+			Unmarshaller xmlUnmarshaller = getXmlContext().createUnmarshaller();
 			
 			// Deserializing channel data
 			ChannelSerializer xmlSerializer = (ChannelSerializer) xmlUnmarshaller.unmarshal(fis);
 			
 			// Feeding deserialized data to the ChannelManager
 			for(ChannelData data : xmlSerializer.getData()) {
-				// Creating channel from read data
-				createChannel(data.getName(), data.getTopic(), data.getDescription(), data.hasPassword(), 
-							  data.getPassword(), data.getMaxClients(), true);
+				addLoadedChannel(generateID(), data);
 			}
 			
 			// Closing the file
@@ -302,28 +497,28 @@ public class ChannelManager {
 	}
 	
 	/**
-	 * Saves the list of channels to an XML-file.
+	 * Saves the list of channels to an XML-file, used for exporting
+	 * channels to an administrator.
 	 * Only permanent channels are being serialized.
 	 * @param fileName The name of the file.
 	 */
-	private static void saveChannels(String fileName) {
+	public static void saveChannels(String fileName) {
 		try {
 			// Creating serializer
 			ChannelSerializer xmlSerializer = new ChannelSerializer();
 			
 			// Feeding channel data to the serializer
-			synchronized(m_channels) {
-				for(Channel channel : m_channels.values()) {
-					if(channel.isPermanent()) {
-						xmlSerializer.getData().add(channel.getChannelData());
-					}
+			IntMap<Channel> channels = m_channels.snapshot();
+			for(int i = channels.next(-1); i >= 0; i = channels.next(i)) {
+				Channel channel = channels.valueAt(i);
+				if(channel.isPermanent()) {
+					xmlSerializer.getData().add(channel.getChannelData());
 				}
 			}
 			
 			// Serializing data to XML-file
 			FileOutputStream fos = new FileOutputStream(fileName);
-			JAXBContext xmlContext = JAXBContext.newInstance(ChannelSerializer.class);
-			Marshaller xmlMarshaller = xmlContext.createMarshaller();
+			Marshaller xmlMarshaller = getXmlContext().createMarshaller();
 			xmlMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 			xmlMarshaller.marshal(xmlSerializer, fos);
 			
@@ -342,12 +537,261 @@ public class ChannelManager {
 		}
 	}
 		
+	/**
+	 * Loads the list of channels from a binary snapshot. The snapshot
+	 * is validated and decoded before any channel is created, so an
+	 * invalid snapshot leaves the manager unchanged.
+	 * @param fileName The name of the snapshot file.
+	 * @return True if the snapshot was loaded.
+	 */
+	private static boolean loadSnapshot(String fileName) {
+		try {
+			// Reading the channel data, snapshots before version 2 have no IDs
+			SnapshotReader snapshot = new SnapshotReader(fileName, SNAPSHOT_TYPE);
+			RecordReader reader = snapshot.getRecords();
+			int count = reader.readInt();
+			int[] ids = new int[count];
+			List<ChannelData> channels = new ArrayList<ChannelData>(count);
+			for(int i = 0; i < count; i++) {
+				ids[i] = snapshot.getVersion() >= 2 ? reader.readInt() : -1;
+				channels.add(readChannelData(reader));
+			}
+			
+			// Creating the channels
+			for(int i = 0; i < count; i++) {
+				addLoadedChannel(ids[i] >= 0 ? ids[i] : generateID(), channels.get(i));
+			}
+			
+			// Logging
+			LogManager.addMainLog(Level.CONFIG, "Channels loaded from snapshot.");
+			return true;
+			
+		} catch(IOException e) {
+			LogManager.addMainLog(Level.WARNING, "Channel snapshot could not be loaded: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Saves the list of channels to a binary snapshot.
+	 * Only permanent channels are being saved.
+	 * @param fileName The name of the snapshot file.
+	 * @return True if the snapshot was saved.
+	 */
+	private static boolean saveSnapshot(String fileName) {
+		try {
+			// Collecting the permanent channels
+			IntMap<Channel> channels = m_channels.snapshot();
+			List<Channel> permanent = new ArrayList<Channel>();
+			for(int i = channels.next(-1); i >= 0; i = channels.next(i)) {
+				if(channels.valueAt(i).isPermanent()) {
+					permanent.add(channels.valueAt(i));
+				}
+			}
+			
+			// Writing the channel data
+			SnapshotWriter writer = new SnapshotWriter(SNAPSHOT_TYPE, SNAPSHOT_VERSION);
+			writer.writeInt(permanent.size());
+			for(Channel channel : permanent) {
+				writer.writeInt(channel.getID());
+				writeChannelData(writer, channel.getChannelData());
+			}
+			writer.commit(fileName);
+			
+			// Logging
+			LogManager.addMainLog(Level.CONFIG, "Channels saved to snapshot.");
+			return true;
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Replays the changes of the write-ahead log. Records already
+	 * contained by the snapshot are replayed without effect.
+	 * @param fileName The name of the log file.
+	 * @return True if any change was replayed.
+	 */
+	private static boolean replayLog(String fileName) {
+		try {
+			List<RecordReader> records = WriteAheadLog.read(fileName);
+			for(RecordReader reader : records) {
+				int type = reader.readByte();
+				int id = reader.readInt();
+				if(type == LOG_PUT) {
+					// Storing the channel
+					ChannelData data = readChannelData(reader);
+					Channel channel = getChannel(id);
+					if(channel == null) {
+						addLoadedChannel(id, data);
+					} else {
+						modifyChannel(id, data.getName(), data.getTopic(), data.getDescription(), data.hasPassword(),
+									  data.getPassword(), data.getMaxClients(), true);
+						setChannelMixed(id, data.isMixed());
+						setChannelRedundancy(id, data.getRedundancy());
+					}
+				} else if(type == LOG_REMOVE) {
+					// Removing the channel
+					if(id != DEFAULT_CHANNEL_ID && getChannel(id) != null) {
+						deleteChannel(id);
+					}
+				}
+			}
+			
+			// Logging
+			if(!records.isEmpty()) {
+				LogManager.addMainLog(Level.CONFIG, records.size() + " logged channel changes replayed.");
+			}
+			return !records.isEmpty();
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Appends a permanent channel to the write-ahead log, or it's
+	 * removal if the channel is not permanent anymore.
+	 * @param channel The changed channel.
+	 */
+	private static void logChannel(Channel channel) {
+		WriteAheadLog log = m_log;
+		if(log == null) {
+			return;
+		}
+		if(!channel.isPermanent()) {
+			logRemoval(channel.getID());
+			return;
+		}
+		try {
+			RecordWriter writer = new RecordWriter();
+			writer.writeByte(LOG_PUT);
+			writer.writeInt(channel.getID());
+			synchronized(channel) {
+				writeChannelData(writer, channel.getChannelData());
+			}
+			log.append(writer.toByteArray());
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Appends the removal of a channel to the write-ahead log.
+	 * @param channelID The ID of the removed channel.
+	 */
+	private static void logRemoval(int channelID) {
+		WriteAheadLog log = m_log;
+		if(log == null) {
+			return;
+		}
+		try {
+			RecordWriter writer = new RecordWriter();
+			writer.writeByte(LOG_REMOVE);
+			writer.writeInt(channelID);
+			log.append(writer.toByteArray());
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Closes the write-ahead log, writing it's pending changes.
+	 */
+	private static void closeLog() {
+		WriteAheadLog log = m_log;
+		m_log = null;
+		if(log != null) {
+			log.close();
+		}
+	}
+	
+	/**
+	 * Writes the data of a channel to a snapshot or log record.
+	 * @param writer The writer of the record.
+	 * @param data The data of the channel.
+	 * @throws IOException If the data could not be written.
+	 */
+	private static void writeChannelData(RecordWriter writer, ChannelData data) throws IOException {
+		writer.writeString(data.getName());
+		writer.writeString(data.getTopic());
+		writer.writeString(data.getDescription());
+		writer.writeBoolean(data.hasPassword());
+		writer.writeString(data.getPassword());
+		writer.writeInt(data.getMaxClients());
+		writer.writeBoolean(data.isMixed());
+		writer.writeInt(data.getRedundancy());
+	}
+	
+	/**
+	 * Reads the data of a channel from a snapshot or log record.
+	 * @param reader The reader of the record.
+	 * @return The data of the channel.
+	 * @throws IOException If the data could not be read.
+	 */
+	private static ChannelData readChannelData(RecordReader reader) throws IOException {
+		ChannelData data = new ChannelData(reader.readString(), reader.readString(), reader.readString(),
+										   reader.readBoolean(), reader.readString(), reader.readInt());
+		data.setMixed(reader.readBoolean());
+		data.setRedundancy(reader.readInt());
+		return data;
+	}
+	
+	/**
+	 * Creates a permanent channel from loaded channel data, keeping the
+	 * ID the channel had when it was saved.
+	 * @param id The ID of the channel.
+	 * @param data The loaded channel data.
+	 */
+	private static void addLoadedChannel(int id, ChannelData data) {
+		// Creating channel from read data, keeping the ID unused by later channels
+		reserveID(id);
+		addChannel(id, new ChannelData(data.getName(), data.getTopic(), data.getDescription(), data.hasPassword(), 
+									   data.getPassword(), data.getMaxClients()), true);
+		
+		// Setting the mixing mode
+		if(data.isMixed()) {
+			setChannelMixed(id, true);
+		}
+		
+		// Setting the redundancy
+		if(data.getRedundancy() > 0) {
+			setChannelRedundancy(id, data.getRedundancy());
+		}
+	}
+	
+	/**
+	 * Returns the XML context of the channel files, creating it when first used.
+	 * @return The XML context.
+	 * @throws JAXBException If the context could not be created.
+	 */
+	private static synchronized JAXBContext getXmlContext() throws JAXBException {
+		if(m_xmlContext == null) {
+			m_xmlContext = JAXBContext.newInstance(ChannelSerializer.class);
+		}
+		return m_xmlContext;
+	}
+	
 	/**
 	 * Generates a new unique ID.
 	 * @return The generated ID.
 	 */
 	private static int generateID() {
-		return m_idGenerator++;
+		return m_idGenerator.getAndIncrement();
+	}
+	
+	/**
+	 * Makes sure an ID of a loaded channel is not generated again.
+	 * @param id The used ID.
+	 */
+	private static void reserveID(int id) {
+		int next = m_idGenerator.get();
+		while(next <= id && !m_idGenerator.compareAndSet(next, id + 1)) {
+			next = m_idGenerator.get();
+		}
 	}
 	
 };
@@ -2,41 +2,49 @@ package convoice.server.connection;
 
 
 // Java imports
+import java.net.ProtocolException;
 import java.net.Socket;
-import java.util.Set;
 import java.util.logging.Level;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 // Project imports
 import convoice.server.channel.Channel;
 import convoice.server.channel.ChannelManager;
-import convoice.server.gui.GUIController;
+import convoice.server.event.EventManager;
 import convoice.server.logger.LogManager;
 import convoice.server.permission.PermissionManager;
 import convoice.server.user.User;
 import convoice.server.user.UserManager;
+import convoice.server.util.IntMap;
+import convoice.server.util.IntSet;
 
 /**
  * The ConnectionHandler class is responsible for handling 
  * existing connections. 
  * The handler stores the ID of users associated with it, 
  * and will handle their requests by iterating the container 
- * and reading / writing messages.
+ * and reading / writing messages. This is the handler of the
+ * polling connection mode, other handlers extend it and reuse
+ * it's message handling methods.
  */
 public class ConnectionHandler implements Runnable {
+	/** The maximum number of frames written by a single gathering write. */
+	protected static final int WRITE_BATCH_SIZE = 64;
+	
 	/** The set of users assigned to the handler. */
-	private Set<Integer> m_users;			
+	protected IntSet m_users;			
+	
+	/** The users disconnected while iterating the set of users, removed after the iteration. */
+	private IntSet m_dropped;
 	
 	/** The running state-flag. */
-	private volatile boolean m_running;
+	protected volatile boolean m_running;
 	
 	/** The should run state-flag. */
-	private volatile boolean m_shouldRun;	
+	protected volatile boolean m_shouldRun;	
 	
 	/**
 	 * Constructs a ConnectionHandler object.
@@ -45,7 +53,8 @@ public class ConnectionHandler implements Runnable {
 		// Initializing members
 		m_running = false;
 		m_shouldRun = false;
-		m_users = new HashSet<Integer>();
+		m_users = new IntSet();
+		m_dropped = new IntSet();
 	}
 	
 	/**
@@ -53,7 +62,8 @@ public class ConnectionHandler implements Runnable {
 	 * The handler will actively loop the container of associated
 	 * users, and will try to read messages from their network
 	 * socket. Then the message will be passed to the corresponding
-	 * handler method. The the loop finishes all connections will be
+	 * handler method. The messages queued for the users are sent
+	 * in the same loop. The the loop finishes all connections will be
 	 * terminated.
 	 */
 	public void run() {
@@ -68,32 +78,54 @@ public class ConnectionHandler implements Runnable {
 		while(m_shouldRun) {
 			try {
 				synchronized(m_users) {
-					// Iterating users
-					Iterator<Integer> it = m_users.iterator();
-					while(it.hasNext()) {
-						int userID = it.next();
-						Socket socket = UserManager.getUser(userID).getSocket();
-						synchronized(socket) {
-							// Reading message type
-							DataInputStream dis = new DataInputStream(socket.getInputStream());
-							MessageType type = MessageType.UNDEFINED;
-							if(dis.available() > 0) {
-								type = MessageType.fromInteger(dis.readInt());
+					try {
+						// Iterating users
+						for(int i = m_users.next(-1); i >= 0; i = m_users.next(i)) {
+							int userID = m_users.keyAt(i);
+							User user = UserManager.getUser(userID);
+							Socket socket = user.getSocket();
+							
+							// Disconnecting users dropped by their outbound queue
+							if(user.getOutboundQueue().isDisconnected()) {
+								onDisconnectionRequest(userID);
+								m_dropped.add(userID);
+								continue;
 							}
+							
+							// Sending queued messages
+							writeQueued(user);
+							
+							synchronized(socket) {
+								// Checking for incoming messages
+								DataInputStream dis = new DataInputStream(socket.getInputStream());
+								if(dis.available() == 0) {
+									continue;
+								}
+
+								// Reading the message frame
+								Frame frame;
+								try {
+									frame = Frame.read(dis);
+								} catch(ProtocolException e) {
+									// The frame header is invalid, the stream can not be followed anymore
+									onDisconnectionRequest(userID);
+									m_dropped.add(userID);
+									continue;
+								}
 
-							// Handling the message
-							switch(type) {
-							case DISCONNECTION_REQUEST: onDisconnectionRequest(userID, socket, it); break;
-							case CHANNEL_LIST_REQUEST: onChannelListRequest(userID, socket); break;
-							case CHANNEL_CREATE_REQUEST: onChannelCreateRequest(userID, socket); break;
-							case CHANNEL_MODIFY_REQUEST: onChannelModifyRequest(userID, socket); break;
-							case CHANNEL_DELETE_REQUEST: onChannelDeleteRequest(userID, socket); break;
-							case USER_LIST_REQUEST: onUserListRequest(userID, socket); break;
-							case USER_MOVE_REQUEST: onUserMoveRequest(userID, socket); break;
-							case MESSAGE_REQUEST: onMessageRequest(userID, socket); break;
-							default: /* Unsupported message type */ break;
+								// Handling the message
+								if(!handleMessage(userID, frame)) {
+									// Dropping the disconnected user
+									m_dropped.add(userID);
+								}
 							}
 						}
+					} finally {
+						// Removing the disconnected users from the handler
+						for(int i = m_dropped.next(-1); i >= 0; i = m_dropped.next(i)) {
+							m_users.remove(m_dropped.keyAt(i));
+						}
+						m_dropped.clear();
 					}
 				}
 
@@ -137,13 +169,29 @@ public class ConnectionHandler implements Runnable {
 	/**
 	 * Adds a User to the handler.
 	 * After the user has been added, all of it's messages will
-	 * be handled by the handler.
+	 * be handled by the handler. Users which do not exist
+	 * are not added.
 	 * @param userID The user to add.
 	 */
 	public void addUser(int userID) {
+		User user = UserManager.getUser(userID);
+		if(user == null) {
+			return;
+		}
 		synchronized(m_users) {
 			m_users.add(userID);
 		}
+		attachQueue(user);
+	}
+	
+	/**
+	 * Removes a user from the set of users assigned to the handler.
+	 * @param userID The ID of the user.
+	 */
+	protected void removeUser(int userID) {
+		synchronized(m_users) {
+			m_users.remove(userID);
+		}
 	}
 	
 	/**
@@ -154,22 +202,110 @@ public class ConnectionHandler implements Runnable {
 		return m_users.size();
 	}
 	
+	/**
+	 * Passes a message frame received from the specified user to the 
+	 * corresponding handler method, which reads the content of the
+	 * message from the payload of the frame. Messages of unknown type
+	 * are skipped, and so is any trailing content not read by the 
+	 * handler methods.
+	 * @param userID The source of the message.
+	 * @param frame The received message frame.
+	 * @return False if the user disconnected, true otherwise.
+	 * @throws IOException If the message could not be read.
+	 */
+	protected boolean handleMessage(int userID, Frame frame) throws IOException {
+		DataInputStream dis = frame.getInputStream();
+		switch(frame.getType()) {
+		case DISCONNECTION_REQUEST: onDisconnectionRequest(userID); return false;
+		case CHANNEL_LIST_REQUEST: onChannelListRequest(userID, dis); break;
+		case CHANNEL_CREATE_REQUEST: onChannelCreateRequest(userID, dis); break;
+		case CHANNEL_MODIFY_REQUEST: onChannelModifyRequest(userID, dis); break;
+		case CHANNEL_DELETE_REQUEST: onChannelDeleteRequest(userID, dis); break;
+		case USER_LIST_REQUEST: onUserListRequest(userID, dis); break;
+		case USER_MOVE_REQUEST: onUserMoveRequest(userID, dis); break;
+		case MESSAGE_REQUEST: onMessageRequest(userID, dis); break;
+		default: /* Unsupported message type */ break;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the messages queued for the specified user to it's
+	 * socket with blocking writes. The queued frames are written in
+	 * batches, with a single gathering write for each batch.
+	 * @param user The user to write the messages of.
+	 * @throws IOException If the socket could not be written.
+	 */
+	protected void writeQueued(User user) throws IOException {
+		OutboundQueue queue = user.getOutboundQueue();
+		ConnectionOutputStream os = user.getOutputStream();
+		ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH_SIZE];
+		
+		synchronized(os) {
+			// Writing frames until the queue is empty
+			int count;
+			while((count = queue.peek(batch)) > 0) {
+				os.write(batch, 0, count);
+				queue.remove(count);
+			}
+		}
+	}
+	
+	/**
+	 * Sends the messages queued for a user whose connection is being
+	 * terminated. The writes fail if the client does not receive them
+	 * in time, the queue is closed already.
+	 * @param user The user to send the messages of.
+	 * @throws IOException If the messages could not be sent.
+	 */
+	protected void flushQueued(User user) throws IOException {
+		writeQueued(user);
+	}
+	
+	/**
+	 * Attaches the handler to the outbound queue of a newly added
+	 * user. The socket of the user is closed if the queue drops the
+	 * user, which makes the next read fail and disconnect the user.
+	 * @param user The user added to the handler.
+	 */
+	protected void attachQueue(User user) {
+		user.getOutboundQueue().attach(new Runnable() {
+			public void run() {
+				if(user.getOutboundQueue().isDisconnected()) {
+					try {
+						user.getSocket().close();
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+	
 	/**
 	 * Terminates all connections associated with the handler,
 	 * by first sending a termination message to the client,
 	 * then closing it's socket and deleted the corresponding
-	 * user.
+	 * user. Sending the pending messages is only attempted, a
+	 * client failing to receive them is terminated all the same.
 	 */
-	private void terminateConnections() {
+	protected void terminateConnections() {
 		try {
 			synchronized(m_users) {
-				for(int userID : m_users) {
+				for(int i = m_users.next(-1); i >= 0; i = m_users.next(i)) {
 					// Sending connection termination message
-					Socket socket = UserManager.getUser(userID).getSocket();
+					int userID = m_users.keyAt(i);
+					User user = UserManager.getUser(userID);
+					Socket socket = user.getSocket();
 					synchronized(socket) {
-						DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-						dos.writeInt(MessageType.CONNECTION_TERMINATED.toInteger());
-						dos.flush();
+						OutboundQueue queue = user.getOutboundQueue();
+						queue.enqueue(new FrameBuilder(MessageType.CONNECTION_TERMINATED).toByteBuffer());
+						queue.close();
+						try {
+							flushQueued(user);
+						} catch(IOException e) {
+							LogManager.addConnectionsLog(Level.WARNING, "Could not send the termination to user ID: {}, {}", userID, e.getMessage());
+						}
 						
 						// Closing the socket
 						socket.close();
@@ -186,8 +322,8 @@ public class ConnectionHandler implements Runnable {
 				m_users.clear();
 			}
 			
-			// Updating the user interface
-			GUIController.setConnectionsClientsCount(ConnectionManager.getClientCount());
+			// Notifying the listeners
+			EventManager.clientCountChanged(ConnectionManager.getClientCount());
 			
 			// Logging
 			LogManager.addConnectionsLog(Level.INFO, "Connection handler connections terminated.");
@@ -199,34 +335,30 @@ public class ConnectionHandler implements Runnable {
 	
 	/**
 	 * Terminates the connection with the specified user after
-	 * the handler received a disconnect request in run().
+	 * the handler received a disconnect request. The caller is
+	 * responsible for removing the user from the handler.
 	 * @param source The source of the disconnect request.
-	 * @param socket Socket to the requesting user.
-	 * @param it The iterator used for deleting the user from the handler.
 	 */
-	private void onDisconnectionRequest(int source, Socket socket, Iterator<Integer> it) {
+	protected void onDisconnectionRequest(int source) {
 		try { 			
-			// Closing the socket
-			socket.close();
+			// Closing the outbound queue and the socket
+			UserManager.getUser(source).getOutboundQueue().close();
+			UserManager.getUser(source).getSocket().close();
 			
-			// Updating user interface
+			// Logging
 			if(PermissionManager.isMember(source)) {
-				GUIController.addMembersOutputMessage(
-						UserManager.getUser(source).getUserData().getUsername() + " disconnected.");
+				LogManager.addMembersLog(Level.INFO, "{} disconnected.",
+						UserManager.getUser(source).getUserData().getUsername());
 			}
 			
 			// Unregistering user from the PermissionManager
 			PermissionManager.unregister(source);
 			
-			// Removing the user from the handler
-			it.remove();
-			//m_users.remove(source);
-			
 			// Deleting the user
 			UserManager.deleteUser(source);
 			
-			// Updating the user interface
-			GUIController.setConnectionsClientsCount(ConnectionManager.getClientCount());
+			// Notifying the listeners
+			EventManager.clientCountChanged(ConnectionManager.getClientCount());
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -234,32 +366,56 @@ public class ConnectionHandler implements Runnable {
 	
 	/**
 	 * Sends the list of channels to the specified user after
-	 * the handler received a channel list request in run().
+	 * the handler received a channel list request. The response
+	 * carries the ID of the request, so the client can match them.
+	 * If the changes since the revision known by the user are still
+	 * logged, only the changes are sent, otherwise a snapshot of all channels.
 	 * @param source The source of the channel list request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the list could not be written.
 	 */
-	private void onChannelListRequest(int source, Socket socket) {
-		try {
-			// Getting channel list
-			Map<Integer, Channel> channelList = ChannelManager.getAllChannels();
+	private void onChannelListRequest(int source, DataInputStream dis) throws IOException {
+		// Reading the ID of the request and the revision known by the user
+		int requestID = dis.readInt();
+		long epoch = dis.readLong();
+		long revision = dis.readLong();
+		
+		StateLog log = ConnectionManager.getChannelLog();
+		synchronized(log) {
+			// Getting the changes since the known revision
+			List<ByteBuffer> changes = log.since(epoch, revision);
 			
-			// Writing channel list 
-			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-			dos.writeInt(MessageType.CHANNEL_LIST.toInteger());
-			dos.writeInt(channelList.size());
+			// Writing the revision of the list
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_LIST);
+			frame.writeInt(requestID);
+			frame.writeLong(log.getEpoch());
+			frame.writeLong(log.getRevision());
+			frame.writeBoolean(changes == null);
 			
-			for(Channel channel : channelList.values()) {
-				dos.writeInt(channel.getID());
-				dos.writeUTF(channel.getChannelData().getName());
-				dos.writeUTF(channel.getChannelData().getTopic());
-				dos.writeUTF(channel.getChannelData().getDescription());
-				dos.writeBoolean(channel.getChannelData().hasPassword());
-				dos.writeInt(channel.getChannelData().getMaxClients());
-				dos.writeBoolean(channel.isPermanent());
-				dos.flush();
+			if(changes != null) {
+				// Writing channel changes
+				writeChanges(frame, changes);
+			} else {
+				// Getting channel list
+				IntMap<Channel> channelList = ChannelManager.getAllChannels();
+				
+				// Writing channel list 
+				frame.writeInt(channelList.size());
+				
+				for(int i = channelList.next(-1); i >= 0; i = channelList.next(i)) {
+					Channel channel = channelList.valueAt(i);
+					frame.writeInt(channel.getID());
+					frame.writeUTF(channel.getChannelData().getName());
+					frame.writeUTF(channel.getChannelData().getTopic());
+					frame.writeUTF(channel.getChannelData().getDescription());
+					frame.writeBoolean(channel.getChannelData().hasPassword());
+					frame.writeInt(channel.getChannelData().getMaxClients());
+					frame.writeBoolean(channel.isPermanent());
+				}
 			}
-		} catch(IOException e) {
-			e.printStackTrace();
+			
+			// Queuing channel list
+			UserManager.getUser(source).getOutboundQueue().enqueue(frame.toByteBuffer());
 		}
 	}
 	
@@ -269,33 +425,29 @@ public class ConnectionHandler implements Runnable {
 	 * If channel creating is successful, the requesting user
 	 * is automatically moved to the created channel.
 	 * @param source The source of the channel create request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the request could not be read.
 	 */
-	private void onChannelCreateRequest(int source, Socket socket) {
-		try {
-			// Reading channel data
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
-			String name = dis.readUTF();
-			String topic = dis.readUTF();
-			String description = dis.readUTF();
-			boolean hasPassword = dis.readBoolean();
-			String password = dis.readUTF();
-			int maxClients = dis.readInt();
-			boolean permanent = dis.readBoolean();
+	private void onChannelCreateRequest(int source, DataInputStream dis) throws IOException {
+		// Reading channel data
+		String name = dis.readUTF();
+		String topic = dis.readUTF();
+		String description = dis.readUTF();
+		boolean hasPassword = dis.readBoolean();
+		String password = dis.readUTF();
+		int maxClients = dis.readInt();
+		boolean permanent = dis.readBoolean();
+		
+		// Checking permission
+		if(PermissionManager.canCreateChannel(source)) {
+			// Creating the channel
+			int channelID = ChannelManager.createChannel(name, topic, description, hasPassword, password, maxClients, permanent);
 			
-			// Checking permission
-			if(PermissionManager.canCreateChannel(source)) {
-				// Creating the channel
-				int channelID = ChannelManager.createChannel(name, topic, description, hasPassword, password, maxClients, permanent);
-				
-				// Moving user to the new channel
-				UserManager.moveUser(source, channelID, password);
-			} else {
-				// Sending insufficient permission notification
-				sendInsufficientPermissionNotification(socket);
-			}
-		} catch(IOException e) {
-			e.printStackTrace();
+			// Moving user to the new channel
+			UserManager.moveUser(source, channelID, password);
+		} else {
+			// Sending insufficient permission notification
+			sendInsufficientPermissionNotification(source);
 		}
 	}
 	
@@ -303,31 +455,27 @@ public class ConnectionHandler implements Runnable {
 	 * Modifies a channel with the provided parameters after
 	 * the handler received a channel modify request in run().
 	 * @param source The source of the channel modify request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the request could not be read.
 	 */
-	private void onChannelModifyRequest(int source, Socket socket) {
-		try {
-			// Reading channel data 
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
-			int channelID = dis.readInt();
-			String name = dis.readUTF();
-			String topic = dis.readUTF();
-			String description = dis.readUTF();
-			boolean hasPassword = dis.readBoolean();
-			String password = dis.readUTF();
-			int maxClients = dis.readInt();
-			boolean permanent = dis.readBoolean();
-			
-			// Checking permission
-			if(PermissionManager.canModifyChannel(source)) {
-				// Modifying the channel
-				ChannelManager.modifyChannel(channelID, name, topic, description, hasPassword, password, maxClients, permanent);
-			} else {
-				// Sending insufficient permission notification
-				sendInsufficientPermissionNotification(socket);
-			}
-		} catch(IOException e) {
-			e.printStackTrace();
+	private void onChannelModifyRequest(int source, DataInputStream dis) throws IOException {
+		// Reading channel data 
+		int channelID = dis.readInt();
+		String name = dis.readUTF();
+		String topic = dis.readUTF();
+		String description = dis.readUTF();
+		boolean hasPassword = dis.readBoolean();
+		String password = dis.readUTF();
+		int maxClients = dis.readInt();
+		boolean permanent = dis.readBoolean();
+		
+		// Checking permission
+		if(PermissionManager.canModifyChannel(source, channelID)) {
+			// Modifying the channel
+			ChannelManager.modifyChannel(channelID, name, topic, description, hasPassword, password, maxClients, permanent);
+		} else {
+			// Sending insufficient permission notification
+			sendInsufficientPermissionNotification(source);
 		}
 	}
 	
@@ -335,52 +483,88 @@ public class ConnectionHandler implements Runnable {
 	 * Deletes a channel with the provided parameters after
 	 * the handler received a channel delete request in run().
 	 * @param source The source of the channel delete request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the request could not be read.
 	 */
-	private void onChannelDeleteRequest(int source, Socket socket) {
-		try {
-			// Reading channel data
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
-			int channelID = dis.readInt();
-			
-			// Checking permission
-			if(PermissionManager.canDeleteChannel(source)) {
-				// Deleting channel
-				ChannelManager.deleteChannel(channelID);
-			} else {
-				// Sending insufficient permission notification
-				sendInsufficientPermissionNotification(socket);
-			}
-		} catch(IOException e) {
-			e.printStackTrace();
+	private void onChannelDeleteRequest(int source, DataInputStream dis) throws IOException {
+		// Reading channel data
+		int channelID = dis.readInt();
+		
+		// Checking permission
+		if(PermissionManager.canDeleteChannel(source, channelID)) {
+			// Deleting channel
+			ChannelManager.deleteChannel(channelID);
+		} else {
+			// Sending insufficient permission notification
+			sendInsufficientPermissionNotification(source);
 		}
 	}
 	
 	/**
 	 * Sends the list of users to the requesting user after
-	 * the handler received a user list request in run().
+	 * the handler received a user list request. The response
+	 * carries the ID of the request, so the client can match them.
+	 * If the changes since the revision known by the user are still
+	 * logged, only the changes are sent, otherwise a snapshot of all users.
 	 * @param source The source of the user list request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the list could not be written.
 	 */
-	private void onUserListRequest(int source, Socket socket) {
-		try {
-			// Getting user list
-			Map<Integer, User> userList = UserManager.getAllUsers();
+	private void onUserListRequest(int source, DataInputStream dis) throws IOException {
+		// Reading the ID of the request and the revision known by the user
+		int requestID = dis.readInt();
+		long epoch = dis.readLong();
+		long revision = dis.readLong();
+		
+		StateLog log = ConnectionManager.getUserLog();
+		synchronized(log) {
+			// Getting the changes since the known revision
+			List<ByteBuffer> changes = log.since(epoch, revision);
 			
-			// Writing user list
-			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-			dos.writeInt(MessageType.USER_LIST.toInteger());
-			dos.writeInt(userList.size());
+			// Writing the revision of the list
+			FrameBuilder frame = new FrameBuilder(MessageType.USER_LIST);
+			frame.writeInt(requestID);
+			frame.writeLong(log.getEpoch());
+			frame.writeLong(log.getRevision());
+			frame.writeBoolean(changes == null);
 			
-			for(User user : userList.values()) {
-				dos.writeInt(user.getID());
-				dos.writeUTF(user.getUserData().getUsername());
-				dos.writeUTF(user.getUserData().getNickname());
-				dos.writeInt(user.getChannel());
-				dos.flush();
+			if(changes != null) {
+				// Writing user changes
+				writeChanges(frame, changes);
+			} else {
+				// Getting user list
+				IntMap<User> userList = UserManager.getAllUsers();
+				
+				// Writing user list
+				frame.writeInt(userList.size());
+				
+				for(int i = userList.next(-1); i >= 0; i = userList.next(i)) {
+					User user = userList.valueAt(i);
+					frame.writeInt(user.getID());
+					frame.writeUTF(user.getUserData().getUsername());
+					frame.writeUTF(user.getUserData().getNickname());
+					frame.writeInt(user.getChannel());
+				}
 			}
-		} catch(IOException e) {
-			e.printStackTrace();
+			
+			// Queuing user list
+			UserManager.getUser(source).getOutboundQueue().enqueue(frame.toByteBuffer());
+		}
+	}
+	
+	/**
+	 * Writes logged changes to a list frame. The notification frames
+	 * of the changes are embedded as they were sent to the clients.
+	 * @param frame The list frame to write to.
+	 * @param changes The frames of the changes.
+	 * @throws IOException If the changes could not be written.
+	 */
+	private void writeChanges(FrameBuilder frame, List<ByteBuffer> changes) throws IOException {
+		frame.writeInt(changes.size());
+		for(ByteBuffer change : changes) {
+			byte[] bytes = new byte[change.remaining()];
+			change.get(bytes);
+			frame.write(bytes);
 		}
 	}
 	
@@ -388,50 +572,46 @@ public class ConnectionHandler implements Runnable {
 	 * Moves the specified user to the specified channel after
 	 * the handler received a user move request in run().
 	 * @param source The source of the user move request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the request could not be read.
 	 */
-	private void onUserMoveRequest(int source, Socket socket) {
-		try {
-			// Reading move data
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
-			int userID = dis.readInt();
-			int channelID = dis.readInt();
-			String password = dis.readUTF();
-			
-			// Moving user
-			UserManager.moveUser(userID, channelID, password);
-		} catch(IOException e) {
-			e.printStackTrace();
-		}
+	private void onUserMoveRequest(int source, DataInputStream dis) throws IOException {
+		// Reading move data
+		int userID = dis.readInt();
+		int channelID = dis.readInt();
+		String password = dis.readUTF();
+		
+		// Moving user
+		UserManager.moveUser(userID, channelID, password);
 	}
 	
 	/**
 	 * Sends a message to all users within the same channel as the
 	 * source after the handler received a message request in run().
 	 * @param source The source of the message request.
-	 * @param socket Socket to the requesting user.
+	 * @param dis The stream to read the request from.
+	 * @throws IOException If the request could not be read.
 	 */
-	private void onMessageRequest(int source, Socket socket) {
+	private void onMessageRequest(int source, DataInputStream dis) throws IOException {
+		// Reading message data
+		String message = dis.readUTF();
+		
 		try {
-			// Reading message data
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
-			String message = dis.readUTF();
-			
 			// Acquiring message targets
 			int channelID = UserManager.getUser(source).getChannel();
-			Set<Integer> targets = ChannelManager.getChannel(channelID).getUsers();
+			int[] targets = ChannelManager.getChannel(channelID).getUsers();
+			
+			// Encoding message data once for all targets
+			FrameBuilder frame = new FrameBuilder(MessageType.MESSAGE);
+			frame.writeInt(source);
+			frame.writeUTF(message);
+			ByteBuffer buffer = frame.toByteBuffer();
 			
 			for(int target : targets) {
-				// Getting socket for the target
-				Socket targetSocket = UserManager.getUser(target).getSocket();
-				
-				synchronized(targetSocket) {
-					// Sending message data to targets
-					DataOutputStream dos = new DataOutputStream(targetSocket.getOutputStream());
-					dos.writeInt(MessageType.MESSAGE.toInteger());
-					dos.writeInt(source);
-					dos.writeUTF(message);
-					dos.flush();
+				// Queuing message data to targets, which may have left meanwhile
+				User user = UserManager.getUser(target);
+				if(user != null) {
+					user.getOutboundQueue().enqueue(buffer);
 				}
 			}
 		} catch(IOException e) {
@@ -440,20 +620,15 @@ public class ConnectionHandler implements Runnable {
 	}
 	
 	/**
-	 * Sends an insufficient permission message to the specified socket.
+	 * Sends an insufficient permission message to the specified user.
 	 * This message is sent to clients when their requested operation
 	 * failed.
-	 * @param socket The TCP socket to send the notification message.
+	 * @param userID The ID of the user to send the notification message.
 	 */
-	private void sendInsufficientPermissionNotification(Socket socket) {
-		try { 
-			// Sending notification
-			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-			dos.writeInt(MessageType.INSUFFICIENT_PERMISSION.toInteger());
-			dos.flush();
-		} catch(IOException e) {
-			e.printStackTrace();
-		}
+	private void sendInsufficientPermissionNotification(int userID) {
+		// Queuing notification
+		FrameBuilder frame = new FrameBuilder(MessageType.INSUFFICIENT_PERMISSION);
+		UserManager.getUser(userID).getOutboundQueue().enqueue(frame.toByteBuffer());
 	}
 	
 };
@@ -2,19 +2,32 @@ package convoice.server.connection;
 
 
 // Java imports
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
 // Project imports
-import convoice.server.gui.GUIController;
+import convoice.server.channel.ChannelManager;
+import convoice.server.event.EventManager;
 import convoice.server.logger.LogManager;
+import convoice.server.permission.PermissionManager;
 import convoice.server.server.Server;
 import convoice.server.user.UserManager;
+import convoice.server.voice.CodecType;
+import convoice.server.voice.VoiceManager;
+import convoice.server.voice.VoicePacket;
 
 /**
  * The ConnectionListener class is responsible for listening
@@ -28,6 +41,12 @@ import convoice.server.user.UserManager;
  * received an acknowledgement message about success or failure.
  */
 public class ConnectionListener implements Runnable {
+	/** The maximum size of the connection request payload in bytes. */
+	private static final int MAX_REQUEST_SIZE = 4096;
+	
+	/** The time in milliseconds a client has to send the connection request. */
+	private static final int REQUEST_TIMEOUT = 5000;
+	
 	/** The TCP server socket listening for connections. */
 	private ServerSocket m_serverSocket;	
 	
@@ -39,12 +58,21 @@ public class ConnectionListener implements Runnable {
 	
 	/**
 	 * Constructs a ConnectionListener object.
+	 * Sockets accepted trough a ServerSocketChannel have a SocketChannel,
+	 * which is required by the selector connection mode, and allows
+	 * gathering writes in the thread connection mode.
 	 * @param port The port to listen on.
+	 * @param useChannels True if the sockets should be accepted trough a channel.
 	 */
-	public ConnectionListener(int port) {		
+	public ConnectionListener(int port, boolean useChannels) {		
 		try {
 			// Initializing members
-			m_serverSocket = new ServerSocket(port);
+			if(useChannels) {
+				m_serverSocket = ServerSocketChannel.open().socket();
+				m_serverSocket.bind(new InetSocketAddress(port));
+			} else {
+				m_serverSocket = new ServerSocket(port);
+			}
 			m_running = false;
 			m_shouldRun = false;
 		} catch (IOException e) {
@@ -67,8 +95,8 @@ public class ConnectionListener implements Runnable {
 		m_shouldRun = true;
 		m_running = true;
 		
-		// Updating the user interface
-		GUIController.setConnectionsListenerStatus("Active");
+		// Notifying the listeners
+		EventManager.listenerStatusChanged(true);
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.INFO, "Connection listener started.");
@@ -80,10 +108,8 @@ public class ConnectionListener implements Runnable {
 				Socket socket = m_serverSocket.accept();
 				
 				// Validating connection
-				DataInputStream dis = new DataInputStream(socket.getInputStream());
-				MessageType type = MessageType.fromInteger(dis.readInt());
-				if(!type.equals(MessageType.CONNECTION_REQUEST)) {
-					rejectConnection(socket, "Bad protocol.");
+				DataInputStream dis = readConnectionRequest(socket);
+				if(dis == null) {
 					continue;
 				}
 				
@@ -93,7 +119,7 @@ public class ConnectionListener implements Runnable {
 				// Checking the received handler
 				if(handler != null) {
 					// Accepting connection
-					int userID = acceptConnection(socket);
+					int userID = acceptConnection(socket, dis);
 					
 					// Assigning to handler
 					if(userID != -1) {
@@ -106,6 +132,9 @@ public class ConnectionListener implements Runnable {
 			// The socket was closed by calling stop()
 			} catch(SocketException e) {
 				break;
+			// The channel was closed by calling stop()
+			} catch(ClosedChannelException e) {
+				break;
 			// Failure at accepting connection
 			} catch(IOException e) {
 				e.printStackTrace();
@@ -113,8 +142,8 @@ public class ConnectionListener implements Runnable {
 			} 
 		}
 		
-		// Updating the user interface
-		GUIController.setConnectionsListenerStatus("Inactive");
+		// Notifying the listeners
+		EventManager.listenerStatusChanged(false);
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.INFO, "Connection listener stopped.");
@@ -147,25 +176,91 @@ public class ConnectionListener implements Runnable {
 		}
 	}
 	
+	/**
+	 * Reads the connection request frame from the specified socket,
+	 * and validates it's type and protocol version. Invalid requests
+	 * are rejected. As the listener accepts the connections on a single
+	 * thread, the size of the request is limited, and the client has to
+	 * send it within the request timeout, otherwise it is rejected.
+	 * Connections failing while the request is read are closed.
+	 * @param socket The socket of the connection.
+	 * @return The stream reading the rest of the request, or null if rejected.
+	 */
+	private DataInputStream readConnectionRequest(Socket socket) {
+		try {
+			// Reading the request frame
+			socket.setSoTimeout(REQUEST_TIMEOUT);
+			Frame frame = Frame.read(new DataInputStream(socket.getInputStream()), MAX_REQUEST_SIZE);
+			socket.setSoTimeout(0);
+			if(frame.getType() != MessageType.CONNECTION_REQUEST) {
+				rejectConnection(socket, "Bad protocol.");
+				return null;
+			}
+			
+			// Checking the protocol version
+			DataInputStream dis = frame.getInputStream();
+			if(dis.readInt() != Frame.PROTOCOL_VERSION) {
+				rejectConnection(socket, "Unsupported protocol version.");
+				return null;
+			}
+			return dis;
+		} catch(ProtocolException e) {
+			// Invalid frame header
+			rejectConnection(socket, "Bad protocol.");
+			return null;
+		} catch(EOFException e) {
+			// Incomplete request
+			rejectConnection(socket, "Bad protocol.");
+			return null;
+		} catch(SocketTimeoutException e) {
+			// The request was not sent in time
+			rejectConnection(socket, "Connection request timed out.");
+			return null;
+		} catch(IOException e) {
+			// The connection failed, closing the socket
+			try {
+				socket.close();
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			}
+			LogManager.addConnectionsLog(Level.INFO, "New connection failed: {}", e.getMessage());
+			return null;
+		}
+	}
+	
 	/**
 	 * Accepts the connection incoming on the specified socket.
-	 * Reads connection data from the socket, creates a new user via
+	 * Reads connection data from the request, creates a new user via
 	 * the UserManager and sends the client a greeting message along
 	 * with the server data. The ID of the user created from the connection
 	 * is returned. In case of member login attempts, validation also takes
 	 * place. If validation fails the connection is rejected and -1 is returned.
+	 * If the request is incomplete or the response could not be sent, the
+	 * created user is deleted, the connection is closed and -1 is returned.
 	 * @param socket The socket of the connection.
-	 * @return The ID of the created user, or -1 if validation failed.
+	 * @param dis The stream reading the connection request.
+	 * @return The ID of the created user, or -1 if the connection failed.
 	 */
-	private int acceptConnection(Socket socket) {
-		int userID = 0;
+	private int acceptConnection(Socket socket, DataInputStream dis) {
+		int userID = -1;
 		try {
 			// Reading connection data
-			DataInputStream dis = new DataInputStream(socket.getInputStream());
 			boolean isMember = dis.readBoolean();
 			String username = dis.readUTF();
 			String nickname = dis.readUTF();
 			String password = dis.readUTF();
+			
+			// Reading the voice capabilities
+			List<CodecType> codecs = new ArrayList<CodecType>();
+			int codecCount = dis.readInt();
+			for(int i = 0; i < codecCount; i++) {
+				CodecType codec = CodecType.fromString(dis.readUTF());
+				if(codec != null) {
+					codecs.add(codec);
+				}
+			}
+			int frameDuration = dis.readInt();
+			int maxBitrate = dis.readInt();
 						
 			if(isMember) {
 				// Validating membership in case of member login
@@ -176,8 +271,8 @@ public class ConnectionListener implements Runnable {
 					// Logging in user with membership rights
 					UserManager.loginMember(userID);
 					
-					// Updating user interface
-					GUIController.addMembersOutputMessage(username + " (Member) connected.");
+					// Logging
+					LogManager.addMembersLog(Level.INFO, "{} (Member) connected.", username);
 				} else {
 					// Validation failed, rejecting connection
 					rejectConnection(socket, "Incorrect username / password.");
@@ -191,20 +286,47 @@ public class ConnectionListener implements Runnable {
 				UserManager.loginGuest(userID);
 			}
 			
+			// Registering the user for the voice transport, if it's frames match the relay
+			boolean voice = frameDuration == VoicePacket.FRAME_DURATION;
+			long voiceToken = voice ? VoiceManager.addUser(userID, UserManager.getUser(userID).getChannel()) : 0;
+			CodecType codec = VoiceManager.negotiateCodec(codecs, maxBitrate);
+			
 			// Sending server response
 			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-			dos.writeInt(MessageType.CONNECTION_ACCEPTED.toInteger());
-			dos.writeUTF(Server.getName());
-			dos.writeUTF(Server.getVersion());
-			dos.writeUTF(Server.getWelcomeMessage());
-			dos.writeInt(userID);
+			FrameBuilder frame = new FrameBuilder(MessageType.CONNECTION_ACCEPTED);
+			frame.writeUTF(Server.getName());
+			frame.writeUTF(Server.getVersion());
+			frame.writeUTF(Server.getWelcomeMessage());
+			frame.writeInt(userID);
+			frame.writeInt(voice ? VoiceManager.getPort() : 0);
+			frame.writeLong(voiceToken);
+			frame.writeUTF(codec.toString());
+			frame.writeInt(VoicePacket.FRAME_DURATION);
+			frame.writeInt(VoiceManager.getBitrate(codec));
+			frame.writeInt(ChannelManager.getChannel(UserManager.getUser(userID).getChannel()).getChannelData().getRedundancy());
+			frame.writeTo(dos);
 			dos.flush();
 			
-			// Updating user interface
-			GUIController.setConnectionsClientsCount(ConnectionManager.getClientCount());
+			// Notifying the listeners
+			EventManager.clientCountChanged(ConnectionManager.getClientCount());
 		} catch(IOException e) {
+			if(userID == -1) {
+				// Incomplete request
+				rejectConnection(socket, "Bad protocol.");
+				return -1;
+			}
+			
+			// The response could not be sent, deleting the user
 			e.printStackTrace();
-		} 
+			PermissionManager.unregister(userID);
+			UserManager.deleteUser(userID);
+			try {
+				socket.close();
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			}
+			return -1;
+		}
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.INFO, "New connection accepted.");
@@ -222,8 +344,9 @@ public class ConnectionListener implements Runnable {
 		try {
 			// Sending rejection data to the client
 			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-			dos.writeInt(MessageType.CONNECTION_REJECTED.toInteger());
-			dos.writeUTF(reason);
+			FrameBuilder frame = new FrameBuilder(MessageType.CONNECTION_REJECTED);
+			frame.writeUTF(reason);
+			frame.writeTo(dos);
 			dos.flush();
 			
 			// Closing the socket
@@ -233,7 +356,7 @@ public class ConnectionListener implements Runnable {
 		}
 		
 		// Logging
-		LogManager.addConnectionsLog(Level.INFO, "New connection rejected: " + reason);
+		LogManager.addConnectionsLog(Level.INFO, "New connection rejected: {}", reason);
 	}
 		
 };
@@ -4,18 +4,20 @@ package convoice.server.connection;
 // Java imports
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 
 // Project imports
-import convoice.server.gui.GUIController;
+import convoice.server.event.EventManager;
 import convoice.server.logger.LogManager;
 import convoice.server.server.Server;
 import convoice.server.user.User;
 import convoice.server.user.UserManager;
+import convoice.server.util.IntMap;
+import convoice.server.voice.VoiceManager;
 
 /**
  * The ConnectionManager class provides an interface for all network
@@ -27,6 +29,9 @@ import convoice.server.user.UserManager;
  * synchronized with all the other managers.
  */
 public class ConnectionManager {
+	/** The time in milliseconds between the reports of overflowing outbound queues. */
+	private static final long QUEUE_REPORT_INTERVAL = 60000;
+	
 	/** The ConnectionListener of the server. */
 	private static ConnectionListener m_listener;
 	
@@ -45,6 +50,36 @@ public class ConnectionManager {
 	/** The maximum number of users per connection handler. */
 	private static int m_maxUserPerHandler;				
 	
+	/** The strategy used for handling existing connections. */
+	private static ConnectionMode m_mode;
+	
+	/** The number of selector loops in selector mode. */
+	private static int m_selectorLoops;
+	
+	/** The maximum number of users per selector loop. */
+	private static int m_maxUserPerSelector;
+	
+	/** The maximum number of connections in thread mode, 0 if unlimited. */
+	private static int m_maxConnections;
+	
+	/** The maximum number of messages queued for a user. */
+	private static int m_outboundQueueLimit;
+	
+	/** The policy applied to users whose outbound queue is full. */
+	private static SlowConsumerPolicy m_slowConsumerPolicy;
+	
+	/** The log of channel changes for delta sync. */
+	private static StateLog m_channelLog;
+	
+	/** The log of user changes for delta sync. */
+	private static StateLog m_userLog;
+	
+	/** The timer reporting overflowing outbound queues, while running. */
+	private static Timer m_queueReportTimer;
+	
+	/** The total number of dropped, coalesced and disconnected frames at the last report. */
+	private static long[] m_queueReported;
+	
 	/**
 	 * Initializes the ConnectionHandler.
 	 */
@@ -53,6 +88,10 @@ public class ConnectionManager {
 		m_listener = null; 
 		m_handlers = new ArrayList<ConnectionHandler>();
 		m_running = false;
+		m_channelLog = new StateLog();
+		m_userLog = new StateLog();
+		m_queueReportTimer = null;
+		m_queueReported = new long[3];
 	}
 	
 	/**
@@ -85,6 +124,13 @@ public class ConnectionManager {
 		m_port = Integer.parseInt(Server.getProperties().getProperty("port", "6969"));
 		m_maxHandlers = Integer.parseInt(Server.getProperties().getProperty("maxHandlers", "4"));
 		m_maxUserPerHandler = Integer.parseInt(Server.getProperties().getProperty("maxUserPerHandler","25"));
+		m_mode = ConnectionMode.fromString(Server.getProperties().getProperty("connectionMode", "selector"));
+		m_selectorLoops = Integer.parseInt(Server.getProperties().getProperty("selectorLoops", 
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		m_maxUserPerSelector = Integer.parseInt(Server.getProperties().getProperty("maxUserPerSelector", "1000"));
+		m_maxConnections = Integer.parseInt(Server.getProperties().getProperty("maxConnections", "0"));
+		m_outboundQueueLimit = Integer.parseInt(Server.getProperties().getProperty("outboundQueueLimit", "1024"));
+		m_slowConsumerPolicy = SlowConsumerPolicy.fromString(Server.getProperties().getProperty("slowConsumerPolicy", "disconnect"));
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.CONFIG, "Connections configuration loaded.");
@@ -99,19 +145,38 @@ public class ConnectionManager {
 		m_port = Integer.parseInt(Server.getProperties().getProperty("port", "6969"));
 		m_maxHandlers = Integer.parseInt(Server.getProperties().getProperty("maxHandlers", "4"));
 		m_maxUserPerHandler = Integer.parseInt(Server.getProperties().getProperty("maxUserPerHandler","25"));
+		m_mode = ConnectionMode.fromString(Server.getProperties().getProperty("connectionMode", "selector"));
+		m_selectorLoops = Integer.parseInt(Server.getProperties().getProperty("selectorLoops", 
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		m_maxUserPerSelector = Integer.parseInt(Server.getProperties().getProperty("maxUserPerSelector", "1000"));
+		m_maxConnections = Integer.parseInt(Server.getProperties().getProperty("maxConnections", "0"));
+		m_outboundQueueLimit = Integer.parseInt(Server.getProperties().getProperty("outboundQueueLimit", "1024"));
+		m_slowConsumerPolicy = SlowConsumerPolicy.fromString(Server.getProperties().getProperty("slowConsumerPolicy", "disconnect"));
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.CONFIG, "Connections configuration reloaded.");
 	}
 	
 	/**
-	 * Creates a new ConnectionHandler, and starts it on 
-	 * a separate thread.
-	 * @return The created ConnectionHandler.
+	 * Creates a new ConnectionHandler for the current connection mode,
+	 * and starts it on a separate thread.
+	 * @return The created ConnectionHandler, or null if creation failed.
 	 */
 	private static ConnectionHandler createHandler() {
 		// Creating handler on a new thread
-		ConnectionHandler handler = new ConnectionHandler();
+		ConnectionHandler handler = null;
+		try {
+			if(m_mode == ConnectionMode.SELECTOR) {
+				handler = new SelectorConnectionHandler();
+			} else if(m_mode == ConnectionMode.THREAD) {
+				handler = new ThreadConnectionHandler();
+			} else {
+				handler = new ConnectionHandler();
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			return null;
+		}
 		Thread thread = new Thread(handler);
 		
 		// Adding the handler
@@ -119,8 +184,8 @@ public class ConnectionManager {
 			m_handlers.add(handler);
 		}
 		
-		// Updating the user interface
-		GUIController.setConnectionsHandlersCount(m_handlers.size());
+		// Notifying the listeners
+		EventManager.handlerCountChanged(m_handlers.size());
 		
 		// Logging
 		LogManager.addConnectionsLog(Level.INFO, "Connection handler created.");
@@ -135,7 +200,7 @@ public class ConnectionManager {
 	/**
 	 * Starts the ConnectionListener, which will listen for incoming
 	 * connections on a separate thread. Also creates the first of
-	 * the ConnectionHandlers.
+	 * the ConnectionHandlers, or all selector loops in selector mode.
 	 */
 	public static void start() {
 		// Setting state-flag
@@ -144,16 +209,40 @@ public class ConnectionManager {
 		// Logging
 		LogManager.addConnectionsLog(Level.INFO, "-----------------\nServer started.");
 		
+		// Starting a new epoch of state changes
+		m_channelLog = new StateLog();
+		m_userLog = new StateLog();
+		
 		// Starting the listener
-		m_listener = new ConnectionListener(m_port);
+		m_listener = new ConnectionListener(m_port, m_mode != ConnectionMode.POLLING);
 		Thread thread = new Thread(m_listener);
 		thread.start();
 		
-		// Starting the first handler
-		createHandler();
+		// Starting the voice relay
+		VoiceManager.start();
+		
+		// Starting the handlers
+		if(m_mode == ConnectionMode.SELECTOR) {
+			// Starting one selector loop per core
+			for(int i = 0; i < m_selectorLoops; i++) {
+				createHandler();
+			}
+		} else {
+			// Starting the first handler
+			createHandler();
+		}
+		
+		// Reporting overflowing outbound queues periodically
+		m_queueReported = getQueueTotals();
+		m_queueReportTimer = new Timer("Outbound queue report", true);
+		m_queueReportTimer.schedule(new TimerTask() {
+			public void run() {
+				reportOutboundQueues();
+			}
+		}, QUEUE_REPORT_INTERVAL, QUEUE_REPORT_INTERVAL);
 		
-		// Updating the user interface
-		GUIController.setConnectionsServerStatus("Active");
+		// Notifying the listeners
+		EventManager.serverStatusChanged(true);
 	}
 	
 	/**
@@ -177,14 +266,23 @@ public class ConnectionManager {
 			}
 		}
 		
+		// Stopping the voice relay
+		VoiceManager.stop();
+		
+		// Stopping the outbound queue reports
+		if(m_queueReportTimer != null) {
+			m_queueReportTimer.cancel();
+			m_queueReportTimer = null;
+		}
+		
 		// Deleting the handlers
 		synchronized(m_handlers) {
 			m_handlers.clear();
 		}
 		
-		// Updating the user interface
-		GUIController.setConnectionsServerStatus("Inactive");
-		GUIController.setConnectionsHandlersCount(m_handlers.size());
+		// Notifying the listeners
+		EventManager.serverStatusChanged(false);
+		EventManager.handlerCountChanged(m_handlers.size());
 		
 		// Setting state-flag
 		m_running = false;
@@ -208,11 +306,24 @@ public class ConnectionManager {
 	 * with the least active connections. If all handlers exceed
 	 * the specified limit of connections, attempts to create
 	 * a new handler. The maximum number of handlers is also
-	 * limited.
+	 * limited. In selector mode all selector loops are created
+	 * on start, so connections are only distributed among them.
+	 * In thread mode the single handler takes every connection,
+	 * unless the optional limit of connections is reached.
 	 * @return A ConnectionHandler, or null if none are available.
 	 */
 	public static ConnectionHandler getHandler() {
-		int bestClientCount = m_maxUserPerHandler;
+		// Using the single handler in thread mode
+		if(m_mode == ConnectionMode.THREAD) {
+			synchronized(m_handlers) {
+				if(m_handlers.isEmpty() || (m_maxConnections > 0 && getClientCount() >= m_maxConnections)) {
+					return null;
+				}
+				return m_handlers.get(0);
+			}
+		}
+		
+		int bestClientCount = (m_mode == ConnectionMode.SELECTOR) ? m_maxUserPerSelector : m_maxUserPerHandler;
 		int bestIndex = -1;
 		
 		synchronized(m_handlers) {
@@ -232,7 +343,7 @@ public class ConnectionManager {
 			} 
 			else {
 				// Creating new handler
-				if(m_handlers.size() < m_maxHandlers) {
+				if(m_mode != ConnectionMode.SELECTOR && m_handlers.size() < m_maxHandlers) {
 					return createHandler();
 				}
 				// No more handler can be created
@@ -243,6 +354,46 @@ public class ConnectionManager {
 		}
 	}
 	
+	/**
+	 * Returns the strategy used for handling existing connections.
+	 * @return The connection mode.
+	 */
+	public static ConnectionMode getMode() {
+		return m_mode;
+	}
+	
+	/**
+	 * Returns the maximum number of messages queued for a user.
+	 * @return The limit of the outbound queues.
+	 */
+	public static int getOutboundQueueLimit() {
+		return m_outboundQueueLimit;
+	}
+	
+	/**
+	 * Returns the policy applied to users whose outbound queue is full.
+	 * @return The slow consumer policy.
+	 */
+	public static SlowConsumerPolicy getSlowConsumerPolicy() {
+		return m_slowConsumerPolicy;
+	}
+	
+	/**
+	 * Returns the log of channel changes.
+	 * @return The log of channel changes.
+	 */
+	public static StateLog getChannelLog() {
+		return m_channelLog;
+	}
+	
+	/**
+	 * Returns the log of user changes.
+	 * @return The log of user changes.
+	 */
+	public static StateLog getUserLog() {
+		return m_userLog;
+	}
+	
 	/**
 	 * Returns the port number on which the listener is
 	 * operating.
@@ -282,25 +433,18 @@ public class ConnectionManager {
 	public static void channelCreatedNotify(int channelID, String name, String topic, String description,
 											boolean hasPassword, int maxClients, boolean permanent) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
-			
-			for(User user : users.values()) {
-				// Writing channel data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.CHANNEL_CREATED.toInteger());
-					dos.writeInt(channelID);
-					dos.writeUTF(name);
-					dos.writeUTF(topic);
-					dos.writeUTF(description);
-					dos.writeBoolean(hasPassword);
-					dos.writeInt(maxClients);
-					dos.writeBoolean(permanent);
-					dos.flush();
-				}
-			}
+			// Encoding channel data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_CREATED);
+			frame.writeInt(channelID);
+			frame.writeUTF(name);
+			frame.writeUTF(topic);
+			frame.writeUTF(description);
+			frame.writeBoolean(hasPassword);
+			frame.writeInt(maxClients);
+			frame.writeBoolean(permanent);
+
+			// Logging and queuing channel data
+			publish(m_channelLog, frame, OutboundQueue.NO_KEY);
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -319,25 +463,18 @@ public class ConnectionManager {
 	public static void channelModifiedNotify(int channelID, String name, String topic, String description,
 											 boolean hasPassword, int maxClients, boolean permanent) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
+			// Encoding channel data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_MODIFIED);
+			frame.writeInt(channelID);
+			frame.writeUTF(name);
+			frame.writeUTF(topic);
+			frame.writeUTF(description);
+			frame.writeBoolean(hasPassword);
+			frame.writeInt(maxClients);
+			frame.writeBoolean(permanent);
 
-			for(User user : users.values()) {
-				// Writing channel data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.CHANNEL_MODIFIED.toInteger());
-					dos.writeInt(channelID);
-					dos.writeUTF(name);
-					dos.writeUTF(topic);
-					dos.writeUTF(description);
-					dos.writeBoolean(hasPassword);
-					dos.writeInt(maxClients);
-					dos.writeBoolean(permanent);
-					dos.flush();
-				}
-			}
+			// Logging and queuing channel data
+			publish(m_channelLog, frame, OutboundQueue.key(MessageType.CHANNEL_MODIFIED, channelID));
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -349,19 +486,12 @@ public class ConnectionManager {
 	 */
 	public static void channelDeletedNotify(int channelID) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
+			// Encoding channel data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.CHANNEL_DELETED);
+			frame.writeInt(channelID);
 
-			for(User user : users.values()) {
-				// Writing channel data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.CHANNEL_DELETED.toInteger());
-					dos.writeInt(channelID);
-					dos.flush();
-				}
-			}
+			// Logging and queuing channel data
+			publish(m_channelLog, frame, OutboundQueue.NO_KEY);
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -376,21 +506,14 @@ public class ConnectionManager {
 	 */
 	public static void userCreatedNotify(int userID, String username, String nickname) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
+			// Encoding user data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.USER_CREATED);
+			frame.writeInt(userID);
+			frame.writeUTF(username);
+			frame.writeUTF(nickname);
 
-			for(User user : users.values()) {
-				// Writing user data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.USER_CREATED.toInteger());
-					dos.writeInt(userID);
-					dos.writeUTF(username);
-					dos.writeUTF(nickname);
-					dos.flush();
-				}
-			}
+			// Logging and queuing user data
+			publish(m_userLog, frame, OutboundQueue.NO_KEY);
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -403,20 +526,13 @@ public class ConnectionManager {
 	 */
 	public static void userMovedNotify(int userID, int channelID) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
+			// Encoding user data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.USER_MOVED);
+			frame.writeInt(userID);
+			frame.writeInt(channelID);
 
-			for(User user : users.values()) {
-				// Writing user data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.USER_MOVED.toInteger());
-					dos.writeInt(userID);
-					dos.writeInt(channelID);
-					dos.flush();
-				}
-			}
+			// Logging and queuing user data
+			publish(m_userLog, frame, OutboundQueue.key(MessageType.USER_MOVED, userID));
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -429,25 +545,115 @@ public class ConnectionManager {
 	 */
 	public static void userDeletedNotify(int userID) {
 		try {
-			// Getting the list of users
-			Map<Integer, User> users = UserManager.getAllUsers();
+			// Encoding user data once for all users
+			FrameBuilder frame = new FrameBuilder(MessageType.USER_DELETED);
+			frame.writeInt(userID);
 
-			for(User user : users.values()) {
-				// Writing user data
-				Socket socket = user.getSocket();
-				synchronized(socket) {
-					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-					dos.writeInt(MessageType.USER_DELETED.toInteger());
-					dos.writeInt(userID);
-					dos.flush();
-				}
-			}
+			// Logging and queuing user data
+			publish(m_userLog, frame, OutboundQueue.NO_KEY);
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
-};
+	/**
+	 * Notifies a client of the voice settings of it's channel, after
+	 * the user moved or the settings of the channel changed.
+	 * @param userID The ID of the user.
+	 * @param redundancy The number of redundant copies sent with every voice frame.
+	 */
+	public static void voiceConfigurationNotify(int userID, int redundancy) {
+		// Getting the user
+		User user = UserManager.getUser(userID);
+		if(user == null) {
+			return;
+		}
+		
+		try {
+			// Encoding the settings
+			FrameBuilder frame = new FrameBuilder(MessageType.VOICE_CONFIGURATION);
+			frame.writeInt(redundancy);
+			
+			// Queuing the settings for the user only
+			user.getOutboundQueue().enqueue(frame.toByteBuffer(), OutboundQueue.key(MessageType.VOICE_CONFIGURATION, userID));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Appends a state change to the specified log, and queues it's
+	 * notification for all users. The log is locked while queuing, so
+	 * the changes are queued in the order of their revisions.
+	 * @param log The log of the changed state.
+	 * @param frame The notification frame of the change.
+	 * @param key The coalescing key of the frame, or OutboundQueue.NO_KEY.
+	 * @throws IOException If the frame could not be encoded.
+	 */
+	private static void publish(StateLog log, FrameBuilder frame, long key) throws IOException {
+		synchronized(log) {
+			broadcast(log.append(frame), key);
+		}
+	}
+	
+	/**
+	 * Logs the backpressure on the outbound queues, if messages were
+	 * dropped, coalesced or users were disconnected since the last
+	 * report. The user with the largest queue is reported as well,
+	 * as it is the likely cause.
+	 */
+	private static void reportOutboundQueues() {
+		// Checking for overflows since the last report
+		long[] totals = getQueueTotals();
+		long dropped = totals[0] - m_queueReported[0];
+		long coalesced = totals[1] - m_queueReported[1];
+		long disconnected = totals[2] - m_queueReported[2];
+		m_queueReported = totals;
+		if(dropped == 0 && coalesced == 0 && disconnected == 0) {
+			return;
+		}
+		LogManager.addConnectionsLog(Level.WARNING, "Outbound queues overflowed: {} messages dropped, {} coalesced, {} users disconnected.",
+				dropped, coalesced, disconnected);
+		
+		// Finding the user with the largest queue
+		IntMap<User> users = UserManager.getAllUsers();
+		OutboundQueue largest = null;
+		int largestID = 0;
+		for(int i = users.next(-1); i >= 0; i = users.next(i)) {
+			OutboundQueue queue = users.valueAt(i).getOutboundQueue();
+			if(largest == null || queue.getPeakSize() > largest.getPeakSize()) {
+				largest = queue;
+				largestID = users.keyAt(i);
+			}
+		}
+		if(largest != null) {
+			LogManager.addConnectionsLog(Level.INFO, "Largest outbound queue: user ID: {}, {} messages at peak, {} dropped, {} coalesced.",
+					largestID, largest.getPeakSize(), largest.getDroppedCount(), largest.getCoalescedCount());
+		}
+	}
 	
+	/**
+	 * Returns the totals of the outbound queues.
+	 * @return The number of dropped and coalesced messages, and disconnected users.
+	 */
+	private static long[] getQueueTotals() {
+		return new long[] { OutboundQueue.getTotalDroppedCount(), OutboundQueue.getTotalCoalescedCount(),
+				OutboundQueue.getTotalDisconnectedCount() };
+	}
 	
+	/**
+	 * Queues an encoded notification for all users. The frame is
+	 * shared by the outbound queues of the users, it is not copied.
+	 * @param frame The encoded frame.
+	 * @param key The coalescing key of the frame, or OutboundQueue.NO_KEY.
+	 */
+	private static void broadcast(ByteBuffer frame, long key) {
+		// Getting the list of users
+		IntMap<User> users = UserManager.getAllUsers();
 
+		for(int i = users.next(-1); i >= 0; i = users.next(i)) {
+			users.valueAt(i).getOutboundQueue().enqueue(frame, key);
+		}
+	}
+	
+};
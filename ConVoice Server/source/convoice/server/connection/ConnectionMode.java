@@ -0,0 +1,55 @@
+package convoice.server.connection;
+
+
+/**
+ * The ConnectionMode enum represents the strategies the server
+ * can use for handling existing connections.
+ * The mode is selected with the "connectionMode" property of
+ * the server configuration. All values in the enum are convertible
+ * to a String and vice versa, the configuration uses the String form.
+ */
+public enum ConnectionMode {
+	/** Handlers iterate their users and poll each socket for data. */
+	POLLING("polling"),
+
+	/** Handlers are event loops woken by a Selector on readable sockets. */
+	SELECTOR("selector"),
+
+	/** Every connection is handled by it's own thread doing blocking reads. */
+	THREAD("thread");
+
+	/** The String representation of the enum value. */
+	private final String m_value;
+
+	/**
+	 * Constructs a ConnectionMode enum value.
+	 * @param value The String representation of the value.
+	 */
+	ConnectionMode(String value) {
+		m_value = value;
+	}
+
+	/**
+	 * Returns the String representation of the value.
+	 * @return The String representation of the value.
+	 */
+	public String toString() {
+		return m_value;
+	}
+
+	/**
+	 * Returns the enum value with the specified String representation.
+	 * Unknown values fall back to the selector mode.
+	 * @param value The String representation of the value.
+	 * @return The enum value.
+	 */
+	public static ConnectionMode fromString(String value) {
+		for(ConnectionMode mode : ConnectionMode.values()) {
+			if(mode.m_value.equalsIgnoreCase(value.trim())) {
+				return mode;
+			}
+		}
+		return SELECTOR;
+	}
+
+};
@@ -0,0 +1,151 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The ConnectionOutputStream class provides an OutputStream to the
+ * socket of a connection, regardless of the blocking mode of the
+ * socket's channel.
+ * Sockets handled by a SelectorConnectionHandler are switched to
+ * non-blocking mode, which makes the stream of the Socket unusable.
+ * This stream writes trough the SocketChannel instead, and waits
+ * for the channel to drain when the socket send buffer is full. A
+ * peer which does not read for WRITE_TIMEOUT fails the write, so a
+ * stalled client can not hold up the handler, like when the handler
+ * terminates it's connections.
+ * Buffers are written with a single gathering write where the
+ * socket has a channel.
+ */
+public class ConnectionOutputStream extends OutputStream {
+	/** The size of the chunks buffers are copied in for sockets without a channel. */
+	private static final int CHUNK_SIZE = 8192;
+
+	/** The time in milliseconds a write waits for a non-blocking channel to drain. */
+	private static final int WRITE_TIMEOUT = 1000;
+
+	/** The socket being written. */
+	private Socket m_socket;
+
+	/** The chunk buffers are copied in for sockets without a channel. */
+	private byte[] m_chunk;
+
+	/**
+	 * Constructs a ConnectionOutputStream object.
+	 * @param socket The socket to write.
+	 */
+	public ConnectionOutputStream(Socket socket) {
+		// Initializing members
+		m_socket = socket;
+		m_chunk = null;
+	}
+
+	/**
+	 * Writes a single byte to the socket.
+	 * @param b The byte to write.
+	 * @throws IOException If the socket could not be written.
+	 */
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * Writes the specified bytes to the socket. The method returns
+	 * when all bytes have been handed to the socket send buffer.
+	 * @param b The data to write.
+	 * @param off The offset of the first byte to write.
+	 * @param len The number of bytes to write.
+	 * @throws IOException If the socket could not be written.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		SocketChannel channel = m_socket.getChannel();
+
+		// Sockets without a channel are always blocking
+		if(channel == null) {
+			m_socket.getOutputStream().write(b, off, len);
+			return;
+		}
+
+		// Writing trough the channel until all data is written
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+		while(buffer.hasRemaining()) {
+			if(channel.write(buffer) == 0) {
+				// Waiting for the send buffer to drain
+				awaitWritable(channel, deadline);
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffers to the socket.
+	 * Sockets with a channel are written with gathering writes, so the
+	 * buffers are never copied. The method returns when all bytes have
+	 * been handed to the socket send buffer, the buffers are consumed.
+	 * @param srcs The buffers to write.
+	 * @param offset The index of the first buffer to write.
+	 * @param length The number of buffers to write.
+	 * @throws IOException If the socket could not be written.
+	 */
+	public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		SocketChannel channel = m_socket.getChannel();
+
+		// Sockets without a channel are written trough a chunk
+		if(channel == null) {
+			if(m_chunk == null) {
+				m_chunk = new byte[CHUNK_SIZE];
+			}
+			OutputStream os = m_socket.getOutputStream();
+			for(int i = offset; i < offset + length; i++) {
+				while(srcs[i].hasRemaining()) {
+					int count = Math.min(srcs[i].remaining(), m_chunk.length);
+					srcs[i].get(m_chunk, 0, count);
+					os.write(m_chunk, 0, count);
+				}
+			}
+			return;
+		}
+
+		// Writing trough the channel until all data is written
+		ByteBuffer last = srcs[offset + length - 1];
+		long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+		while(last.hasRemaining()) {
+			if(channel.write(srcs, offset, length) == 0) {
+				// Waiting for the send buffer to drain
+				awaitWritable(channel, deadline);
+			}
+		}
+	}
+
+	/**
+	 * Waits until a non-blocking channel can be written, without
+	 * polling it. The channel is registered with a temporary selector,
+	 * besides the selector of it's connection handler.
+	 * @param channel The channel to wait for.
+	 * @param deadline The time in milliseconds the write has to finish by.
+	 * @throws SocketTimeoutException If the deadline has passed.
+	 * @throws IOException If the channel could not be selected.
+	 */
+	private static void awaitWritable(SocketChannel channel, long deadline) throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if(remaining <= 0) {
+			throw new SocketTimeoutException("Write timed out.");
+		}
+		Selector selector = Selector.open();
+		try {
+			channel.register(selector, SelectionKey.OP_WRITE);
+			selector.select(remaining);
+		} finally {
+			selector.close();
+		}
+	}
+
+};
@@ -0,0 +1,111 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The FrameBuilder class is responsible for encoding a message
+ * into a Frame of the wire protocol.
+ * The payload of the message is written with the usual methods of
+ * the DataOutputStream, while the header is filled in when the
+ * frame is written or converted to bytes.
+ */
+public class FrameBuilder extends DataOutputStream {
+	/** The buffer holding the header and the payload. */
+	private FrameBuffer m_buffer;
+
+	/** The type of the message. */
+	private MessageType m_type;
+
+	/**
+	 * Constructs a FrameBuilder object.
+	 * @param type The type of the message being built.
+	 */
+	public FrameBuilder(MessageType type) {
+		// Initializing members
+		super(new FrameBuffer());
+		m_buffer = (FrameBuffer) out;
+		m_type = type;
+	}
+
+	/**
+	 * Writes the frame to the specified stream.
+	 * The stream is not flushed.
+	 * @param os The stream to write to.
+	 * @throws IOException If the frame could not be written.
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		m_buffer.writeHeader(m_type);
+		m_buffer.writeTo(os);
+	}
+
+	/**
+	 * Returns the encoded frame without copying it. The builder
+	 * must not be written after calling this method. The buffer is
+	 * read-only, so it can be shared by the outbound queues of every
+	 * recipient of the frame.
+	 * @return A read-only buffer wrapping the frame's bytes, including the header.
+	 */
+	public ByteBuffer toByteBuffer() {
+		m_buffer.writeHeader(m_type);
+		return m_buffer.toByteBuffer();
+	}
+
+	/**
+	 * Returns the encoded frame.
+	 * @return A copy of the frame's bytes, including the header.
+	 */
+	public byte[] toByteArray() {
+		m_buffer.writeHeader(m_type);
+		return m_buffer.toByteArray();
+	}
+
+	/**
+	 * The FrameBuffer class is a ByteArrayOutputStream which reserves
+	 * room for the frame header, and fills it in on request.
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream {
+		/**
+		 * Constructs a FrameBuffer object.
+		 */
+		private FrameBuffer() {
+			super(64);
+			count = Frame.HEADER_SIZE;
+		}
+
+		/**
+		 * Wraps the content of the buffer without copying it.
+		 * @return A read-only buffer wrapping the content.
+		 */
+		private ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+		}
+
+		/**
+		 * Writes the frame header to the reserved room.
+		 * @param type The type of the message.
+		 */
+		private void writeHeader(MessageType type) {
+			putInt(0, count - Frame.HEADER_SIZE);
+			putInt(4, type.toInteger());
+		}
+
+		/**
+		 * Writes a big-endian integer to the specified offset.
+		 * @param offset The offset to write to.
+		 * @param value The value to write.
+		 */
+		private void putInt(int offset, int value) {
+			buf[offset] = (byte) (value >>> 24);
+			buf[offset + 1] = (byte) (value >>> 16);
+			buf[offset + 2] = (byte) (value >>> 8);
+			buf[offset + 3] = (byte) value;
+		}
+	}
+
+};
@@ -38,7 +38,13 @@ public enum MessageType {
 	
 	// Miscellaneous
 	UNDEFINED(21),
-	INSUFFICIENT_PERMISSION(22);
+	INSUFFICIENT_PERMISSION(22),
+
+	// From server, after the miscellaneous values to keep their integers
+	VOICE_CONFIGURATION(23);
+	
+	/** The enum values, indexed by their integer representation. */
+	private static final MessageType[] VALUES = values();
 	
 	/** The Integer representation of the enum value. */
 	private final int m_value;	
@@ -61,11 +67,15 @@ public enum MessageType {
 	
 	/**
 	 * Returns the enum value with the specified integer.
+	 * Unknown values are returned as UNDEFINED.
 	 * @param value The integer representation of the value.
 	 * @return The enum value.
 	 */
 	public static MessageType fromInteger(int value) {
-		return MessageType.values()[value];
+		if(value < 0 || value >= VALUES.length) {
+			return UNDEFINED;
+		}
+		return VALUES[value];
 	}
 
 };
@@ -0,0 +1,418 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+
+/**
+ * The OutboundQueue class stores the encoded message frames waiting
+ * to be sent to a user.
+ * Senders only enqueue frames, so a client reading slowly can not
+ * stall the thread sending it a message. The queue is drained by the
+ * I/O loop of the connection handler the user is assigned to. The
+ * number of queued frames is limited, when the limit is reached the
+ * configured SlowConsumerPolicy is applied. Only chat messages and
+ * voice configurations can be dropped, losing a change notification
+ * or a response would leave the client out of sync for good, so a
+ * full queue disconnects the user instead. Frames are only removed
+ * from the queue after they have been written entirely. A frame
+ * broadcast to several users is encoded once, each queue stores it's
+ * own view of the same read-only buffer, so queuing a frame does not
+ * copy it. Frames are peeked in batches for gathering writes. The queue
+ * does not perform I/O, users to be disconnected are only marked,
+ * and disconnected by their connection handler.
+ */
+public class OutboundQueue {
+	/** The coalescing key of frames which can not be coalesced. */
+	public static final long NO_KEY = -1;
+
+	/** The total number of frames dropped by all queues. */
+	private static final AtomicLong m_totalDropped = new AtomicLong();
+
+	/** The total number of frames coalesced by all queues. */
+	private static final AtomicLong m_totalCoalesced = new AtomicLong();
+
+	/** The total number of users disconnected by all queues. */
+	private static final AtomicLong m_totalDisconnected = new AtomicLong();
+
+	/** The ID of the user of the queue. */
+	private int m_userID;
+
+	/** The maximum number of queued frames. */
+	private int m_limit;
+
+	/** The policy applied when the queue is full. */
+	private SlowConsumerPolicy m_policy;
+
+	/** The queued frames. */
+	private ArrayDeque<Entry> m_entries;
+
+	/** The callback notified when frames are waiting to be written. */
+	private Runnable m_callback;
+
+	/** Is the callback notified about the queued frames already? */
+	private boolean m_scheduled;
+
+	/** The closed state-flag. */
+	private boolean m_closed;
+
+	/** Is the user to be disconnected because of a full queue? */
+	private boolean m_disconnected;
+
+	/** Is the queue full since it has been drained last time? */
+	private boolean m_overflowing;
+
+	/** The number of frames at the head of the queue being written. */
+	private int m_inFlight;
+
+	/** The largest number of frames queued at once. */
+	private int m_peakSize;
+
+	/** The number of frames dropped by the queue. */
+	private long m_dropped;
+
+	/** The number of frames coalesced by the queue. */
+	private long m_coalesced;
+
+	/**
+	 * Constructs an OutboundQueue object.
+	 * @param userID The ID of the user of the queue.
+	 * @param limit The maximum number of queued frames.
+	 * @param policy The policy applied when the queue is full.
+	 */
+	public OutboundQueue(int userID, int limit, SlowConsumerPolicy policy) {
+		// Initializing members
+		m_userID = userID;
+		m_limit = limit;
+		m_policy = policy;
+		m_entries = new ArrayDeque<Entry>();
+		m_callback = null;
+		m_scheduled = false;
+		m_closed = false;
+		m_disconnected = false;
+		m_overflowing = false;
+		m_inFlight = 0;
+		m_peakSize = 0;
+		m_dropped = 0;
+		m_coalesced = 0;
+	}
+
+	/**
+	 * Sets the callback notified when frames are waiting to be written.
+	 * The callback is notified when the first frame is queued after
+	 * peek() found the queue empty, and immediately if frames are
+	 * already waiting. It is also notified when the user is to be
+	 * disconnected. It must not block.
+	 * @param callback The callback, or null to remove it.
+	 */
+	public void attach(Runnable callback) {
+		boolean notify;
+		synchronized(this) {
+			m_callback = callback;
+			notify = callback != null && ((!m_entries.isEmpty() && !m_scheduled) || m_disconnected);
+			m_scheduled |= notify;
+		}
+		if(notify) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Queues a frame which can not be coalesced.
+	 * @param frame The encoded frame, shared with other queues.
+	 */
+	public void enqueue(ByteBuffer frame) {
+		enqueue(frame, NO_KEY);
+	}
+
+	/**
+	 * Queues a frame. Frames with the same coalescing key carry the
+	 * latest state of the same subject, so under the coalesce policy
+	 * a full queue drops the queued frame, and queues the new one at
+	 * the end, after the frames it may depend on. The
+	 * content of the frame must not be modified after queuing it, the
+	 * queue only stores a duplicate of the buffer's position and limit.
+	 * @param frame The encoded frame, shared with other queues.
+	 * @param key The coalescing key of the frame, or NO_KEY.
+	 */
+	public void enqueue(ByteBuffer frame, long key) {
+		Runnable callback = null;
+		synchronized(this) {
+			if(m_closed) {
+				return;
+			}
+
+			// Applying the policy if the queue is full
+			if(m_entries.size() >= m_limit) {
+				if(!onOverflow(frame.duplicate(), key)) {
+					return;
+				}
+				callback = m_callback;
+			} else {
+				// Queuing the frame
+				m_entries.addLast(new Entry(frame.duplicate(), key));
+				m_peakSize = Math.max(m_peakSize, m_entries.size());
+				notifyAll();
+
+				// Notifying the callback about the first frame
+				if(!m_scheduled && m_callback != null) {
+					m_scheduled = true;
+					callback = m_callback;
+				}
+			}
+		}
+		if(callback != null) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Returns the frames to be written next, without removing them.
+	 * The returned frames are not coalesced until they are removed.
+	 * If the queue is empty, the callback will be notified about the
+	 * next queued frame.
+	 * @param frames The array receiving the frames.
+	 * @return The number of frames returned, zero if the queue is empty.
+	 */
+	public synchronized int peek(ByteBuffer[] frames) {
+		if(m_entries.isEmpty()) {
+			m_scheduled = false;
+			m_overflowing = false;
+			m_inFlight = 0;
+			return 0;
+		}
+
+		// Collecting the frames at the head of the queue
+		int count = 0;
+		for(Entry entry : m_entries) {
+			if(count == frames.length) {
+				break;
+			}
+			frames[count++] = entry.m_frame;
+		}
+		m_inFlight = count;
+		return count;
+	}
+
+	/**
+	 * Removes frames returned by peek() after they have been written.
+	 * @param count The number of frames to remove.
+	 */
+	public synchronized void remove(int count) {
+		for(int i = 0; i < count; i++) {
+			m_entries.pollFirst();
+		}
+		m_inFlight = Math.max(m_inFlight - count, 0);
+		if(m_entries.isEmpty()) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until frames are waiting to be written, or the queue is
+	 * closed and empty.
+	 * @return True if frames are waiting, false if the queue is closed.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public synchronized boolean await() throws InterruptedException {
+		while(m_entries.isEmpty() && !m_closed) {
+			wait();
+		}
+		return !m_entries.isEmpty();
+	}
+
+	/**
+	 * Blocks until every queued frame has been written, or the
+	 * timeout elapses.
+	 * @param timeout The maximum time to wait in milliseconds.
+	 * @return True if the queue is empty.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public synchronized boolean awaitDrained(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(!m_entries.isEmpty()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the queue. Further frames are not queued, but frames
+	 * already waiting can still be written.
+	 */
+	public synchronized void close() {
+		m_closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns whether the user has to be disconnected, because it's
+	 * queue has filled up under the disconnect policy.
+	 * @return True if the user has to be disconnected.
+	 */
+	public synchronized boolean isDisconnected() {
+		return m_disconnected;
+	}
+
+	/**
+	 * Returns the number of queued frames.
+	 * @return The number of queued frames.
+	 */
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	/**
+	 * Returns the largest number of frames queued at once.
+	 * @return The peak size of the queue.
+	 */
+	public synchronized int getPeakSize() {
+		return m_peakSize;
+	}
+
+	/**
+	 * Returns the number of frames dropped by the queue.
+	 * @return The number of dropped frames.
+	 */
+	public synchronized long getDroppedCount() {
+		return m_dropped;
+	}
+
+	/**
+	 * Returns the number of frames coalesced by the queue.
+	 * @return The number of coalesced frames.
+	 */
+	public synchronized long getCoalescedCount() {
+		return m_coalesced;
+	}
+
+	/**
+	 * Returns the total number of frames dropped by all queues.
+	 * @return The number of dropped frames.
+	 */
+	public static long getTotalDroppedCount() {
+		return m_totalDropped.get();
+	}
+
+	/**
+	 * Returns the total number of frames coalesced by all queues.
+	 * @return The number of coalesced frames.
+	 */
+	public static long getTotalCoalescedCount() {
+		return m_totalCoalesced.get();
+	}
+
+	/**
+	 * Returns the total number of users disconnected by all queues.
+	 * @return The number of disconnected users.
+	 */
+	public static long getTotalDisconnectedCount() {
+		return m_totalDisconnected.get();
+	}
+
+	/**
+	 * Creates the coalescing key of a frame.
+	 * @param type The type of the message.
+	 * @param subject The ID of the channel or user the message is about.
+	 * @return The coalescing key.
+	 */
+	public static long key(MessageType type, int subject) {
+		return ((long) type.toInteger() << 32) | (subject & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Applies the policy of the queue to a frame which did not fit in
+	 * the queue. Must be called while holding the monitor of the queue.
+	 * @param frame The encoded frame.
+	 * @param key The coalescing key of the frame.
+	 * @return True if the user has to be disconnected.
+	 */
+	private boolean onOverflow(ByteBuffer frame, long key) {
+		// Replacing a queued frame of the same subject. The new frame is
+		// queued at the end, as it may depend on the frames queued after
+		// the replaced one, like a user moved to a newly created channel.
+		if(m_policy == SlowConsumerPolicy.COALESCE && key != NO_KEY) {
+			int index = 0;
+			Iterator<Entry> iterator = m_entries.iterator();
+			while(iterator.hasNext()) {
+				Entry entry = iterator.next();
+				
+				// Frames being written can not be replaced
+				if(index >= Math.max(m_inFlight, 1) && entry.m_key == key) {
+					iterator.remove();
+					m_entries.addLast(new Entry(frame, key));
+					m_coalesced++;
+					m_totalCoalesced.incrementAndGet();
+					return false;
+				}
+				index++;
+			}
+		}
+
+		// Marking the user to be disconnected, if the frame can not be dropped
+		if(m_policy == SlowConsumerPolicy.DISCONNECT || !isDroppable(frame)) {
+			m_closed = true;
+			m_disconnected = true;
+			notifyAll();
+			m_totalDisconnected.incrementAndGet();
+			LogManager.addConnectionsLog(Level.WARNING, "Outbound queue of user {} is full, disconnecting the user.", m_userID);
+			return true;
+		}
+
+		// Dropping the frame
+		m_dropped++;
+		m_totalDropped.incrementAndGet();
+		if(!m_overflowing) {
+			m_overflowing = true;
+			LogManager.addConnectionsLog(Level.WARNING, "Outbound queue of user {} is full, dropping messages.", m_userID);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a frame can be dropped without the client getting
+	 * out of sync. Change notifications are recorded in the state logs,
+	 * the client would skip them for good, and responses are awaited by
+	 * the client, so only chat messages and voice configurations, which
+	 * are not synchronized later, can be dropped.
+	 * @param frame The encoded frame.
+	 * @return True if the frame can be dropped.
+	 */
+	private static boolean isDroppable(ByteBuffer frame) {
+		MessageType type = MessageType.fromInteger(frame.getInt(frame.position() + 4));
+		return type == MessageType.MESSAGE || type == MessageType.VOICE_CONFIGURATION;
+	}
+
+	/**
+	 * The Entry class stores a queued frame with it's coalescing key.
+	 */
+	private static class Entry {
+		/** The encoded frame. */
+		private final ByteBuffer m_frame;
+
+		/** The coalescing key of the frame. */
+		private final long m_key;
+
+		/**
+		 * Constructs an Entry object.
+		 * @param frame The encoded frame.
+		 * @param key The coalescing key of the frame.
+		 */
+		private Entry(ByteBuffer frame, long key) {
+			m_frame = frame;
+			m_key = key;
+		}
+	}
+
+};
@@ -0,0 +1,365 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+import convoice.server.user.User;
+import convoice.server.user.UserManager;
+
+/**
+ * The SelectorConnectionHandler class is responsible for handling
+ * existing connections in the selector connection mode.
+ * Instead of polling every socket, the handler registers the
+ * channels of it's users at a Selector and sleeps until at least
+ * one of them becomes readable. Incoming data is accumulated in a
+ * buffer for each connection, and complete frames are passed to
+ * the message handling methods of the ConnectionHandler without
+ * copying their payload out of the buffer. Messages queued for the
+ * users are written by the same loop when the channels are writable.
+ */
+public class SelectorConnectionHandler extends ConnectionHandler {
+	/** The initial size of the input buffer of a connection. */
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	/** The Selector waiting for readable channels. */
+	private Selector m_selector;
+
+	/** The users waiting to be registered at the Selector. */
+	private Queue<Integer> m_pendingUsers;
+
+	/** The users whose outbound queue received messages. */
+	private Queue<Integer> m_pendingWrites;
+
+	/** The frames passed to a gathering write. */
+	private ByteBuffer[] m_batch;
+
+	/**
+	 * Constructs a SelectorConnectionHandler object.
+	 * @throws IOException If the Selector could not be opened.
+	 */
+	public SelectorConnectionHandler() throws IOException {
+		// Initializing members
+		super();
+		m_selector = Selector.open();
+		m_pendingUsers = new ConcurrentLinkedQueue<Integer>();
+		m_pendingWrites = new ConcurrentLinkedQueue<Integer>();
+		m_batch = new ByteBuffer[WRITE_BATCH_SIZE];
+	}
+
+	/**
+	 * Runs the event loop which handles existing connections.
+	 * The handler blocks on the Selector until a channel becomes
+	 * readable or writable, a new user is added, or messages are
+	 * queued for a user. Readable channels are drained into the
+	 * input buffer of the connection, and all complete messages of
+	 * the buffer are handled. Queued messages are written until the
+	 * socket send buffer fills up, then the rest is written when the
+	 * channel becomes writable again. When the loop finishes all 
+	 * connections will be terminated.
+	 */
+	public void run() {
+		// Setting state flags
+		m_shouldRun = true;
+		m_running = true;
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Connection handler started (selector).");
+
+		// Main loop
+		while(m_shouldRun) {
+			try {
+				// Registering newly added users
+				registerPendingUsers();
+
+				// Writing newly queued messages
+				writePendingUsers();
+
+				// Waiting for ready channels
+				m_selector.select();
+
+				// Handling ready channels
+				Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					if(key.isValid() && key.isReadable()) {
+						onReadable(key);
+					}
+					if(key.isValid() && key.isWritable()) {
+						onWritable(key);
+					}
+				}
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Terminating all connections
+		terminateConnections();
+
+		// Closing the selector
+		try {
+			m_selector.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Connection handler stopped (selector).");
+
+		// Setting running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Signals the SelectorConnectionHandler to stop.
+	 * The Selector is woken up, so the handler shuts down
+	 * without waiting for network activity.
+	 */
+	public void stop() {
+		m_shouldRun = false;
+		m_selector.wakeup();
+	}
+
+	/**
+	 * Adds a User to the handler.
+	 * The user's channel is registered at the Selector by the
+	 * handler thread, after which all of it's messages will be
+	 * handled by the handler.
+	 * @param userID The user to add.
+	 */
+	public void addUser(int userID) {
+		super.addUser(userID);
+		m_pendingUsers.add(userID);
+		m_selector.wakeup();
+	}
+
+	/**
+	 * Attaches the handler to the outbound queue of a newly added
+	 * user. The user is scheduled for writing when messages are
+	 * queued for it, or when the queue drops the user.
+	 * @param user The user added to the handler.
+	 */
+	protected void attachQueue(User user) {
+		final int userID = user.getID();
+		user.getOutboundQueue().attach(new Runnable() {
+			public void run() {
+				m_pendingWrites.add(userID);
+				m_selector.wakeup();
+			}
+		});
+	}
+
+	/**
+	 * Switches the channels of the newly added users to non-blocking
+	 * mode and registers them at the Selector. Messages queued before
+	 * the registration are written immediately.
+	 */
+	private void registerPendingUsers() {
+		Integer userID;
+		while((userID = m_pendingUsers.poll()) != null) {
+			try {
+				User user = UserManager.getUser(userID);
+				SocketChannel channel = user.getSocket().getChannel();
+				channel.configureBlocking(false);
+				SelectionKey key = channel.register(m_selector, SelectionKey.OP_READ, 
+						new Connection(userID, user.getOutboundQueue()));
+
+				// Writing the messages queued so far
+				onWritable(key);
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the messages queued for the users since the last
+	 * iteration of the loop. Users not registered yet are skipped,
+	 * their messages are written on registration.
+	 */
+	private void writePendingUsers() {
+		Integer userID;
+		while((userID = m_pendingWrites.poll()) != null) {
+			// Skipping users disconnected in the meantime
+			User user = UserManager.getUser(userID);
+			if(user == null) {
+				continue;
+			}
+
+			SelectionKey key = user.getSocket().getChannel().keyFor(m_selector);
+			if(key != null && key.isValid()) {
+				onWritable(key);
+			}
+		}
+	}
+
+	/**
+	 * Reads the available data of a readable channel, and handles
+	 * all complete frames received trough it. If the end of the
+	 * stream is reached, or the stream contains an invalid frame
+	 * header, the connection is handled as if the user requested
+	 * disconnection.
+	 * @param key The SelectionKey of the readable channel.
+	 */
+	private void onReadable(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+
+		try {
+			// Reading available data
+			if(channel.read(connection.m_buffer) == -1) {
+				disconnect(key, connection.m_userID);
+				return;
+			}
+		} catch(IOException e) {
+			disconnect(key, connection.m_userID);
+			return;
+		}
+
+		// Handling complete frames
+		ByteBuffer buffer = connection.m_buffer;
+		buffer.flip();
+		int pendingSize;
+		try {
+			Frame frame;
+			while((frame = Frame.parse(buffer)) != null) {
+				try {
+					// Handling the message
+					if(!handleMessage(connection.m_userID, frame)) {
+						// Removing the disconnected user from the handler
+						key.cancel();
+						removeUser(connection.m_userID);
+						return;
+					}
+				} catch(IOException e) {
+					// The message was malformed, the following frames are still intact
+					e.printStackTrace();
+				}
+			}
+
+			// Getting the size of the incomplete frame
+			pendingSize = Frame.peekSize(buffer);
+		} catch(ProtocolException e) {
+			// The frame header is invalid, the stream can not be followed anymore
+			LogManager.addConnectionsLog(Level.WARNING, "Invalid frame received: {}", e.getMessage());
+			disconnect(key, connection.m_userID);
+			return;
+		}
+		buffer.compact();
+
+		// Growing the buffer if the incomplete frame does not fit in it
+		if(pendingSize > buffer.capacity()) {
+			connection.grow(pendingSize);
+		}
+	}
+
+	/**
+	 * Writes the messages queued for the user of a channel with
+	 * gathering writes until the queue is empty, or the socket send
+	 * buffer is full. In the latter
+	 * case the handler waits for the channel to become writable. Users
+	 * dropped by their outbound queue are disconnected.
+	 * @param key The SelectionKey of the channel.
+	 */
+	private void onWritable(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+
+		// Disconnecting the user if it's queue is full
+		if(connection.m_queue.isDisconnected()) {
+			disconnect(key, connection.m_userID);
+			return;
+		}
+
+		try {
+			int count;
+			while((count = connection.m_queue.peek(m_batch)) > 0) {
+				// Writing the frames with a gathering write
+				channel.write(m_batch, 0, count);
+
+				// Removing the frames written entirely
+				int written = 0;
+				while(written < count && !m_batch[written].hasRemaining()) {
+					written++;
+				}
+				connection.m_queue.remove(written);
+
+				// Waiting for the send buffer to drain
+				if(written < count) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+
+			// All messages are written
+			key.interestOps(SelectionKey.OP_READ);
+		} catch(IOException e) {
+			disconnect(key, connection.m_userID);
+		}
+	}
+
+	/**
+	 * Terminates the connection of a user whose channel was closed
+	 * without a disconnection request.
+	 * @param key The SelectionKey of the channel.
+	 * @param userID The ID of the user.
+	 */
+	private void disconnect(SelectionKey key, int userID) {
+		key.cancel();
+		onDisconnectionRequest(userID);
+		removeUser(userID);
+	}
+
+	/**
+	 * The Connection class stores the state of a connection
+	 * registered at the Selector.
+	 */
+	private static class Connection {
+		/** The ID of the user of the connection. */
+		private int m_userID;
+
+		/** The buffer of received, but not yet handled data. */
+		private ByteBuffer m_buffer;
+
+		/** The queue of messages waiting to be written. */
+		private OutboundQueue m_queue;
+
+		/**
+		 * Constructs a Connection object.
+		 * @param userID The ID of the user of the connection.
+		 * @param queue The outbound queue of the user.
+		 */
+		private Connection(int userID, OutboundQueue queue) {
+			m_userID = userID;
+			m_queue = queue;
+			m_buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		}
+
+		/**
+		 * Grows the capacity of the buffer to hold at least the
+		 * specified number of bytes, keeping it's content.
+		 * @param size The required capacity of the buffer.
+		 */
+		private void grow(int size) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(size, m_buffer.capacity() * 2));
+			m_buffer.flip();
+			buffer.put(m_buffer);
+			m_buffer = buffer;
+		}
+	}
+
+};
@@ -0,0 +1,56 @@
+package convoice.server.connection;
+
+
+/**
+ * The SlowConsumerPolicy enum represents the ways the server can
+ * treat clients which do not read their messages fast enough, and
+ * whose outbound queue has filled up.
+ * The policy is selected with the "slowConsumerPolicy" property of
+ * the server configuration. All values in the enum are convertible
+ * to a String and vice versa, the configuration uses the String form.
+ */
+public enum SlowConsumerPolicy {
+	/** New chat messages are dropped until the queue drains, other messages disconnect the client. */
+	DROP("drop"),
+
+	/** New messages replace queued messages with the same subject, or are treated as under DROP. */
+	COALESCE("coalesce"),
+
+	/** The client is disconnected. */
+	DISCONNECT("disconnect");
+
+	/** The String representation of the enum value. */
+	private final String m_value;
+
+	/**
+	 * Constructs a SlowConsumerPolicy enum value.
+	 * @param value The String representation of the value.
+	 */
+	SlowConsumerPolicy(String value) {
+		m_value = value;
+	}
+
+	/**
+	 * Returns the String representation of the value.
+	 * @return The String representation of the value.
+	 */
+	public String toString() {
+		return m_value;
+	}
+
+	/**
+	 * Returns the enum value with the specified String representation.
+	 * Unknown values fall back to the disconnect policy.
+	 * @param value The String representation of the value.
+	 * @return The enum value.
+	 */
+	public static SlowConsumerPolicy fromString(String value) {
+		for(SlowConsumerPolicy policy : SlowConsumerPolicy.values()) {
+			if(policy.m_value.equalsIgnoreCase(value.trim())) {
+				return policy;
+			}
+		}
+		return DISCONNECT;
+	}
+
+};
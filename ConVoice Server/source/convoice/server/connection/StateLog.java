@@ -0,0 +1,110 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The StateLog class stores the latest changes of a part of the
+ * server state, like the channels or the users, for delta sync.
+ * Every change is assigned a monotonically increasing revision,
+ * which is appended to the encoded notification frame of the change.
+ * The log keeps the frames of the latest changes, so a client which
+ * knows an earlier revision only has to receive the changes since.
+ * Revisions are only comparable within the same epoch, the epoch of
+ * the log changes every time the server is started. Callers have to
+ * synchronize on the log to make appending a change and queuing it's
+ * frame, or capturing a snapshot and it's revision atomic.
+ */
+public class StateLog {
+	/** The maximum number of changes stored by the log. */
+	public static final int CAPACITY = 1024;
+
+	/** The epoch of the log. */
+	private long m_epoch;
+
+	/** The revision of the latest change. */
+	private long m_revision;
+
+	/** The frames of the stored changes, the latest is the last. */
+	private ArrayDeque<ByteBuffer> m_changes;
+
+	/**
+	 * Constructs a StateLog object.
+	 */
+	public StateLog() {
+		// Initializing members
+		m_epoch = System.currentTimeMillis();
+		m_revision = 0;
+		m_changes = new ArrayDeque<ByteBuffer>();
+	}
+
+	/**
+	 * Returns the epoch of the log.
+	 * @return The epoch of the log.
+	 */
+	public long getEpoch() {
+		return m_epoch;
+	}
+
+	/**
+	 * Returns the revision of the latest change.
+	 * @return The current revision.
+	 */
+	public synchronized long getRevision() {
+		return m_revision;
+	}
+
+	/**
+	 * Appends a change to the log. The next revision is written to the
+	 * end of the frame, then the frame is encoded and stored. The oldest
+	 * change is discarded if the log is full.
+	 * @param frame The notification frame of the change.
+	 * @return The encoded frame, to be queued for the clients.
+	 * @throws IOException If the revision could not be written.
+	 */
+	public synchronized ByteBuffer append(FrameBuilder frame) throws IOException {
+		// Writing the revision of the change
+		frame.writeLong(m_revision + 1);
+		ByteBuffer buffer = frame.toByteBuffer();
+
+		// Storing the change
+		if(m_changes.size() == CAPACITY) {
+			m_changes.pollFirst();
+		}
+		m_changes.addLast(buffer);
+		m_revision++;
+
+		return buffer;
+	}
+
+	/**
+	 * Returns the frames of the changes since the specified revision.
+	 * @param epoch The epoch the revision belongs to.
+	 * @param revision The last revision known by the client.
+	 * @return The frames of the changes in order, or null if the
+	 * changes are not available and a snapshot has to be sent.
+	 */
+	public synchronized List<ByteBuffer> since(long epoch, long revision) {
+		// Checking whether the changes are still stored
+		long oldest = m_revision - m_changes.size();
+		if(epoch != m_epoch || revision < oldest || revision > m_revision) {
+			return null;
+		}
+
+		// Collecting the changes after the revision
+		List<ByteBuffer> changes = new ArrayList<ByteBuffer>((int) (m_revision - revision));
+		long current = oldest;
+		for(ByteBuffer change : m_changes) {
+			if(++current > revision) {
+				changes.add(change.duplicate());
+			}
+		}
+		return changes;
+	}
+
+};
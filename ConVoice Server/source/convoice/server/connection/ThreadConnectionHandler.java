@@ -0,0 +1,248 @@
+package convoice.server.connection;
+
+
+// Java imports
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+import convoice.server.user.User;
+import convoice.server.user.UserManager;
+
+/**
+ * The ThreadConnectionHandler class is responsible for handling
+ * existing connections in the thread connection mode.
+ * Every user added to the handler gets a thread of it's own, which
+ * blocks on the user's socket until a message arrives and passes
+ * it to the message handling methods of the ConnectionHandler, and
+ * a second one, which waits for messages queued for the user and
+ * writes them to the socket.
+ * Virtual threads are used when the Java runtime supports them,
+ * otherwise daemon platform threads with a reduced stack size.
+ * The handler's own thread only waits for the shutdown signal and
+ * terminates the connections.
+ */
+public class ThreadConnectionHandler extends ConnectionHandler {
+	/** The stack size of platform connection threads. */
+	private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+	/** The time in milliseconds the writer of a terminated connection gets to send it's queue. */
+	private static final int TERMINATION_TIMEOUT = 1000;
+
+	/** The builder of virtual threads, or null if not supported. */
+	private static Object m_virtualBuilder;
+
+	/** The method creating an unstarted thread from the builder. */
+	private static Method m_unstarted;
+
+	/**
+	 * Looks up virtual thread support of the Java runtime.
+	 */
+	static {
+		try {
+			m_virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+			m_unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+		} catch(ReflectiveOperationException e) {
+			// Virtual threads are not supported
+			m_virtualBuilder = null;
+			m_unstarted = null;
+		}
+	}
+
+	/**
+	 * Constructs a ThreadConnectionHandler object.
+	 */
+	public ThreadConnectionHandler() {
+		// Initializing members
+		super();
+	}
+
+	/**
+	 * Waits until the handler is signaled to stop, then terminates
+	 * all connections. Reading the connections is done by the
+	 * threads of the users.
+	 */
+	public void run() {
+		// Setting state flags
+		m_shouldRun = true;
+		m_running = true;
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Connection handler started (thread per connection"
+				+ (m_virtualBuilder != null ? ", virtual" : "") + ").");
+
+		// Waiting for the stop signal
+		synchronized(this) {
+			while(m_shouldRun) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		// Terminating all connections
+		terminateConnections();
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Connection handler stopped (thread per connection).");
+
+		// Setting running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Signals the ThreadConnectionHandler to stop.
+	 * Connection threads finish when their sockets are closed
+	 * during the termination of the connections.
+	 */
+	public void stop() {
+		synchronized(this) {
+			m_shouldRun = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Adds a User to the handler, and starts the threads which
+	 * handle it's incoming and outgoing messages.
+	 * @param userID The user to add.
+	 */
+	public void addUser(int userID) {
+		super.addUser(userID);
+
+		// Starting the connection thread
+		Thread thread = createThread(new Runnable() {
+			public void run() {
+				handleConnection(userID);
+			}
+		});
+		thread.setName("ConVoice connection " + userID);
+		thread.start();
+
+		// Starting the writer thread
+		Thread writer = createThread(new Runnable() {
+			public void run() {
+				writeConnection(userID);
+			}
+		});
+		writer.setName("ConVoice writer " + userID);
+		writer.start();
+	}
+
+	/**
+	 * Reads the message frames of the specified user with blocking
+	 * reads until the user disconnects or the handler is stopped. If
+	 * the connection breaks without a disconnection request, or an
+	 * invalid frame header is received, the user is disconnected as
+	 * if it requested so.
+	 * @param userID The ID of the user.
+	 */
+	private void handleConnection(int userID) {
+		try {
+			// Creating the input stream
+			User user = UserManager.getUser(userID);
+			Socket socket = user.getSocket();
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			FrameReader reader = new FrameReader(dis);
+
+			while(m_shouldRun) {
+				// Reading the message frame
+				Frame frame = reader.read();
+
+				try {
+					// Handling the message
+					if(!handleMessage(userID, frame)) {
+						// Removing the disconnected user from the handler
+						removeUser(userID);
+						return;
+					}
+				} catch(IOException e) {
+					// The message was malformed, the following frames are still intact
+					e.printStackTrace();
+				}
+			}
+		} catch(IOException e) {
+			// The connection broke, unless the handler is being stopped
+			if(m_shouldRun) {
+				onDisconnectionRequest(userID);
+				removeUser(userID);
+			}
+		}
+	}
+
+	/**
+	 * Writes the messages queued for the specified user until the
+	 * outbound queue is closed. A failed write closes the socket, so
+	 * the connection thread disconnects the user.
+	 * @param userID The ID of the user.
+	 */
+	private void writeConnection(int userID) {
+		User user = UserManager.getUser(userID);
+		Socket socket = user.getSocket();
+		try {
+			// Waiting for queued messages
+			while(user.getOutboundQueue().await()) {
+				writeQueued(user);
+			}
+		} catch(IOException e) {
+			try {
+				socket.close();
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			}
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for the writer thread of a terminated connection to send
+	 * the queued messages. The writer blocks on the socket, so it is
+	 * left alone, and only gets a limited time before the socket is
+	 * closed under it.
+	 * @param user The user to send the messages of.
+	 * @throws IOException If the messages were not sent in time.
+	 */
+	protected void flushQueued(User user) throws IOException {
+		try {
+			if(!user.getOutboundQueue().awaitDrained(TERMINATION_TIMEOUT)) {
+				throw new SocketTimeoutException("Write timed out.");
+			}
+		} catch(InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Creates an unstarted thread for a connection. Virtual threads
+	 * are preferred, platform threads are created as daemon threads
+	 * with a reduced stack size.
+	 * @param runnable The task of the thread.
+	 * @return The created thread.
+	 */
+	private static Thread createThread(Runnable runnable) {
+		// Creating a virtual thread if supported
+		if(m_virtualBuilder != null) {
+			try {
+				return (Thread) m_unstarted.invoke(m_virtualBuilder, runnable);
+			} catch(ReflectiveOperationException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Creating a platform thread
+		Thread thread = new Thread(null, runnable, "", PLATFORM_STACK_SIZE);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+};
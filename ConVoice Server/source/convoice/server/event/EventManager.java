@@ -0,0 +1,183 @@
+package convoice.server.event;
+
+
+// Java imports
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Project imports
+import convoice.server.channel.Channel;
+import convoice.server.user.User;
+import convoice.server.user.UserData;
+
+/**
+ * The EventManager class is responsible for passing the state
+ * changes of the server to the registered ServerListeners.
+ * The managers report their changes here instead of updating the
+ * user interface directly, so the server has no dependency on the
+ * user interface and can run headless.
+ * The EventManager has only static fields and methods, making it
+ * easily available to the rest of the application. It's behavior
+ * is similar to a Singleton. The listeners are kept in a copy-on-write
+ * list, so reporting a change takes no lock.
+ */
+public class EventManager {
+	/** The registered listeners. */
+	private static CopyOnWriteArrayList<ServerListener> m_listeners;
+
+	/**
+	 * Initializes the EventManager.
+	 */
+	static {
+		// Initializing members
+		m_listeners = new CopyOnWriteArrayList<ServerListener>();
+	}
+
+	/**
+	 * Registers a listener.
+	 * @param listener The listener to register.
+	 */
+	public static void addListener(ServerListener listener) {
+		m_listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Unregisters a listener.
+	 * @param listener The listener to unregister.
+	 */
+	public static void removeListener(ServerListener listener) {
+		m_listeners.remove(listener);
+	}
+
+	/**
+	 * Reports that a channel was created.
+	 * @param channel The created channel.
+	 */
+	public static void channelCreated(Channel channel) {
+		for(ServerListener listener : m_listeners) {
+			listener.channelCreated(channel);
+		}
+	}
+
+	/**
+	 * Reports that the data of a channel was modified.
+	 * @param channel The modified channel.
+	 */
+	public static void channelModified(Channel channel) {
+		for(ServerListener listener : m_listeners) {
+			listener.channelModified(channel);
+		}
+	}
+
+	/**
+	 * Reports that a channel was deleted.
+	 * @param channelID The ID of the deleted channel.
+	 */
+	public static void channelDeleted(int channelID) {
+		for(ServerListener listener : m_listeners) {
+			listener.channelDeleted(channelID);
+		}
+	}
+
+	/**
+	 * Reports that a member was added.
+	 * @param member The data of the member.
+	 */
+	public static void memberCreated(UserData member) {
+		for(ServerListener listener : m_listeners) {
+			listener.memberCreated(member);
+		}
+	}
+
+	/**
+	 * Reports that the data of a member was modified.
+	 * @param oldUsername The username of the member before the change.
+	 * @param member The new data of the member.
+	 */
+	public static void memberModified(String oldUsername, UserData member) {
+		for(ServerListener listener : m_listeners) {
+			listener.memberModified(oldUsername, member);
+		}
+	}
+
+	/**
+	 * Reports that a member was deleted.
+	 * @param username The username of the deleted member.
+	 */
+	public static void memberDeleted(String username) {
+		for(ServerListener listener : m_listeners) {
+			listener.memberDeleted(username);
+		}
+	}
+
+	/**
+	 * Reports that a user was created.
+	 * @param user The created user.
+	 */
+	public static void userCreated(User user) {
+		for(ServerListener listener : m_listeners) {
+			listener.userCreated(user);
+		}
+	}
+
+	/**
+	 * Reports that a user was moved to a channel.
+	 * @param userID The ID of the user.
+	 * @param channelID The ID of the channel.
+	 */
+	public static void userMoved(int userID, int channelID) {
+		for(ServerListener listener : m_listeners) {
+			listener.userMoved(userID, channelID);
+		}
+	}
+
+	/**
+	 * Reports that a user was deleted.
+	 * @param userID The ID of the deleted user.
+	 */
+	public static void userDeleted(int userID) {
+		for(ServerListener listener : m_listeners) {
+			listener.userDeleted(userID);
+		}
+	}
+
+	/**
+	 * Reports that the server was started or stopped.
+	 * @param running True if the server is running.
+	 */
+	public static void serverStatusChanged(boolean running) {
+		for(ServerListener listener : m_listeners) {
+			listener.serverStatusChanged(running);
+		}
+	}
+
+	/**
+	 * Reports that the connection listener was started or stopped.
+	 * @param running True if the listener is running.
+	 */
+	public static void listenerStatusChanged(boolean running) {
+		for(ServerListener listener : m_listeners) {
+			listener.listenerStatusChanged(running);
+		}
+	}
+
+	/**
+	 * Reports that the number of connected clients changed.
+	 * @param count The number of clients.
+	 */
+	public static void clientCountChanged(int count) {
+		for(ServerListener listener : m_listeners) {
+			listener.clientCountChanged(count);
+		}
+	}
+
+	/**
+	 * Reports that the number of connection handlers changed.
+	 * @param count The number of handlers.
+	 */
+	public static void handlerCountChanged(int count) {
+		for(ServerListener listener : m_listeners) {
+			listener.handlerCountChanged(count);
+		}
+	}
+
+};
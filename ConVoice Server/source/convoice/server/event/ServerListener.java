@@ -0,0 +1,99 @@
+package convoice.server.event;
+
+
+// Project imports
+import convoice.server.channel.Channel;
+import convoice.server.user.User;
+import convoice.server.user.UserData;
+
+/**
+ * The ServerListener interface is implemented by the components
+ * which follow the state of the server, like the user interface.
+ * Listeners are registered at the EventManager, and are called on
+ * the thread which changed the state, so they must not block.
+ * The managers do not depend on any listener, so the server runs
+ * without a user interface when no listener is registered.
+ */
+public interface ServerListener {
+
+	/**
+	 * Called when a channel was created.
+	 * @param channel The created channel.
+	 */
+	void channelCreated(Channel channel);
+
+	/**
+	 * Called when the data of a channel was modified.
+	 * @param channel The modified channel.
+	 */
+	void channelModified(Channel channel);
+
+	/**
+	 * Called when a channel was deleted.
+	 * @param channelID The ID of the deleted channel.
+	 */
+	void channelDeleted(int channelID);
+
+	/**
+	 * Called when a member was added.
+	 * @param member The data of the member.
+	 */
+	void memberCreated(UserData member);
+
+	/**
+	 * Called when the data of a member was modified.
+	 * @param oldUsername The username of the member before the change.
+	 * @param member The new data of the member.
+	 */
+	void memberModified(String oldUsername, UserData member);
+
+	/**
+	 * Called when a member was deleted.
+	 * @param username The username of the deleted member.
+	 */
+	void memberDeleted(String username);
+
+	/**
+	 * Called when a user was created.
+	 * @param user The created user.
+	 */
+	void userCreated(User user);
+
+	/**
+	 * Called when a user was moved to a channel.
+	 * @param userID The ID of the user.
+	 * @param channelID The ID of the channel.
+	 */
+	void userMoved(int userID, int channelID);
+
+	/**
+	 * Called when a user was deleted.
+	 * @param userID The ID of the deleted user.
+	 */
+	void userDeleted(int userID);
+
+	/**
+	 * Called when the server was started or stopped.
+	 * @param running True if the server is running.
+	 */
+	void serverStatusChanged(boolean running);
+
+	/**
+	 * Called when the connection listener was started or stopped.
+	 * @param running True if the listener is running.
+	 */
+	void listenerStatusChanged(boolean running);
+
+	/**
+	 * Called when the number of connected clients changed.
+	 * @param count The number of clients.
+	 */
+	void clientCountChanged(int count);
+
+	/**
+	 * Called when the number of connection handlers changed.
+	 * @param count The number of handlers.
+	 */
+	void handlerCountChanged(int count);
+
+};
@@ -0,0 +1,162 @@
+package convoice.server.gui;
+
+
+// Java imports
+import java.util.HashMap;
+import java.util.Map;
+import javafx.scene.control.TreeItem;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+// Project imports
+import convoice.server.channel.Channel;
+import convoice.server.user.User;
+
+/**
+ * The ChannelTreeModel class builds the nodes of the main channels
+ * tree view, and indexes them by the IDs of the channels and users,
+ * so the node of a change is found without scanning the tree.
+ * The nodes of the users are moved between the channel nodes instead
+ * of being recreated. The model is only used on the JavaFX application
+ * thread, like the tree view itself.
+ */
+public class ChannelTreeModel {
+	/** The root node of the tree. */
+	private TreeItem<Object> m_root;
+
+	/** The nodes of the channels, by the IDs of the channels. */
+	private Map<Integer, TreeItem<Object>> m_channelNodes;
+
+	/** The nodes of the users, by the IDs of the users. */
+	private Map<Integer, TreeItem<Object>> m_userNodes;
+
+	/** The icon of the channel nodes. */
+	private Image m_channelIcon;
+
+	/** The icon of the user nodes. */
+	private Image m_userIcon;
+
+	/**
+	 * Constructs a ChannelTreeModel object with an empty root node.
+	 * @param rootValue The value of the root node.
+	 * @param rootIcon The icon of the root node.
+	 * @param channelIcon The icon of the channel nodes.
+	 * @param userIcon The icon of the user nodes.
+	 */
+	public ChannelTreeModel(Object rootValue, Image rootIcon, Image channelIcon, Image userIcon) {
+		// Initializing members
+		m_root = new TreeItem<Object>(rootValue, new ImageView(rootIcon));
+		m_root.setExpanded(true);
+		m_channelNodes = new HashMap<Integer, TreeItem<Object>>();
+		m_userNodes = new HashMap<Integer, TreeItem<Object>>();
+		m_channelIcon = channelIcon;
+		m_userIcon = userIcon;
+	}
+
+	/**
+	 * Returns the root node of the tree.
+	 * @return The root node.
+	 */
+	public TreeItem<Object> getRoot() {
+		return m_root;
+	}
+
+	/**
+	 * Returns the node of a channel.
+	 * @param channelID The ID of the channel.
+	 * @return The node of the channel, or null if it is not in the tree.
+	 */
+	public TreeItem<Object> getChannelNode(int channelID) {
+		return m_channelNodes.get(channelID);
+	}
+
+	/**
+	 * Returns the node of a user.
+	 * @param userID The ID of the user.
+	 * @return The node of the user, or null if it is not in the tree.
+	 */
+	public TreeItem<Object> getUserNode(int userID) {
+		return m_userNodes.get(userID);
+	}
+
+	/**
+	 * Adds the node of a channel to the tree, or replaces the
+	 * channel of the existing node.
+	 * @param channel The channel.
+	 * @return The node of the channel.
+	 */
+	public TreeItem<Object> putChannel(Channel channel) {
+		// Replacing the channel of the existing node
+		TreeItem<Object> channelNode = m_channelNodes.get(channel.getID());
+		if(channelNode != null) {
+			channelNode.setValue(channel);
+			return channelNode;
+		}
+
+		// Adding a new node
+		channelNode = new TreeItem<Object>(channel, new ImageView(m_channelIcon));
+		m_channelNodes.put(channel.getID(), channelNode);
+		m_root.getChildren().add(channelNode);
+		return channelNode;
+	}
+
+	/**
+	 * Removes the node of a channel, and the nodes of it's users from the tree.
+	 * @param channelID The ID of the channel.
+	 */
+	public void removeChannel(int channelID) {
+		TreeItem<Object> channelNode = m_channelNodes.remove(channelID);
+		if(channelNode == null) {
+			return;
+		}
+		for(TreeItem<Object> userNode : channelNode.getChildren()) {
+			m_userNodes.remove(((User) userNode.getValue()).getID());
+		}
+		m_root.getChildren().remove(channelNode);
+	}
+
+	/**
+	 * Adds the node of a user to the node of a channel, or moves the
+	 * existing node there, replacing it's user. If the channel is not
+	 * in the tree, the node of the user is removed.
+	 * @param user The user.
+	 * @param channelID The ID of the channel of the user.
+	 */
+	public void putUser(User user, int channelID) {
+		TreeItem<Object> channelNode = m_channelNodes.get(channelID);
+		if(channelNode == null) {
+			removeUser(user.getID());
+			return;
+		}
+
+		// Creating the node or replacing it's user
+		TreeItem<Object> userNode = m_userNodes.get(user.getID());
+		if(userNode == null) {
+			userNode = new TreeItem<Object>(user, new ImageView(m_userIcon));
+			m_userNodes.put(user.getID(), userNode);
+		} else {
+			userNode.setValue(user);
+		}
+
+		// Moving the node to the channel node
+		TreeItem<Object> parent = userNode.getParent();
+		if(parent != channelNode) {
+			if(parent != null) {
+				parent.getChildren().remove(userNode);
+			}
+			channelNode.getChildren().add(userNode);
+		}
+	}
+
+	/**
+	 * Removes the node of a user from the tree.
+	 * @param userID The ID of the user.
+	 */
+	public void removeUser(int userID) {
+		TreeItem<Object> userNode = m_userNodes.remove(userID);
+		if(userNode != null && userNode.getParent() != null) {
+			userNode.getParent().getChildren().remove(userNode);
+		}
+	}
+
+};
@@ -3,7 +3,7 @@ package convoice.server.gui;
 
 // Java imports
 import java.io.File;
-import java.util.Collection;
+import java.util.function.Consumer;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Accordion;
@@ -107,7 +107,7 @@ public class GUIController {
 	@FXML
 	public Label connectionsHandlersLabel;
 	@FXML
-	public TextArea connectionsOutputTextArea;
+	public MessageView connectionsOutputView;
 	@FXML
 	public TextField connectionsPortTextField;
 	@FXML 
@@ -167,7 +167,7 @@ public class GUIController {
 	@FXML
 	public PasswordField membersPasswordField;
 	@FXML
-	public TextArea membersOutputTextArea;
+	public MessageView membersOutputView;
 	@FXML
 	public Button membersEditApplyButton;
 	@FXML
@@ -177,7 +177,9 @@ public class GUIController {
 	
 	// Elements of the logs menu
 	@FXML
-	public TextArea logsOutputTextArea;
+	public MessageView logsOutputView;
+	@FXML
+	public TextField logsFilterTextField;
 	@FXML
 	public Button logsClearButton;
 	
@@ -207,6 +209,9 @@ public class GUIController {
 	private Image startIcon;
 	private Image stopIcon;
 	
+	// The indexed nodes of the main tree view
+	private ChannelTreeModel channelTreeModel;
+	
 	// Configuration state flag
 	private boolean configChanged = false;
 	
@@ -352,6 +357,9 @@ public class GUIController {
 		});
 		
 		// Binding logs menu elements
+		logsFilterTextField.textProperty().addListener(e -> {
+			onLogsFilterTextFieldChanged();
+		});
 		logsClearButton.setOnAction(e -> {
 			onLogsClearButtonClicked();
 		});
@@ -414,10 +422,20 @@ public class GUIController {
 		permissionsGuestModifyChannelCheckBox.setSelected(
 				Boolean.parseBoolean(Server.getProperties().getProperty("guestCanModifyChannel")));
 		
+		// Updating the number of lines kept by the output views
+		try {
+			int retention = Integer.parseInt(Server.getProperties().getProperty("outputRetention",
+					String.valueOf(MessageView.DEFAULT_RETENTION)));
+			connectionsOutputView.setRetention(retention);
+			membersOutputView.setRetention(retention);
+			logsOutputView.setRetention(retention);
+		} catch(IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+		
 		// Updating main channels tree view
-		TreeItem<Object> root = new TreeItem<Object>(Server.getName(), new ImageView(serverIcon));
-		mainChannelsTreeView.setRoot(root);
-		mainChannelsTreeView.getRoot().setExpanded(true);
+		channelTreeModel = new ChannelTreeModel(Server.getName(), serverIcon, channelIcon, userIcon);
+		mainChannelsTreeView.setRoot(channelTreeModel.getRoot());
 		
 		// Setting configuration changed state flag
 		configChanged = false;
@@ -1254,7 +1272,15 @@ public class GUIController {
 	 * Logs panel.
 	 */
 	private void onLogsClearButtonClicked() {
-		logsOutputTextArea.clear();
+		logsOutputView.clear();
+	}
+	
+	/**
+	 * Handles when the filter text field changes on the
+	 * Logs panel.
+	 */
+	private void onLogsFilterTextFieldChanged() {
+		logsOutputView.setFilter(logsFilterTextField.getText());
 	}
 	
 	// Main channels tree view controllers
@@ -1290,7 +1316,8 @@ public class GUIController {
 			mainInspectorTextArea.appendText("Topic: " + channel.getChannelData().getTopic() + "\n");
 			mainInspectorTextArea.appendText("Description: " + channel.getChannelData().getDescription() + "\n");
 			mainInspectorTextArea.appendText("Password protected: " + channel.getChannelData().hasPassword() + "\n");
-			mainInspectorTextArea.appendText("Clients: " + channel.getUsers().size() + " / " + channel.getChannelData().getMaxClients() + "\n");
+			mainInspectorTextArea.appendText("Clients: " + channel.getUserCount() + " / " + channel.getChannelData().getMaxClients() + "\n");
+			mainInspectorTextArea.appendText("Speaking: " + channel.getSpeakers().length + "\n");
 			mainInspectorTextArea.appendText("Permanent: " + channel.isPermanent() + "\n");
 			break;
 		case 2: 
@@ -1414,25 +1441,16 @@ public class GUIController {
 	private void channelCreatedUpdate_m(Channel channel) {
 		
 		// Updating main tree view
+		channelTreeModel.putChannel(channel);
 		
-		// Creating channel tree node
-		TreeItem<Object> channelNode = new TreeItem<Object>(channel, new ImageView(channelIcon));
-		
-		// Getting the list of users on the channel
-		Collection<Integer> userIDs = channel.getUsers();
-		
-		// Adding user nodes to the channel node
-		for(Integer userID : userIDs) {
-			// Creating user tree node
-			TreeItem<Object> userNode = new TreeItem<Object>(UserManager.getUser(userID), new ImageView(userIcon));
-			
-			// Adding the user node
-			channelNode.getChildren().add(userNode);
+		// Adding the users on the channel
+		for(int userID : channel.getUsers()) {
+			User user = UserManager.getUser(userID);
+			if(user != null) {
+				channelTreeModel.putUser(user, channel.getID());
+			}
 		}
 		
-		// Adding channel node to root
-		mainChannelsTreeView.getRoot().getChildren().add(channelNode);
-		
 		// Updating channel selector combo box
 		channelsSelectorComboBox.getItems().add(channel);
 	}
@@ -1462,19 +1480,7 @@ public class GUIController {
 	private void channelDeletedUpdate_m(int channelID) {
 		
 		// Updating main tree view
-		
-		// Searching the channel node to delete
-		for(TreeItem<Object> actualNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting channel object from the node
-			Channel actualChannel = (Channel) actualNode.getValue();
-			
-			// Comparing channel IDs
-			if(actualChannel.getID() == channelID) {
-				// Removing node
-				actualNode.getParent().getChildren().remove(actualNode);
-				break;
-			}
-		}
+		channelTreeModel.removeChannel(channelID);
 		
 		// Updating channel selector combo box
 		for(Channel actual : channelsSelectorComboBox.getItems()) {
@@ -1529,28 +1535,8 @@ public class GUIController {
 	 * @param user The created user object.
 	 */
 	private void userCreatedUpdate_m(User user) {
-		
-		// Updating main tree view
-		
-		// Creating user tree node
-		TreeItem<Object> userNode = new TreeItem<Object>(user, new ImageView(userIcon));
-		
-		// Searching the default channel
-		for(TreeItem<Object> actualNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting the channel object from the node
-			Channel actualChannel = (Channel) actualNode.getValue();
-			
-			// Comparing channel IDs
-			if(actualChannel.getID() == ChannelManager.DEFAULT_CHANNEL_ID) {
-				// Adding user node
-				actualNode.getChildren().add(userNode);
-				
-				// Refreshing the tree view
-				// mainChannelsTreeView.refresh();
-				
-				return;
-			}
-		}
+		// Updating main tree view, adding the user to the default channel
+		channelTreeModel.putUser(user, ChannelManager.DEFAULT_CHANNEL_ID);
 	}
 	
 	/**
@@ -1559,39 +1545,12 @@ public class GUIController {
 	 * @param channelID The ID of the channel moved to.
 	 */
 	private void userMovedUpdate_m(int userID, int channelID) {
-		
 		// Updating main tree view
-		
-		// Removing user node from previous channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Searching moved user
-			for(TreeItem<Object> actualUserNode : actualChannelNode.getChildren()) {
-				// Getting user object from the node
-				User actualUser = (User) actualUserNode.getValue();
-				
-				// Comparing user IDs
-				if(actualUser.getID() == userID) {
-					actualChannelNode.getChildren().remove(actualUserNode);
-					break;
-				}
-			}
-		}
-		
-		// Adding user to current channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Getting channel object from the node
-			Channel actualChannel = (Channel) actualChannelNode.getValue();
-			
-			// Comparing channel IDs
-			if(actualChannel.getID() == channelID) {
-				// Creating user node
-				TreeItem<Object> userNode = new TreeItem<Object>(UserManager.getUser(userID), 
-						new ImageView(userIcon));
-				
-				// Adding user node to channel node
-				actualChannelNode.getChildren().add(userNode);
-				return;
-			}
+		User user = UserManager.getUser(userID);
+		if(user != null) {
+			channelTreeModel.putUser(user, channelID);
+		} else {
+			channelTreeModel.removeUser(userID);
 		}
 	}
 	
@@ -1601,21 +1560,7 @@ public class GUIController {
 	 */
 	private void userDeletedUpdate_m(int userID) {
 		// Updating main tree view
-		
-		// Removing user node from previous channel node
-		for(TreeItem<Object> actualChannelNode : mainChannelsTreeView.getRoot().getChildren()) {
-			// Searching moved user
-			for(TreeItem<Object> actualUserNode : actualChannelNode.getChildren()) {
-				// Getting user object from the node
-				User actualUser = (User) actualUserNode.getValue();
-
-				// Comparing user IDs
-				if(actualUser.getID() == userID) {
-					actualChannelNode.getChildren().remove(actualUserNode);
-					return;
-				}
-			}
-		}
+		channelTreeModel.removeUser(userID);
 	}
 	
 	// Output & Status methods
@@ -1657,30 +1602,30 @@ public class GUIController {
 	}
 	
 	/**
-	 * Adds a message to the output text area 
+	 * Adds a message to the output view 
 	 * on the Connections panel.
 	 * @param message The message to display.
 	 */
 	private void addConnectionsOutputMessage_m(String message) {
-		connectionsOutputTextArea.appendText(message + "\n");
+		connectionsOutputView.append(message);
 	}
 	
 	/**
-	 * Adds a message to the output text area 
+	 * Adds a message to the output view 
 	 * on the Members panel.
 	 * @param message The message to display.
 	 */
 	private void addMembersOutputMessage_m(String message) {
-		membersOutputTextArea.appendText(message + "\n");
+		membersOutputView.append(message);
 	}
 	
 	/**
-	 * Adds a message to the output text area 
+	 * Adds a message to the output view 
 	 * on the Logs panel.
 	 * @param message The message to display.
 	 */
 	private void addLogsOutputMessage_m(String message) {
-		logsOutputTextArea.appendText(message + "\n");
+		logsOutputView.append(message);
 	}
 	
 	// Static accessor methods
@@ -1698,7 +1643,7 @@ public class GUIController {
 	 * @param channel The created channel object.
 	 */
 	public static void channelCreatedUpdate(Channel channel) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.channelCreatedUpdate_m(channel);
 			}
@@ -1710,7 +1655,7 @@ public class GUIController {
 	 * @param channel The channel object.
 	 */
 	public static void channelModifiedUpdate(Channel channel) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("channelModified:" + channel.getID(), new Runnable() {
 			public void run() {
 				staticInstance.channelModifiedUpdate_m(channel);	
 			}
@@ -1722,7 +1667,7 @@ public class GUIController {
 	 * @param channelID The ID of the channel.
 	 */
 	public static void channelDeletedUpdate(int channelID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.channelDeletedUpdate_m(channelID);	
 			}
@@ -1734,7 +1679,7 @@ public class GUIController {
 	 * @param member The created member object.
 	 */
 	public static void memberCreatedUpdate(UserData member) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.memberCreatedUpdate_m(member);	
 			}
@@ -1747,7 +1692,7 @@ public class GUIController {
 	 * @param member The new member object.
 	 */
 	public static void memberModifiedUpdate(String oldUsername, UserData member) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.memberModifiedUpdate_m(oldUsername, member);	
 			}
@@ -1759,7 +1704,7 @@ public class GUIController {
 	 * @param username The username of the member.
 	 */
 	public static void memberDeletedUpdate(String username) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.memberDeletedUpdate_m(username);
 			}
@@ -1771,7 +1716,7 @@ public class GUIController {
 	 * @param user The created user object.
 	 */
 	public static void userCreatedUpdate(User user) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.userCreatedUpdate_m(user);
 			}
@@ -1784,7 +1729,7 @@ public class GUIController {
 	 * @param channelID The ID of the channel moved to.
 	 */
 	public static void userMovedUpdate(int userID, int channelID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("userMoved:" + userID, new Runnable() {
 			public void run() {
 				staticInstance.userMovedUpdate_m(userID, channelID);
 			}
@@ -1796,7 +1741,7 @@ public class GUIController {
 	 * @param userID The ID of the user.
 	 */
 	public static void userDeletedUpdate(int userID) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch(new Runnable() {
 			public void run() {
 				staticInstance.userDeletedUpdate_m(userID);
 			}
@@ -1808,7 +1753,7 @@ public class GUIController {
 	 * @param status The status to set on the label.
 	 */
 	public static void setConnectionsServerStatus(String status) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("serverStatus", new Runnable() {
 			public void run() {
 				staticInstance.setConnectionsServerStatus_m(status);	
 			}
@@ -1820,7 +1765,7 @@ public class GUIController {
 	 * @param status The status to set on the label.
 	 */
 	public static void setConnectionsListenerStatus(String status) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("listenerStatus", new Runnable() {
 			public void run() {
 				staticInstance.setConnectionsListenerStatus_m(status);
 			}
@@ -1832,7 +1777,7 @@ public class GUIController {
 	 * @param count The count to set on the label.
 	 */
 	public static void setConnectionsClientsCount(int count) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("clientsCount", new Runnable() {
 			public void run() {
 				staticInstance.setConnectionsClientsCount_m(count);	
 			}
@@ -1844,7 +1789,7 @@ public class GUIController {
 	 * @param count The count to set on the label.
 	 */
 	public static void setConnectionsHandlersCount(int count) {
-		Platform.runLater(new Runnable() {
+		UpdateDispatcher.dispatch("handlersCount", new Runnable() {
 			public void run() {
 				staticInstance.setConnectionsHandlersCount_m(count);
 			}
@@ -1856,9 +1801,9 @@ public class GUIController {
 	 * @param message The message to display.
 	 */
 	public static void addConnectionsOutputMessage(String message) {
-		Platform.runLater(new Runnable() {
-			public void run() {
-				staticInstance.addConnectionsOutputMessage_m(message);
+		UpdateDispatcher.dispatchMessage("connectionsOutput", message, new Consumer<String>() {
+			public void accept(String messages) {
+				staticInstance.addConnectionsOutputMessage_m(messages);
 			}
 		});
 	}
@@ -1868,11 +1813,11 @@ public class GUIController {
 	 * @param message The message to display.
 	 */
 	public static void addMembersOutputMessage(String message) {
-		Platform.runLater(new Runnable() {
-			public void run() {
-				staticInstance.addMembersOutputMessage_m(message);
+		UpdateDispatcher.dispatchMessage("membersOutput", message, new Consumer<String>() {
+			public void accept(String messages) {
+				staticInstance.addMembersOutputMessage_m(messages);
 			}
-		});	
+		});
 	}
 	
 	/**
@@ -1880,11 +1825,11 @@ public class GUIController {
 	 * @param message The message to display.
 	 */
 	public static void addLogsOutputMessage(String message) {
-		Platform.runLater(new Runnable() {
-			public void run() {
-				staticInstance.addLogsOutputMessage_m(message);
+		UpdateDispatcher.dispatchMessage("logsOutput", message, new Consumer<String>() {
+			public void accept(String messages) {
+				staticInstance.addLogsOutputMessage_m(messages);
 			}
-		});	
+		});
 	}
 	
 	// Close request handler
@@ -0,0 +1,84 @@
+package convoice.server.gui;
+
+
+// Project imports
+import convoice.server.logger.LogChannel;
+import convoice.server.logger.LogEvent;
+import convoice.server.logger.LogSink;
+
+/**
+ * The GuiLogSink class shows log events on the user interface.
+ * Messages are collected per channel and passed to the user interface
+ * in a single update when the LogManager drained it's buffer, or when a
+ * batch is full, instead of one update per message. The views of the
+ * user interface only keep the newest messages.
+ */
+public class GuiLogSink implements LogSink {
+	/** The maximum number of messages passed in a single update. */
+	private static final int BATCH_SIZE = 256;
+
+	/** The collected messages of the channels, indexed by the ordinal of the channel. */
+	private StringBuilder[] m_batches;
+
+	/** The number of collected messages of the channels. */
+	private int[] m_counts;
+
+	/**
+	 * Constructs a GuiLogSink object.
+	 */
+	public GuiLogSink() {
+		// Initializing members
+		m_batches = new StringBuilder[LogChannel.values().length];
+		m_counts = new int[m_batches.length];
+		for(int i = 0; i < m_batches.length; i++) {
+			m_batches[i] = new StringBuilder();
+		}
+	}
+
+	@Override
+	public void write(LogEvent event) {
+		int channel = event.getChannel().ordinal();
+		StringBuilder batch = m_batches[channel];
+		if(batch.length() > 0) {
+			batch.append('\n');
+		}
+		batch.append(event.getMessage());
+
+		// Passing a full batch at once
+		if(++m_counts[channel] == BATCH_SIZE) {
+			flush();
+		}
+	}
+
+	@Override
+	public void flush() {
+		for(LogChannel channel : LogChannel.values()) {
+			StringBuilder batch = m_batches[channel.ordinal()];
+			if(batch.length() == 0) {
+				continue;
+			}
+			String text = batch.toString();
+			batch.setLength(0);
+			m_counts[channel.ordinal()] = 0;
+
+			// Updating the user interface
+			switch(channel) {
+				case CONNECTIONS:
+					GUIController.addConnectionsOutputMessage(text);
+					break;
+				case MEMBERS:
+					GUIController.addMembersOutputMessage(text);
+					break;
+				default:
+					GUIController.addLogsOutputMessage(text);
+					break;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+
+};
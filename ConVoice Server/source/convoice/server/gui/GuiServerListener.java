@@ -0,0 +1,82 @@
+package convoice.server.gui;
+
+
+// Project imports
+import convoice.server.channel.Channel;
+import convoice.server.event.ServerListener;
+import convoice.server.user.User;
+import convoice.server.user.UserData;
+
+/**
+ * The GuiServerListener class forwards the state changes of the
+ * server to the GUIController, which updates the user interface
+ * on the JavaFX application thread.
+ */
+public class GuiServerListener implements ServerListener {
+
+	@Override
+	public void channelCreated(Channel channel) {
+		GUIController.channelCreatedUpdate(channel);
+	}
+
+	@Override
+	public void channelModified(Channel channel) {
+		GUIController.channelModifiedUpdate(channel);
+	}
+
+	@Override
+	public void channelDeleted(int channelID) {
+		GUIController.channelDeletedUpdate(channelID);
+	}
+
+	@Override
+	public void memberCreated(UserData member) {
+		GUIController.memberCreatedUpdate(member);
+	}
+
+	@Override
+	public void memberModified(String oldUsername, UserData member) {
+		GUIController.memberModifiedUpdate(oldUsername, member);
+	}
+
+	@Override
+	public void memberDeleted(String username) {
+		GUIController.memberDeletedUpdate(username);
+	}
+
+	@Override
+	public void userCreated(User user) {
+		GUIController.userCreatedUpdate(user);
+	}
+
+	@Override
+	public void userMoved(int userID, int channelID) {
+		GUIController.userMovedUpdate(userID, channelID);
+	}
+
+	@Override
+	public void userDeleted(int userID) {
+		GUIController.userDeletedUpdate(userID);
+	}
+
+	@Override
+	public void serverStatusChanged(boolean running) {
+		GUIController.setConnectionsServerStatus(running ? "Active" : "Inactive");
+	}
+
+	@Override
+	public void listenerStatusChanged(boolean running) {
+		GUIController.setConnectionsListenerStatus(running ? "Active" : "Inactive");
+	}
+
+	@Override
+	public void clientCountChanged(int count) {
+		GUIController.setConnectionsClientsCount(count);
+	}
+
+	@Override
+	public void handlerCountChanged(int count) {
+		GUIController.setConnectionsHandlersCount(count);
+	}
+
+};
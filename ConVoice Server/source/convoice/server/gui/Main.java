@@ -9,9 +9,15 @@ import javafx.stage.Stage;
 import javafx.fxml.FXMLLoader;
 import javafx.application.Application;
 
+// Project imports
+import convoice.server.event.EventManager;
+import convoice.server.logger.LogManager;
+
 /**
  * The Main class is responsible for providing an entry point
  * for the application, and prepare for showing the user interface.
+ * The server can also be run without the user interface by the
+ * HeadlessMain class.
  */
 public class Main extends Application {
 	
@@ -38,6 +44,10 @@ public class Main extends Application {
 		
 		// Initializing the controller
 		GUIController.staticInstance.initialize();
+		
+		// Passing the state changes and logs to the user interface
+		EventManager.addListener(new GuiServerListener());
+		LogManager.addSink(new GuiLogSink());
 
 		// Creating the scene for the application
         Scene scene = new Scene(root, 1200, 800);
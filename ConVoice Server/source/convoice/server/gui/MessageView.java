@@ -0,0 +1,119 @@
+package convoice.server.gui;
+
+
+// Java imports
+import java.util.Arrays;
+import java.util.Locale;
+import javafx.collections.transformation.FilteredList;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+
+/**
+ * The MessageView class displays output messages, like logs, line by line.
+ * Unlike a text area, which copies the whole document on every append,
+ * the lines are stored in a MessageBuffer, which only keeps the newest
+ * lines, and the list view only creates cells for the visible lines.
+ * The displayed lines can be filtered by a text, and the selected lines
+ * can be copied to the clipboard.
+ * The view is only used on the JavaFX application thread.
+ */
+public class MessageView extends ListView<String> {
+	/** The default number of lines kept by the view. */
+	public static final int DEFAULT_RETENTION = 5000;
+
+	/** The stored lines. */
+	private MessageBuffer m_buffer;
+
+	/** The stored lines matching the filter. */
+	private FilteredList<String> m_filteredLines;
+
+	/** The filter text in lower case, or an empty string. */
+	private String m_filter;
+
+	/**
+	 * Constructs an empty MessageView object.
+	 */
+	public MessageView() {
+		// Initializing members
+		m_buffer = new MessageBuffer(DEFAULT_RETENTION);
+		m_filteredLines = new FilteredList<String>(m_buffer);
+		m_filter = "";
+		setItems(m_filteredLines);
+
+		// Copying the selected lines
+		getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		KeyCombination copy = new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN);
+		setOnKeyPressed(e -> {
+			if(copy.match(e)) {
+				ClipboardContent content = new ClipboardContent();
+				content.putString(String.join("\n", getSelectionModel().getSelectedItems()));
+				Clipboard.getSystemClipboard().setContent(content);
+			}
+		});
+	}
+
+	/**
+	 * Adds a message to the end of the view, and scrolls to it.
+	 * The lines of the message are displayed as separate lines.
+	 * @param message The message to display.
+	 */
+	public void append(String message) {
+		m_buffer.addLines(Arrays.asList(message.split("\n")));
+		if(!m_filteredLines.isEmpty()) {
+			scrollTo(m_filteredLines.size() - 1);
+		}
+	}
+
+	/**
+	 * Removes every line from the view.
+	 */
+	public void clear() {
+		m_buffer.clear();
+	}
+
+	/**
+	 * Returns the number of lines kept by the view.
+	 * @return The maximum number of lines.
+	 */
+	public int getRetention() {
+		return m_buffer.getCapacity();
+	}
+
+	/**
+	 * Sets the number of lines kept by the view, removing
+	 * the oldest lines if the view holds more.
+	 * @param lines The maximum number of lines, at least one.
+	 */
+	public void setRetention(int lines) {
+		m_buffer.setCapacity(lines);
+	}
+
+	/**
+	 * Returns the text the displayed lines are filtered by.
+	 * @return The filter text, or an empty string if every line is displayed.
+	 */
+	public String getFilter() {
+		return m_filter;
+	}
+
+	/**
+	 * Displays only the lines containing the specified text,
+	 * ignoring the case of the letters.
+	 * @param filter The filter text, null or empty to display every line.
+	 */
+	public void setFilter(String filter) {
+		m_filter = filter == null ? "" : filter.trim().toLowerCase(Locale.ROOT);
+		if(m_filter.isEmpty()) {
+			m_filteredLines.setPredicate(null);
+		} else {
+			String text = m_filter;
+			m_filteredLines.setPredicate(line -> line.toLowerCase(Locale.ROOT).contains(text));
+		}
+	}
+
+};
@@ -0,0 +1,237 @@
+package convoice.server.gui;
+
+
+// Java imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+
+/**
+ * The UpdateDispatcher class passes the updates of the user interface
+ * to the JavaFX application thread. Instead of posting a task for
+ * every update, the updates are collected, and a single task applies
+ * every update waiting, so a burst of changes, like a mass join or
+ * the deletion of a crowded channel, is applied in one go.
+ * Updates with the same key describe the latest state of the same
+ * subject, like the channel of a user, so a new update replaces the
+ * waiting one, and messages for the same text area are joined into
+ * a single message. The other updates are applied in order.
+ */
+public class UpdateDispatcher {
+	/** The waiting updates, in order. */
+	private static List<Update> m_updates = new ArrayList<Update>();
+
+	/** The waiting updates with a key, by their key. */
+	private static Map<Object, Update> m_keyedUpdates = new HashMap<Object, Update>();
+
+	/** The state-flag of the task applying the waiting updates. */
+	private static boolean m_scheduled = false;
+
+	/** The number of waiting updates. */
+	private static int m_pendingCount = 0;
+
+	/** The highest number of waiting updates. */
+	private static int m_maxPendingCount = 0;
+
+	/** The number of updates dispatched. */
+	private static long m_dispatchedCount = 0;
+
+	/** The number of updates replaced or joined by a later one. */
+	private static long m_coalescedCount = 0;
+
+	/** The number of tasks which applied the waiting updates. */
+	private static long m_batchCount = 0;
+
+	/**
+	 * Dispatches an update, which is applied after the waiting ones.
+	 * @param update The update.
+	 */
+	public static void dispatch(Runnable update) {
+		dispatch(null, update);
+	}
+
+	/**
+	 * Dispatches an update, which replaces the waiting update with
+	 * the same key, and is applied after the waiting ones.
+	 * @param key The key of the subject of the update, or null.
+	 * @param update The update.
+	 */
+	public static synchronized void dispatch(Object key, Runnable update) {
+		m_dispatchedCount++;
+
+		// Dropping the replaced update
+		if(key != null) {
+			Update replaced = m_keyedUpdates.get(key);
+			if(replaced != null) {
+				replaced.m_action = null;
+				m_pendingCount--;
+				m_coalescedCount++;
+			}
+		}
+
+		// Queuing the update
+		Update entry = new Update(update);
+		if(key != null) {
+			m_keyedUpdates.put(key, entry);
+		}
+		add(entry);
+	}
+
+	/**
+	 * Dispatches a message, which is joined to the waiting message
+	 * with the same key, and passed to the target in one piece.
+	 * @param key The key of the target.
+	 * @param message The message.
+	 * @param target The consumer of the message, displaying it.
+	 */
+	public static synchronized void dispatchMessage(Object key, String message, Consumer<String> target) {
+		m_dispatchedCount++;
+
+		// Joining the waiting message
+		Update waiting = m_keyedUpdates.get(key);
+		if(waiting != null && waiting.m_message != null) {
+			waiting.m_message.append('\n').append(message);
+			m_coalescedCount++;
+			return;
+		}
+
+		// Queuing the message
+		Update entry = new Update(new StringBuilder(message), target);
+		m_keyedUpdates.put(key, entry);
+		add(entry);
+	}
+
+	/**
+	 * Returns the number of updates waiting to be applied.
+	 * @return The number of waiting updates.
+	 */
+	public static synchronized int getPendingCount() {
+		return m_pendingCount;
+	}
+
+	/**
+	 * Returns the highest number of updates which were waiting at once.
+	 * @return The highest number of waiting updates.
+	 */
+	public static synchronized int getMaxPendingCount() {
+		return m_maxPendingCount;
+	}
+
+	/**
+	 * Returns the number of updates dispatched.
+	 * @return The number of dispatched updates.
+	 */
+	public static synchronized long getDispatchedCount() {
+		return m_dispatchedCount;
+	}
+
+	/**
+	 * Returns the number of updates replaced or joined by a later update.
+	 * @return The number of coalesced updates.
+	 */
+	public static synchronized long getCoalescedCount() {
+		return m_coalescedCount;
+	}
+
+	/**
+	 * Returns the number of tasks which applied the waiting updates.
+	 * @return The number of applied batches.
+	 */
+	public static synchronized long getBatchCount() {
+		return m_batchCount;
+	}
+
+	/**
+	 * Queues an update, and schedules the task applying the
+	 * waiting updates if it is not scheduled yet.
+	 * @param entry The update.
+	 */
+	private static void add(Update entry) {
+		m_updates.add(entry);
+		m_pendingCount++;
+		if(m_pendingCount > m_maxPendingCount) {
+			m_maxPendingCount = m_pendingCount;
+		}
+		if(!m_scheduled) {
+			m_scheduled = true;
+			Platform.runLater(new Runnable() {
+				public void run() {
+					apply();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Applies the waiting updates on the JavaFX application thread.
+	 * Updates dispatched meanwhile are applied by the next task.
+	 */
+	private static void apply() {
+		// Taking the waiting updates
+		List<Update> updates;
+		synchronized(UpdateDispatcher.class) {
+			updates = m_updates;
+			m_updates = new ArrayList<Update>();
+			m_keyedUpdates.clear();
+			m_pendingCount = 0;
+			m_scheduled = false;
+			m_batchCount++;
+		}
+
+		// Applying the updates, a failing one does not stop the others
+		for(Update update : updates) {
+			try {
+				update.apply();
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The Update class stores a waiting update.
+	 */
+	private static class Update {
+		/** The update, or null if it was replaced. */
+		private Runnable m_action;
+
+		/** The joined messages, or null. */
+		private StringBuilder m_message;
+
+		/** The consumer of the joined messages. */
+		private Consumer<String> m_target;
+
+		/**
+		 * Constructs an Update object.
+		 * @param action The update.
+		 */
+		private Update(Runnable action) {
+			m_action = action;
+		}
+
+		/**
+		 * Constructs an Update object passing messages to a consumer.
+		 * @param message The first message.
+		 * @param target The consumer of the messages.
+		 */
+		private Update(StringBuilder message, Consumer<String> target) {
+			m_message = message;
+			m_target = target;
+		}
+
+		/**
+		 * Applies the update.
+		 */
+		private void apply() {
+			if(m_action != null) {
+				m_action.run();
+			} else if(m_message != null) {
+				m_target.accept(m_message.toString());
+			}
+		}
+	};
+
+};
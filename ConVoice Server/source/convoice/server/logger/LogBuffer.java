@@ -0,0 +1,103 @@
+package convoice.server.logger;
+
+
+// Java imports
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The LogBuffer class is a bounded ring buffer passing log events from
+ * any number of producer threads to a single consumer thread, without
+ * locking.
+ * A producer claims a slot by advancing the tail with a compare-and-set,
+ * as long as the slot was already released by the consumer, then
+ * publishes the event into the slot. The consumer takes the event at the
+ * head, clears the slot and advances the head. An event offered to a
+ * full buffer is rejected, and the caller decides whether to drop it.
+ */
+public class LogBuffer {
+	/** The slots of the events. */
+	private final AtomicReferenceArray<LogEvent> m_slots;
+
+	/** The mask of the slot indices, the capacity minus one. */
+	private final int m_mask;
+
+	/** The sequence of the next slot to claim. */
+	private final AtomicLong m_tail;
+
+	/** The sequence of the next slot to consume, only written by the consumer. */
+	private volatile long m_head;
+
+	/**
+	 * Constructs a LogBuffer object.
+	 * @param capacity The number of slots, rounded up to a power of two.
+	 */
+	public LogBuffer(int capacity) {
+		// Initializing members
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		m_slots = new AtomicReferenceArray<LogEvent>(size);
+		m_mask = size - 1;
+		m_tail = new AtomicLong(0);
+		m_head = 0;
+	}
+
+	/**
+	 * Adds an event to the buffer.
+	 * @param event The event to add.
+	 * @return True if the event was added, false if the buffer is full.
+	 */
+	public boolean offer(LogEvent event) {
+		while(true) {
+			long tail = m_tail.get();
+			if(tail - m_head > m_mask) {
+				return false;
+			}
+			if(m_tail.compareAndSet(tail, tail + 1)) {
+				m_slots.set((int) tail & m_mask, event);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next event from the buffer. Only called by the consumer.
+	 * @return The next event, or null if the buffer is empty or the next
+	 * event is not published yet.
+	 */
+	public LogEvent poll() {
+		int index = (int) m_head & m_mask;
+		LogEvent event = m_slots.get(index);
+		if(event != null) {
+			m_slots.lazySet(index, null);
+			m_head = m_head + 1;
+		}
+		return event;
+	}
+
+	/**
+	 * Returns the sequence of the next slot to claim, the number of
+	 * events ever added to the buffer.
+	 * @return The sequence of the tail.
+	 */
+	public long getTail() {
+		return m_tail.get();
+	}
+
+	/**
+	 * Returns the sequence of the next slot to consume, the number of
+	 * events ever taken from the buffer.
+	 * @return The sequence of the head.
+	 */
+	public long getHead() {
+		return m_head;
+	}
+
+	/**
+	 * Returns whether the buffer is empty.
+	 * @return True if every claimed slot is consumed.
+	 */
+	public boolean isEmpty() {
+		return m_head == m_tail.get();
+	}
+
+};
@@ -0,0 +1,51 @@
+package convoice.server.logger;
+
+
+/**
+ * The LogChannel enum represents the logs of the server.
+ * Every channel has it's own Logger and output on the
+ * user interface.
+ */
+public enum LogChannel {
+	/** General logs. */
+	MAIN("mainLogger", "main"),
+
+	/** Connection logs. */
+	CONNECTIONS("connectionsLogger", "connections"),
+
+	/** Member logs. */
+	MEMBERS("membersLogger", "members");
+
+	/** The name of the Logger of the channel. */
+	private final String m_loggerName;
+
+	/** The short name of the channel in log files. */
+	private final String m_name;
+
+	/**
+	 * Constructs a LogChannel enum value.
+	 * @param loggerName The name of the Logger of the channel.
+	 * @param name The short name of the channel.
+	 */
+	LogChannel(String loggerName, String name) {
+		m_loggerName = loggerName;
+		m_name = name;
+	}
+
+	/**
+	 * Returns the name of the Logger of the channel.
+	 * @return The name of the Logger.
+	 */
+	public String getLoggerName() {
+		return m_loggerName;
+	}
+
+	/**
+	 * Returns the short name of the channel.
+	 * @return The short name of the channel.
+	 */
+	public String toString() {
+		return m_name;
+	}
+
+};
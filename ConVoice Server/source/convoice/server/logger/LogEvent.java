@@ -0,0 +1,109 @@
+package convoice.server.logger;
+
+
+// Java imports
+import java.util.logging.Level;
+
+/**
+ * The LogEvent class represents a log message waiting in the LogBuffer.
+ * The message is stored as a pattern and it's arguments, and is only
+ * formatted by the consumer thread when a sink needs it, so logging
+ * costs the caller no string building. Every "{}" in the pattern is
+ * replaced by the next argument.
+ */
+public class LogEvent {
+	/** The channel of the event. */
+	private final LogChannel m_channel;
+
+	/** The severity of the event. */
+	private final Level m_level;
+
+	/** The time of the event in milliseconds. */
+	private final long m_time;
+
+	/** The pattern of the message. */
+	private final String m_pattern;
+
+	/** The arguments of the pattern. */
+	private final Object[] m_args;
+
+	/** The formatted message, created when first needed. */
+	private String m_message;
+
+	/**
+	 * Constructs a LogEvent object.
+	 * @param channel The channel of the event.
+	 * @param level The severity of the event.
+	 * @param pattern The pattern of the message.
+	 * @param args The arguments of the pattern.
+	 */
+	public LogEvent(LogChannel channel, Level level, String pattern, Object[] args) {
+		// Initializing members
+		m_channel = channel;
+		m_level = level;
+		m_time = System.currentTimeMillis();
+		m_pattern = pattern;
+		m_args = args;
+		m_message = null;
+	}
+
+	/**
+	 * Returns the channel of the event.
+	 * @return The channel of the event.
+	 */
+	public LogChannel getChannel() {
+		return m_channel;
+	}
+
+	/**
+	 * Returns the severity of the event.
+	 * @return The severity of the event.
+	 */
+	public Level getLevel() {
+		return m_level;
+	}
+
+	/**
+	 * Returns the time of the event.
+	 * @return The time of the event in milliseconds.
+	 */
+	public long getTime() {
+		return m_time;
+	}
+
+	/**
+	 * Returns the message of the event, formatting it when first called.
+	 * Only called by the consumer thread.
+	 * @return The formatted message.
+	 */
+	public String getMessage() {
+		if(m_message == null) {
+			m_message = format(m_pattern, m_args);
+		}
+		return m_message;
+	}
+
+	/**
+	 * Replaces every "{}" of a pattern by the next argument.
+	 * @param pattern The pattern.
+	 * @param args The arguments, or null.
+	 * @return The formatted message.
+	 */
+	private static String format(String pattern, Object[] args) {
+		if(args == null || args.length == 0) {
+			return pattern;
+		}
+		StringBuilder builder = new StringBuilder(pattern.length() + 16 * args.length);
+		int start = 0;
+		for(Object arg : args) {
+			int index = pattern.indexOf("{}", start);
+			if(index < 0) {
+				break;
+			}
+			builder.append(pattern, start, index).append(arg);
+			start = index + 2;
+		}
+		return builder.append(pattern, start, pattern.length()).toString();
+	}
+
+};
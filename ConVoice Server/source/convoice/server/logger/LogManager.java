@@ -2,43 +2,188 @@ package convoice.server.logger;
 
 
 // Java imports
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // Project imports
-import convoice.server.gui.GUIController;
+import convoice.server.server.Server;
 
 /**
  * The LogManager class is responsible for creating and maintaining
  * the state of the application Loggers, and provide an interface
  * trough which the Loggers are available to the rest of the application.
- * It also has decorator functions which forward log messages to the 
- * graphical user interface.
+ * Logging is asynchronous: the log functions only add an event to a
+ * lock-free LogBuffer, and a consumer thread formats the messages and
+ * passes them to the sinks, the Loggers, the optional log file and the
+ * sinks added by other components, like the user interface. Messages
+ * can be given as a pattern with "{}" placeholders and arguments, which
+ * are only formatted by the consumer.
+ * The consumer parks while the buffer is empty, and is unparked by the
+ * next event.
+ * When the sinks can not keep up and the buffer is full, events are
+ * dropped according to the LogOverflowPolicy, and the number of dropped
+ * events is logged once the buffer has room again.
  */
 public class LogManager {
+	/** The number of events the buffer holds. */
+	private static final int BUFFER_CAPACITY = 8192;
+
 	/** The Logger for general logs. */
-	private static Logger m_mainLogger;			
-	
+	private static Logger m_mainLogger;
+
 	/** The Logger for connection logs. */
-	private static Logger m_connectionsLogger;	
-	
+	private static Logger m_connectionsLogger;
+
 	/** The Logger for member logs. */
-	private static Logger m_membersLogger;		
-	
+	private static Logger m_membersLogger;
+
+	/** The buffer of the events waiting for the consumer. */
+	private static LogBuffer m_buffer;
+
+	/** The sinks of the events, replaced when the sinks change. */
+	private static volatile List<LogSink> m_sinks;
+
+	/** The sink passing the events to the Loggers. */
+	private static LogSink m_loggerSink;
+
+	/** The sink of the log file, or null. */
+	private static LogSink m_fileSink;
+
+	/** The sinks added by other components. */
+	private static List<LogSink> m_addedSinks;
+
+	/** The removed sinks, closed by the consumer. */
+	private static List<LogSink> m_retiredSinks;
+
+	/** The policy of the full buffer. */
+	private static volatile LogOverflowPolicy m_overflowPolicy;
+
+	/** The number of dropped events. */
+	private static AtomicLong m_dropped;
+
+	/** The consumer thread. */
+	private static Thread m_consumer;
+
+	/** Is the consumer parked, or about to park? */
+	private static volatile boolean m_idle;
+
+	/** The number of events written and flushed by the sinks, guarded by m_flushLock. */
+	private static long m_flushed;
+
+	/** The lock flush() waits on for the consumer to acknowledge the flushed events. */
+	private static Object m_flushLock;
+
 	/**
 	 * Static initializer which instantiates the Loggers
-	 * for the application.
+	 * for the application, and starts the consumer thread.
 	 */
 	static {
 		// Initializing members
-		m_mainLogger = Logger.getLogger("mainLogger");
-		m_connectionsLogger = Logger.getLogger("connectionsLogger");
-		m_membersLogger = Logger.getLogger("membersLogger");
-		
+		m_mainLogger = Logger.getLogger(LogChannel.MAIN.getLoggerName());
+		m_connectionsLogger = Logger.getLogger(LogChannel.CONNECTIONS.getLoggerName());
+		m_membersLogger = Logger.getLogger(LogChannel.MEMBERS.getLoggerName());
+		m_buffer = new LogBuffer(BUFFER_CAPACITY);
+		m_loggerSink = new LoggerSink(new Logger[] { m_mainLogger, m_connectionsLogger, m_membersLogger });
+		m_fileSink = null;
+		m_addedSinks = new ArrayList<LogSink>();
+		m_retiredSinks = new ArrayList<LogSink>();
+		updateSinks();
+		m_overflowPolicy = LogOverflowPolicy.DROP;
+		m_dropped = new AtomicLong(0);
+		m_idle = false;
+		m_flushed = 0;
+		m_flushLock = new Object();
+
 		// Setting global logging level
 		setGlobalLoggingLevel(Level.SEVERE);
+
+		// Starting the consumer thread
+		m_consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "Log consumer");
+		m_consumer.setDaemon(true);
+		m_consumer.start();
+
+		// Writing the remaining events on exit
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
 	}
-	
+
+	/**
+	 * Loads the logging configuration from the global Server properties.
+	 * The log file is written if the "logFile" property is set, and
+	 * rolled at "logFileLimit" bytes keeping "logFileCount" files.
+	 */
+	public static void loadConfiguration() {
+		// Reading the logging level and the overflow policy
+		try {
+			setGlobalLoggingLevel(Level.parse(Server.getProperties().getProperty("logLevel", "SEVERE")));
+		} catch(IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+		m_overflowPolicy = LogOverflowPolicy.fromString(Server.getProperties().getProperty("logOverflowPolicy", "drop"));
+
+		// Opening the log file
+		RollingFileSink fileSink = null;
+		String fileName = Server.getProperties().getProperty("logFile", "").trim();
+		if(!fileName.isEmpty()) {
+			try {
+				fileSink = new RollingFileSink(fileName,
+						Level.parse(Server.getProperties().getProperty("logFileLevel", "INFO")),
+						Long.parseLong(Server.getProperties().getProperty("logFileLimit", "10485760")),
+						Integer.parseInt(Server.getProperties().getProperty("logFileCount", "5")));
+			} catch(IOException e) {
+				e.printStackTrace();
+			} catch(IllegalArgumentException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Replacing the log file, the old one is closed by the consumer
+		synchronized(LogManager.class) {
+			if(m_fileSink != null) {
+				m_retiredSinks.add(m_fileSink);
+			}
+			m_fileSink = fileSink;
+			updateSinks();
+		}
+
+		// Logging
+		addMainLog(Level.CONFIG, "Logging configuration loaded.");
+	}
+
+	/**
+	 * Adds a sink, which receives every event logged from now on.
+	 * @param sink The sink to add.
+	 */
+	public static synchronized void addSink(LogSink sink) {
+		m_addedSinks.add(sink);
+		updateSinks();
+	}
+
+	/**
+	 * Removes a sink added by addSink. The sink is closed by the consumer.
+	 * @param sink The sink to remove.
+	 */
+	public static synchronized void removeSink(LogSink sink) {
+		if(m_addedSinks.remove(sink)) {
+			m_retiredSinks.add(sink);
+			updateSinks();
+		}
+	}
+
 	/**
 	 * Gets the general purpose Logger instance.
 	 * @return The general purpose Logger.
@@ -46,7 +191,7 @@ public class LogManager {
 	public static Logger getMainLogger() {
 		return m_mainLogger;
 	}
-	
+
 	/**
 	 * Gets the connections Logger instance.
 	 * @return The connections Logger.
@@ -54,7 +199,7 @@ public class LogManager {
 	public static Logger getConnectionsLogger() {
 		return m_connectionsLogger;
 	}
-	
+
 	/**
 	 * Gets the members Logger instance.
 	 * @return The members Logger.
@@ -62,46 +207,40 @@ public class LogManager {
 	public static Logger getMembersLogger() {
 		return m_membersLogger;
 	}
-	
+
 	/**
-	 * Adds a log message with the specified severity to the 
-	 * general purpose Logger, and display it on the user interface.
+	 * Adds a log message with the specified severity to the
+	 * general purpose Logger, and the other sinks.
 	 * @param level The severity of the log.
-	 * @param msg The log message.
+	 * @param msg The log message, "{}" is replaced by the next argument.
+	 * @param args The arguments of the message.
 	 */
-	public static void addMainLog(Level level, String msg) {
-		GUIController.addLogsOutputMessage(msg);
-		synchronized(m_mainLogger) {
-			m_mainLogger.log(level, msg);
-		}
+	public static void addMainLog(Level level, String msg, Object... args) {
+		log(LogChannel.MAIN, level, msg, args);
 	}
-	
+
 	/**
-	 * Adds a log message with the specified severity to the 
-	 * connections Logger, and display it on the user interface.
+	 * Adds a log message with the specified severity to the
+	 * connections Logger, and the other sinks.
 	 * @param level The severity of the log.
-	 * @param msg The log message.
+	 * @param msg The log message, "{}" is replaced by the next argument.
+	 * @param args The arguments of the message.
 	 */
-	public static void addConnectionsLog(Level level, String msg) {
-		GUIController.addConnectionsOutputMessage(msg);
-		synchronized(m_connectionsLogger) {
-			m_connectionsLogger.log(level, msg);
-		}
+	public static void addConnectionsLog(Level level, String msg, Object... args) {
+		log(LogChannel.CONNECTIONS, level, msg, args);
 	}
-	
+
 	/**
-	 * Adds a log message with the specified severity to the 
-	 * members Logger, and display it on the user interface.
+	 * Adds a log message with the specified severity to the
+	 * members Logger, and the other sinks.
 	 * @param level The severity of the log.
-	 * @param msg The log message.
+	 * @param msg The log message, "{}" is replaced by the next argument.
+	 * @param args The arguments of the message.
 	 */
-	public static void addMembersLog(Level level, String msg) {
-		GUIController.addMembersOutputMessage(msg);
-		synchronized(m_membersLogger) {
-			m_membersLogger.log(level, msg);
-		}	
+	public static void addMembersLog(Level level, String msg, Object... args) {
+		log(LogChannel.MEMBERS, level, msg, args);
 	}
-	
+
 	/**
 	 * Sets the logging level for all Loggers.
 	 * @param level The severity level to set for the Loggers.
@@ -111,5 +250,167 @@ public class LogManager {
 		m_connectionsLogger.setLevel(level);
 		m_membersLogger.setLevel(level);
 	}
-	
+
+	/**
+	 * Returns the number of log events dropped because the buffer was full.
+	 * @return The number of dropped events.
+	 */
+	public static long getDroppedCount() {
+		return m_dropped.get();
+	}
+
+	/**
+	 * Waits until the consumer has passed every event logged so far to
+	 * the sinks, and the sinks have flushed them.
+	 */
+	public static void flush() {
+		long target = m_buffer.getTail();
+		LockSupport.unpark(m_consumer);
+		synchronized(m_flushLock) {
+			while(m_flushed < target && m_consumer.isAlive()) {
+				try {
+					m_flushLock.wait(100);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds an event to the buffer, applying the overflow policy
+	 * if the buffer is full.
+	 * @param channel The channel of the event.
+	 * @param level The severity of the event.
+	 * @param msg The pattern of the message.
+	 * @param args The arguments of the message.
+	 */
+	private static void log(LogChannel channel, Level level, String msg, Object[] args) {
+		LogEvent event = new LogEvent(channel, level, msg, args);
+		if(m_buffer.offer(event)) {
+			wakeConsumer();
+			return;
+		}
+
+		// Waiting for room for warnings and errors if configured
+		if(m_overflowPolicy == LogOverflowPolicy.KEEP_WARNINGS && level.intValue() >= Level.WARNING.intValue()
+				&& Thread.currentThread() != m_consumer) {
+			while(!m_buffer.offer(event)) {
+				Thread.yield();
+			}
+			wakeConsumer();
+			return;
+		}
+
+		// Dropping the event
+		m_dropped.incrementAndGet();
+	}
+
+	/**
+	 * Unparks the consumer if it is idle. The consumer checks the buffer
+	 * again after announcing to be idle, so an event added meanwhile is
+	 * not missed.
+	 */
+	private static void wakeConsumer() {
+		if(m_idle) {
+			LockSupport.unpark(m_consumer);
+		}
+	}
+
+	/**
+	 * Runs the consumer thread, which passes the events to the sinks.
+	 * The sinks are flushed whenever the buffer has been drained, then
+	 * the flushed events are acknowledged to the waiting flush() calls.
+	 */
+	private static void consume() {
+		long reported = 0;
+		while(true) {
+			List<LogSink> sinks = m_sinks;
+			long head = m_buffer.getHead();
+			LogEvent event = m_buffer.poll();
+			if(event != null) {
+				write(sinks, event);
+				continue;
+			}
+
+			// Reporting the dropped events
+			long dropped = m_dropped.get();
+			if(dropped != reported) {
+				LogEvent report = new LogEvent(LogChannel.MAIN, Level.WARNING,
+						"{} log messages dropped, the log buffer was full.", new Object[] { dropped - reported });
+				write(sinks, report);
+				reported = dropped;
+			}
+
+			// Flushing the sinks, closing the replaced ones
+			for(LogSink sink : sinks) {
+				try {
+					sink.flush();
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			List<LogSink> retired = null;
+			synchronized(LogManager.class) {
+				if(!m_retiredSinks.isEmpty()) {
+					retired = m_retiredSinks;
+					m_retiredSinks = new ArrayList<LogSink>();
+				}
+			}
+			if(retired != null) {
+				for(LogSink sink : retired) {
+					try {
+						sink.close();
+					} catch(RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			// Acknowledging the flushed events
+			synchronized(m_flushLock) {
+				m_flushed = head;
+				m_flushLock.notifyAll();
+			}
+
+			// Sleeping until new events arrive
+			m_idle = true;
+			if(m_buffer.isEmpty()) {
+				LockSupport.park();
+			}
+			m_idle = false;
+		}
+	}
+
+	/**
+	 * Passes an event to the sinks. A failing sink does not
+	 * stop the consumer thread or the other sinks.
+	 * @param sinks The sinks.
+	 * @param event The event.
+	 */
+	private static void write(List<LogSink> sinks, LogEvent event) {
+		for(LogSink sink : sinks) {
+			try {
+				sink.write(event);
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the list of sinks read by the consumer.
+	 * Only called while holding the lock of the LogManager.
+	 */
+	private static void updateSinks() {
+		List<LogSink> sinks = new ArrayList<LogSink>();
+		sinks.add(m_loggerSink);
+		if(m_fileSink != null) {
+			sinks.add(m_fileSink);
+		}
+		sinks.addAll(m_addedSinks);
+		m_sinks = sinks;
+	}
+
 };
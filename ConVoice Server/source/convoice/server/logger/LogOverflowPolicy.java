@@ -0,0 +1,51 @@
+package convoice.server.logger;
+
+
+/**
+ * The LogOverflowPolicy enum represents the strategies of the LogManager
+ * when the LogBuffer is full, because the sinks can not keep up.
+ * The policy is selected with the "logOverflowPolicy" property of the
+ * server configuration, dropped events are counted either way.
+ */
+public enum LogOverflowPolicy {
+	/** Every event arriving at a full buffer is dropped. */
+	DROP("drop"),
+
+	/** Warnings and errors wait for free space, other events are dropped. */
+	KEEP_WARNINGS("keepWarnings");
+
+	/** The String representation of the enum value. */
+	private final String m_value;
+
+	/**
+	 * Constructs a LogOverflowPolicy enum value.
+	 * @param value The String representation of the value.
+	 */
+	LogOverflowPolicy(String value) {
+		m_value = value;
+	}
+
+	/**
+	 * Returns the String representation of the value.
+	 * @return The String representation of the value.
+	 */
+	public String toString() {
+		return m_value;
+	}
+
+	/**
+	 * Returns the enum value with the specified String representation.
+	 * Unknown values fall back to dropping.
+	 * @param value The String representation of the value.
+	 * @return The enum value.
+	 */
+	public static LogOverflowPolicy fromString(String value) {
+		for(LogOverflowPolicy policy : LogOverflowPolicy.values()) {
+			if(policy.m_value.equalsIgnoreCase(value.trim())) {
+				return policy;
+			}
+		}
+		return DROP;
+	}
+
+};
@@ -0,0 +1,27 @@
+package convoice.server.logger;
+
+
+/**
+ * The LogSink interface is implemented by the destinations of the log
+ * events. Sinks are only called by the consumer thread of the LogManager,
+ * so they need no synchronization.
+ */
+public interface LogSink {
+
+	/**
+	 * Writes an event to the sink.
+	 * @param event The event to write.
+	 */
+	void write(LogEvent event);
+
+	/**
+	 * Flushes the written events, called when the buffer has been drained.
+	 */
+	void flush();
+
+	/**
+	 * Closes the sink, called when the LogManager replaces or stops it.
+	 */
+	void close();
+
+};
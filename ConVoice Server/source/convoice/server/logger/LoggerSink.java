@@ -0,0 +1,43 @@
+package convoice.server.logger;
+
+
+// Java imports
+import java.util.logging.Logger;
+
+/**
+ * The LoggerSink class forwards log events to the Loggers of their
+ * channels, so handlers configured for the Loggers keep working.
+ * The message is only formatted if the Logger accepts the level.
+ */
+public class LoggerSink implements LogSink {
+	/** The Loggers of the channels, indexed by the ordinal of the channel. */
+	private Logger[] m_loggers;
+
+	/**
+	 * Constructs a LoggerSink object.
+	 * @param loggers The Loggers of the channels, indexed by the ordinal of the channel.
+	 */
+	public LoggerSink(Logger[] loggers) {
+		// Initializing members
+		m_loggers = loggers;
+	}
+
+	@Override
+	public void write(LogEvent event) {
+		Logger logger = m_loggers[event.getChannel().ordinal()];
+		if(logger.isLoggable(event.getLevel())) {
+			logger.log(event.getLevel(), event.getMessage());
+		}
+	}
+
+	@Override
+	public void flush() {
+		// Handlers of the Loggers flush themselves
+	}
+
+	@Override
+	public void close() {
+		// The Loggers are not owned by the sink
+	}
+
+};
@@ -0,0 +1,147 @@
+package convoice.server.logger;
+
+
+// Java imports
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+
+/**
+ * The RollingFileSink class writes log events to a log file.
+ * When the file grows over the size limit it is rolled: the older
+ * files are renamed by adding a number to their name, "server.log"
+ * becomes "server.log.1", and the oldest file is deleted. Lines are
+ * buffered and written to the disk when the LogManager drained it's
+ * buffer, so a burst of events costs a single write.
+ */
+public class RollingFileSink implements LogSink {
+	/** The name of the log file. */
+	private String m_fileName;
+
+	/** The lowest level written to the file. */
+	private Level m_level;
+
+	/** The size of the file in bytes which causes rolling. */
+	private long m_limit;
+
+	/** The number of files kept, including the current one. */
+	private int m_count;
+
+	/** The writer of the current file. */
+	private Writer m_writer;
+
+	/** The size of the current file in bytes. */
+	private long m_size;
+
+	/** The format of the time of the events. */
+	private SimpleDateFormat m_dateFormat;
+
+	/** The reused date of the events. */
+	private Date m_date;
+
+	/**
+	 * Constructs a RollingFileSink object, opening the log file.
+	 * @param fileName The name of the log file.
+	 * @param level The lowest level written to the file.
+	 * @param limit The size of the file in bytes which causes rolling.
+	 * @param count The number of files kept, including the current one.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public RollingFileSink(String fileName, Level level, long limit, int count) throws IOException {
+		// Initializing members
+		m_fileName = fileName;
+		m_level = level;
+		m_limit = limit;
+		m_count = Math.max(1, count);
+		m_dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		m_date = new Date();
+		open();
+	}
+
+	@Override
+	public void write(LogEvent event) {
+		if(m_writer == null || event.getLevel().intValue() < m_level.intValue()) {
+			return;
+		}
+		try {
+			// Formatting the line
+			m_date.setTime(event.getTime());
+			String line = m_dateFormat.format(m_date) + " " + event.getLevel().getName() + " [" + event.getChannel() + "] " 
+					+ event.getMessage() + System.lineSeparator();
+			m_writer.write(line);
+			m_size += line.length();
+
+			// Rolling the file
+			if(m_size >= m_limit) {
+				roll();
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void flush() {
+		if(m_writer == null) {
+			return;
+		}
+		try {
+			m_writer.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() {
+		if(m_writer == null) {
+			return;
+		}
+		try {
+			m_writer.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		m_writer = null;
+	}
+
+	/**
+	 * Opens the log file for appending.
+	 * @throws IOException If the file could not be opened.
+	 */
+	private void open() throws IOException {
+		File file = new File(m_fileName);
+		m_size = file.length();
+		m_writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 65536);
+	}
+
+	/**
+	 * Renames the log files and opens a new one.
+	 * @throws IOException If the new file could not be opened.
+	 */
+	private void roll() throws IOException {
+		m_writer.close();
+		m_writer = null;
+
+		// Shifting the older files, deleting the oldest
+		new File(m_fileName + "." + (m_count - 1)).delete();
+		for(int i = m_count - 2; i >= 1; i--) {
+			new File(m_fileName + "." + i).renameTo(new File(m_fileName + "." + (i + 1)));
+		}
+		if(m_count > 1) {
+			new File(m_fileName).renameTo(new File(m_fileName + ".1"));
+		} else {
+			new File(m_fileName).delete();
+		}
+
+		open();
+	}
+
+};
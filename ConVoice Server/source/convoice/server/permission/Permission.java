@@ -0,0 +1,50 @@
+package convoice.server.permission;
+
+
+/**
+ * The Permission enum represents the actions users need a
+ * permission for.
+ * Every permission has a bit in the permission masks of users.
+ * Permissions are configured per role with properties named after
+ * the role and the permission, like "guestCanDeleteChannel".
+ */
+public enum Permission {
+	/** Creating a channel. */
+	CREATE_CHANNEL("CanCreateChannel"),
+
+	/** Modifying a channel. */
+	MODIFY_CHANNEL("CanModifyChannel"),
+
+	/** Deleting a channel. */
+	DELETE_CHANNEL("CanDeleteChannel");
+
+	/** The name of the permission in property names. */
+	private final String m_name;
+
+	/**
+	 * Constructs a Permission enum value.
+	 * @param name The name of the permission in property names.
+	 */
+	Permission(String name) {
+		m_name = name;
+	}
+
+	/**
+	 * Returns the bit of the permission in permission masks.
+	 * @return The mask with only the bit of the permission set.
+	 */
+	public int getMask() {
+		return 1 << ordinal();
+	}
+
+	/**
+	 * Returns the name of the property configuring the permission
+	 * for a role.
+	 * @param role The role.
+	 * @return The name of the property.
+	 */
+	public String getPropertyName(Role role) {
+		return role + m_name;
+	}
+
+};
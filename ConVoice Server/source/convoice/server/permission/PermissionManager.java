@@ -2,13 +2,15 @@ package convoice.server.permission;
 
 
 // Java imports
-import java.util.Set;
-import java.util.HashSet;
+import java.util.Properties;
 import java.util.logging.Level;
 
 // Project imports
 import convoice.server.logger.LogManager;
 import convoice.server.server.Server;
+import convoice.server.user.User;
+import convoice.server.user.UserManager;
+import convoice.server.util.IntMap;
 
 /**
  * The PermissionManager class is responsible for registering
@@ -19,58 +21,35 @@ import convoice.server.server.Server;
  * user ID for specific actions.
  * The PermissionManager has only static fields and methods,
  * making it easily available to the rest of the application.
- * It's behavior is similar to a Singleton.
+ * It's behavior is similar to a Singleton. The permissions of a
+ * user are computed from the PermissionPolicy when it registers,
+ * and are held by the User as a mask, so a permission check reads
+ * the mask and tests a bit. Reloading the configuration replaces
+ * the policy and recomputes the masks, without blocking checks.
  */
 public class PermissionManager {
-	/** The set of user IDs with member rights. */
-	private static Set<Integer> m_members;		
+	/** The current permission policy. */
+	private static volatile PermissionPolicy m_policy;
 	
-	/** The set of user IDs with guest rights. */
-	private static Set<Integer> m_guests;				
-	
-	/** Channel creation right for members. */
-	private static boolean m_memberCanCreateChannel;	
-	
-	/** Channel modification right for members. */
-	private static boolean m_memberCanModifyChannel;	
-	
-	/** Channel deletion right for members. */
-	private static boolean m_memberCanDeleteChannel;	
-	
-	/** Channel creation right for guests. */
-	private static boolean m_guestCanCreateChannel;		
-
-	/** Channel modification right for guests. */
-	private static boolean m_guestCanModifyChannel;		
-	
-	/** Channel deletion right for guests. */
-	private static boolean m_guestCanDeleteChannel;		
+	/** The lock of registering users and replacing the policy. */
+	private static final Object m_lock = new Object();
 	
 	/**
 	 * Initializes the PermissionManager.
 	 */
 	static {
 		// Initializing members
-		m_members = new HashSet<Integer>();
-		m_guests = new HashSet<Integer>();
+		m_policy = PermissionPolicy.load(new Properties());
 	}
 	
 	/**
-	 * Resets the PermissionManager by clearing the set of
-	 * registered online members and guests. No shutdown operations
-	 * are performed by this method and may be only used when the
-	 * server is not running.
+	 * Resets the PermissionManager to the default permissions.
+	 * No shutdown operations are performed by this method and may
+	 * be only used when the server is not running.
 	 */
 	public static void reset() {
-		// Clearing the set of members
-		synchronized(m_members) {
-			m_members.clear();
-		}
-		
-		// Clearing the set of guests
-		synchronized(m_guests) {
-			m_guests.clear();
-		}
+		// Restoring the default policy
+		m_policy = PermissionPolicy.load(new Properties());
 	}
 	
 	/**
@@ -81,13 +60,8 @@ public class PermissionManager {
 		// Performing manager reset
 		reset();
 		
-		// Reading group permissions
-		m_memberCanCreateChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanCreateChannel", "true"));
-		m_memberCanModifyChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanModifyChannel", "true"));
-		m_memberCanDeleteChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanDeleteChannel", "true"));
-		m_guestCanCreateChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanCreateChannel", "false"));
-		m_guestCanModifyChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanModifyChannel", "false"));
-		m_guestCanDeleteChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanDeleteChannel", "false"));
+		// Reading the permission policy
+		m_policy = PermissionPolicy.load(Server.getProperties());
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Permissions configuration loaded.");
@@ -95,16 +69,28 @@ public class PermissionManager {
 	
 	/**
 	 * Reloads permissions from the global Server properties
-	 * without resetting the manager.
+	 * without resetting the manager. The new policy replaces the
+	 * old one at once, then the masks of the registered users are
+	 * recomputed. Checks in flight see either the old or the new mask.
 	 */
 	public static void reloadConfiguration() {
-		// Reading group permissions
-		m_memberCanCreateChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanCreateChannel", "true"));
-		m_memberCanModifyChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanModifyChannel", "true"));
-		m_memberCanDeleteChannel = Boolean.parseBoolean(Server.getProperties().getProperty("memberCanDeleteChannel", "true"));
-		m_guestCanCreateChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanCreateChannel", "false"));
-		m_guestCanModifyChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanModifyChannel", "false"));
-		m_guestCanDeleteChannel = Boolean.parseBoolean(Server.getProperties().getProperty("guestCanDeleteChannel", "false"));
+		// Reading the permission policy
+		PermissionPolicy policy = PermissionPolicy.load(Server.getProperties());
+		
+		synchronized(m_lock) {
+			// Replacing the policy
+			m_policy = policy;
+			
+			// Recomputing the masks of the registered users
+			IntMap<User> users = UserManager.getAllUsers();
+			for(int i = users.next(-1); i >= 0; i = users.next(i)) {
+				User user = users.valueAt(i);
+				Role role = Role.fromMask(user.getPermissions());
+				if(role != null) {
+					user.setPermissions(policy.getMask(role));
+				}
+			}
+		}
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Permissions configuration reloaded.");
@@ -116,9 +102,7 @@ public class PermissionManager {
 	 * @return True if the user is a guest.
 	 */
 	public static boolean isGuest(int id) {
-		synchronized(m_guests) {
-			return m_guests.contains(id);
-		}
+		return (getMask(id) & Role.GUEST.getMask()) != 0;
 	}
 	
 	/**
@@ -127,9 +111,7 @@ public class PermissionManager {
 	 * @return True if the user is a member.
 	 */
 	public static boolean isMember(int id) {
-		synchronized(m_members) {
-			return m_members.contains(id);
-		}
+		return (getMask(id) & Role.MEMBER.getMask()) != 0;
 	}
 	
 	/**
@@ -137,12 +119,10 @@ public class PermissionManager {
 	 * @param id The ID of the user.
 	 */
 	public static void registerMember(int id) {
-		synchronized(m_members) {
-			m_members.add(id);
-		}
+		register(id, Role.MEMBER);
 		
 		// Logging
-		LogManager.addMembersLog(Level.INFO, "Member ID: " + id + " registered.");
+		LogManager.addMembersLog(Level.INFO, "Member ID: {} registered.", id);
 	}
 	
 	/**
@@ -150,9 +130,7 @@ public class PermissionManager {
 	 * @param id The ID of the user.
 	 */
 	public static void registerGuest(int id) {
-		synchronized(m_guests) {
-			m_guests.add(id);
-		}
+		register(id, Role.GUEST);
 	}
 	
 	/**
@@ -163,64 +141,88 @@ public class PermissionManager {
 	public static void unregister(int id) {
 		// Logging
 		if(isMember(id)) {
-			LogManager.addMembersLog(Level.INFO, "Member ID: " + id + " unregistered.");
+			LogManager.addMembersLog(Level.INFO, "Member ID: {} unregistered.", id);
 		}
 
-		synchronized(m_members) {
-			m_members.remove(id);
-		}
-
-		synchronized(m_guests) {
-			m_guests.remove(id);
+		User user = UserManager.getUser(id);
+		if(user != null) {
+			synchronized(m_lock) {
+				user.setPermissions(0);
+			}
 		}
 	}
 	
+	/**
+	 * Returns whether the user has a permission.
+	 * @param id The ID of the user.
+	 * @param permission The permission.
+	 * @return True if the user has the permission.
+	 */
+	public static boolean hasPermission(int id, Permission permission) {
+		return (getMask(id) & permission.getMask()) != 0;
+	}
+	
+	/**
+	 * Returns whether the user has a permission in a channel, applying
+	 * the overrides of the channel.
+	 * @param id The ID of the user.
+	 * @param channelID The ID of the channel.
+	 * @param permission The permission.
+	 * @return True if the user has the permission in the channel.
+	 */
+	public static boolean hasPermission(int id, int channelID, Permission permission) {
+		return (m_policy.getChannelMask(getMask(id), channelID) & permission.getMask()) != 0;
+	}
+	
 	/**
 	 * Returns whether the user can create a channel or not.
 	 * @param id The ID of the user.
 	 * @return True if the user can create a channel.
 	 */
 	public static boolean canCreateChannel(int id) {
-		if(isMember(id)) {
-			return m_memberCanCreateChannel;
-		}
-		else if(isGuest(id)) {
-			return m_guestCanCreateChannel;
-		} else {
-			return false;
-		}
+		return hasPermission(id, Permission.CREATE_CHANNEL);
 	}
 	
 	/**
 	 * Returns whether the user can modify a channel or not.
 	 * @param id The ID of the user.
-	 * @return True if the user can modify a channel.
+	 * @param channelID The ID of the channel.
+	 * @return True if the user can modify the channel.
 	 */
-	public static boolean canModifyChannel(int id) {
-		if(isMember(id)) {
-			return m_memberCanModifyChannel;
-		}
-		else if(isGuest(id)) {
-			return m_guestCanModifyChannel;
-		} else {
-			return false;
-		}
+	public static boolean canModifyChannel(int id, int channelID) {
+		return hasPermission(id, channelID, Permission.MODIFY_CHANNEL);
 	}
 	
 	/**
 	 * Returns whether the user can delete a channel or not.
 	 * @param id The ID of the user.
-	 * @return True if the user can delete a channel.
+	 * @param channelID The ID of the channel.
+	 * @return True if the user can delete the channel.
 	 */
-	public static boolean canDeleteChannel(int id) {
-		if(isMember(id)) {
-			return m_memberCanDeleteChannel;
-		}
-		else if(isGuest(id)) {
-			return m_guestCanDeleteChannel;
-		} else {
-			return false;
+	public static boolean canDeleteChannel(int id, int channelID) {
+		return hasPermission(id, channelID, Permission.DELETE_CHANNEL);
+	}
+	
+	/**
+	 * Registers a user with a role, computing it's permission mask.
+	 * @param id The ID of the user.
+	 * @param role The role of the user.
+	 */
+	private static void register(int id, Role role) {
+		User user = UserManager.getUser(id);
+		synchronized(m_lock) {
+			user.setPermissions(m_policy.getMask(role));
 		}
 	}
 	
+	/**
+	 * Returns the permission mask of a user.
+	 * @param id The ID of the user.
+	 * @return The mask of the user, or 0 if the user does not exist.
+	 */
+	private static int getMask(int id) {
+		User user = UserManager.getUser(id);
+		return user != null ? user.getPermissions() : 0;
+	}
+	
 };
@@ -0,0 +1,152 @@
+package convoice.server.permission;
+
+
+// Java imports
+import java.util.Properties;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+import convoice.server.util.IntMap;
+
+/**
+ * The PermissionPolicy class holds the permissions of the roles,
+ * and the channels overriding them.
+ * The policy is immutable, a new policy is loaded when the permissions
+ * are reloaded. The permissions of a role are configured with properties
+ * like "memberCanCreateChannel", and can be overridden for a channel by
+ * prefixing the property with the ID of the channel, like
+ * "channel.0.guestCanModifyChannel". Permissions are held as masks of
+ * Permission and Role bits.
+ */
+public class PermissionPolicy {
+	/** The prefix of the properties overriding the permissions of a channel. */
+	public static final String CHANNEL_PREFIX = "channel.";
+
+	/** The masks of the roles, indexed by the ordinal of the role. */
+	private int[] m_masks;
+
+	/** The masks of the roles in the channels with overrides, mapped by channel ID. */
+	private IntMap<int[]> m_overrides;
+
+	/**
+	 * Constructs a PermissionPolicy object.
+	 * @param masks The masks of the roles.
+	 * @param overrides The masks of the roles in the channels with overrides.
+	 */
+	private PermissionPolicy(int[] masks, IntMap<int[]> overrides) {
+		// Initializing members
+		m_masks = masks;
+		m_overrides = overrides.setReadOnly();
+	}
+
+	/**
+	 * Returns the permission mask of a role.
+	 * @param role The role.
+	 * @return The mask of the permissions of the role, including the bit of the role.
+	 */
+	public int getMask(Role role) {
+		return m_masks[role.ordinal()];
+	}
+
+	/**
+	 * Returns the permission mask of a user in a channel, applying
+	 * the overrides of the channel if it has any.
+	 * @param mask The permission mask of the user.
+	 * @param channelID The ID of the channel.
+	 * @return The permission mask of the user in the channel.
+	 */
+	public int getChannelMask(int mask, int channelID) {
+		int[] overrides = m_overrides.get(channelID);
+		if(overrides == null) {
+			return mask;
+		}
+		Role role = Role.fromMask(mask);
+		return role != null ? overrides[role.ordinal()] : 0;
+	}
+
+	/**
+	 * Loads a policy from properties.
+	 * @param properties The properties to load from.
+	 * @return The loaded policy.
+	 */
+	public static PermissionPolicy load(Properties properties) {
+		// Reading the permissions of the roles
+		int[] masks = new int[Role.values().length];
+		for(Role role : Role.values()) {
+			masks[role.ordinal()] = readMask(properties, role);
+		}
+
+		// Reading the overrides of channels
+		IntMap<int[]> overrides = new IntMap<int[]>();
+		for(String name : properties.stringPropertyNames()) {
+			if(!name.startsWith(CHANNEL_PREFIX)) {
+				continue;
+			}
+			int end = name.indexOf('.', CHANNEL_PREFIX.length());
+			if(end < 0) {
+				continue;
+			}
+			int channelID;
+			try {
+				channelID = Integer.parseInt(name.substring(CHANNEL_PREFIX.length(), end));
+			} catch(NumberFormatException e) {
+				LogManager.addMainLog(Level.WARNING, "Invalid permission property: " + name);
+				continue;
+			}
+			if(overrides.containsKey(channelID)) {
+				continue;
+			}
+
+			// Overriding the permissions configured for the channel
+			String prefix = name.substring(0, end + 1);
+			int[] channelMasks = new int[masks.length];
+			for(Role role : Role.values()) {
+				channelMasks[role.ordinal()] = readOverrides(properties, prefix, role, masks[role.ordinal()]);
+			}
+			overrides.put(channelID, channelMasks);
+		}
+
+		return new PermissionPolicy(masks, overrides);
+	}
+
+	/**
+	 * Reads the permissions of a role.
+	 * @param properties The properties to read from.
+	 * @param role The role.
+	 * @return The mask of the role.
+	 */
+	private static int readMask(Properties properties, Role role) {
+		int mask = role.getMask();
+		for(Permission permission : Permission.values()) {
+			String value = properties.getProperty(permission.getPropertyName(role), String.valueOf(role.isGrantedByDefault()));
+			if(Boolean.parseBoolean(value)) {
+				mask |= permission.getMask();
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Reads the overrides of a role in a channel.
+	 * @param properties The properties to read from.
+	 * @param prefix The prefix of the property names of the channel.
+	 * @param role The role.
+	 * @param mask The mask of the role without overrides.
+	 * @return The mask of the role in the channel.
+	 */
+	private static int readOverrides(Properties properties, String prefix, Role role, int mask) {
+		for(Permission permission : Permission.values()) {
+			String value = properties.getProperty(prefix + permission.getPropertyName(role));
+			if(value != null) {
+				if(Boolean.parseBoolean(value)) {
+					mask |= permission.getMask();
+				} else {
+					mask &= ~permission.getMask();
+				}
+			}
+		}
+		return mask;
+	}
+
+};
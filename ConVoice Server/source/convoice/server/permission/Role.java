@@ -0,0 +1,76 @@
+package convoice.server.permission;
+
+
+/**
+ * The Role enum represents the permission groups of users.
+ * Every role has a bit in the permission mask of it's users, next
+ * to the bits of the granted permissions, so the role of a user can
+ * be told from it's mask. The role is also the prefix of the
+ * properties configuring it's permissions, like "memberCanCreateChannel".
+ */
+public enum Role {
+	/** Users logged in without an account. */
+	GUEST("guest", false),
+
+	/** Users logged in with the account of a server member. */
+	MEMBER("member", true);
+
+	/** The first bit of the roles in permission masks, above the permissions. */
+	private static final int FIRST_BIT = 16;
+
+	/** The name of the role, the prefix of it's properties. */
+	private final String m_name;
+
+	/** Are the permissions of the role granted by default? */
+	private final boolean m_grantedByDefault;
+
+	/**
+	 * Constructs a Role enum value.
+	 * @param name The name of the role.
+	 * @param grantedByDefault Are the permissions of the role granted by default?
+	 */
+	Role(String name, boolean grantedByDefault) {
+		m_name = name;
+		m_grantedByDefault = grantedByDefault;
+	}
+
+	/**
+	 * Returns the bit of the role in permission masks.
+	 * @return The mask with only the bit of the role set.
+	 */
+	public int getMask() {
+		return 1 << (FIRST_BIT + ordinal());
+	}
+
+	/**
+	 * Returns whether the permissions of the role are granted
+	 * when they are not configured.
+	 * @return True if the permissions are granted by default.
+	 */
+	public boolean isGrantedByDefault() {
+		return m_grantedByDefault;
+	}
+
+	/**
+	 * Returns the name of the role.
+	 * @return The name of the role.
+	 */
+	public String toString() {
+		return m_name;
+	}
+
+	/**
+	 * Returns the role of a permission mask.
+	 * @param mask The permission mask of a user.
+	 * @return The role, or null if the mask has no role.
+	 */
+	public static Role fromMask(int mask) {
+		for(Role role : Role.values()) {
+			if((mask & role.getMask()) != 0) {
+				return role;
+			}
+		}
+		return null;
+	}
+
+};
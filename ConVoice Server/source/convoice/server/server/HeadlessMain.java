@@ -0,0 +1,68 @@
+package convoice.server.server;
+
+
+// Java imports
+import java.io.File;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.connection.ConnectionManager;
+import convoice.server.logger.LogManager;
+
+/**
+ * The HeadlessMain class is the entry point of the server without
+ * the user interface, for running it as a service. The JavaFX
+ * toolkit is never loaded, the server is configured entirely from
+ * the "server.prop" file of the configuration directory, and the
+ * logs are written to the console and the optional log file.
+ * The configuration directory is the first command line argument,
+ * or the "configs" directory of the working directory. The server
+ * runs until the process is terminated. The changes of channels and
+ * members are kept by the write-ahead logs, the configuration is
+ * only saved on exit if the "saveOnShutdown" property is true.
+ */
+public class HeadlessMain {
+
+	/**
+	 * The entry point of the headless server.
+	 * @param args Command line arguments, the configuration directory.
+	 */
+	public static void main(String[] args) {
+		// Locating the configuration directory
+		String configPath = args.length > 0 ? args[0] : System.getProperty("user.dir") + File.separator + "configs";
+		if(!new File(configPath, "server.prop").isFile()) {
+			System.err.println("Configuration not found: " + new File(configPath, "server.prop").getAbsolutePath());
+			System.exit(1);
+		}
+
+		// Loading the configuration
+		Server.loadConfiguration(configPath);
+
+		// Stopping the server on exit
+		final String path = configPath;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				// Stopping the server
+				if(ConnectionManager.isRunning()) {
+					ConnectionManager.stop();
+				}
+
+				// Saving the configuration
+				if(Boolean.parseBoolean(Server.getProperties().getProperty("saveOnShutdown", "false"))) {
+					Server.saveConfiguration(path);
+				}
+
+				// Writing the remaining logs
+				LogManager.flush();
+			}
+		});
+
+		// Starting the server
+		ConnectionManager.start();
+
+		// Logging
+		LogManager.addMainLog(Level.INFO, "Headless server started, configuration: {}", configPath);
+	}
+
+};
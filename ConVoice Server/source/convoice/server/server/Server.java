@@ -15,6 +15,7 @@ import convoice.server.connection.ConnectionManager;
 import convoice.server.logger.LogManager;
 import convoice.server.permission.PermissionManager;
 import convoice.server.user.UserManager;
+import convoice.server.voice.VoiceManager;
 
 /**
  * The Server class is responsible for managing global server 
@@ -96,10 +97,12 @@ public class Server {
 			m_welcomeMessage = m_properties.getProperty("welcomeMessage", "Welcome to the ConVoice server!");
 			
 			// Loading configuration for other managers
+			LogManager.loadConfiguration();
 			ChannelManager.loadConfiguration(configPath);
 			ConnectionManager.loadConfiguration();
 			PermissionManager.loadConfiguration();
 			UserManager.loadConfiguration(configPath);
+			VoiceManager.loadConfiguration();
 			
 			// Logging
 			LogManager.addMainLog(Level.CONFIG, "Server configuration loaded.");
@@ -5,6 +5,9 @@ package convoice.server.user;
 import java.net.Socket;
 
 // Project imports
+import convoice.server.connection.ConnectionManager;
+import convoice.server.connection.ConnectionOutputStream;
+import convoice.server.connection.OutboundQueue;
 import convoice.server.user.UserData;
 
 /**
@@ -25,6 +28,15 @@ public class User {
 	/** The user's TCP socket for network communication. */
 	private Socket m_socket;
 	
+	/** The output stream of the user's socket. */
+	private ConnectionOutputStream m_outputStream;
+	
+	/** The queue of messages waiting to be sent to the user. */
+	private OutboundQueue m_outboundQueue;
+	
+	/** The permission mask of the user, computed by the PermissionManager. */
+	private volatile int m_permissions;
+	
 	/**
 	 * Constructs a User object.
 	 * @param userData The user's permanent data.
@@ -38,6 +50,10 @@ public class User {
 		m_id = id;
 		m_channel = channel;
 		m_socket = socket;
+		m_outputStream = new ConnectionOutputStream(socket);
+		m_outboundQueue = new OutboundQueue(id, ConnectionManager.getOutboundQueueLimit(), 
+				ConnectionManager.getSlowConsumerPolicy());
+		m_permissions = 0;
 	}
 	
 	/**
@@ -72,6 +88,37 @@ public class User {
 		return m_socket;
 	}
 	
+	/**
+	 * Gets the output stream of the user's socket.
+	 * The stream is usable in every connection mode, and is only
+	 * written by the connection handlers when draining the outbound
+	 * queue. Writers have to synchronize on the stream.
+	 * @return The output stream of the user.
+	 */
+	public ConnectionOutputStream getOutputStream() {
+		return m_outputStream;
+	}
+	
+	/**
+	 * Gets the queue of messages waiting to be sent to the user.
+	 * Messages to the user are sent by adding their frames to 
+	 * this queue.
+	 * @return The outbound queue of the user.
+	 */
+	public OutboundQueue getOutboundQueue() {
+		return m_outboundQueue;
+	}
+	
+	/**
+	 * Gets the permission mask of the user. The mask has the bits
+	 * of the user's role and granted permissions set, it is 0 while
+	 * the user is not registered at the PermissionManager.
+	 * @return The permission mask of the user.
+	 */
+	public int getPermissions() {
+		return m_permissions;
+	}
+	
 	/**
 	 * Sets the user's UserData object. Alternatively the retrieved
 	 * UserData object from getUserData() can be modified.
@@ -91,6 +138,16 @@ public class User {
 		m_channel = channelID;
 	}
 	
+	/**
+	 * Sets the permission mask of the user.
+	 * This is for the PermissionManager only, which computes
+	 * the mask from it's policy.
+	 * @param permissions The new permission mask.
+	 */
+	public void setPermissions(int permissions) {
+		m_permissions = permissions;
+	}
+	
 	/**
 	 * Returns the String representation of the user. 
 	 * The returned String can be used to represent the
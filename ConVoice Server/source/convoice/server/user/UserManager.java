@@ -2,10 +2,12 @@ package convoice.server.user;
 
 
 // Java imports
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
-import java.util.HashMap;
-import java.util.Collections;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -20,11 +22,21 @@ import java.net.Socket;
 import convoice.server.channel.Channel;
 import convoice.server.channel.ChannelManager;
 import convoice.server.connection.ConnectionManager;
-import convoice.server.gui.GUIController;
+import convoice.server.event.EventManager;
 import convoice.server.logger.LogManager;
 import convoice.server.permission.PermissionManager;
+import convoice.server.server.Server;
 import convoice.server.user.User;
 import convoice.server.user.UserData;
+import convoice.server.util.IntMap;
+import convoice.server.util.IntStateStore;
+import convoice.server.util.RecordReader;
+import convoice.server.util.RecordWriter;
+import convoice.server.util.SnapshotReader;
+import convoice.server.util.SnapshotWriter;
+import convoice.server.util.StateStore;
+import convoice.server.util.WriteAheadLog;
+import convoice.server.voice.VoiceManager;
 
 /**
  * The UserManager class provides the most common administrative
@@ -35,17 +47,44 @@ import convoice.server.user.UserData;
  * it easily available within the application. It's behavior is similar
  * to a Singleton. Methods of the UserManager are synchronized with other
  * managers, so any changes made via the UserManager will be reflected
- * everywhere else in the application.
+ * everywhere else in the application. Users and members are kept in
+ * state stores, so lookups do not lock, and the lists of users
+ * are consistent snapshots. Users are keyed by their int IDs
+ * without boxing. Members are saved to a binary snapshot, the XML
+ * file is imported when it is newer, and can be exported for
+ * administrators. Changes of members are appended to a write-ahead
+ * log between snapshots, which is replayed on load.
  */
 public class UserManager {
 	/** The created members mapped by their username. */
-	private static Map<String, UserData> m_members; 
+	private static StateStore<String, UserData> m_members; 
 	
 	/** The created users mapped by their IDs. */
-	private static Map<Integer, User> m_users;		
+	private static IntStateStore<User> m_users;		
 	
 	/** The next assignable user ID. */
-	private static int m_idGenerator;				
+	private static AtomicInteger m_idGenerator;				
+	
+	/** The type of the member snapshot. */
+	private static final int SNAPSHOT_TYPE = 2;
+	
+	/** The version of the records of the member snapshot. */
+	private static final int SNAPSHOT_VERSION = 1;
+	
+	/** The log record adding a member. */
+	private static final int LOG_ADD = 1;
+	
+	/** The log record modifying a member. */
+	private static final int LOG_MODIFY = 2;
+	
+	/** The log record deleting a member. */
+	private static final int LOG_DELETE = 3;
+	
+	/** The XML context of the member files, created when first used. */
+	private static JAXBContext m_xmlContext;
+	
+	/** The write-ahead log of the changes, null while loading. */
+	private static volatile WriteAheadLog m_log;
 	
 	/**
 	 * Initializes the map of users, members and the ID generator.
@@ -56,9 +95,9 @@ public class UserManager {
 	 */
 	static {
 		// Initializing members
-		m_members = new HashMap<String, UserData>();
-		m_users = new HashMap<Integer, User>();
-		m_idGenerator = 1;
+		m_members = new StateStore<String, UserData>();
+		m_users = new IntStateStore<User>();
+		m_idGenerator = new AtomicInteger(1);
 	}
 	
 	/**
@@ -69,42 +108,87 @@ public class UserManager {
 	 */
 	public static void reset() {
 		// Clearing the map of members
-		synchronized(m_members) {
-			m_members.clear();
-		}
+		m_members.clear();
 		
 		// Clearing the map of users
-		synchronized(m_users) {
-			m_users.clear();
-		}
+		m_users.clear();
 		
 		// Resetting the id generator
-		m_idGenerator = 1;
+		m_idGenerator.set(1);
 	}
 	
 	/**
-	 * Resets the UserManager and loads server members from the "members.xml"
-	 * file of the specified directory.
+	 * Resets the UserManager and loads server members from the "members.dat"
+	 * snapshot of the specified directory. The "members.xml" file is imported
+	 * instead if it is newer than the snapshot, or the snapshot is missing
+	 * or invalid. The changes logged in "members.wal" are replayed in both
+	 * cases, as the members are identified by their usernames.
 	 * @param configPath The path of the configuration directory.
 	 */
 	public static void loadConfiguration(String configPath) {
+		// Closing the log of the previous configuration
+		closeLog();
+		
 		// Performing manager reset
 		reset();
 		
-		// Loading members from file
-		loadMembers(configPath + "/members.xml");
+		// Loading members from the snapshot, or importing them from XML
+		final String snapshotFile = configPath + "/members.dat";
+		String logFile = configPath + "/members.wal";
+		boolean fromSnapshot = SnapshotReader.isUpToDate(snapshotFile, configPath + "/members.xml") && loadSnapshot(snapshotFile);
+		if(!fromSnapshot) {
+			loadMembers(configPath + "/members.xml");
+			LogManager.addMembersLog(Level.CONFIG, "Members imported.");
+		}
+		
+		// Replaying the logged changes, also on top of imported members, as replaying is idempotent
+		boolean replayed = replayLog(logFile);
+		
+		// Folding the changes into a new snapshot, the log is only deleted once they are saved
+		if((fromSnapshot && !replayed) || saveSnapshot(snapshotFile)) {
+			WriteAheadLog.delete(logFile);
+		}
+		
+		// Opening the log
+		if(Boolean.parseBoolean(Server.getProperties().getProperty("writeAheadLog", "true"))) {
+			try {
+				m_log = new WriteAheadLog(logFile,
+						Integer.parseInt(Server.getProperties().getProperty("walCommitDelay", "2")),
+						Long.parseLong(Server.getProperties().getProperty("walCompactionSize", "1048576")),
+						new Callable<Boolean>() {
+							@Override
+							public Boolean call() {
+								return saveSnapshot(snapshotFile);
+							}
+						});
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Users configuration loaded.");
 	}
 	
 	/**
-	 * Saves the list of members to the "members.xml" file of the specified directory.
+	 * Saves the list of members to the "members.dat" snapshot of the
+	 * specified directory. The "members.xml" file is also exported if
+	 * the "exportXmlConfiguration" property is set.
 	 * @param configPath The path of the configuration directory.
 	 */
 	public static void saveConfiguration(String configPath) {
-		// Saving members to file
-		saveMembers(configPath + "/members.xml");
+		// Exporting members to XML, before the snapshot so the snapshot is newer
+		if(Boolean.parseBoolean(Server.getProperties().getProperty("exportXmlConfiguration", "false"))) {
+			saveMembers(configPath + "/members.xml");
+		}
+		
+		// Saving members to the snapshot, folding the log if it belongs to the directory
+		WriteAheadLog log = m_log;
+		if(log != null && log.getFileName().equals(configPath + "/members.wal")) {
+			log.compact();
+		} else {
+			saveSnapshot(configPath + "/members.dat");
+		}
 		
 		// Logging
 		LogManager.addMainLog(Level.CONFIG, "Users configuration saved.");
@@ -132,19 +216,19 @@ public class UserManager {
 			defaultChannel.addUser(id);
 		}
 		
-		// Requesting user notifications
-		ConnectionManager.userCreatedNotify(id, username, nickname);
-		
-		// Updating user interface
-		GUIController.userCreatedUpdate(user);
-		
-		// Adding the user
-		synchronized(m_users) {
+		// Requesting user notifications and adding the user under the lock
+		// of the user log, so a user list contains every user created up
+		// to it's revision
+		synchronized(ConnectionManager.getUserLog()) {
+			ConnectionManager.userCreatedNotify(id, username, nickname);
 			m_users.put(id, user);
 		}
 		
+		// Notifying the listeners
+		EventManager.userCreated(user);
+		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "User ID: " + id + " created.");
+		LogManager.addMainLog(Level.INFO, "User ID: {} created.", id);
 		
 		// Returning the ID of the user
 		return id;
@@ -173,7 +257,7 @@ public class UserManager {
 			}
 			
 			// Checking channel capacity
-			if(newChannel.getUsers().size() == newChannel.getChannelData().getMaxClients()) {
+			if(newChannel.getUserCount() == newChannel.getChannelData().getMaxClients()) {
 				return;
 			}
 		}
@@ -189,14 +273,18 @@ public class UserManager {
 			user.setChannel(channelID);
 		}
 		
-		// Updating user interface
-		GUIController.userMovedUpdate(userID, channelID);
+		// Updating the voice routes
+		VoiceManager.moveUser(userID, channelID);
+		
+		// Notifying the listeners
+		EventManager.userMoved(userID, channelID);
 		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "User ID: " + userID + " moved to channel ID: " + channelID);
+		LogManager.addMainLog(Level.INFO, "User ID: {} moved to channel ID: {}", userID, channelID);
 		
 		// Requesting user notifications
 		ConnectionManager.userMovedNotify(userID, channelID);
+		ConnectionManager.voiceConfigurationNotify(userID, newChannel.getChannelData().getRedundancy());
 	}
 	
 	/**
@@ -211,18 +299,19 @@ public class UserManager {
 		}
 		
 		// Deleting the user 
-		synchronized(m_users) {
-			m_users.remove(userID);
-		}
+		m_users.remove(userID);
+		
+		// Removing the user from the voice transport
+		VoiceManager.removeUser(userID);
 		
 		// Requesting user notifications
 		ConnectionManager.userDeletedNotify(userID);
 		
-		// Updating user interface
-		GUIController.userDeletedUpdate(userID);
+		// Notifying the listeners
+		EventManager.userDeleted(userID);
 		
 		// Logging
-		LogManager.addMainLog(Level.INFO, "User ID: " + userID + " deleted.");
+		LogManager.addMainLog(Level.INFO, "User ID: {} deleted.", userID);
 	}
 	
 	/**
@@ -231,9 +320,7 @@ public class UserManager {
 	 * @return The user with the specified ID.
 	 */
 	public static User getUser(int userID) {
-		synchronized(m_users) {
-			return m_users.get(userID);
-		}	
+		return m_users.get(userID);
 	}
 	
 	/**
@@ -243,15 +330,16 @@ public class UserManager {
 	 */
 	public static void addMember(String username, String password) {
 		UserData member = new UserData(username, null, password);
-		synchronized(m_members) {
-			m_members.put(username, member);
-		}
+		m_members.put(username, member);
+		
+		// Logging the change
+		logChange(LOG_ADD, username, null, password);
 		
-		// Updating user interface
-		GUIController.memberCreatedUpdate(member);
+		// Notifying the listeners
+		EventManager.memberCreated(member);
 		
 		// Logging
-		LogManager.addMembersLog(Level.INFO, "Member: " + username + " added.");
+		LogManager.addMembersLog(Level.INFO, "Member: {} added.", username);
 	}
 	
 	/**
@@ -259,15 +347,16 @@ public class UserManager {
 	 * @param username The username of the member being deleted.
 	 */
 	public static void deleteMember(String username) {
-		synchronized(m_members) {
-			m_members.remove(username);
-		}
+		m_members.remove(username);
+		
+		// Logging the change
+		logChange(LOG_DELETE, username, null, null);
 		
-		// Updating user interface
-		GUIController.memberDeletedUpdate(username);
+		// Notifying the listeners
+		EventManager.memberDeleted(username);
 		
 		// Logging
-		LogManager.addMembersLog(Level.INFO, "Member: " + username + " deleted.");
+		LogManager.addMembersLog(Level.INFO, "Member: {} deleted.", username);
 	}
 	
 	/**
@@ -282,11 +371,20 @@ public class UserManager {
 		member.setUsername(newUsername);
 		member.setPassword(password);
 		
-		// Updating user interface
-		GUIController.memberModifiedUpdate(oldUsername, member);
+		// Mapping the member by it's new username
+		if(!newUsername.equals(username)) {
+			m_members.remove(username);
+			m_members.put(newUsername, member);
+		}
+		
+		// Logging the change
+		logChange(LOG_MODIFY, username, newUsername, password);
+		
+		// Notifying the listeners
+		EventManager.memberModified(oldUsername, member);
 		
 		// Logging
-		LogManager.addMembersLog(Level.INFO, "Member: " + username + " modified.");
+		LogManager.addMembersLog(Level.INFO, "Member: {} modified.", username);
 	}
 	
 	/**
@@ -315,24 +413,22 @@ public class UserManager {
 	public static boolean validateMember(String username, String password) {
 		try {
 			// Checking if the password matches the username
-			synchronized(m_members) {
-				return m_members.get(username).getPassword().equals(password);
-			}
+			return m_members.get(username).getPassword().equals(password);
 		} catch(NullPointerException e) {
 			return false;
 		}
 	}
 	
 	/**
-	 * Loads the list of members from an XML-file.
+	 * Loads the list of members from an XML-file, used for importing
+	 * members edited by an administrator.
 	 * @param fileName The name of the file.
 	 */
 	public static void loadMembers(String fileName) {
 		try {
 			// Creating XML-objects for deserialization
 			FileInputStream fis = new FileInputStream(fileName);
-			JAXBContext xmlContext = JAXBContext.newInstance(UserSerializer.class);
-			Unmarshaller xmlUnmarshaller = xmlContext.createUnmarshaller();
+			Unmarshaller xmlUnmarshaller = getXmlContext().createUnmarshaller();
 			
 			// Deserializing member data
 			UserSerializer xmlSerializer = (UserSerializer) xmlUnmarshaller.unmarshal(fis);
@@ -359,7 +455,8 @@ public class UserManager {
 	}
 	
 	/**
-	 * Saves the list of members to an XML-file.
+	 * Saves the list of members to an XML-file, used for exporting
+	 * members to an administrator.
 	 * @param fileName The name of the file.
 	 */
 	public static void saveMembers(String fileName) {
@@ -368,14 +465,13 @@ public class UserManager {
 			UserSerializer xmlSerializer = new UserSerializer();
 			
 			// Feeding member data to the serializer
-			for(UserData member : m_members.values()) {
+			for(UserData member : m_members.snapshot().values()) {
 				xmlSerializer.getData().add(member);
 			}
 			
 			// Serializing data to XML-file
 			FileOutputStream fos = new FileOutputStream(fileName);
-			JAXBContext xmlContext = JAXBContext.newInstance(UserSerializer.class);
-			Marshaller xmlMarshaller = xmlContext.createMarshaller();
+			Marshaller xmlMarshaller = getXmlContext().createMarshaller();
 			xmlMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 			xmlMarshaller.marshal(xmlSerializer, fos);
 			
@@ -395,23 +491,176 @@ public class UserManager {
 	}
 	
 	/**
-	 * Gets all User objects from the manager.
-	 * @return An unmodifiable map containing the users.
+	 * Loads the list of members from a binary snapshot. The snapshot
+	 * is validated and decoded before any member is added, so an
+	 * invalid snapshot leaves the manager unchanged.
+	 * @param fileName The name of the snapshot file.
+	 * @return True if the snapshot was loaded.
+	 */
+	private static boolean loadSnapshot(String fileName) {
+		try {
+			// Reading the member data
+			RecordReader reader = new SnapshotReader(fileName, SNAPSHOT_TYPE).getRecords();
+			int count = reader.readInt();
+			List<UserData> members = new ArrayList<UserData>(count);
+			for(int i = 0; i < count; i++) {
+				members.add(new UserData(reader.readString(), null, reader.readString()));
+			}
+			
+			// Adding members
+			for(UserData data : members) {
+				addMember(data.getUsername(), data.getPassword());
+			}
+			
+			// Logging
+			LogManager.addMembersLog(Level.CONFIG, "Members loaded from snapshot.");
+			return true;
+			
+		} catch(IOException e) {
+			LogManager.addMembersLog(Level.WARNING, "Member snapshot could not be loaded: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Saves the list of members to a binary snapshot.
+	 * @param fileName The name of the snapshot file.
+	 * @return True if the snapshot was saved.
+	 */
+	private static boolean saveSnapshot(String fileName) {
+		try {
+			// Writing the member data
+			Map<String, UserData> members = m_members.snapshot();
+			SnapshotWriter writer = new SnapshotWriter(SNAPSHOT_TYPE, SNAPSHOT_VERSION);
+			writer.writeInt(members.size());
+			for(UserData member : members.values()) {
+				writer.writeString(member.getUsername());
+				writer.writeString(member.getPassword());
+			}
+			writer.commit(fileName);
+			
+			// Logging
+			LogManager.addMembersLog(Level.CONFIG, "Members saved to snapshot.");
+			return true;
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Replays the changes of the write-ahead log. Records already
+	 * contained by the snapshot are replayed without effect.
+	 * @param fileName The name of the log file.
+	 * @return True if any change was replayed.
+	 */
+	private static boolean replayLog(String fileName) {
+		try {
+			List<RecordReader> records = WriteAheadLog.read(fileName);
+			for(RecordReader reader : records) {
+				int type = reader.readByte();
+				String username = reader.readString();
+				String newUsername = reader.readString();
+				String password = reader.readString();
+				if(type == LOG_ADD) {
+					// Adding or updating the member
+					if(m_members.containsKey(username)) {
+						modifyMember(username, username, password);
+					} else {
+						addMember(username, password);
+					}
+				} else if(type == LOG_MODIFY) {
+					// Modifying the member, which may be already renamed
+					if(m_members.containsKey(username)) {
+						modifyMember(username, newUsername, password);
+					} else if(m_members.containsKey(newUsername)) {
+						modifyMember(newUsername, newUsername, password);
+					} else {
+						addMember(newUsername, password);
+					}
+				} else if(type == LOG_DELETE) {
+					// Deleting the member
+					if(m_members.containsKey(username)) {
+						deleteMember(username);
+					}
+				}
+			}
+			
+			// Logging
+			if(!records.isEmpty()) {
+				LogManager.addMembersLog(Level.CONFIG, records.size() + " logged member changes replayed.");
+			}
+			return !records.isEmpty();
+			
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Appends a change of a member to the write-ahead log.
+	 * @param type The type of the change.
+	 * @param username The username of the member.
+	 * @param newUsername The new username of a modified member, or null.
+	 * @param password The password of the member, or null.
 	 */
-	public static Map<Integer, User> getAllUsers() {
-		synchronized(m_users) {
-			return Collections.unmodifiableMap(m_users);
+	private static void logChange(int type, String username, String newUsername, String password) {
+		WriteAheadLog log = m_log;
+		if(log == null) {
+			return;
 		}
+		try {
+			RecordWriter writer = new RecordWriter();
+			writer.writeByte(type);
+			writer.writeString(username);
+			writer.writeString(newUsername);
+			writer.writeString(password);
+			log.append(writer.toByteArray());
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Closes the write-ahead log, writing it's pending changes.
+	 */
+	private static void closeLog() {
+		WriteAheadLog log = m_log;
+		m_log = null;
+		if(log != null) {
+			log.close();
+		}
+	}
+	
+	/**
+	 * Returns the XML context of the member files, creating it when first used.
+	 * @return The XML context.
+	 * @throws JAXBException If the context could not be created.
+	 */
+	private static synchronized JAXBContext getXmlContext() throws JAXBException {
+		if(m_xmlContext == null) {
+			m_xmlContext = JAXBContext.newInstance(UserSerializer.class);
+		}
+		return m_xmlContext;
+	}
+	
+	/**
+	 * Gets all User objects from the manager.
+	 * @return A read-only snapshot of the users mapped by their IDs,
+	 * which does not change when users are created or deleted.
+	 */
+	public static IntMap<User> getAllUsers() {
+		return m_users.snapshot();
 	}
 	
 	/**
 	 * Gets all UserData objects associated with members.
-	 * @return An unmodifiable map containing the data of members.
+	 * @return An unmodifiable snapshot of the data of members.
 	 */
 	public static Map<String, UserData> getAllMembers() {
-		synchronized(m_members) {
-			return Collections.unmodifiableMap(m_members);
-		}	
+		return m_members.snapshot();
 	}
 	
 	/**
@@ -419,7 +668,7 @@ public class UserManager {
 	 * @return The generated ID.
 	 */
 	private static int generateID() {
-		return m_idGenerator++;
+		return m_idGenerator.getAndIncrement();
 	}
 
 };
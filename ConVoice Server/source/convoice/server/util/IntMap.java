@@ -0,0 +1,298 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.util.Arrays;
+
+/**
+ * The IntMap class maps primitive int keys to objects, without boxing
+ * the keys.
+ * The entries are stored in two parallel arrays with open addressing
+ * and linear probing, so a lookup reads a few neighbouring array slots
+ * instead of following the nodes of a HashMap. Removed entries are
+ * filled by shifting the following entries back, so lookups never step
+ * over deleted slots. The entries are iterated by index, which allocates
+ * nothing:
+ *
+ *   for(int i = map.next(-1); i >= 0; i = map.next(i)) { map.keyAt(i); map.valueAt(i); }
+ *
+ * The map must not be modified while it is iterated. A map can be made
+ * read-only, after which it can be shared between threads. The map is
+ * not thread-safe otherwise.
+ * @param <V> The type of the values, which can not be null.
+ */
+public class IntMap<V> {
+	/** The smallest capacity of the arrays. */
+	private static final int MIN_CAPACITY = 8;
+
+	/** The keys of the entries. */
+	private int[] m_keys;
+
+	/** The values of the entries, null in free slots. */
+	private Object[] m_values;
+
+	/** The number of entries. */
+	private int m_size;
+
+	/** The mask of the slot indices, the capacity minus one. */
+	private int m_mask;
+
+	/** Is the map read-only? */
+	private boolean m_readOnly;
+
+	/**
+	 * Constructs an empty IntMap object.
+	 */
+	public IntMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty IntMap object.
+	 * @param expectedSize The number of entries the map holds without growing.
+	 */
+	public IntMap(int expectedSize) {
+		// Initializing members
+		int capacity = MIN_CAPACITY;
+		while(capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		m_keys = new int[capacity];
+		m_values = new Object[capacity];
+		m_size = 0;
+		m_mask = capacity - 1;
+		m_readOnly = false;
+	}
+
+	/**
+	 * Constructs an IntMap object holding the entries of another map.
+	 * @param map The map to copy.
+	 */
+	public IntMap(IntMap<V> map) {
+		// Copying the arrays
+		m_keys = map.m_keys.clone();
+		m_values = map.m_values.clone();
+		m_size = map.m_size;
+		m_mask = map.m_mask;
+		m_readOnly = false;
+	}
+
+	/**
+	 * Returns the value of a key.
+	 * @param key The key of the value.
+	 * @return The value, or null if the key is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = find(key);
+		return slot >= 0 ? (V) m_values[slot] : null;
+	}
+
+	/**
+	 * Returns whether the map contains a key.
+	 * @param key The key to look up.
+	 * @return True if the key is in the map.
+	 */
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Stores a value.
+	 * @param key The key of the value.
+	 * @param value The value to store, not null.
+	 * @return The previous value of the key, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		checkWritable();
+		if(value == null) {
+			throw new NullPointerException("IntMap values can not be null.");
+		}
+
+		// Replacing the value of an existing key
+		int slot = slot(key);
+		while(m_values[slot] != null) {
+			if(m_keys[slot] == key) {
+				V previous = (V) m_values[slot];
+				m_values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+
+		// Adding the entry, growing the arrays above three quarters
+		m_keys[slot] = key;
+		m_values[slot] = value;
+		if(++m_size > (m_mask + 1) * 3 / 4) {
+			resize((m_mask + 1) * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a key and it's value.
+	 * @param key The key to remove.
+	 * @return The removed value, or null if the key was not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		checkWritable();
+		int slot = find(key);
+		if(slot < 0) {
+			return null;
+		}
+		V previous = (V) m_values[slot];
+
+		// Shifting back the following entries, which may belong to the freed slot
+		int free = slot;
+		int next = (free + 1) & m_mask;
+		while(m_values[next] != null) {
+			int home = slot(m_keys[next]);
+			if(((next - home) & m_mask) >= ((next - free) & m_mask)) {
+				m_keys[free] = m_keys[next];
+				m_values[free] = m_values[next];
+				free = next;
+			}
+			next = (next + 1) & m_mask;
+		}
+		m_values[free] = null;
+		m_size--;
+		return previous;
+	}
+
+	/**
+	 * Removes every entry from the map.
+	 */
+	public void clear() {
+		checkWritable();
+		Arrays.fill(m_values, null);
+		m_size = 0;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * Returns whether the map is empty.
+	 * @return True if the map has no entries.
+	 */
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	/**
+	 * Returns the index of the next entry, used for iteration.
+	 * @param index The index of the current entry, or -1 to start.
+	 * @return The index of the next entry, or -1 if there are no more entries.
+	 */
+	public int next(int index) {
+		for(int i = index + 1; i <= m_mask; i++) {
+			if(m_values[i] != null) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the key of the entry at an index returned by next().
+	 * @param index The index of the entry.
+	 * @return The key of the entry.
+	 */
+	public int keyAt(int index) {
+		return m_keys[index];
+	}
+
+	/**
+	 * Returns the value of the entry at an index returned by next().
+	 * @param index The index of the entry.
+	 * @return The value of the entry.
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int index) {
+		return (V) m_values[index];
+	}
+
+	/**
+	 * Makes the map read-only, so it can be shared between threads.
+	 * Later attempts to modify the map throw an exception.
+	 * @return The map itself.
+	 */
+	public IntMap<V> setReadOnly() {
+		m_readOnly = true;
+		return this;
+	}
+
+	/**
+	 * Returns whether the map is read-only.
+	 * @return True if the map can not be modified.
+	 */
+	public boolean isReadOnly() {
+		return m_readOnly;
+	}
+
+	/**
+	 * Returns the home slot of a key. The key is scrambled, so
+	 * consecutive IDs are spread over the arrays.
+	 * @param key The key.
+	 * @return The index of the slot.
+	 */
+	private int slot(int key) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & m_mask;
+	}
+
+	/**
+	 * Finds the slot of a key.
+	 * @param key The key.
+	 * @return The index of the slot, or -1 if the key is not in the map.
+	 */
+	private int find(int key) {
+		int slot = slot(key);
+		while(m_values[slot] != null) {
+			if(m_keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & m_mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves the entries to arrays of a new capacity.
+	 * @param capacity The new capacity, a power of two.
+	 */
+	private void resize(int capacity) {
+		int[] keys = m_keys;
+		Object[] values = m_values;
+		m_keys = new int[capacity];
+		m_values = new Object[capacity];
+		m_mask = capacity - 1;
+		for(int i = 0; i < keys.length; i++) {
+			if(values[i] != null) {
+				int slot = slot(keys[i]);
+				while(m_values[slot] != null) {
+					slot = (slot + 1) & m_mask;
+				}
+				m_keys[slot] = keys[i];
+				m_values[slot] = values[i];
+			}
+		}
+	}
+
+	/**
+	 * Throws an exception if the map is read-only.
+	 */
+	private void checkWritable() {
+		if(m_readOnly) {
+			throw new UnsupportedOperationException("The IntMap is read-only.");
+		}
+	}
+
+};
@@ -0,0 +1,94 @@
+package convoice.server.util;
+
+
+/**
+ * The IntSet class is a set of primitive ints, without boxing.
+ * The set is an IntMap whose values only mark the present keys, so it
+ * shares it's open addressing and it's allocation-free iteration:
+ *
+ *   for(int i = set.next(-1); i >= 0; i = set.next(i)) { set.keyAt(i); }
+ *
+ * The set must not be modified while it is iterated, and it is not
+ * thread-safe.
+ */
+public class IntSet {
+	/** The map holding the elements as keys. */
+	private IntMap<Boolean> m_map;
+
+	/**
+	 * Constructs an empty IntSet object.
+	 */
+	public IntSet() {
+		// Initializing members
+		m_map = new IntMap<Boolean>();
+	}
+
+	/**
+	 * Adds an element to the set.
+	 * @param key The element to add.
+	 * @return True if the element was not in the set.
+	 */
+	public boolean add(int key) {
+		return m_map.put(key, Boolean.TRUE) == null;
+	}
+
+	/**
+	 * Removes an element from the set.
+	 * @param key The element to remove.
+	 * @return True if the element was in the set.
+	 */
+	public boolean remove(int key) {
+		return m_map.remove(key) != null;
+	}
+
+	/**
+	 * Returns whether the set contains an element.
+	 * @param key The element to look up.
+	 * @return True if the element is in the set.
+	 */
+	public boolean contains(int key) {
+		return m_map.containsKey(key);
+	}
+
+	/**
+	 * Removes every element from the set.
+	 */
+	public void clear() {
+		m_map.clear();
+	}
+
+	/**
+	 * Returns the number of elements.
+	 * @return The number of elements.
+	 */
+	public int size() {
+		return m_map.size();
+	}
+
+	/**
+	 * Returns whether the set is empty.
+	 * @return True if the set has no elements.
+	 */
+	public boolean isEmpty() {
+		return m_map.isEmpty();
+	}
+
+	/**
+	 * Returns the index of the next element, used for iteration.
+	 * @param index The index of the current element, or -1 to start.
+	 * @return The index of the next element, or -1 if there are no more elements.
+	 */
+	public int next(int index) {
+		return m_map.next(index);
+	}
+
+	/**
+	 * Returns the element at an index returned by next().
+	 * @param index The index of the element.
+	 * @return The element.
+	 */
+	public int keyAt(int index) {
+		return m_map.keyAt(index);
+	}
+
+};
@@ -0,0 +1,96 @@
+package convoice.server.util;
+
+
+/**
+ * The IntStateStore class holds a part of the server state keyed by
+ * int IDs, like the users or the channels.
+ * The state is a read-only IntMap, replaced by a modified copy on every
+ * write. Lookups read the current map without locking or boxing, and
+ * the current map is also a consistent snapshot of the state, so
+ * iterating it needs no copy. Writes are serialized and copy the map,
+ * which suits the state of the server: users and channels are looked
+ * up for every message, but created and deleted rarely.
+ * @param <V> The type of the values.
+ */
+public class IntStateStore<V> {
+	/** The current state, never modified after publishing. */
+	private volatile IntMap<V> m_map;
+
+	/**
+	 * Constructs an empty IntStateStore object.
+	 */
+	public IntStateStore() {
+		// Initializing members
+		m_map = new IntMap<V>().setReadOnly();
+	}
+
+	/**
+	 * Returns the value of a key, without locking.
+	 * @param key The key of the value.
+	 * @return The value, or null if the key is not in the store.
+	 */
+	public V get(int key) {
+		return m_map.get(key);
+	}
+
+	/**
+	 * Returns whether the store contains a key, without locking.
+	 * @param key The key to look up.
+	 * @return True if the key is in the store.
+	 */
+	public boolean containsKey(int key) {
+		return m_map.containsKey(key);
+	}
+
+	/**
+	 * Stores a value.
+	 * @param key The key of the value.
+	 * @param value The value to store, not null.
+	 * @return The previous value of the key, or null.
+	 */
+	public synchronized V put(int key, V value) {
+		IntMap<V> map = new IntMap<V>(m_map);
+		V previous = map.put(key, value);
+		m_map = map.setReadOnly();
+		return previous;
+	}
+
+	/**
+	 * Removes a key and it's value.
+	 * @param key The key to remove.
+	 * @return The removed value, or null if the key was not in the store.
+	 */
+	public synchronized V remove(int key) {
+		if(!m_map.containsKey(key)) {
+			return null;
+		}
+		IntMap<V> map = new IntMap<V>(m_map);
+		V previous = map.remove(key);
+		m_map = map.setReadOnly();
+		return previous;
+	}
+
+	/**
+	 * Removes every key from the store.
+	 */
+	public synchronized void clear() {
+		m_map = new IntMap<V>().setReadOnly();
+	}
+
+	/**
+	 * Returns the number of keys in the store.
+	 * @return The number of keys.
+	 */
+	public int size() {
+		return m_map.size();
+	}
+
+	/**
+	 * Returns a snapshot of the state, without copying.
+	 * @return A read-only map, which never changes.
+	 */
+	public IntMap<V> snapshot() {
+		return m_map;
+	}
+
+};
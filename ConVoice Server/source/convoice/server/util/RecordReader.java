@@ -0,0 +1,68 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The RecordReader class decodes records written by the RecordWriter.
+ * The records are read from a buffer, usually a memory-mapped file.
+ */
+public class RecordReader {
+	/** The buffer of the records. */
+	private ByteBuffer m_records;
+
+	/**
+	 * Constructs a RecordReader object.
+	 * @param records The buffer of the records.
+	 */
+	public RecordReader(ByteBuffer records) {
+		// Initializing members
+		m_records = records;
+	}
+
+	/**
+	 * Reads a byte.
+	 * @return The value read.
+	 */
+	public int readByte() {
+		return m_records.get();
+	}
+
+	/**
+	 * Reads an int.
+	 * @return The value read.
+	 */
+	public int readInt() {
+		return m_records.getInt();
+	}
+
+	/**
+	 * Reads a boolean.
+	 * @return The value read.
+	 */
+	public boolean readBoolean() {
+		return m_records.get() != 0;
+	}
+
+	/**
+	 * Reads a String.
+	 * @return The String read, or null.
+	 * @throws IOException If the length of the String is invalid.
+	 */
+	public String readString() throws IOException {
+		int length = m_records.getInt();
+		if(length < 0) {
+			return null;
+		}
+		if(length > m_records.remaining()) {
+			throw new IOException("Invalid string length in record.");
+		}
+		byte[] bytes = new byte[length];
+		m_records.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+};
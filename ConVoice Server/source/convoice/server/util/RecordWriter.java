@@ -0,0 +1,84 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The RecordWriter class encodes the records of the binary files of
+ * the server configuration, the snapshots and the write-ahead logs.
+ * The records are written to memory, and read back by the RecordReader.
+ */
+public class RecordWriter {
+	/** The buffer of the records. */
+	private ByteArrayOutputStream m_buffer;
+
+	/** The stream writing the records to the buffer. */
+	private DataOutputStream m_out;
+
+	/**
+	 * Constructs a RecordWriter object.
+	 */
+	public RecordWriter() {
+		// Initializing members
+		m_buffer = new ByteArrayOutputStream();
+		m_out = new DataOutputStream(m_buffer);
+	}
+
+	/**
+	 * Writes a byte.
+	 * @param value The value to write.
+	 * @throws IOException If the value could not be written.
+	 */
+	public void writeByte(int value) throws IOException {
+		m_out.writeByte(value);
+	}
+
+	/**
+	 * Writes an int.
+	 * @param value The value to write.
+	 * @throws IOException If the value could not be written.
+	 */
+	public void writeInt(int value) throws IOException {
+		m_out.writeInt(value);
+	}
+
+	/**
+	 * Writes a boolean.
+	 * @param value The value to write.
+	 * @throws IOException If the value could not be written.
+	 */
+	public void writeBoolean(boolean value) throws IOException {
+		m_out.writeBoolean(value);
+	}
+
+	/**
+	 * Writes a String as it's length and UTF-8 bytes. Null is
+	 * written as the length -1.
+	 * @param value The String to write, or null.
+	 * @throws IOException If the String could not be written.
+	 */
+	public void writeString(String value) throws IOException {
+		if(value == null) {
+			m_out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		m_out.writeInt(bytes.length);
+		m_out.write(bytes);
+	}
+
+	/**
+	 * Returns the written records.
+	 * @return The bytes of the records.
+	 * @throws IOException If the records could not be flushed.
+	 */
+	public byte[] toByteArray() throws IOException {
+		m_out.flush();
+		return m_buffer.toByteArray();
+	}
+
+};
@@ -0,0 +1,102 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The SnapshotReader class reads a binary snapshot written by the
+ * SnapshotWriter.
+ * The file is memory-mapped instead of being read through a stream.
+ * The header is validated and the checksum of the records is verified
+ * when the reader is constructed, so a damaged or foreign file is
+ * rejected before any record is read.
+ */
+public class SnapshotReader {
+	/** The records of the snapshot. */
+	private RecordReader m_records;
+
+	/** The version of the records. */
+	private int m_version;
+
+	/**
+	 * Constructs a SnapshotReader object, mapping and validating a snapshot.
+	 * @param fileName The name of the snapshot file.
+	 * @param type The expected type of the snapshot.
+	 * @throws IOException If the snapshot could not be read or is invalid.
+	 */
+	public SnapshotReader(String fileName, int type) throws IOException {
+		// Mapping the file
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		ByteBuffer buffer;
+		try {
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+
+		// Validating the header
+		if(buffer.remaining() < SnapshotWriter.HEADER_SIZE || buffer.getInt() != SnapshotWriter.MAGIC) {
+			throw new IOException("Not a snapshot file: " + fileName);
+		}
+		if(buffer.getInt() != SnapshotWriter.FORMAT_VERSION) {
+			throw new IOException("Unsupported snapshot format: " + fileName);
+		}
+		if(buffer.getInt() != type) {
+			throw new IOException("Unexpected snapshot type: " + fileName);
+		}
+		m_version = buffer.getInt();
+		int length = buffer.getInt();
+		long checksum = buffer.getLong();
+		if(length < 0 || length != buffer.remaining()) {
+			throw new IOException("Truncated snapshot file: " + fileName);
+		}
+
+		// Verifying the checksum of the records
+		ByteBuffer records = buffer.slice();
+		CRC32 crc = new CRC32();
+		crc.update(records.duplicate());
+		if(crc.getValue() != checksum) {
+			throw new IOException("Snapshot checksum mismatch: " + fileName);
+		}
+		m_records = new RecordReader(records);
+	}
+
+	/**
+	 * Returns the version of the records.
+	 * @return The version written by the SnapshotWriter.
+	 */
+	public int getVersion() {
+		return m_version;
+	}
+
+	/**
+	 * Returns the reader of the records.
+	 * @return The reader positioned at the first record.
+	 */
+	public RecordReader getRecords() {
+		return m_records;
+	}
+
+	/**
+	 * Returns whether a snapshot should be loaded instead of it's
+	 * XML counterpart. The XML file is imported when there is no
+	 * snapshot yet, or when an administrator edited it after the
+	 * snapshot was written.
+	 * @param snapshotFile The name of the snapshot file.
+	 * @param xmlFile The name of the XML file.
+	 * @return True if the snapshot exists and is not older than the XML file.
+	 */
+	public static boolean isUpToDate(String snapshotFile, String xmlFile) {
+		File snapshot = new File(snapshotFile);
+		File xml = new File(xmlFile);
+		return snapshot.isFile() && (!xml.isFile() || snapshot.lastModified() >= xml.lastModified());
+	}
+
+};
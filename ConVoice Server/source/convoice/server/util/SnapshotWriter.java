@@ -0,0 +1,94 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * The SnapshotWriter class writes a binary snapshot of a part of the
+ * server configuration, like the channels or the members.
+ * The records are written to memory, then commit() writes the file with
+ * a header holding the type, the version and the checksum of the records.
+ * The file is written to a temporary file first, which is flushed to the
+ * disk and renamed over the old snapshot, so a crash never leaves a
+ * partially written snapshot behind. The snapshot is read by the
+ * SnapshotReader.
+ */
+public class SnapshotWriter extends RecordWriter {
+	/** The magic number starting every snapshot file, "CVSN". */
+	public static final int MAGIC = 0x4356534E;
+
+	/** The version of the snapshot file format. */
+	public static final int FORMAT_VERSION = 1;
+
+	/** The size of the header in bytes. */
+	public static final int HEADER_SIZE = 28;
+
+	/** The type of the snapshot. */
+	private int m_type;
+
+	/** The version of the records of the snapshot. */
+	private int m_version;
+
+	/**
+	 * Constructs a SnapshotWriter object.
+	 * @param type The type of the snapshot, checked when it is read.
+	 * @param version The version of the records of the snapshot.
+	 */
+	public SnapshotWriter(int type, int version) {
+		// Initializing members
+		m_type = type;
+		m_version = version;
+	}
+
+	/**
+	 * Writes the snapshot file atomically, replacing the previous snapshot.
+	 * @param fileName The name of the snapshot file.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	public void commit(String fileName) throws IOException {
+		// Computing the checksum of the records
+		byte[] records = toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(records);
+
+		// Writing the header
+		ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream dos = new DataOutputStream(header);
+		dos.writeInt(MAGIC);
+		dos.writeInt(FORMAT_VERSION);
+		dos.writeInt(m_type);
+		dos.writeInt(m_version);
+		dos.writeInt(records.length);
+		dos.writeLong(crc.getValue());
+		dos.flush();
+
+		// Writing the temporary file and flushing it to the disk
+		File file = new File(fileName);
+		File temp = new File(fileName + ".tmp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			fos.write(header.toByteArray());
+			fos.write(records);
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		// Replacing the previous snapshot
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+};
@@ -0,0 +1,156 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StateStore class holds a part of the server state, like the users
+ * or the channels, mapped by their keys.
+ * Lookups are lock-free, and writers only contend on the bins of their
+ * keys, so handlers of different users do not block each other. Readers
+ * iterating the whole state get an immutable snapshot instead of a view
+ * of the changing map. A snapshot contains every write completed before
+ * it was taken, and it is reused until the next write, so the frequent
+ * fan-outs do not copy the state every time.
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class StateStore<K, V> {
+	/** The current state. */
+	private ConcurrentHashMap<K, V> m_map;
+
+	/** The number of writes to the state. */
+	private AtomicLong m_version;
+
+	/** The last snapshot taken, or null. */
+	private volatile Snapshot<K, V> m_snapshot;
+
+	/**
+	 * The Snapshot class holds an immutable copy of the state, with the
+	 * version of the state it contains.
+	 * @param <K> The type of the keys.
+	 * @param <V> The type of the values.
+	 */
+	private static class Snapshot<K, V> {
+		/** The version of the state when the copy was started. */
+		private final long m_version;
+
+		/** The copy of the state. */
+		private final Map<K, V> m_map;
+
+		/**
+		 * Constructs a Snapshot object.
+		 * @param version The version of the state.
+		 * @param map The copy of the state.
+		 */
+		private Snapshot(long version, Map<K, V> map) {
+			m_version = version;
+			m_map = map;
+		}
+	};
+
+	/**
+	 * Constructs an empty StateStore object.
+	 */
+	public StateStore() {
+		// Initializing members
+		m_map = new ConcurrentHashMap<K, V>();
+		m_version = new AtomicLong();
+		m_snapshot = null;
+	}
+
+	/**
+	 * Returns the value of a key, without locking.
+	 * @param key The key of the value.
+	 * @return The value, or null if the key is not in the store.
+	 */
+	public V get(K key) {
+		return m_map.get(key);
+	}
+
+	/**
+	 * Returns whether the store contains a key, without locking.
+	 * @param key The key to look up.
+	 * @return True if the key is in the store.
+	 */
+	public boolean containsKey(K key) {
+		return m_map.containsKey(key);
+	}
+
+	/**
+	 * Stores a value.
+	 * @param key The key of the value.
+	 * @param value The value to store.
+	 * @return The previous value of the key, or null.
+	 */
+	public V put(K key, V value) {
+		V previous = m_map.put(key, value);
+		m_version.incrementAndGet();
+		return previous;
+	}
+
+	/**
+	 * Stores a value, unless the key is already in the store.
+	 * @param key The key of the value.
+	 * @param value The value to store.
+	 * @return The value already stored with the key, or null if the value was stored.
+	 */
+	public V putIfAbsent(K key, V value) {
+		V previous = m_map.putIfAbsent(key, value);
+		if(previous == null) {
+			m_version.incrementAndGet();
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes a key and it's value.
+	 * @param key The key to remove.
+	 * @return The removed value, or null if the key was not in the store.
+	 */
+	public V remove(K key) {
+		V previous = m_map.remove(key);
+		if(previous != null) {
+			m_version.incrementAndGet();
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes every key from the store.
+	 */
+	public void clear() {
+		m_map.clear();
+		m_version.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of keys in the store.
+	 * @return The number of keys.
+	 */
+	public int size() {
+		return m_map.size();
+	}
+
+	/**
+	 * Returns an immutable snapshot of the state. The snapshot is only
+	 * copied if the state changed since the last snapshot.
+	 * @return An unmodifiable map, which never changes.
+	 */
+	public Map<K, V> snapshot() {
+		// Reading the version before copying, so the copy contains every write of the version
+		long version = m_version.get();
+		Snapshot<K, V> snapshot = m_snapshot;
+		if(snapshot == null || snapshot.m_version != version) {
+			snapshot = new Snapshot<K, V>(version, Collections.unmodifiableMap(new HashMap<K, V>(m_map)));
+			m_snapshot = snapshot;
+		}
+		return snapshot.m_map;
+	}
+
+};
@@ -0,0 +1,489 @@
+package convoice.server.util;
+
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+// Project imports
+import convoice.server.logger.LogManager;
+
+/**
+ * The WriteAheadLog class appends the changes of a part of the server
+ * configuration to a log file, so they survive a crash between two
+ * snapshots.
+ * Records are queued by append() and written by a background thread.
+ * The thread waits a short commit delay to gather the records appended
+ * meanwhile, then writes them with a single write and forces them to the
+ * disk with a single sync, so concurrent changes share the cost of the
+ * sync. Every record is stored with it's length and checksum, so a record
+ * torn by a crash is detected and ignored when the log is read.
+ * If a batch can not be written, the partially written records are cut
+ * off, and the batch stays pending and is retried after a delay.
+ * When the log outgrows the compaction size, it is folded into the
+ * snapshot: the log is renamed, the compactor writes a new snapshot, and
+ * the renamed log is deleted. Records appended meanwhile go to the new
+ * log, so a record is never lost between the snapshot and the log.
+ * Replaying the log has to be idempotent, since a crash during the
+ * compaction replays records already contained by the snapshot.
+ */
+public class WriteAheadLog implements Runnable {
+	/** The suffix of the log renamed during compaction. */
+	public static final String COMPACTING_SUFFIX = ".old";
+
+	/** The size of the length and checksum of a record in bytes. */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/** The time in milliseconds the writer waits before retrying a failed write. */
+	private static final int RETRY_DELAY = 1000;
+
+	/** The name of the log file. */
+	private String m_fileName;
+
+	/** The channel of the log file. */
+	private FileChannel m_channel;
+
+	/** The records waiting to be written. */
+	private List<byte[]> m_pending;
+
+	/** The number of records appended. */
+	private long m_appended;
+
+	/** The number of records written and synced. */
+	private long m_synced;
+
+	/** Did the last write of the log fail? */
+	private boolean m_failed;
+
+	/** The number of compactions done. */
+	private long m_compactions;
+
+	/** Is a compaction requested? */
+	private boolean m_compactionRequested;
+
+	/** The time in milliseconds the writer waits for more records. */
+	private int m_commitDelay;
+
+	/** The size of the log in bytes triggering a compaction. */
+	private long m_compactionSize;
+
+	/** Writes the snapshot during compaction, returns whether it succeeded. */
+	private Callable<Boolean> m_compactor;
+
+	/** The should run state-flag. */
+	private volatile boolean m_shouldRun;
+
+	/** The writer thread. */
+	private Thread m_thread;
+
+	/** The hook writing the pending records when the application exits. */
+	private Thread m_shutdownHook;
+
+	/**
+	 * Constructs a WriteAheadLog object, opening the log file and
+	 * starting the writer thread.
+	 * @param fileName The name of the log file.
+	 * @param commitDelay The time in milliseconds the writer waits for more records.
+	 * @param compactionSize The size of the log in bytes triggering a compaction.
+	 * @param compactor Writes the snapshot during compaction.
+	 * @throws IOException If the log file could not be opened.
+	 */
+	public WriteAheadLog(String fileName, int commitDelay, long compactionSize, Callable<Boolean> compactor) throws IOException {
+		// Initializing members
+		m_fileName = fileName;
+		m_channel = open(fileName);
+		m_pending = new ArrayList<byte[]>();
+		m_appended = 0;
+		m_synced = 0;
+		m_failed = false;
+		m_compactions = 0;
+		m_compactionRequested = false;
+		m_commitDelay = commitDelay;
+		m_compactionSize = compactionSize;
+		m_compactor = compactor;
+		m_shouldRun = true;
+
+		// Starting the writer thread
+		m_thread = new Thread(this, "Write-ahead log writer");
+		m_thread.setDaemon(true);
+		m_thread.start();
+
+		// Writing the pending records on exit
+		m_shutdownHook = new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+	}
+
+	/**
+	 * Returns the name of the log file.
+	 * @return The name of the log file.
+	 */
+	public String getFileName() {
+		return m_fileName;
+	}
+
+	/**
+	 * Appends a record to the log. The record is written by the
+	 * writer thread, the method does not wait for the disk.
+	 * @param record The record to append.
+	 */
+	public synchronized void append(byte[] record) {
+		if(!m_shouldRun) {
+			return;
+		}
+		m_pending.add(record);
+		m_appended++;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until every record appended so far is written and synced,
+	 * or writing them fails.
+	 * @return True if the records are written and synced.
+	 */
+	public synchronized boolean sync() {
+		long target = m_appended;
+		while(m_synced < target && !m_failed && m_thread.isAlive()) {
+			try {
+				wait(100);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return m_synced >= target;
+	}
+
+	/**
+	 * Folds the log into the snapshot, and waits until it is done.
+	 */
+	public synchronized void compact() {
+		long target = m_compactions + 1;
+		m_compactionRequested = true;
+		notifyAll();
+		while(m_compactions < target && m_thread.isAlive()) {
+			try {
+				wait(100);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending records, stops the writer thread and closes the log.
+	 */
+	public void close() {
+		synchronized(this) {
+			m_shouldRun = false;
+			notifyAll();
+		}
+
+		// Waiting for the writer to write the pending records
+		try {
+			if(Thread.currentThread() != m_thread) {
+				m_thread.join();
+			}
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+
+		// Removing the shutdown hook, which fails if the application is exiting
+		try {
+			Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+		} catch(IllegalStateException e) {
+			// The hook is running
+		}
+	}
+
+	/**
+	 * Runs the writer thread, which writes the appended records in batches.
+	 */
+	@Override
+	public void run() {
+		while(true) {
+			List<byte[]> batch;
+			long count;
+			boolean compact;
+			synchronized(this) {
+				// Waiting for records
+				while(m_shouldRun && m_pending.isEmpty() && !m_compactionRequested) {
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				if(!m_shouldRun && m_pending.isEmpty()) {
+					break;
+				}
+
+				// Waiting for more records to share the sync
+				if(m_shouldRun && !m_compactionRequested && m_commitDelay > 0) {
+					try {
+						wait(m_commitDelay);
+					} catch(InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+
+				// Taking the batch
+				batch = m_pending;
+				m_pending = new ArrayList<byte[]>();
+				count = m_appended;
+				compact = m_compactionRequested;
+			}
+
+			// Writing and syncing the batch
+			long size;
+			try {
+				size = write(batch);
+				synchronized(this) {
+					m_synced = count;
+					m_failed = false;
+					notifyAll();
+				}
+			} catch(IOException e) {
+				size = 0;
+				synchronized(this) {
+					// Logging only the first failure of a series
+					if(!m_failed) {
+						LogManager.addMainLog(Level.SEVERE, "Writing log failed: " + m_fileName + ", " + e.getMessage());
+					}
+
+					// Keeping the batch pending, ahead of the records appended meanwhile
+					m_failed = true;
+					notifyAll();
+					if(m_shouldRun) {
+						batch.addAll(m_pending);
+						m_pending = batch;
+						try {
+							wait(RETRY_DELAY);
+						} catch(InterruptedException ex) {
+							ex.printStackTrace();
+						}
+					} else {
+						LogManager.addMainLog(Level.SEVERE, "Log closed, " + (count - m_synced) + " records lost: " + m_fileName);
+						m_pending.clear();
+					}
+				}
+			}
+
+			// Folding the log into the snapshot
+			if(compact || size >= m_compactionSize) {
+				doCompact();
+				synchronized(this) {
+					m_compactionRequested = false;
+					m_compactions++;
+					notifyAll();
+				}
+			}
+		}
+
+		// Closing the log file
+		try {
+			m_channel.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes a batch of records to the log file with a single write,
+	 * and syncs the file. If the write fails, the log is cut back to
+	 * it's size before the write, so the records written later are not
+	 * hidden behind a torn record.
+	 * @param batch The records to write.
+	 * @return The size of the log file after the write.
+	 * @throws IOException If the records could not be written or synced.
+	 */
+	private long write(List<byte[]> batch) throws IOException {
+		// Reopening the log if it was left closed by a failure
+		if(!m_channel.isOpen()) {
+			m_channel = open(m_fileName);
+		}
+		long start = m_channel.size();
+		try {
+			if(!batch.isEmpty()) {
+				// Framing the records with their length and checksum
+				int length = 0;
+				for(byte[] record : batch) {
+					length += RECORD_HEADER_SIZE + record.length;
+				}
+				ByteBuffer buffer = ByteBuffer.allocate(length);
+				CRC32 crc = new CRC32();
+				for(byte[] record : batch) {
+					crc.reset();
+					crc.update(record);
+					buffer.putInt(record.length);
+					buffer.putInt((int) crc.getValue());
+					buffer.put(record);
+				}
+				buffer.flip();
+
+				// Writing and syncing the records
+				while(buffer.hasRemaining()) {
+					m_channel.write(buffer);
+				}
+				m_channel.force(false);
+			}
+			return m_channel.size();
+
+		} catch(IOException e) {
+			// Cutting off the partially written records
+			try {
+				m_channel.truncate(start);
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Folds the log into the snapshot. The log is renamed and a new log
+	 * is opened before the snapshot is written, so changes made while the
+	 * snapshot is written are kept in the new log. The renamed log is only
+	 * deleted after the snapshot was written successfully.
+	 */
+	private void doCompact() {
+		File file = new File(m_fileName);
+		File compacting = new File(m_fileName + COMPACTING_SUFFIX);
+		try {
+			// Renaming the log, or appending it to a log left by a failed compaction
+			m_channel.close();
+			if(compacting.exists()) {
+				FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				FileChannel target = open(compacting.getPath());
+				try {
+					source.transferTo(0, source.size(), target);
+					target.force(false);
+				} finally {
+					source.close();
+					target.close();
+				}
+				if(!file.delete()) {
+					throw new IOException("Could not delete log: " + m_fileName);
+				}
+			} else if(!file.renameTo(compacting)) {
+				throw new IOException("Could not rename log: " + m_fileName);
+			}
+			m_channel = open(m_fileName);
+
+			// Writing the snapshot and deleting the folded log
+			if(m_compactor.call()) {
+				if(!compacting.delete()) {
+					LogManager.addMainLog(Level.WARNING, "Could not delete compacted log: " + compacting.getPath());
+				}
+			} else {
+				LogManager.addMainLog(Level.WARNING, "Log compaction failed, keeping " + compacting.getPath());
+			}
+
+		} catch(Exception e) {
+			e.printStackTrace();
+
+			// Reopening the log to keep appending
+			try {
+				if(!m_channel.isOpen()) {
+					m_channel = open(m_fileName);
+				}
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Opens a log file for appending.
+	 * @param fileName The name of the log file.
+	 * @return The channel of the file.
+	 * @throws IOException If the file could not be opened.
+	 */
+	private static FileChannel open(String fileName) throws IOException {
+		return FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Reads the records of a log, including a log left by an interrupted
+	 * compaction, in the order they were appended. Reading a file stops at
+	 * the first record which is truncated or fails it's checksum.
+	 * @param fileName The name of the log file.
+	 * @return The readers of the records.
+	 * @throws IOException If a log file could not be read.
+	 */
+	public static List<RecordReader> read(String fileName) throws IOException {
+		List<RecordReader> records = new ArrayList<RecordReader>();
+		readFile(fileName + COMPACTING_SUFFIX, records);
+		readFile(fileName, records);
+		return records;
+	}
+
+	/**
+	 * Deletes a log, including a log left by an interrupted compaction.
+	 * Used after the records of the log were folded into a snapshot.
+	 * @param fileName The name of the log file.
+	 */
+	public static void delete(String fileName) {
+		new File(fileName + COMPACTING_SUFFIX).delete();
+		new File(fileName).delete();
+	}
+
+	/**
+	 * Reads the records of a single log file.
+	 * @param fileName The name of the log file.
+	 * @param records The list to add the readers of the records to.
+	 * @throws IOException If the file could not be read.
+	 */
+	private static void readFile(String fileName, List<RecordReader> records) throws IOException {
+		if(!new File(fileName).isFile()) {
+			return;
+		}
+
+		// Mapping the file
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		ByteBuffer buffer;
+		try {
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+
+		// Reading the records until the end or a damaged record
+		CRC32 crc = new CRC32();
+		while(buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if(length < 0 || length > buffer.remaining()) {
+				LogManager.addMainLog(Level.WARNING, "Truncated record ignored in log: " + fileName);
+				return;
+			}
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			crc.reset();
+			crc.update(record.duplicate());
+			if((int) crc.getValue() != checksum) {
+				LogManager.addMainLog(Level.WARNING, "Damaged record ignored in log: " + fileName);
+				return;
+			}
+			records.add(new RecordReader(record));
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+};
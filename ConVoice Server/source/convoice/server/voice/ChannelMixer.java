@@ -0,0 +1,321 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/**
+ * The ChannelMixer class mixes the voice of the speakers of a channel
+ * in mixing mode, instead of forwarding every stream to every user.
+ * The relay decodes the frames of the speakers into the mixer, and the
+ * VoiceMixer calls mix() every frame period. The frames of the active
+ * speakers are summed, then each speaker receives the sum without it's
+ * own voice, and every other user receives the full sum, so only one
+ * packet is encoded per distinct mix. Mixed packets are sent with the
+ * MIXER_ID in place of the ID of the speaker, encoded with the codec of
+ * the mixer. Only the primary frame of packets with forward error
+ * correction is mixed, the redundant copies are ignored. Every speaker
+ * slot and the full mix has it's own encoder, since the codec adapts
+ * to the stream it encodes. All buffers and codecs are allocated by
+ * the constructor, so mixing allocates no memory.
+ */
+public class ChannelMixer {
+	/** The maximum number of speakers mixed at the same time. */
+	public static final int MAX_SPEAKERS = 8;
+
+	/** The number of frames queued per speaker. */
+	private static final int QUEUE_LENGTH = 4;
+
+	/** The ID of the mixed channel. */
+	private int m_channel;
+
+	/** The IDs of the speakers in each slot, 0 for free slots. */
+	private int[] m_speakers;
+
+	/** The queued frames of each slot. */
+	private short[][][] m_queues;
+
+	/** The index of the oldest queued frame of each slot. */
+	private int[] m_heads;
+
+	/** The number of queued frames of each slot. */
+	private int[] m_counts;
+
+	/** The number of frame periods each slot was silent for. */
+	private int[] m_idle;
+
+	/** The frames of the speakers mixed in the current period. */
+	private short[][] m_frames;
+
+	/** The IDs of the speakers mixed in the current period. */
+	private int[] m_active;
+
+	/** The slots of the speakers mixed in the current period. */
+	private int[] m_activeSlots;
+
+	/** The sum of the frames mixed in the current period. */
+	private float[] m_sum;
+
+	/** The clipped mix being encoded. */
+	private short[] m_mix;
+
+	/** The decoders of the received frames, indexed by codec ID. */
+	private VoiceCodec[] m_decoders;
+
+	/** The encoders of the mixes of each slot, and of the full mix at MAX_SPEAKERS. */
+	private VoiceCodec[] m_encoders;
+
+	/** The buffer of the encoded mixed packets. */
+	private ByteBuffer m_packet;
+
+	/** The endpoints of the users of the channel. */
+	private volatile VoiceEndpoint[] m_members;
+
+	/** The sequence number of the next mixed packet. */
+	private int m_sequence;
+
+	/** The timestamp of the next mixed packet. */
+	private int m_timestamp;
+
+	/**
+	 * Constructs a ChannelMixer object.
+	 * @param channel The ID of the mixed channel.
+	 * @param codec The codec of the mixed frames.
+	 */
+	public ChannelMixer(int channel, CodecType codec) {
+		// Initializing members
+		m_channel = channel;
+		m_speakers = new int[MAX_SPEAKERS];
+		m_queues = new short[MAX_SPEAKERS][QUEUE_LENGTH][VoicePacket.FRAME_SAMPLES];
+		m_heads = new int[MAX_SPEAKERS];
+		m_counts = new int[MAX_SPEAKERS];
+		m_idle = new int[MAX_SPEAKERS];
+		m_frames = new short[MAX_SPEAKERS][VoicePacket.FRAME_SAMPLES];
+		m_active = new int[MAX_SPEAKERS];
+		m_activeSlots = new int[MAX_SPEAKERS];
+		m_sum = new float[VoicePacket.FRAME_SAMPLES];
+		m_mix = new short[VoicePacket.FRAME_SAMPLES];
+		m_decoders = new VoiceCodec[CodecType.values().length];
+		for(CodecType type : CodecType.values()) {
+			m_decoders[type.getID()] = type.createCodec();
+		}
+		m_encoders = new VoiceCodec[MAX_SPEAKERS + 1];
+		for(int i = 0; i <= MAX_SPEAKERS; i++) {
+			m_encoders[i] = codec.createCodec();
+		}
+		m_packet = ByteBuffer.allocateDirect(VoicePacket.RELAY_HEADER_SIZE + m_encoders[0].getMaxEncodedSize(VoicePacket.FRAME_SAMPLES));
+		m_members = new VoiceEndpoint[0];
+		m_sequence = 0;
+		m_timestamp = 0;
+	}
+
+	/**
+	 * Gets the ID of the mixed channel.
+	 * @return The ID of the channel.
+	 */
+	public int getChannel() {
+		return m_channel;
+	}
+
+	/**
+	 * Sets the endpoints of the users of the channel.
+	 * @param members The endpoints of the users.
+	 */
+	public void setMembers(VoiceEndpoint[] members) {
+		m_members = members;
+	}
+
+	/**
+	 * Decodes the payload of a client packet into the queue of it's
+	 * speaker. The packet is dropped if too many users are speaking.
+	 * @param userID The ID of the speaker.
+	 * @param packet The client packet with a known codec ID, from position 0 to it's limit.
+	 */
+	public synchronized void put(int userID, ByteBuffer packet) {
+		// Finding the slot of the speaker, or a free slot
+		int slot = -1;
+		for(int i = 0; i < MAX_SPEAKERS; i++) {
+			if(m_speakers[i] == userID) {
+				slot = i;
+				break;
+			}
+			if(slot < 0 && m_speakers[i] == 0) {
+				slot = i;
+			}
+		}
+		if(slot < 0) {
+			return;
+		}
+		m_speakers[slot] = userID;
+		m_idle[slot] = 0;
+
+		// Dropping the oldest frame if the queue is full
+		if(m_counts[slot] == QUEUE_LENGTH) {
+			m_heads[slot] = (m_heads[slot] + 1) % QUEUE_LENGTH;
+			m_counts[slot]--;
+		}
+
+		// Decoding the samples, without the redundant copies
+		short[] frame = m_queues[slot][(m_heads[slot] + m_counts[slot]) % QUEUE_LENGTH];
+		byte codecID = packet.get(VoicePacket.CODEC_OFFSET);
+		VoiceCodec decoder = m_decoders[codecID & VoicePacket.CODEC_MASK];
+		int length;
+		if((codecID & VoicePacket.FEC_FLAG) != 0) {
+			length = Math.min(packet.getShort(VoicePacket.CLIENT_HEADER_SIZE) & 0xFFFF,
+					packet.limit() - VoicePacket.CLIENT_HEADER_SIZE - 2);
+			packet.position(VoicePacket.CLIENT_HEADER_SIZE + 2);
+		} else {
+			packet.position(VoicePacket.CLIENT_HEADER_SIZE);
+			length = packet.remaining();
+		}
+		int count = decoder.decode(packet, Math.max(length, 0), frame);
+		Arrays.fill(frame, count, VoicePacket.FRAME_SAMPLES, (short) 0);
+		m_counts[slot]++;
+	}
+
+	/**
+	 * Removes a speaker from the mixer, when the user leaves the channel.
+	 * @param userID The ID of the speaker.
+	 */
+	public synchronized void removeSpeaker(int userID) {
+		for(int i = 0; i < MAX_SPEAKERS; i++) {
+			if(m_speakers[i] == userID) {
+				m_speakers[i] = 0;
+				m_counts[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Mixes one frame of every active speaker and sends the mixes to
+	 * the users of the channel. Nothing is sent if nobody is speaking.
+	 * @param channel The channel to send the mixed packets on.
+	 * @throws IOException If a packet could not be sent.
+	 */
+	public void mix(DatagramChannel channel) throws IOException {
+		// Taking a frame of every speaker
+		int active = 0;
+		synchronized(this) {
+			for(int i = 0; i < MAX_SPEAKERS; i++) {
+				if(m_speakers[i] == 0) {
+					continue;
+				}
+				if(m_counts[i] == 0) {
+					// Freeing the slots of speakers who stopped talking
+					if(++m_idle[i] > QUEUE_LENGTH) {
+						m_speakers[i] = 0;
+					}
+					continue;
+				}
+				System.arraycopy(m_queues[i][m_heads[i]], 0, m_frames[active], 0, VoicePacket.FRAME_SAMPLES);
+				m_heads[i] = (m_heads[i] + 1) % QUEUE_LENGTH;
+				m_counts[i]--;
+				m_activeSlots[active] = i;
+				m_active[active++] = m_speakers[i];
+			}
+		}
+		if(active == 0) {
+			return;
+		}
+
+		// Summing the frames
+		Arrays.fill(m_sum, 0);
+		for(int s = 0; s < active; s++) {
+			short[] frame = m_frames[s];
+			for(int i = 0; i < VoicePacket.FRAME_SAMPLES; i++) {
+				m_sum[i] += frame[i];
+			}
+		}
+
+		// Sending every speaker the mix without it's own voice
+		VoiceEndpoint[] members = m_members;
+		for(int s = 0; s < active; s++) {
+			VoiceEndpoint speaker = find(members, m_active[s]);
+			if(speaker != null && speaker.getAddress() != null) {
+				encode(m_frames[s], m_encoders[m_activeSlots[s]]);
+				send(channel, speaker.getAddress());
+			}
+		}
+
+		// Sending the full mix to the listeners
+		encode(null, m_encoders[MAX_SPEAKERS]);
+		for(VoiceEndpoint member : members) {
+			SocketAddress address = member.getAddress();
+			if(address != null && !isActive(member.getUserID(), active)) {
+				send(channel, address);
+			}
+		}
+
+		// Advancing the stream
+		m_sequence++;
+		m_timestamp += VoicePacket.FRAME_SAMPLES;
+	}
+
+	/**
+	 * Encodes the current sum into the packet buffer.
+	 * @param excluded The frame subtracted from the sum, or null.
+	 * @param encoder The encoder of the mix.
+	 */
+	private void encode(short[] excluded, VoiceCodec encoder) {
+		// Clipping the mix
+		for(int i = 0; i < VoicePacket.FRAME_SAMPLES; i++) {
+			float sample = excluded != null ? m_sum[i] - excluded[i] : m_sum[i];
+			m_mix[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+		}
+
+		// Writing the packet
+		m_packet.clear();
+		m_packet.putInt(VoicePacket.MIXER_ID);
+		m_packet.putInt(m_sequence);
+		m_packet.putInt(m_timestamp);
+		m_packet.put(encoder.getType().getID());
+		encoder.encode(m_mix, VoicePacket.FRAME_SAMPLES, m_packet);
+		m_packet.flip();
+	}
+
+	/**
+	 * Sends the packet buffer to an address.
+	 * @param channel The channel to send the packet on.
+	 * @param address The address of the receiving user.
+	 * @throws IOException If the packet could not be sent.
+	 */
+	private void send(DatagramChannel channel, SocketAddress address) throws IOException {
+		m_packet.position(0);
+		channel.send(m_packet, address);
+	}
+
+	/**
+	 * Returns whether a user is mixed in the current period.
+	 * @param userID The ID of the user.
+	 * @param active The number of mixed speakers.
+	 * @return True if the user is speaking.
+	 */
+	private boolean isActive(int userID, int active) {
+		for(int s = 0; s < active; s++) {
+			if(m_active[s] == userID) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the endpoint of a user among the members.
+	 * @param members The endpoints of the members.
+	 * @param userID The ID of the user.
+	 * @return The endpoint of the user, or null if not a member.
+	 */
+	private static VoiceEndpoint find(VoiceEndpoint[] members, int userID) {
+		for(VoiceEndpoint member : members) {
+			if(member.getUserID() == userID) {
+				return member;
+			}
+		}
+		return null;
+	}
+
+};
@@ -0,0 +1,109 @@
+package convoice.server.voice;
+
+
+/**
+ * The CodecType enum represents the codecs of the voice transport.
+ * The codecs are negotiated by their String form during the connection
+ * handshake, and every voice packet carries the ID of the codec of
+ * it's payload. All values in the enum are convertible to a String
+ * and vice versa.
+ */
+public enum CodecType {
+	/** Uncompressed big-endian 16 bit samples. */
+	PCM("PCM", 0),
+
+	/** IMA ADPCM, 4 bits per sample. */
+	ADPCM("ADPCM", 1),
+
+	/** IMA ADPCM at half of the sample rate, 2 bits per sample. */
+	NARROWBAND_ADPCM("ADPCM-NB", 2);
+
+	/** The values of the enum, without copying them on every lookup. */
+	private static final CodecType[] VALUES = values();
+
+	/** The String representation of the enum value. */
+	private final String m_value;
+
+	/** The ID of the codec sent in the voice packets. */
+	private final byte m_id;
+
+	/**
+	 * Constructs a CodecType enum value.
+	 * @param value The String representation of the value.
+	 * @param id The ID of the codec.
+	 */
+	CodecType(String value, int id) {
+		m_value = value;
+		m_id = (byte) id;
+	}
+
+	/**
+	 * Returns the ID of the codec sent in the voice packets.
+	 * @return The ID of the codec.
+	 */
+	public byte getID() {
+		return m_id;
+	}
+
+	/**
+	 * Creates a new codec object of the type.
+	 * @return The created codec.
+	 */
+	public VoiceCodec createCodec() {
+		switch(this) {
+			case ADPCM:
+				return new AdpcmCodec();
+			case NARROWBAND_ADPCM:
+				return new NarrowbandAdpcmCodec();
+			default:
+				return new PcmCodec();
+		}
+	}
+
+	/**
+	 * Returns the bitrate of the payload of the codec.
+	 * @param frameSamples The number of samples of a frame.
+	 * @param frameDuration The duration of a frame in milliseconds.
+	 * @return The bitrate in bits per second.
+	 */
+	public int getBitrate(int frameSamples, int frameDuration) {
+		return createCodec().getMaxEncodedSize(frameSamples) * 8 * 1000 / frameDuration;
+	}
+
+	/**
+	 * Returns the String representation of the value.
+	 * @return The String representation of the value.
+	 */
+	public String toString() {
+		return m_value;
+	}
+
+	/**
+	 * Returns the enum value with the specified String representation.
+	 * @param value The String representation of the value.
+	 * @return The enum value, or null if the codec is unknown.
+	 */
+	public static CodecType fromString(String value) {
+		for(CodecType type : VALUES) {
+			if(type.m_value.equalsIgnoreCase(value.trim())) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the enum value with the specified ID.
+	 * @param id The ID of the codec.
+	 * @return The enum value, or null if the codec is unknown.
+	 */
+	public static CodecType fromID(byte id) {
+		for(CodecType type : VALUES) {
+			if(type.m_id == id) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+};
@@ -0,0 +1,142 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Project imports
+import convoice.server.util.IntMap;
+
+/**
+ * The ForwardingTable class maps the senders of voice packets to the
+ * endpoints the packets are forwarded to.
+ * The table is immutable, it is rebuilt by the VoiceManager whenever
+ * a user joins, leaves or moves to another channel, and is read by the
+ * relay without locking. Lookups use a binary search on a primitive
+ * array, so forwarding a packet allocates nothing. The endpoints of a
+ * channel share the same route array, which includes the sender.
+ * Users of channels in mixing mode are mapped to the ChannelMixer of
+ * their channel, whose members are updated when the table is built.
+ */
+public class ForwardingTable {
+	/** The IDs of the users, in ascending order. */
+	private int[] m_ids;
+
+	/** The endpoints of the users, in the order of their IDs. */
+	private VoiceEndpoint[] m_endpoints;
+
+	/** The endpoints of the channel of each user, in the order of their IDs. */
+	private VoiceEndpoint[][] m_routes;
+
+	/** The mixer of the channel of each user, in the order of their IDs. */
+	private ChannelMixer[] m_userMixers;
+
+	/** The mixers of the channels in mixing mode. */
+	private ChannelMixer[] m_mixers;
+
+	/**
+	 * Constructs a ForwardingTable object.
+	 * @param endpoints The endpoints of all users mapped by user ID.
+	 * @param mixers The mixers of the channels in mixing mode mapped by channel ID.
+	 */
+	public ForwardingTable(IntMap<VoiceEndpoint> endpoints, IntMap<ChannelMixer> mixers) {
+		// Sorting the endpoints by user ID
+		m_endpoints = new VoiceEndpoint[endpoints.size()];
+		for(int i = endpoints.next(-1), n = 0; i >= 0; i = endpoints.next(i)) {
+			m_endpoints[n++] = endpoints.valueAt(i);
+		}
+		Arrays.sort(m_endpoints, new Comparator<VoiceEndpoint>() {
+			@Override
+			public int compare(VoiceEndpoint a, VoiceEndpoint b) {
+				return Integer.compare(a.getUserID(), b.getUserID());
+			}
+		});
+		m_ids = new int[m_endpoints.length];
+		for(int i = 0; i < m_endpoints.length; i++) {
+			m_ids[i] = m_endpoints[i].getUserID();
+		}
+
+		// Grouping the endpoints by channel
+		IntMap<List<VoiceEndpoint>> channels = new IntMap<List<VoiceEndpoint>>();
+		for(VoiceEndpoint endpoint : m_endpoints) {
+			List<VoiceEndpoint> members = channels.get(endpoint.getChannel());
+			if(members == null) {
+				members = new ArrayList<VoiceEndpoint>();
+				channels.put(endpoint.getChannel(), members);
+			}
+			members.add(endpoint);
+		}
+
+		// Sharing the route of a channel between it's members
+		IntMap<VoiceEndpoint[]> routes = new IntMap<VoiceEndpoint[]>(channels.size());
+		for(int i = channels.next(-1); i >= 0; i = channels.next(i)) {
+			List<VoiceEndpoint> members = channels.valueAt(i);
+			routes.put(channels.keyAt(i), members.toArray(new VoiceEndpoint[members.size()]));
+		}
+		m_routes = new VoiceEndpoint[m_endpoints.length][];
+		m_userMixers = new ChannelMixer[m_endpoints.length];
+		for(int i = 0; i < m_endpoints.length; i++) {
+			m_routes[i] = routes.get(m_endpoints[i].getChannel());
+			m_userMixers[i] = mixers.get(m_endpoints[i].getChannel());
+		}
+
+		// Updating the members of the mixers
+		m_mixers = new ChannelMixer[mixers.size()];
+		for(int i = mixers.next(-1), n = 0; i >= 0; i = mixers.next(i)) {
+			m_mixers[n++] = mixers.valueAt(i);
+		}
+		for(ChannelMixer mixer : m_mixers) {
+			VoiceEndpoint[] members = routes.get(mixer.getChannel());
+			mixer.setMembers(members != null ? members : new VoiceEndpoint[0]);
+		}
+	}
+
+	/**
+	 * Returns the index of the specified user in the table.
+	 * @param userID The ID of the user.
+	 * @return The index of the user, or a negative value if not found.
+	 */
+	public int indexOf(int userID) {
+		return Arrays.binarySearch(m_ids, userID);
+	}
+
+	/**
+	 * Returns the endpoint at the specified index.
+	 * @param index The index of the user.
+	 * @return The endpoint of the user.
+	 */
+	public VoiceEndpoint getEndpoint(int index) {
+		return m_endpoints[index];
+	}
+
+	/**
+	 * Returns the endpoints of the channel of the user at the
+	 * specified index, including the user itself.
+	 * @param index The index of the user.
+	 * @return The endpoints packets of the user are forwarded to.
+	 */
+	public VoiceEndpoint[] getRoute(int index) {
+		return m_routes[index];
+	}
+
+	/**
+	 * Returns the mixer of the channel of the user at the specified index.
+	 * @param index The index of the user.
+	 * @return The mixer of the channel, or null if the channel is not mixed.
+	 */
+	public ChannelMixer getMixer(int index) {
+		return m_userMixers[index];
+	}
+
+	/**
+	 * Returns the mixers of the channels in mixing mode.
+	 * @return The array of mixers.
+	 */
+	public ChannelMixer[] getMixers() {
+		return m_mixers;
+	}
+
+};
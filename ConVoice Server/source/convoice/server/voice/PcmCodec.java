@@ -0,0 +1,58 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.nio.ByteBuffer;
+
+/**
+ * The PcmCodec class passes the samples through without compression,
+ * as big-endian 16 bit values.
+ */
+public class PcmCodec implements VoiceCodec {
+	/**
+	 * Returns the type of the codec.
+	 * @return CodecType.PCM
+	 */
+	public CodecType getType() {
+		return CodecType.PCM;
+	}
+
+	/**
+	 * Returns the maximum size of an encoded frame.
+	 * @param count The number of samples of the frame.
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxEncodedSize(int count) {
+		return 2 * count;
+	}
+
+	/**
+	 * Encodes a frame of samples at the position of the buffer.
+	 * @param samples The samples of the frame.
+	 * @param count The number of samples.
+	 * @param out The buffer receiving the encoded frame.
+	 * @return The number of bytes written.
+	 */
+	public int encode(short[] samples, int count, ByteBuffer out) {
+		for(int i = 0; i < count; i++) {
+			out.putShort(samples[i]);
+		}
+		return 2 * count;
+	}
+
+	/**
+	 * Decodes a frame from the position of the buffer.
+	 * @param in The buffer holding the encoded frame.
+	 * @param length The size of the encoded frame in bytes.
+	 * @param samples The array receiving the samples.
+	 * @return The number of samples decoded.
+	 */
+	public int decode(ByteBuffer in, int length, short[] samples) {
+		int count = Math.min(length / 2, samples.length);
+		for(int i = 0; i < count; i++) {
+			samples[i] = in.getShort();
+		}
+		return count;
+	}
+
+};
@@ -0,0 +1,110 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.net.SocketAddress;
+
+/**
+ * The VoiceEndpoint class stores the voice transport data of a user.
+ * The address of the endpoint is learned from the first authenticated
+ * packet of the user, and is updated if the address of the client
+ * changes, for example when a NAT mapping expires. The speaking flag
+ * follows the voice activity detection of the client: it is set by
+ * voice frames, and cleared by comfort noise markers.
+ */
+public class VoiceEndpoint {
+	/** The ID of the user. */
+	private int m_userID;
+
+	/** The token authenticating the packets of the user. */
+	private long m_token;
+
+	/** The ID of the user's current channel. */
+	private volatile int m_channel;
+
+	/** The UDP address of the user, null until the first packet. */
+	private volatile SocketAddress m_address;
+
+	/** The speaking state-flag of the user. */
+	private volatile boolean m_speaking;
+
+	/**
+	 * Constructs a VoiceEndpoint object.
+	 * @param userID The ID of the user.
+	 * @param token The token authenticating the packets of the user.
+	 * @param channel The ID of the user's current channel.
+	 */
+	public VoiceEndpoint(int userID, long token, int channel) {
+		// Initializing members
+		m_userID = userID;
+		m_token = token;
+		m_channel = channel;
+		m_address = null;
+		m_speaking = false;
+	}
+
+	/**
+	 * Gets the ID of the user.
+	 * @return The ID of the user.
+	 */
+	public int getUserID() {
+		return m_userID;
+	}
+
+	/**
+	 * Gets the token authenticating the packets of the user.
+	 * @return The token of the user.
+	 */
+	public long getToken() {
+		return m_token;
+	}
+
+	/**
+	 * Gets the ID of the user's current channel.
+	 * @return The ID of the channel.
+	 */
+	public int getChannel() {
+		return m_channel;
+	}
+
+	/**
+	 * Sets the ID of the user's current channel.
+	 * @param channel The ID of the channel.
+	 */
+	public void setChannel(int channel) {
+		m_channel = channel;
+	}
+
+	/**
+	 * Gets the UDP address of the user.
+	 * @return The address of the user, or null if it is not known yet.
+	 */
+	public SocketAddress getAddress() {
+		return m_address;
+	}
+
+	/**
+	 * Sets the UDP address of the user.
+	 * @param address The address of the user.
+	 */
+	public void setAddress(SocketAddress address) {
+		m_address = address;
+	}
+
+	/**
+	 * Gets whether the user is speaking or not.
+	 * @return True if the last packet of the user was a voice frame.
+	 */
+	public boolean isSpeaking() {
+		return m_speaking;
+	}
+
+	/**
+	 * Sets whether the user is speaking or not.
+	 * @param speaking A boolean value representing whether the user is speaking.
+	 */
+	public void setSpeaking(boolean speaking) {
+		m_speaking = speaking;
+	}
+
+};
@@ -0,0 +1,267 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+import convoice.server.server.Server;
+import convoice.server.util.IntMap;
+
+/**
+ * The VoiceManager class provides an interface for the voice transport
+ * of the server.
+ * It is responsible for running the VoiceRelay, and for maintaining the
+ * ForwardingTable the relay uses. Users are registered when their
+ * connection is accepted, and receive a random token which has to be
+ * sent with every voice packet. The table is rebuilt whenever a user
+ * is registered, moved or removed. Channels in mixing mode get a
+ * ChannelMixer, which is driven by the VoiceMixer. The VoiceManager
+ * class contains only static fields and methods.
+ */
+public class VoiceManager {
+	/** The relay forwarding the voice packets. */
+	private static VoiceRelay m_relay;
+
+	/** The mixer driving the ChannelMixer objects. */
+	private static VoiceMixer m_mixer;
+
+	/** The UDP port of the relay. */
+	private static int m_port;
+
+	/** The preferred codec, also used for the mixed channels. */
+	private static CodecType m_codec;
+
+	/** The endpoints of the registered users mapped by their ID. */
+	private static IntMap<VoiceEndpoint> m_endpoints;
+
+	/** The mixers of the channels in mixing mode mapped by channel ID. */
+	private static IntMap<ChannelMixer> m_mixers;
+
+	/** The forwarding table used by the relay. */
+	private static volatile ForwardingTable m_table;
+
+	/** The generator of the tokens. */
+	private static SecureRandom m_random;
+
+	/**
+	 * Initializes the manager.
+	 */
+	static {
+		// Initializing members
+		m_relay = null;
+		m_mixer = null;
+		m_endpoints = new IntMap<VoiceEndpoint>();
+		m_mixers = new IntMap<ChannelMixer>();
+		m_table = new ForwardingTable(m_endpoints, m_mixers);
+		m_random = new SecureRandom();
+		m_codec = CodecType.ADPCM;
+	}
+
+	/**
+	 * Loads voice configuration from the global Server properties.
+	 */
+	public static void loadConfiguration() {
+		// Getting manager properties
+		m_port = Integer.parseInt(Server.getProperties().getProperty("voicePort", "6970"));
+		m_codec = CodecType.fromString(Server.getProperties().getProperty("voiceCodec", "ADPCM"));
+		if(m_codec == null) {
+			m_codec = CodecType.ADPCM;
+		}
+
+		// Logging
+		LogManager.addConnectionsLog(Level.CONFIG, "Voice configuration loaded.");
+	}
+
+	/**
+	 * Starts the VoiceRelay and the VoiceMixer on separate threads. If
+	 * the port of the relay can not be bound, the server runs without voice.
+	 */
+	public static void start() {
+		try {
+			// Starting the relay
+			m_relay = new VoiceRelay(m_port);
+			Thread thread = new Thread(m_relay, "ConVoice voice relay");
+			thread.start();
+
+			// Starting the mixer
+			m_mixer = new VoiceMixer(m_relay.getChannel());
+			thread = new Thread(m_mixer, "ConVoice voice mixer");
+			thread.start();
+		} catch(IOException e) {
+			m_relay = null;
+			LogManager.addConnectionsLog(Level.SEVERE, "Voice relay could not be started: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the VoiceRelay and the VoiceMixer, and removes all registered users.
+	 */
+	public static void stop() {
+		// Stopping the mixer
+		if(m_mixer != null) {
+			m_mixer.stop();
+			m_mixer = null;
+		}
+
+		// Stopping the relay
+		if(m_relay != null) {
+			m_relay.stop();
+			m_relay = null;
+		}
+
+		// Removing the endpoints
+		synchronized(m_endpoints) {
+			m_endpoints.clear();
+			rebuild();
+		}
+	}
+
+	/**
+	 * Returns the UDP port of the relay.
+	 * @return The port of the relay, or 0 if the relay is not running.
+	 */
+	public static int getPort() {
+		VoiceRelay relay = m_relay;
+		return relay != null ? relay.getPort() : 0;
+	}
+
+	/**
+	 * Returns the forwarding table of the relay.
+	 * @return The current forwarding table.
+	 */
+	public static ForwardingTable getForwardingTable() {
+		return m_table;
+	}
+
+	/**
+	 * Turns the mixing mode of a channel on or off.
+	 * @param channelID The ID of the channel.
+	 * @param mixed Should the voice of the channel be mixed?
+	 */
+	public static void setChannelMixed(int channelID, boolean mixed) {
+		synchronized(m_endpoints) {
+			if(mixed && !m_mixers.containsKey(channelID)) {
+				m_mixers.put(channelID, new ChannelMixer(channelID, m_codec));
+				rebuild();
+			} else if(!mixed && m_mixers.remove(channelID) != null) {
+				rebuild();
+			}
+		}
+	}
+
+	/**
+	 * Turns the mixing mode of every channel off, when the
+	 * channels are reset.
+	 */
+	public static void resetMixers() {
+		synchronized(m_endpoints) {
+			m_mixers.clear();
+			rebuild();
+		}
+	}
+
+	/**
+	 * Chooses the codec a client sends it's voice with. The preferred
+	 * codec of the server is chosen if the client supports it within
+	 * it's bitrate limit, otherwise the supported codec with the lowest
+	 * bitrate. Clients support PCM even if they do not offer it.
+	 * @param offered The codecs supported by the client.
+	 * @param maxBitrate The bitrate limit of the client, 0 if unlimited.
+	 * @return The chosen codec.
+	 */
+	public static CodecType negotiateCodec(List<CodecType> offered, int maxBitrate) {
+		// Choosing the preferred codec
+		if(offered.contains(m_codec) && (maxBitrate == 0 || getBitrate(m_codec) <= maxBitrate)) {
+			return m_codec;
+		}
+
+		// Choosing the codec with the lowest bitrate
+		CodecType chosen = CodecType.PCM;
+		for(CodecType codec : offered) {
+			if(getBitrate(codec) < getBitrate(chosen)) {
+				chosen = codec;
+			}
+		}
+		return chosen;
+	}
+
+	/**
+	 * Returns the bitrate of the payload of a codec.
+	 * @param codec The codec.
+	 * @return The bitrate in bits per second.
+	 */
+	public static int getBitrate(CodecType codec) {
+		return codec.getBitrate(VoicePacket.FRAME_SAMPLES, VoicePacket.FRAME_DURATION);
+	}
+
+	/**
+	 * Registers a user for the voice transport.
+	 * @param userID The ID of the user.
+	 * @param channel The ID of the user's channel.
+	 * @return The token authenticating the packets of the user.
+	 */
+	public static long addUser(int userID, int channel) {
+		long token = m_random.nextLong();
+		synchronized(m_endpoints) {
+			m_endpoints.put(userID, new VoiceEndpoint(userID, token, channel));
+			rebuild();
+		}
+		return token;
+	}
+
+	/**
+	 * Moves a registered user to another channel.
+	 * @param userID The ID of the user.
+	 * @param channel The ID of the channel moved to.
+	 */
+	public static void moveUser(int userID, int channel) {
+		synchronized(m_endpoints) {
+			VoiceEndpoint endpoint = m_endpoints.get(userID);
+			if(endpoint != null) {
+				removeSpeaker(userID, endpoint.getChannel());
+				endpoint.setChannel(channel);
+				endpoint.setSpeaking(false);
+				rebuild();
+			}
+		}
+	}
+
+	/**
+	 * Removes a user from the voice transport.
+	 * @param userID The ID of the user.
+	 */
+	public static void removeUser(int userID) {
+		synchronized(m_endpoints) {
+			VoiceEndpoint endpoint = m_endpoints.remove(userID);
+			if(endpoint != null) {
+				removeSpeaker(userID, endpoint.getChannel());
+				rebuild();
+			}
+		}
+	}
+
+	/**
+	 * Removes a user from the mixer of a channel, if the channel is mixed.
+	 * @param userID The ID of the user.
+	 * @param channel The ID of the channel left by the user.
+	 */
+	private static void removeSpeaker(int userID, int channel) {
+		ChannelMixer mixer = m_mixers.get(channel);
+		if(mixer != null) {
+			mixer.removeSpeaker(userID);
+		}
+	}
+
+	/**
+	 * Rebuilds the forwarding table, called with the endpoints locked.
+	 */
+	private static void rebuild() {
+		m_table = new ForwardingTable(m_endpoints, m_mixers);
+	}
+
+};
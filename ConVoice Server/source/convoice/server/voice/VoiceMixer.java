@@ -0,0 +1,102 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.logger.LogManager;
+
+/**
+ * The VoiceMixer class drives the ChannelMixer objects of the channels
+ * in mixing mode.
+ * Every frame period the mixer takes the current ForwardingTable and
+ * lets each of it's mixers send their mixes on the channel of the
+ * relay. The periods are measured from the start of the mixer, so the
+ * mixed streams do not drift.
+ */
+public class VoiceMixer implements Runnable {
+	/** The UDP channel of the relay. */
+	private DatagramChannel m_channel;
+
+	/** The running state-flag. */
+	private volatile boolean m_running;
+
+	/** The should run state-flag. */
+	private volatile boolean m_shouldRun;
+
+	/**
+	 * Constructs a VoiceMixer object.
+	 * @param channel The UDP channel of the relay, used for sending.
+	 */
+	public VoiceMixer(DatagramChannel channel) {
+		// Initializing members
+		m_channel = channel;
+		m_running = false;
+		m_shouldRun = false;
+	}
+
+	/**
+	 * Runs the main loop of the mixer, until stop() is called
+	 * or the channel of the relay is closed.
+	 */
+	public void run() {
+		// Setting state-flags
+		m_shouldRun = true;
+		m_running = true;
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Voice mixer started.");
+
+		long period = VoicePacket.FRAME_DURATION * 1000000L;
+		long next = System.nanoTime() + period;
+		while(m_shouldRun) {
+			try {
+				// Waiting for the next period
+				long delay = next - System.nanoTime();
+				if(delay > 0) {
+					Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+				}
+				next += period;
+
+				// Mixing the channels
+				for(ChannelMixer mixer : VoiceManager.getForwardingTable().getMixers()) {
+					mixer.mix(m_channel);
+				}
+
+			// The channel was closed by the relay
+			} catch(ClosedChannelException e) {
+				break;
+			} catch(IOException e) {
+				e.printStackTrace();
+			} catch(InterruptedException e) {
+				break;
+			}
+		}
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Voice mixer stopped.");
+
+		// Setting the running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Returns whether the VoiceMixer is running or not.
+	 * @return True if the mixer is running.
+	 */
+	public boolean isRunning() {
+		return m_running;
+	}
+
+	/**
+	 * Signals the VoiceMixer to stop after the current period.
+	 */
+	public void stop() {
+		m_shouldRun = false;
+	}
+
+};
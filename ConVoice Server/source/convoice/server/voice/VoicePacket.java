@@ -0,0 +1,85 @@
+package convoice.server.voice;
+
+
+/**
+ * The VoicePacket class describes the layout of the UDP datagrams
+ * carrying voice frames.
+ * Clients send their voice frames to the relay of the server, which
+ * authenticates the sender with the token received in the connection
+ * accepted message:
+ *
+ *   int userID | long token | int sequence | int timestamp | byte codec | payload
+ *
+ * The relay forwards the datagram to the other users of the sender's
+ * channel. The token is overwritten in place by the ID of the sender,
+ * and the datagram is sent starting at RELAY_OFFSET, so relayed
+ * packets are never copied:
+ *
+ *   int userID | int sequence | int timestamp | byte codec | payload
+ *
+ * In channels in mixing mode the relayed packets carry the mix of the
+ * channel, with the MIXER_ID in place of the ID of the speaker. The
+ * payload is a frame encoded with the codec of the codec ID.
+ *
+ * While a client is silent, it sends a comfort noise marker from time
+ * to time instead of it's frames. Markers have the COMFORT_NOISE_ID in
+ * place of the codec ID, and their payload is the short RMS amplitude
+ * of the background noise. Markers are forwarded like frames.
+ *
+ * Clients may protect their frames with forward error correction, by
+ * setting the FEC_FLAG of the codec ID. The payload then carries the
+ * frame followed by low-bitrate copies of the previous frames, each
+ * with it's distance from the sequence number of the packet:
+ *
+ *   short length | frame | byte count | { byte distance | short length | copy }
+ *
+ * The copies are encoded with the narrowband codec. The relay forwards
+ * these packets untouched, only mixers skip the redundant copies.
+ */
+public class VoicePacket {
+	/** The size of the header of packets sent by clients. */
+	public static final int CLIENT_HEADER_SIZE = 21;
+
+	/** The size of the header of packets relayed by the server. */
+	public static final int RELAY_HEADER_SIZE = 13;
+
+	/** The offset of the relayed packet within a client packet. */
+	public static final int RELAY_OFFSET = CLIENT_HEADER_SIZE - RELAY_HEADER_SIZE;
+
+	/** The offset of the user ID in a client packet. */
+	public static final int USER_ID_OFFSET = 0;
+
+	/** The offset of the token in a client packet. */
+	public static final int TOKEN_OFFSET = 4;
+
+	/** The offset of the codec ID in a client packet. */
+	public static final int CODEC_OFFSET = 20;
+
+	/** The flag of the codec ID set on packets carrying redundant copies. */
+	public static final byte FEC_FLAG = 0x40;
+
+	/** The mask of the codec ID without the flags. */
+	public static final byte CODEC_MASK = 0x3F;
+
+	/** The codec ID of comfort noise markers. */
+	public static final byte COMFORT_NOISE_ID = 127;
+
+	/** The ID sent in packets carrying the mix of a channel. */
+	public static final int MIXER_ID = 0;
+
+	/** The duration of a frame in milliseconds. */
+	public static final int FRAME_DURATION = 20;
+
+	/** The number of samples of a frame. */
+	public static final int FRAME_SAMPLES = 320;
+
+	/** The maximum size of a packet, which fits in a single Ethernet frame. */
+	public static final int MAX_SIZE = 1400;
+
+	/**
+	 * The VoicePacket class only holds constants.
+	 */
+	private VoicePacket() {
+	}
+
+};
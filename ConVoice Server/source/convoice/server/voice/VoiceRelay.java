@@ -0,0 +1,205 @@
+package convoice.server.voice;
+
+
+// Java imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+
+// Project imports
+import convoice.server.channel.ChannelManager;
+import convoice.server.logger.LogManager;
+
+/**
+ * The VoiceRelay class is responsible for forwarding the voice packets
+ * of the users to the other users of their channel.
+ * The relay receives every packet into the same direct buffer, checks
+ * the token of the sender, then rewrites the header in place and sends
+ * the same buffer to each endpoint of the sender's route. The payload
+ * is never inspected or copied, and no memory is allocated per packet.
+ * Packets of users in channels in mixing mode are decoded into the
+ * ChannelMixer of the channel instead of being forwarded. Whether the
+ * packet is a voice frame or a comfort noise marker tells if the sender
+ * is speaking, changes are reported to the ChannelManager.
+ */
+public class VoiceRelay implements Runnable {
+	/** The UDP channel receiving and sending the packets. */
+	private DatagramChannel m_channel;
+
+	/** The running state-flag. */
+	private volatile boolean m_running;
+
+	/** The should run state-flag. */
+	private volatile boolean m_shouldRun;
+
+	/** The number of packets forwarded. */
+	private volatile long m_forwarded;
+
+	/** The number of packets rejected because of an invalid header or token. */
+	private volatile long m_rejected;
+
+	/**
+	 * Constructs a VoiceRelay object.
+	 * @param port The UDP port to receive the packets on.
+	 * @throws IOException If the port could not be bound.
+	 */
+	public VoiceRelay(int port) throws IOException {
+		// Initializing members
+		m_channel = DatagramChannel.open();
+		m_channel.bind(new InetSocketAddress(port));
+		m_running = false;
+		m_shouldRun = false;
+		m_forwarded = 0;
+		m_rejected = 0;
+	}
+
+	/**
+	 * Runs the main loop of the relay. The relay blocks until a packet
+	 * is received, and forwards it to the users of the sender's channel
+	 * whose address is already known. Packets of unknown users or with
+	 * an invalid token are dropped.
+	 */
+	public void run() {
+		// Setting state-flags
+		m_shouldRun = true;
+		m_running = true;
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Voice relay started.");
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(VoicePacket.MAX_SIZE);
+		while(m_shouldRun) {
+			try {
+				// Receiving the packet
+				buffer.clear();
+				SocketAddress source = m_channel.receive(buffer);
+				buffer.flip();
+
+				// Checking the header
+				if(buffer.remaining() < VoicePacket.CLIENT_HEADER_SIZE) {
+					m_rejected++;
+					continue;
+				}
+				byte codec = buffer.get(VoicePacket.CODEC_OFFSET);
+				boolean speaking = codec != VoicePacket.COMFORT_NOISE_ID;
+				if(speaking && CodecType.fromID((byte) (codec & VoicePacket.CODEC_MASK)) == null) {
+					m_rejected++;
+					continue;
+				}
+
+				// Authenticating the sender
+				ForwardingTable table = VoiceManager.getForwardingTable();
+				int index = table.indexOf(buffer.getInt(VoicePacket.USER_ID_OFFSET));
+				if(index < 0 || table.getEndpoint(index).getToken() != buffer.getLong(VoicePacket.TOKEN_OFFSET)) {
+					m_rejected++;
+					continue;
+				}
+
+				// Learning the address of the sender
+				VoiceEndpoint sender = table.getEndpoint(index);
+				if(!source.equals(sender.getAddress())) {
+					sender.setAddress(source);
+				}
+
+				// Reporting when the sender starts or stops speaking
+				if(sender.isSpeaking() != speaking) {
+					sender.setSpeaking(speaking);
+					ChannelManager.setSpeaking(sender.getChannel(), sender.getUserID(), speaking);
+				}
+
+				// Handing the packet to the mixer of the channel
+				ChannelMixer mixer = table.getMixer(index);
+				if(mixer != null) {
+					if(speaking) {
+						mixer.put(sender.getUserID(), buffer);
+					}
+					m_forwarded++;
+					continue;
+				}
+
+				// Replacing the token with the ID of the sender
+				buffer.putInt(VoicePacket.RELAY_OFFSET, sender.getUserID());
+
+				// Forwarding the packet
+				for(VoiceEndpoint target : table.getRoute(index)) {
+					SocketAddress address = target.getAddress();
+					if(target != sender && address != null) {
+						buffer.position(VoicePacket.RELAY_OFFSET);
+						m_channel.send(buffer, address);
+					}
+				}
+				m_forwarded++;
+
+			// The channel was closed by calling stop()
+			} catch(ClosedChannelException e) {
+				break;
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Logging
+		LogManager.addConnectionsLog(Level.INFO, "Voice relay stopped.");
+
+		// Setting the running state-flag
+		m_running = false;
+	}
+
+	/**
+	 * Returns whether the VoiceRelay is running or not.
+	 * @return True if the relay is running.
+	 */
+	public boolean isRunning() {
+		return m_running;
+	}
+
+	/**
+	 * Signals the VoiceRelay to stop. The channel is closed, which
+	 * wakes up the relay if it is blocked in receive().
+	 */
+	public void stop() {
+		try {
+			m_shouldRun = false;
+			m_channel.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the UDP channel of the relay.
+	 * @return The channel receiving and sending the packets.
+	 */
+	public DatagramChannel getChannel() {
+		return m_channel;
+	}
+
+	/**
+	 * Returns the UDP port of the relay.
+	 * @return The local port of the relay.
+	 */
+	public int getPort() {
+		return m_channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the number of packets forwarded.
+	 * @return The number of forwarded packets.
+	 */
+	public long getForwardedCount() {
+		return m_forwarded;
+	}
+
+	/**
+	 * Returns the number of packets rejected.
+	 * @return The number of rejected packets.
+	 */
+	public long getRejectedCount() {
+		return m_rejected;
+	}
+
+};